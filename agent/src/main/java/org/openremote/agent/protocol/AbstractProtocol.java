@@ -332,6 +332,8 @@ public abstract class AbstractProtocol implements Protocol {
             state = new AttributeState(state.getAttributeRef(), value);
         }
         AttributeEvent attributeEvent = new AttributeEvent(state, timestamp);
+        // Order this event after any previous event of the attribute with the same timestamp
+        attributeEvent.setSequence(timerService.nextEventSequence());
         LOG.fine("Sending on sensor queue: " + attributeEvent);
         producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvent, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
     }
@@ -156,8 +156,11 @@ public interface Protocol extends ContainerService {
     // Message topic for communicating from asset/thing to protocol layer (asset attribute changed, trigger actuator)
     String ACTUATOR_TOPIC = "seda://ActuatorTopic?multipleConsumers=true&concurrentConsumers=1&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&limitConcurrentConsumers=false&size=1000";
 
+    // Name of the bounded queue instance in the message broker registry, see OverflowQueue
+    String SENSOR_QUEUE_NAME = "SensorQueue";
+
     // Message queue for communicating from protocol to asset/thing layer (sensor changed, trigger asset attribute update)
-    String SENSOR_QUEUE = "seda://SensorQueue?waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
+    String SENSOR_QUEUE = "seda://SensorQueue?waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=false&blockWhenFull=true&queue=#" + SENSOR_QUEUE_NAME;
 
     /**
      * Get the name for this protocol
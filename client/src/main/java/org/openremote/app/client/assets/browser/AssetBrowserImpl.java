@@ -192,8 +192,9 @@ public class AssetBrowserImpl extends Composite implements AssetBrowser {
             }
         );
 
-        // TODO Page size and paging is not good, do something with onhover autoscroll
-        assetTree.setDefaultNodeSize(1000);
+        // Children are loaded in pages by the presenter, with a node for the next page, the tree shows all loaded
+        // children and doesn't page itself
+        assetTree.setDefaultNodeSize(100000);
 
         assetTree.addStyleName(widgetStyle.RightGradient());
 
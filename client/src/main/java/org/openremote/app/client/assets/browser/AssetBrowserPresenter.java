@@ -25,10 +25,12 @@ import org.openremote.app.client.admin.TenantArrayMapper;
 import org.openremote.app.client.assets.AssetArrayMapper;
 import org.openremote.app.client.assets.AssetMapper;
 import org.openremote.app.client.assets.AssetQueryMapper;
+import org.openremote.app.client.assets.AssetTreePageMapper;
 import org.openremote.model.asset.Asset;
 import org.openremote.model.asset.AssetQuery;
 import org.openremote.model.asset.AssetResource;
 import org.openremote.model.asset.AssetTreeModifiedEvent;
+import org.openremote.model.asset.AssetTreePage;
 import org.openremote.model.event.shared.TenantFilter;
 import org.openremote.model.interop.Consumer;
 import org.openremote.model.security.Tenant;
@@ -45,6 +47,9 @@ public class AssetBrowserPresenter implements AssetBrowser.Presenter {
 
     private static final Logger LOG = Logger.getLogger(AssetBrowserPresenter.class.getName());
 
+    // Children of a tree node are loaded in pages of this size, the next page is loaded with a node after the last child
+    protected static final int CHILDREN_PAGE_SIZE = 100;
+
     final Environment environment;
     final Tenant currentTenant;
     final AssetBrowser view;
@@ -52,6 +57,7 @@ public class AssetBrowserPresenter implements AssetBrowser.Presenter {
     final AssetMapper assetMapper;
     final AssetQueryMapper assetQueryMapper;
     final AssetArrayMapper assetArrayMapper;
+    final AssetTreePageMapper assetTreePageMapper;
     final TenantResource tenantResource;
     final TenantArrayMapper tenantArrayMapper;
 
@@ -67,6 +73,7 @@ public class AssetBrowserPresenter implements AssetBrowser.Presenter {
                                  AssetMapper assetMapper,
                                  AssetQueryMapper assetQueryMapper,
                                  AssetArrayMapper assetArrayMapper,
+                                 AssetTreePageMapper assetTreePageMapper,
                                  TenantResource tenantResource,
                                  TenantArrayMapper tenantArrayMapper) {
         this.environment = environment;
@@ -78,6 +85,7 @@ public class AssetBrowserPresenter implements AssetBrowser.Presenter {
         this.assetMapper = assetMapper;
         this.assetQueryMapper = assetQueryMapper;
         this.assetArrayMapper = assetArrayMapper;
+        this.assetTreePageMapper = assetTreePageMapper;
 
         view.setPresenter(this);
 
@@ -144,6 +152,11 @@ public class AssetBrowserPresenter implements AssetBrowser.Presenter {
 
     @Override
     public void onNodeSelected(BrowserTreeNode treeNode) {
+        if (treeNode instanceof NextPageTreeNode) {
+            NextPageTreeNode nextPageNode = (NextPageTreeNode) treeNode;
+            loadAssetPage(nextPageNode.getParent(), nextPageNode.getDisplay(), nextPageNode.getLoadedChildren(), nextPageNode.getCursor());
+            return;
+        }
         if (treeNode == null) {
             // Reset the selected node
             selectedNode = null;
@@ -237,25 +250,13 @@ public class AssetBrowserPresenter implements AssetBrowser.Presenter {
     }
 
     protected void loadAssets(BrowserTreeNode parent, HasData<BrowserTreeNode> display) {
-        // TODO Pagination?
-        // final Range range = display.getVisibleRange();
-        environment.getApp().getRequests().sendWithAndReturn(
+        if (!(parent instanceof RootTreeNode)) {
+            loadAssetPage(parent, display, new ArrayList<>(), null);
+            return;
+        }
+        environment.getApp().getRequests().sendAndReturn(
             assetArrayMapper,
-            assetQueryMapper,
-            requestParams -> {
-                if (parent instanceof TenantTreeNode) {
-                    assetResource.queryAssets(
-                        requestParams,
-                        new AssetQuery()
-                            .tenant(new AssetQuery.TenantPredicate(parent.getId()))
-                            .parent(new AssetQuery.ParentPredicate(true))
-                    );
-                } else if (parent instanceof RootTreeNode) {
-                    assetResource.getCurrentUserAssets(requestParams);
-                } else {
-                    assetResource.queryAssets(requestParams, new AssetQuery().parent(parent.getId()));
-                }
-            },
+            assetResource::getCurrentUserAssets,
             200,
             assets -> {
                 List<BrowserTreeNode> treeNodes = new ArrayList<>();
@@ -269,6 +270,51 @@ public class AssetBrowserPresenter implements AssetBrowser.Presenter {
         );
     }
 
+    /**
+     * Loads the page of children after the cursor, or the first page if the cursor is <code>null</code>, and shows it
+     * after the already loaded children. If there are more children, a {@link NextPageTreeNode} is shown last.
+     */
+    protected void loadAssetPage(BrowserTreeNode parent,
+                                 HasData<BrowserTreeNode> display,
+                                 List<BrowserTreeNode> loadedChildren,
+                                 String cursor) {
+        environment.getApp().getRequests().sendWithAndReturn(
+            assetTreePageMapper,
+            assetQueryMapper,
+            requestParams -> {
+                AssetQuery query = new AssetQuery().limit(CHILDREN_PAGE_SIZE).cursor(cursor);
+                if (parent instanceof TenantTreeNode) {
+                    query
+                        .tenant(new AssetQuery.TenantPredicate(parent.getId()))
+                        .parent(new AssetQuery.ParentPredicate(true));
+                } else {
+                    query.parent(parent.getId());
+                }
+                assetResource.queryAssetTreePage(requestParams, query);
+            },
+            200,
+            page -> {
+                List<BrowserTreeNode> children = new ArrayList<>(loadedChildren);
+                List<BrowserTreeNode> pageChildren = new ArrayList<>();
+                Asset[] assets = page.getAssets() != null ? page.getAssets() : new Asset[0];
+                for (int i = 0; i < assets.length; i++) {
+                    pageChildren.add(new AssetTreeNode(assets[i], page.getChildCount(i)));
+                }
+                children.addAll(pageChildren);
+
+                List<BrowserTreeNode> rows = new ArrayList<>(children);
+                if (page.getNextCursor() != null) {
+                    rows.add(new NextPageTreeNode(
+                        environment.getMessages().showMoreAssets(), parent, display, children, page.getNextCursor()
+                    ));
+                }
+                display.setRowData(0, rows);
+                display.setRowCount(rows.size(), true);
+                afterNodeLoadChildren(pageChildren);
+            }
+        );
+    }
+
     protected void updateViewSelection(boolean scrollIntoView) {
         // Find the last selected node after a data refresh and select it again
         if (selectedNode != null && selectedNodePath != null) {
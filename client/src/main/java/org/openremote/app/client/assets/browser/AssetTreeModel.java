@@ -52,7 +52,7 @@ class AssetTreeModel implements TreeViewModel {
     public boolean isLeaf(Object value) {
         if (value instanceof BrowserTreeNode) {
             BrowserTreeNode node = (BrowserTreeNode) value;
-            return node.isLeaf();
+            return !node.hasChildren();
         }
         return false;
     }
@@ -24,10 +24,17 @@ import org.openremote.model.asset.Asset;
 public class AssetTreeNode extends BrowserTreeNode {
 
     final protected Asset asset;
+    // Negative if the number of children is not known
+    final protected int childCount;
 
     public AssetTreeNode(Asset asset) {
+        this(asset, -1);
+    }
+
+    public AssetTreeNode(Asset asset, int childCount) {
         super(asset.getName());
         this.asset = asset;
+        this.childCount = childCount;
     }
 
     @Override
@@ -39,6 +46,15 @@ public class AssetTreeNode extends BrowserTreeNode {
         return asset;
     }
 
+    public int getChildCount() {
+        return childCount;
+    }
+
+    @Override
+    public boolean hasChildren() {
+        return childCount != 0;
+    }
+
     @Override
     public boolean isLeaf() {
         return false;
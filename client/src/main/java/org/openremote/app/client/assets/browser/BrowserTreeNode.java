@@ -38,6 +38,14 @@ public abstract class BrowserTreeNode {
         return false;
     }
 
+    /**
+     * @return <code>false</code> if the node is known to have no children and can't be expanded, a node that is
+     * not a leaf may still get children later.
+     */
+    public boolean hasChildren() {
+        return !isLeaf();
+    }
+
     public String getIcon() {
         return "cube";
     }
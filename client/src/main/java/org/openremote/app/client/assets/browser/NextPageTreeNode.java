@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.app.client.assets.browser;
+
+import com.google.gwt.view.client.HasData;
+
+import java.util.List;
+
+/**
+ * The last child of a tree node when there are more children than loaded, selecting it loads the next page of
+ * children into the same display.
+ */
+public class NextPageTreeNode extends LabelTreeNode {
+
+    final protected BrowserTreeNode parent;
+    final protected HasData<BrowserTreeNode> display;
+    final protected List<BrowserTreeNode> loadedChildren;
+    final protected String cursor;
+
+    public NextPageTreeNode(String label, BrowserTreeNode parent, HasData<BrowserTreeNode> display, List<BrowserTreeNode> loadedChildren, String cursor) {
+        super(label);
+        this.parent = parent;
+        this.display = display;
+        this.loadedChildren = loadedChildren;
+        this.cursor = cursor;
+    }
+
+    public BrowserTreeNode getParent() {
+        return parent;
+    }
+
+    public HasData<BrowserTreeNode> getDisplay() {
+        return display;
+    }
+
+    public List<BrowserTreeNode> getLoadedChildren() {
+        return loadedChildren;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public String getIcon() {
+        return "ellipsis-h";
+    }
+}
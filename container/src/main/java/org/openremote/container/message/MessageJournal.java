@@ -0,0 +1,338 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An append-only journal of messages, stored in memory-mapped segment files. Appending a message is a memory copy,
+ * it survives a crash of the process once {@link #append} returns and a crash of the operating system once
+ * {@link #force} has been called. Each appended message must be committed when it no longer has to be
+ * recovered; a segment file is deleted when it is full and all of its messages have been committed.
+ * <p>
+ * When the journal is opened, the messages of existing segment files that were not committed are returned in the
+ * order they were appended, they must be committed as usual once they have been processed again.
+ * <p>
+ * Each record in a segment has a header with the length of the message, the commit state and a CRC32 checksum of
+ * the message. The identifier of a record is the index of its segment file and its offset in the segment, so
+ * committing a record only updates the state in its header.
+ */
+public class MessageJournal {
+
+    private static final Logger LOG = Logger.getLogger(MessageJournal.class.getName());
+
+    public static final String SEGMENT_FILE_PREFIX = "segment-";
+    public static final String SEGMENT_FILE_SUFFIX = ".journal";
+
+    protected static final int RECORD_HEADER_SIZE = 12;
+    protected static final int RECORD_STATE_OFFSET = 4;
+    protected static final int RECORD_CHECKSUM_OFFSET = 8;
+    protected static final int RECORD_STATE_PENDING = 0;
+    protected static final int RECORD_STATE_COMMITTED = 1;
+
+    /**
+     * A message that was not committed before the journal was last closed.
+     */
+    public static class Record {
+
+        final protected long id;
+        final protected byte[] message;
+
+        public Record(long id, byte[] message) {
+            this.id = id;
+            this.message = message;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public byte[] getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                "id=" + id +
+                ", length=" + message.length +
+                '}';
+        }
+    }
+
+    protected static class Segment {
+
+        final protected long index;
+        final protected Path file;
+        final protected MappedByteBuffer buffer;
+        final protected AtomicInteger pendingRecords = new AtomicInteger();
+        protected int position;
+        protected volatile boolean sealed;
+
+        public Segment(long index, Path file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    final protected Path directory;
+    final protected int segmentSize;
+    final protected ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    final protected AtomicLong appendedRecords = new AtomicLong();
+    final protected AtomicLong committedRecords = new AtomicLong();
+    protected Segment currentSegment;
+    protected long nextSegmentIndex = 1;
+    protected boolean open;
+
+    public MessageJournal(Path directory, int segmentSize) {
+        if (segmentSize <= RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("Journal segment size too small: " + segmentSize);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Opens the journal and reads the existing segment files, a record with an invalid checksum (e.g. written
+     * partially before the operating system crashed) ends the records of its segment.
+     *
+     * @return The records that were not committed, in the order they were appended.
+     */
+    public synchronized List<Record> open() throws IOException {
+        if (open)
+            throw new IllegalStateException("Journal already open: " + directory);
+        Files.createDirectories(directory);
+
+        SortedMap<Long, Path> segmentFiles = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                try {
+                    segmentFiles.put(
+                        Long.parseLong(fileName.substring(SEGMENT_FILE_PREFIX.length(), fileName.length() - SEGMENT_FILE_SUFFIX.length())),
+                        file
+                    );
+                } catch (NumberFormatException ex) {
+                    LOG.warning("Ignoring file with invalid journal segment name: " + file);
+                }
+            }
+        }
+
+        List<Record> pendingRecords = new ArrayList<>();
+        for (Map.Entry<Long, Path> segmentFile : segmentFiles.entrySet()) {
+            Segment segment = mapSegment(segmentFile.getKey(), segmentFile.getValue(), Files.size(segmentFile.getValue()));
+            readPendingRecords(segment, pendingRecords);
+            segments.put(segment.index, segment);
+            seal(segment);
+            nextSegmentIndex = segment.index + 1;
+        }
+        open = true;
+        LOG.info("Opened journal with " + pendingRecords.size() + " pending record(s) in " + segments.size() + " segment(s): " + directory);
+        return pendingRecords;
+    }
+
+    /**
+     * @return The identifier of the record, to {@link #commit} the message.
+     */
+    public synchronized long append(byte[] message) throws IOException {
+        if (!open)
+            throw new IllegalStateException("Journal not open: " + directory);
+        if (message.length == 0)
+            throw new IllegalArgumentException("Can't journal empty message");
+        int recordSize = RECORD_HEADER_SIZE + message.length;
+        if (recordSize > segmentSize)
+            throw new IllegalArgumentException("Message of " + message.length + " bytes exceeds journal segment size: " + segmentSize);
+
+        if (currentSegment == null || currentSegment.position + recordSize > segmentSize) {
+            roll();
+        }
+        Segment segment = currentSegment;
+        int offset = segment.position;
+
+        CRC32 checksum = new CRC32();
+        checksum.update(message);
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.put(message);
+        segment.buffer.putInt(offset + RECORD_STATE_OFFSET, RECORD_STATE_PENDING);
+        segment.buffer.putInt(offset + RECORD_CHECKSUM_OFFSET, (int) checksum.getValue());
+        // The length is written last, a record without length ends the records of the segment
+        segment.buffer.putInt(offset, message.length);
+
+        segment.position = offset + recordSize;
+        segment.pendingRecords.incrementAndGet();
+        appendedRecords.incrementAndGet();
+        return segment.index << 32 | offset;
+    }
+
+    /**
+     * Marks the record as committed, committing a record more than once has no effect.
+     */
+    public void commit(long id) {
+        Segment segment = segments.get(id >>> 32);
+        if (segment == null)
+            return;
+        int offset = (int) id;
+        synchronized (segment) {
+            if (segment.buffer.getInt(offset + RECORD_STATE_OFFSET) != RECORD_STATE_PENDING)
+                return;
+            segment.buffer.putInt(offset + RECORD_STATE_OFFSET, RECORD_STATE_COMMITTED);
+        }
+        committedRecords.incrementAndGet();
+        if (segment.pendingRecords.decrementAndGet() == 0 && segment.sealed) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * Writes the appended and committed records of all segments to the storage device.
+     */
+    public void force() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+    }
+
+    public synchronized void close() {
+        if (!open)
+            return;
+        force();
+        segments.clear();
+        currentSegment = null;
+        open = false;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getAppendedRecords() {
+        return appendedRecords.get();
+    }
+
+    public long getCommittedRecords() {
+        return committedRecords.get();
+    }
+
+    public long getPendingRecords() {
+        long pendingRecords = 0;
+        for (Segment segment : segments.values()) {
+            pendingRecords += segment.pendingRecords.get();
+        }
+        return pendingRecords;
+    }
+
+    protected void roll() throws IOException {
+        if (currentSegment != null) {
+            seal(currentSegment);
+        }
+        long index = nextSegmentIndex++;
+        Path file = directory.resolve(String.format("%s%019d%s", SEGMENT_FILE_PREFIX, index, SEGMENT_FILE_SUFFIX));
+        currentSegment = mapSegment(index, file, segmentSize);
+        segments.put(index, currentSegment);
+    }
+
+    protected void seal(Segment segment) {
+        segment.sealed = true;
+        if (segment.pendingRecords.get() == 0) {
+            delete(segment);
+        }
+    }
+
+    protected void delete(Segment segment) {
+        if (!segments.remove(segment.index, segment))
+            return;
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException ex) {
+            LOG.warning("Error deleting journal segment '" + segment.file + "': " + ex);
+        }
+    }
+
+    protected Segment mapSegment(long index, Path file, long size) throws IOException {
+        // The mapping stays valid after the channel is closed, new files are extended and filled with zeros
+        try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            return new Segment(index, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    protected void readPendingRecords(Segment segment, List<Record> pendingRecords) {
+        int size = segment.buffer.capacity();
+        int offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= size) {
+            int length = segment.buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER_SIZE + length > size)
+                break;
+
+            byte[] message = new byte[length];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset + RECORD_HEADER_SIZE);
+            buffer.get(message);
+            CRC32 checksum = new CRC32();
+            checksum.update(message);
+            if ((int) checksum.getValue() != segment.buffer.getInt(offset + RECORD_CHECKSUM_OFFSET)) {
+                LOG.warning("Ignoring invalid record and remaining records of journal segment: " + segment.file);
+                break;
+            }
+
+            if (segment.buffer.getInt(offset + RECORD_STATE_OFFSET) == RECORD_STATE_PENDING) {
+                pendingRecords.add(new Record(segment.index << 32 | offset, message));
+                segment.pendingRecords.incrementAndGet();
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        segment.position = offset;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "directory=" + directory +
+            ", segmentSize=" + segmentSize +
+            ", segments=" + getSegmentCount() +
+            ", appendedRecords=" + getAppendedRecords() +
+            ", committedRecords=" + getCommittedRecords() +
+            ", pendingRecords=" + getPendingRecords() +
+            '}';
+    }
+}
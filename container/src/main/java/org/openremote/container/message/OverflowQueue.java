@@ -0,0 +1,447 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.message;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.Synchronization;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * A bounded queue for SEDA endpoints with a configurable {@link Policy} when the queue is full. Register the
+ * queue in the Camel registry and reference it with the <code>queue=#name</code> option of the endpoint, the
+ * endpoint should also set <code>blockWhenFull=true</code> so producers call {@link #put}.
+ * <p>
+ * When an exchange is discarded by the policy, its handed over completions are notified so that the producer
+ * side isn't left waiting: dropped exchanges fail with an exception, coalesced exchanges complete.
+ * <p>
+ * An optional {@link Listener} is notified before an exchange is added and when an exchange is discarded, for
+ * example to journal pending exchanges. Exchanges removed by {@link #clear} are not discarded, they were pending
+ * when the queue was stopped.
+ */
+public class OverflowQueue extends AbstractQueue<Exchange> implements BlockingQueue<Exchange> {
+
+    private static final Logger LOG = Logger.getLogger(OverflowQueue.class.getName());
+
+    public enum Policy {
+
+        /**
+         * Block the producer until there is room in the queue.
+         */
+        BLOCK,
+
+        /**
+         * Discard the oldest pending exchange to make room for the new exchange.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Replace the latest pending exchange with the same coalescing key with the new exchange; this keeps
+         * the position of the pending exchange in the queue but updates it to the latest value. If there is no
+         * pending exchange with the same key, or the exchange has no key, block the producer.
+         */
+        COALESCE
+    }
+
+    /**
+     * Notified in the producer's thread, outside of the queue lock.
+     */
+    public interface Listener {
+
+        /**
+         * Called before the exchange is added to the queue, an exception rejects the exchange.
+         */
+        void onEnqueue(Exchange exchange);
+
+        /**
+         * Called when the exchange was not added to the queue, or was discarded by the {@link Policy}.
+         */
+        void onDiscard(Exchange exchange);
+    }
+
+    /**
+     * Queue elements are slots so a coalesced exchange can be replaced without changing queue order.
+     */
+    protected static class Slot {
+        protected Exchange exchange;
+        protected Object key;
+
+        public Slot(Exchange exchange, Object key) {
+            this.exchange = exchange;
+            this.key = key;
+        }
+    }
+
+    final protected String name;
+    final protected int capacity;
+    final protected Policy policy;
+    final protected Function<Exchange, Object> coalescingKey;
+    final protected Deque<Slot> slots = new ArrayDeque<>();
+    final protected Map<Object, Slot> latestSlots = new HashMap<>();
+    final protected ReentrantLock lock = new ReentrantLock();
+    final protected Condition notEmpty = lock.newCondition();
+    final protected Condition notFull = lock.newCondition();
+    final protected AtomicLong droppedExchanges = new AtomicLong();
+    final protected AtomicLong coalescedExchanges = new AtomicLong();
+    protected volatile Listener listener;
+
+    /**
+     * @param coalescingKey Returns the key of exchanges that may be replaced by a later exchange with the same
+     *                      key when using {@link Policy#COALESCE}, or <code>null</code> if the exchange must not
+     *                      be replaced (e.g. because a reply is expected).
+     */
+    public OverflowQueue(String name, int capacity, Policy policy, Function<Exchange, Object> coalescingKey) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Queue capacity must be greater than zero: " + capacity);
+        this.name = name;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.coalescingKey = coalescingKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The number of exchanges discarded by {@link Policy#DROP_OLDEST}.
+     */
+    public long getDroppedExchanges() {
+        return droppedExchanges.get();
+    }
+
+    /**
+     * @return The number of exchanges replaced by a later exchange with {@link Policy#COALESCE}.
+     */
+    public long getCoalescedExchanges() {
+        return coalescedExchanges.get();
+    }
+
+    @Override
+    public void put(Exchange exchange) throws InterruptedException {
+        Objects.requireNonNull(exchange);
+        Object key = getCoalescingKey(exchange);
+        notifyEnqueue(exchange);
+        Exchange dropped = null;
+        Exchange coalesced = null;
+        boolean added = false;
+        try {
+            lock.lockInterruptibly();
+            try {
+                while (slots.size() >= capacity) {
+                    if (policy == Policy.DROP_OLDEST) {
+                        dropped = removeFirst().exchange;
+                        droppedExchanges.incrementAndGet();
+                        break;
+                    }
+                    if (policy == Policy.COALESCE && key != null && latestSlots.containsKey(key)) {
+                        Slot slot = latestSlots.get(key);
+                        coalesced = slot.exchange;
+                        slot.exchange = exchange;
+                        coalescedExchanges.incrementAndGet();
+                        added = true;
+                        return;
+                    }
+                    notFull.await();
+                }
+                addLast(exchange, key);
+                added = true;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            if (!added) {
+                notifyDiscard(exchange);
+            }
+            if (dropped != null) {
+                dropped.setException(new IllegalStateException("Exchange dropped from full queue: " + name));
+                discard(dropped, false);
+            }
+            if (coalesced != null) {
+                discard(coalesced, true);
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(Exchange exchange) {
+        Objects.requireNonNull(exchange);
+        Object key = getCoalescingKey(exchange);
+        notifyEnqueue(exchange);
+        boolean added = false;
+        lock.lock();
+        try {
+            if (slots.size() < capacity) {
+                addLast(exchange, key);
+                added = true;
+            }
+        } finally {
+            lock.unlock();
+            if (!added) {
+                notifyDiscard(exchange);
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public boolean offer(Exchange exchange, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(exchange);
+        Object key = getCoalescingKey(exchange);
+        long nanos = unit.toNanos(timeout);
+        notifyEnqueue(exchange);
+        boolean added = false;
+        try {
+            lock.lockInterruptibly();
+            try {
+                while (slots.size() >= capacity) {
+                    if (nanos <= 0)
+                        return false;
+                    nanos = notFull.awaitNanos(nanos);
+                }
+                addLast(exchange, key);
+                added = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            if (!added) {
+                notifyDiscard(exchange);
+            }
+        }
+    }
+
+    @Override
+    public Exchange take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (slots.isEmpty()) {
+                notEmpty.await();
+            }
+            return removeFirst().exchange;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (slots.isEmpty()) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst().exchange;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange poll() {
+        lock.lock();
+        try {
+            return slots.isEmpty() ? null : removeFirst().exchange;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange peek() {
+        lock.lock();
+        try {
+            Slot slot = slots.peekFirst();
+            return slot != null ? slot.exchange : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Exchange> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Exchange> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this)
+            throw new IllegalArgumentException("Can't drain queue to itself");
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && !slots.isEmpty()) {
+                c.add(removeFirst().exchange);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            slots.clear();
+            latestSlots.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return A snapshot of the pending exchanges, removal through the iterator is not supported.
+     */
+    @Override
+    public Iterator<Exchange> iterator() {
+        lock.lock();
+        try {
+            List<Exchange> exchanges = new ArrayList<>(slots.size());
+            for (Slot slot : slots) {
+                exchanges.add(slot.exchange);
+            }
+            return Collections.unmodifiableList(exchanges).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected Object getCoalescingKey(Exchange exchange) {
+        return policy == Policy.COALESCE && coalescingKey != null ? coalescingKey.apply(exchange) : null;
+    }
+
+    protected void addLast(Exchange exchange, Object key) {
+        Slot slot = new Slot(exchange, key);
+        slots.addLast(slot);
+        if (key != null) {
+            latestSlots.put(key, slot);
+        }
+        notEmpty.signal();
+    }
+
+    protected Slot removeFirst() {
+        Slot slot = slots.removeFirst();
+        if (slot.key != null) {
+            latestSlots.remove(slot.key, slot);
+        }
+        notFull.signal();
+        return slot;
+    }
+
+    protected void notifyEnqueue(Exchange exchange) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onEnqueue(exchange);
+        }
+    }
+
+    protected void notifyDiscard(Exchange exchange) {
+        Listener listener = this.listener;
+        if (listener == null)
+            return;
+        try {
+            listener.onDiscard(exchange);
+        } catch (Exception ex) {
+            LOG.fine("Error notifying listener of discarded exchange: " + ex);
+        }
+    }
+
+    protected void discard(Exchange exchange, boolean completed) {
+        LOG.fine("Discarding exchange of queue '" + name + "' with policy " + policy + ": " + exchange);
+        notifyDiscard(exchange);
+        List<Synchronization> completions = exchange.handoverCompletions();
+        if (completions == null)
+            return;
+        for (Synchronization completion : completions) {
+            try {
+                if (completed) {
+                    completion.onComplete(exchange);
+                } else {
+                    completion.onFailure(exchange);
+                }
+            } catch (Exception ex) {
+                LOG.fine("Error notifying completion of discarded exchange: " + ex);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "name='" + name + '\'' +
+            ", policy=" + policy +
+            ", capacity=" + capacity +
+            ", size=" + size() +
+            ", droppedExchanges=" + getDroppedExchanges() +
+            ", coalescedExchanges=" + getCoalescedExchanges() +
+            '}';
+    }
+}
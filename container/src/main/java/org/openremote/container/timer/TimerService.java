@@ -83,6 +83,7 @@ public class TimerService implements ContainerService {
     }
 
     protected Clock clock;
+    final protected AtomicLong eventSequence = new AtomicLong();
 
     @Override
     public void init(Container container) throws Exception {
@@ -110,6 +111,14 @@ public class TimerService implements ContainerService {
         return getClock().getCurrentTimeMillis();
     }
 
+    /**
+     * @return The next value of a sequence that orders events in the order they were created, including events
+     * created within the same millisecond. The sequence starts at 1 and is not persistent.
+     */
+    public long nextEventSequence() {
+        return eventSequence.incrementAndGet();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
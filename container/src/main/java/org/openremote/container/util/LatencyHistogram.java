@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Values are counted in log-linear buckets: each power of two
+ * range is divided into 32 linear sub-buckets, so percentiles are accurate to about 3% of the value, with constant
+ * memory and recording cost.
+ */
+public class LatencyHistogram {
+
+    protected static final int SUB_BUCKET_BITS = 5;
+    protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    protected static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    final protected AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    final protected AtomicLong count = new AtomicLong();
+    final protected AtomicLong total = new AtomicLong();
+    final protected AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(getBucketIndex(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long recorded = count.get();
+        return recorded > 0 ? (double) total.get() / recorded : 0;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return The upper bound of the bucket containing the value at the given percentile, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long recorded = count.get();
+        if (recorded == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    public double getValueAtPercentile(double percentile, TimeUnit unit) {
+        return (double) getValueAtPercentile(percentile) / unit.toNanos(1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    protected static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    protected static long getBucketUpperBound(int index) {
+        int bucket = index / SUB_BUCKET_COUNT;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        if (bucket == 0)
+            return subBucket;
+        long upperBound = ((long) (SUB_BUCKET_COUNT + subBucket + 1) << (bucket - 1)) - 1;
+        return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "count=" + getCount() +
+            ", p50=" + getValueAtPercentile(50) +
+            ", p99=" + getValueAtPercentile(99) +
+            ", max=" + getMaxNanos() +
+            '}';
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.openremote.container.web;
 
+import org.jboss.resteasy.spi.HttpRequest;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.keycloak.KeycloakPrincipal;
 import org.openremote.container.Container;
 import org.openremote.container.security.basic.BasicAuthContext;
@@ -27,6 +29,7 @@ import org.openremote.container.security.AuthContext;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.*;
 
 import java.security.Principal;
@@ -88,6 +91,20 @@ public class WebResource implements AuthContext {
         }
     }
 
+    /**
+     * Suspends the current request, the worker thread is released when the resource method returns and the response
+     * is sent when the returned {@link AsyncResponse} is resumed. This is the same as a {@link javax.ws.rs.container.Suspended}
+     * parameter, for resource interfaces that are shared with clients and can't declare one. If the response isn't
+     * resumed within the timeout, a 503 status is returned.
+     */
+    public AsyncResponse suspendResponse(long timeoutMillis) {
+        HttpRequest httpRequest = ResteasyProviderFactory.getContextData(HttpRequest.class);
+        if (httpRequest == null) {
+            throw new IllegalStateException("No current request, can't suspend response");
+        }
+        return httpRequest.getAsyncContext().suspend(timeoutMillis);
+    }
+
     // Convenience methods
 
     @Override
@@ -26,9 +26,11 @@ import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.message.MessageBrokerSetupService;
+import org.openremote.container.message.OverflowQueue;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.WebService;
+import org.openremote.manager.asset.AssetImport;
 import org.openremote.manager.asset.AssetProcessingService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.asset.ServerAsset;
@@ -53,8 +55,14 @@ import java.util.stream.Stream;
 
 import static org.openremote.agent.protocol.Protocol.ACTUATOR_TOPIC;
 import static org.openremote.agent.protocol.Protocol.SENSOR_QUEUE;
+import static org.openremote.agent.protocol.Protocol.SENSOR_QUEUE_NAME;
+import static org.openremote.agent.protocol.Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.manager.asset.AssetProcessingService.ASSET_QUEUE;
+import static org.openremote.manager.asset.AssetStorageService.ASSET_IMPORT_TOPIC;
+import static org.openremote.manager.asset.AssetRoute.attributeEventCoalescingKey;
 import static org.openremote.manager.asset.AssetRoute.isPersistenceEventForAssetType;
 import static org.openremote.manager.asset.AssetRoute.isPersistenceEventForEntityType;
 import static org.openremote.model.AbstractValueTimestampHolder.VALUE_TIMESTAMP_FIELD_NAME;
@@ -76,6 +84,20 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
 
     private static final Logger LOG = Logger.getLogger(AgentService.class.getName());
 
+    /**
+     * Maximum number of pending sensor updates in the {@link Protocol#SENSOR_QUEUE}.
+     */
+    public static final String SENSOR_QUEUE_SIZE = "SENSOR_QUEUE_SIZE";
+    public static final int SENSOR_QUEUE_SIZE_DEFAULT = 25000;
+
+    /**
+     * What to do when a protocol sends a sensor update and the {@link Protocol#SENSOR_QUEUE} is full, one of
+     * {@link OverflowQueue.Policy}. By default, a pending update of the same attribute is replaced with the
+     * latest value, so protocol I/O threads are not blocked by a slow processing chain.
+     */
+    public static final String SENSOR_QUEUE_OVERFLOW_POLICY = "SENSOR_QUEUE_OVERFLOW_POLICY";
+    public static final String SENSOR_QUEUE_OVERFLOW_POLICY_DEFAULT = OverflowQueue.Policy.COALESCE.name();
+
     protected TimerService timerService;
     protected ManagerIdentityService identityService;
     protected AssetProcessingService assetProcessingService;
@@ -87,6 +109,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
     protected final List<AttributeRef> linkedAttributes = new ArrayList<>();
     protected LocalAgentConnector localAgentConnector;
     protected Map<String, Asset> agentMap;
+    protected OverflowQueue sensorQueue;
 
     @Override
     public void init(Container container) throws Exception {
@@ -98,6 +121,17 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
         clientEventService = container.getService(ClientEventService.class);
         localAgentConnector = new LocalAgentConnector(this);
 
+        sensorQueue = new OverflowQueue(
+            SENSOR_QUEUE_NAME,
+            getInteger(container.getConfig(), SENSOR_QUEUE_SIZE, SENSOR_QUEUE_SIZE_DEFAULT),
+            OverflowQueue.Policy.valueOf(
+                getString(container.getConfig(), SENSOR_QUEUE_OVERFLOW_POLICY, SENSOR_QUEUE_OVERFLOW_POLICY_DEFAULT).toUpperCase(Locale.ROOT)
+            ),
+            attributeEventCoalescingKey(SENSOR_QUEUE_SOURCE_PROTOCOL)
+        );
+        LOG.info("Using sensor queue: " + sensorQueue);
+        container.getService(MessageBrokerSetupService.class).getContext().getRegistry().put(SENSOR_QUEUE_NAME, sensorQueue);
+
         clientEventService.addSubscriptionAuthorizer((auth, subscription) ->
             subscription.isEventType(AgentStatusEvent.class)
                 && identityService.getIdentityProvider()
@@ -148,6 +182,9 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
                 .filter(ProtocolConfiguration::isProtocolConfiguration)
                 .forEach(this::linkProtocolConfiguration);
         }
+
+        // Pending sensor events of the last run can be validated now that protocol configurations are linked
+        assetProcessingService.replayAttributeEventJournal();
     }
 
     @Override
@@ -175,6 +212,27 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
                 }
             });
 
+        // Imported assets have no persistence events, link imported agents and then attributes as for inserted assets
+        from(ASSET_IMPORT_TOPIC)
+            .routeId("AgentAssetImports")
+            .process(exchange -> {
+                AssetImport assetImport = exchange.getIn().getBody(AssetImport.class);
+                for (String agentId : assetImport.getAgentIds()) {
+                    ServerAsset agent = assetStorageService.find(agentId, true);
+                    if (agent != null) {
+                        processAgentChange(agent, new PersistenceEvent<>(PersistenceEvent.Cause.INSERT, agent, new String[0], new Object[0]));
+                    }
+                }
+                for (String assetId : assetImport.getAgentLinkAssetIds()) {
+                    if (assetImport.getAgentIds().contains(assetId))
+                        continue;
+                    ServerAsset asset = assetStorageService.find(assetId, true);
+                    if (asset != null) {
+                        processAssetChange(asset, new PersistenceEvent<>(PersistenceEvent.Cause.INSERT, asset, new String[0], new Object[0]));
+                    }
+                }
+            });
+
         // A protocol wants to write a new sensor value
         from(SENSOR_QUEUE)
             .routeId("FromSensorUpdates")
@@ -183,6 +241,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
             .to(ASSET_QUEUE);
     }
 
+    /**
+     * @return The pending sensor updates, with counters of dropped and coalesced updates.
+     */
+    public OverflowQueue getSensorQueue() {
+        return sensorQueue;
+    }
+
     /**
      * This should only be called by protocol implementations to request an update to
      * one of their own protocol configuration attributes.
@@ -195,7 +260,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
         }
 
         AttributeRef protocolRef = protocolConfiguration.getReference().get();
-        ServerAsset agent = assetStorageService.find(protocolRef.getEntityId(), true);
+        ServerAsset agent = assetStorageService.findCached(protocolRef.getEntityId());
         if (agent == null || agent.getWellKnownType() != AssetType.AGENT || !agent.hasAttribute(protocolRef.getAttributeName())) {
             LOG.warning("Protocol configuration doesn't belong to a valid agent: " + protocolConfiguration);
             return;
@@ -231,7 +296,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
         updatedAsset.setId(asset.getId());
 
         if (options != null && (options.getIgnoredAttributeNames() != null || options.getIgnoredAttributeKeys() != null)) {
-            ServerAsset existingAsset = assetStorageService.find(updatedAsset.getId(), true);
+            ServerAsset existingAsset = assetStorageService.findCached(updatedAsset.getId());
             if (existingAsset != null) {
                 // Check if any attributes except the ignored ones were modified
                 List<AssetAttribute> existingAttributes = existingAsset.getAttributesList();
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.model.http.RequestParams;
+import org.openremote.model.http.SuccessStatusCode;
+
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.*;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+/**
+ * Bulk transfer of assets as newline-delimited JSON, one asset document per line. Only the superuser may import
+ * and export assets.
+ * <p>
+ * The documents have the same fields as a serialized asset: <code>id</code>, <code>name</code>, <code>type</code>,
+ * <code>parentId</code>, <code>realmId</code>, <code>accessPublicRead</code>, <code>createdOn</code>,
+ * <code>coordinates</code>, and <code>attributes</code>. Exported documents are ordered so parents are
+ * before their children, and can be imported again in a different installation.
+ */
+@Path("asset/bulk")
+public interface AssetBulkResource {
+
+    String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /**
+     * Imports new assets in one transaction: if any document is invalid, or an asset already exists, no asset is
+     * imported and the errors are returned. Parents may be in the import, documents can be in any order.
+     */
+    @POST
+    @Path("import")
+    @Consumes({APPLICATION_NDJSON, "text/plain"})
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"write:assets"})
+    AssetImportResult importAssets(@BeanParam RequestParams requestParams, InputStream documents);
+
+    /**
+     * Exports the assets of a realm, or of all realms, the response is written as assets are read from the
+     * database.
+     */
+    @GET
+    @Path("export")
+    @Produces(APPLICATION_NDJSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:assets"})
+    StreamingOutput exportAssets(@BeanParam RequestParams requestParams, @QueryParam("realmId") String realmId);
+}
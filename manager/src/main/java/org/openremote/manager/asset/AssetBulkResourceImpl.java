@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.security.ManagerIdentityService;
+import org.openremote.manager.web.ManagerWebResource;
+import org.openremote.model.http.RequestParams;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+import java.util.logging.Logger;
+
+import static javax.ws.rs.core.Response.Status.*;
+import static org.openremote.model.util.TextUtil.isNullOrEmpty;
+
+public class AssetBulkResourceImpl extends ManagerWebResource implements AssetBulkResource {
+
+    private static final Logger LOG = Logger.getLogger(AssetBulkResourceImpl.class.getName());
+
+    protected final AssetStorageService assetStorageService;
+
+    public AssetBulkResourceImpl(TimerService timerService,
+                                 ManagerIdentityService identityService,
+                                 AssetStorageService assetStorageService) {
+        super(timerService, identityService);
+        this.assetStorageService = assetStorageService;
+    }
+
+    @Override
+    public AssetImportResult importAssets(RequestParams requestParams, InputStream documents) {
+        if (!isSuperUser()) {
+            throw new WebApplicationException(FORBIDDEN);
+        }
+        try {
+            AssetImportResult result = assetStorageService.importAssets(documents);
+            LOG.fine("Asset import by '" + getUsername() + "': " + result);
+            return result;
+        } catch (IllegalStateException ex) {
+            throw new WebApplicationException(ex, BAD_REQUEST);
+        }
+    }
+
+    @Override
+    public StreamingOutput exportAssets(RequestParams requestParams, String realmId) {
+        if (!isSuperUser()) {
+            throw new WebApplicationException(FORBIDDEN);
+        }
+        if (!isNullOrEmpty(realmId) && identityService.getIdentityProvider().getTenantForRealmId(realmId) == null) {
+            throw new WebApplicationException(NOT_FOUND);
+        }
+        return output -> assetStorageService.exportAssets(isNullOrEmpty(realmId) ? null : realmId, output);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.model.value.ObjectValue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded cache of completely loaded {@link ServerAsset}s, the least recently used asset is removed when the cache is
+ * full. The cached instances are never handed out or modified, an update replaces the cached instance with a
+ * modified copy.
+ * <p>
+ * An asset loaded from the database is only cached if it wasn't updated or evicted while it was loaded, otherwise
+ * the loaded instance might be older than the stored state. Callers obtain a {@link #getStamp} before loading and
+ * pass it to {@link #put}, the stamp changes when the asset is updated or any asset is evicted. Updates are tracked
+ * in a fixed number of stripes, an update of another asset in the same stripe only prevents caching of a concurrently
+ * loaded asset, it never makes the cache stale.
+ * <p>
+ * The cached descendants of each asset are indexed, so an eviction removes the asset and its descendants without
+ * scanning the cache.
+ */
+public class AssetCache {
+
+    protected static final int STAMP_STRIPES = 1024;
+
+    final protected int maxSize;
+    final protected LinkedHashMap<String, ServerAsset> assets;
+    // Identifiers of the cached descendants of an asset
+    final protected Map<String, Set<String>> descendants = new HashMap<>();
+    final protected long[] updateStamps = new long[STAMP_STRIPES];
+    protected long evictionStamp;
+
+    public AssetCache(int maxSize) {
+        this.maxSize = Math.max(maxSize, 1);
+        this.assets = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized ServerAsset get(String assetId) {
+        return assets.get(assetId);
+    }
+
+    /**
+     * @return The stamp of the asset, must be obtained before the asset is loaded from the database.
+     */
+    public synchronized long getStamp(String assetId) {
+        return evictionStamp + updateStamps[getStripe(assetId)];
+    }
+
+    /**
+     * Caches the loaded asset if it wasn't updated or evicted after the stamp was obtained, and if the cache doesn't
+     * already have a newer instance.
+     *
+     * @return <code>true</code> if the asset was cached.
+     */
+    public synchronized boolean put(ServerAsset asset, long stamp) {
+        if (getStamp(asset.getId()) != stamp)
+            return false;
+        ServerAsset cachedAsset = assets.get(asset.getId());
+        if (cachedAsset != null && cachedAsset.getVersion() > asset.getVersion())
+            return false;
+        if (cachedAsset != null) {
+            removeDescendant(cachedAsset);
+        }
+        assets.put(asset.getId(), asset);
+        addDescendant(asset);
+        removeLeastRecentlyUsed();
+        return true;
+    }
+
+    /**
+     * Replaces the attribute of the cached asset, if the asset is cached and has the attribute.
+     */
+    public void update(String assetId, String attributeName, ObjectValue attribute) {
+        ServerAsset cachedAsset;
+        synchronized (this) {
+            updateStamps[getStripe(assetId)]++;
+            cachedAsset = assets.get(assetId);
+        }
+        if (cachedAsset == null || !cachedAsset.hasAttribute(attributeName))
+            return;
+
+        // Copy-on-write outside of the lock, readers might be copying the cached instance concurrently
+        ServerAsset updatedAsset = ServerAsset.copy(cachedAsset);
+        updatedAsset.getAttributes().put(attributeName, attribute.deepCopy());
+
+        synchronized (this) {
+            // Replace only the instance we copied, if it was replaced or evicted in the meantime the asset
+            // is loaded again on the next access
+            if (assets.get(assetId) == cachedAsset) {
+                assets.put(assetId, updatedAsset);
+            } else {
+                remove(assetId);
+            }
+        }
+    }
+
+    /**
+     * Removes the asset and all of its cached descendants, their path and parent details might be affected.
+     */
+    public synchronized void evict(String assetId) {
+        evictionStamp++;
+        Set<String> descendantIds = descendants.get(assetId);
+        if (descendantIds != null) {
+            for (String descendantId : descendantIds.toArray(new String[descendantIds.size()])) {
+                remove(descendantId);
+            }
+        }
+        remove(assetId);
+    }
+
+    public synchronized void clear() {
+        evictionStamp++;
+        assets.clear();
+        descendants.clear();
+    }
+
+    public synchronized int size() {
+        return assets.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    protected void remove(String assetId) {
+        ServerAsset asset = assets.remove(assetId);
+        if (asset != null) {
+            removeDescendant(asset);
+        }
+    }
+
+    protected void removeLeastRecentlyUsed() {
+        Iterator<ServerAsset> it = assets.values().iterator();
+        while (assets.size() > maxSize && it.hasNext()) {
+            ServerAsset asset = it.next();
+            it.remove();
+            removeDescendant(asset);
+        }
+    }
+
+    protected void addDescendant(ServerAsset asset) {
+        String[] path = asset.getPath();
+        if (path == null)
+            return;
+        // The first element of the path is the asset itself
+        for (int i = 1; i < path.length; i++) {
+            descendants.computeIfAbsent(path[i], id -> new HashSet<>()).add(asset.getId());
+        }
+    }
+
+    protected void removeDescendant(ServerAsset asset) {
+        String[] path = asset.getPath();
+        if (path == null)
+            return;
+        for (int i = 1; i < path.length; i++) {
+            Set<String> descendantIds = descendants.get(path[i]);
+            if (descendantIds != null) {
+                descendantIds.remove(asset.getId());
+                if (descendantIds.isEmpty()) {
+                    descendants.remove(path[i]);
+                }
+            }
+        }
+    }
+
+    protected int getStripe(String assetId) {
+        return Math.floorMod(assetId.hashCode(), STAMP_STRIPES);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "{" +
+            "size=" + assets.size() +
+            ", maxSize=" + maxSize +
+            '}';
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Published on {@link AssetStorageService#ASSET_IMPORT_TOPIC} after imported assets have been committed. Imported
+ * assets are not stored through the persistence context, so there are no persistence events for them; this
+ * notification lists the imported assets other services have to handle, instead of one event per asset.
+ */
+public class AssetImport {
+
+    final protected Set<String> realmIds = new LinkedHashSet<>();
+    final protected List<String> agentIds = new ArrayList<>();
+    final protected List<String> agentLinkAssetIds = new ArrayList<>();
+    final protected List<String> ruleStateAssetIds = new ArrayList<>();
+    protected int assetCount;
+
+    /**
+     * @return The realms with imported assets.
+     */
+    public Set<String> getRealmIds() {
+        return realmIds;
+    }
+
+    /**
+     * @return The imported agent assets, in tree order.
+     */
+    public List<String> getAgentIds() {
+        return agentIds;
+    }
+
+    /**
+     * @return The imported assets with attributes linked to an agent.
+     */
+    public List<String> getAgentLinkAssetIds() {
+        return agentLinkAssetIds;
+    }
+
+    /**
+     * @return The imported assets with rule state attributes.
+     */
+    public List<String> getRuleStateAssetIds() {
+        return ruleStateAssetIds;
+    }
+
+    public int getAssetCount() {
+        return assetCount;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "assetCount=" + assetCount +
+            ", realmIds=" + realmIds +
+            ", agents=" + agentIds.size() +
+            ", agentLinkAssets=" + agentLinkAssetIds.size() +
+            ", ruleStateAssets=" + ruleStateAssetIds.size() +
+            '}';
+    }
+}
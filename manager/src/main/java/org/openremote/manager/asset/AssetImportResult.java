@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of an asset import: either all assets were imported, or none and the validation errors of the
+ * import documents are listed.
+ */
+public class AssetImportResult {
+
+    protected int imported;
+    protected List<String> errors = new ArrayList<>();
+
+    public AssetImportResult() {
+    }
+
+    public AssetImportResult(int imported, List<String> errors) {
+        this.imported = imported;
+        this.errors = errors;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    /**
+     * @return The validation errors with the line number of the invalid document, a limited number of errors is
+     * reported.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "imported=" + imported +
+            ", errors=" + errors.size() +
+            '}';
+    }
+}
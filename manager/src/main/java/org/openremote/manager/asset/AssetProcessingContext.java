@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.openremote.agent.protocol.Protocol;
+import org.openremote.container.security.AuthContext;
+import org.openremote.model.Constants;
+import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.asset.AssetState;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeEvent.Source;
+
+import static org.openremote.manager.asset.AssetRoute.HEADER_ASSET_ACCESS_VERIFIED;
+import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
+
+/**
+ * Carries an {@link AttributeEvent} and what has been resolved for it through the steps of the processing chain.
+ * The message headers of the exchange are read once when the context is created, the steps then only access
+ * fields of the context.
+ */
+public class AssetProcessingContext {
+
+    final protected AttributeEvent event;
+    final protected Source source;
+    final protected AuthContext authContext;
+    final protected boolean assetAccessVerified;
+    final protected String protocolName;
+    protected ServerAsset asset;
+    protected AssetAttribute attribute;
+    protected AssetState assetState;
+
+    public AssetProcessingContext(AttributeEvent event, Source source, AuthContext authContext, boolean assetAccessVerified, String protocolName) {
+        this.event = event;
+        this.source = source;
+        this.authContext = authContext;
+        this.assetAccessVerified = assetAccessVerified;
+        this.protocolName = protocolName;
+    }
+
+    /**
+     * Read the event and the headers of the exchange, type conversion is only used if the body or source header
+     * doesn't have the expected type.
+     */
+    public static AssetProcessingContext of(Exchange exchange) {
+        Message message = exchange.getIn();
+        Object body = message.getBody();
+        Object source = message.getHeader(HEADER_SOURCE);
+        Object authContext = message.getHeader(Constants.AUTH_CONTEXT);
+        Object protocolName = message.getHeader(Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL);
+        return new AssetProcessingContext(
+            body instanceof AttributeEvent ? (AttributeEvent) body : message.getBody(AttributeEvent.class),
+            source instanceof Source || source == null ? (Source) source : message.getHeader(HEADER_SOURCE, Source.class),
+            authContext instanceof AuthContext ? (AuthContext) authContext : null,
+            Boolean.TRUE.equals(message.getHeader(HEADER_ASSET_ACCESS_VERIFIED)),
+            protocolName instanceof String ? (String) protocolName : null
+        );
+    }
+
+    public AttributeEvent getEvent() {
+        return event;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public AuthContext getAuthContext() {
+        return authContext;
+    }
+
+    /**
+     * @return <code>true</code> if the realm and restricted user access to the asset has been checked before the event was sent.
+     */
+    public boolean isAssetAccessVerified() {
+        return assetAccessVerified;
+    }
+
+    /**
+     * @return The name of the protocol that sent a {@link Source#SENSOR} event.
+     */
+    public String getProtocolName() {
+        return protocolName;
+    }
+
+    public ServerAsset getAsset() {
+        return asset;
+    }
+
+    public void setAsset(ServerAsset asset) {
+        this.asset = asset;
+    }
+
+    public AssetAttribute getAttribute() {
+        return attribute;
+    }
+
+    public void setAttribute(AssetAttribute attribute) {
+        this.attribute = attribute;
+    }
+
+    public AssetState getAssetState() {
+        return assetState;
+    }
+
+    public void setAssetState(AssetState assetState) {
+        this.assetState = assetState;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "event=" + event +
+            ", source=" + source +
+            ", protocolName='" + protocolName + '\'' +
+            ", assetAccessVerified=" + assetAccessVerified +
+            ", assetState=" + assetState +
+            '}';
+    }
+}
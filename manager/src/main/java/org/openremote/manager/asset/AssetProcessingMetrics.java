@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.apache.camel.Exchange;
+import org.openremote.container.util.LatencyHistogram;
+import org.openremote.model.asset.AssetProcessingException;
+import org.openremote.model.asset.ProcessingStageStatistics;
+import org.openremote.model.asset.WriterStatistics;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Latency histograms, throughput and error counts of the asset attribute event processing chain. The queue wait
+ * is the time from creation of the exchange, when the event was sent, until a processing lane starts processing
+ * the event; it includes the time spent in the sensor, asset, and processing lane queues. The statistics of the
+ * batching writers used by the processors are collected by the writers since startup, they are not reset.
+ */
+public class AssetProcessingMetrics implements AssetProcessingMetricsMXBean {
+
+    public static final String OBJECT_NAME = "org.openremote.manager:type=AssetProcessing";
+
+    public static class Stage {
+
+        final protected String name;
+        final protected LatencyHistogram histogram = new LatencyHistogram();
+        final protected AtomicLong errors = new AtomicLong();
+        protected long sampledEvents;
+        protected long sampledTimestamp = System.currentTimeMillis();
+        protected volatile double eventsPerSecond;
+
+        public Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+
+        public void recordError() {
+            errors.incrementAndGet();
+        }
+
+        protected synchronized void sample() {
+            long now = System.currentTimeMillis();
+            long events = histogram.getCount();
+            if (now > sampledTimestamp) {
+                eventsPerSecond = Math.max(events - sampledEvents, 0) * 1000d / (now - sampledTimestamp);
+            }
+            sampledEvents = events;
+            sampledTimestamp = now;
+        }
+
+        protected synchronized void reset() {
+            histogram.reset();
+            errors.set(0);
+            sampledEvents = 0;
+            eventsPerSecond = 0;
+        }
+
+        public ProcessingStageStatistics getStatistics() {
+            return new ProcessingStageStatistics(
+                name,
+                histogram.getCount(),
+                errors.get(),
+                eventsPerSecond,
+                histogram.getValueAtPercentile(50, TimeUnit.MILLISECONDS),
+                histogram.getValueAtPercentile(99, TimeUnit.MILLISECONDS),
+                (double) histogram.getMaxNanos() / TimeUnit.MILLISECONDS.toNanos(1)
+            );
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                "name='" + name + '\'' +
+                ", histogram=" + histogram +
+                ", errors=" + errors +
+                ", eventsPerSecond=" + String.format("%.1f", eventsPerSecond) +
+                '}';
+        }
+    }
+
+    final protected Stage queueWait = new Stage("Queue wait");
+    final protected Stage validation = new Stage("Validation");
+    final protected Stage[] processorStages;
+    final protected Map<AssetProcessingException.Reason, AtomicLong> errors = new EnumMap<>(AssetProcessingException.Reason.class);
+    final protected List<Supplier<WriterStatistics>> writers = new CopyOnWriteArrayList<>();
+
+    public AssetProcessingMetrics(List<String> processorNames) {
+        processorStages = new Stage[processorNames.size()];
+        for (int i = 0; i < processorStages.length; i++) {
+            processorStages[i] = new Stage(processorNames.get(i));
+        }
+        for (AssetProcessingException.Reason reason : AssetProcessingException.Reason.values()) {
+            errors.put(reason, new AtomicLong());
+        }
+    }
+
+    public Stage getValidationStage() {
+        return validation;
+    }
+
+    /**
+     * @return The stage of the processor, or <code>null</code> if the processor was added after the metrics were
+     * created.
+     */
+    public Stage getProcessorStage(int index) {
+        return index < processorStages.length ? processorStages[index] : null;
+    }
+
+    /**
+     * @param writer Returns the statistics of the writer, or <code>null</code> if the writer is not available.
+     */
+    public void addWriter(Supplier<WriterStatistics> writer) {
+        writers.add(writer);
+    }
+
+    public void recordQueueWait(Exchange exchange) {
+        Date created = exchange.getProperty(Exchange.CREATED_TIMESTAMP, Date.class);
+        if (created != null) {
+            queueWait.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - created.getTime()));
+        }
+    }
+
+    public void recordError(AssetProcessingException.Reason reason) {
+        if (reason != null) {
+            errors.get(reason).incrementAndGet();
+        }
+    }
+
+    /**
+     * Calculate the throughput of each stage since the last call.
+     */
+    public void sample() {
+        queueWait.sample();
+        validation.sample();
+        for (Stage stage : processorStages) {
+            stage.sample();
+        }
+    }
+
+    @Override
+    public ProcessingStageStatistics getQueueWait() {
+        return queueWait.getStatistics();
+    }
+
+    /**
+     * @return The validation stage followed by the stages of the processors, in processing order.
+     */
+    @Override
+    public ProcessingStageStatistics[] getStages() {
+        ProcessingStageStatistics[] stages = new ProcessingStageStatistics[processorStages.length + 1];
+        stages[0] = validation.getStatistics();
+        for (int i = 0; i < processorStages.length; i++) {
+            stages[i + 1] = processorStages[i].getStatistics();
+        }
+        return stages;
+    }
+
+    @Override
+    public WriterStatistics[] getWriters() {
+        List<WriterStatistics> result = new ArrayList<>(writers.size());
+        for (Supplier<WriterStatistics> writer : writers) {
+            WriterStatistics statistics = writer.get();
+            if (statistics != null) {
+                result.add(statistics);
+            }
+        }
+        return result.toArray(new WriterStatistics[result.size()]);
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        getErrorsByReason().forEach((reason, count) -> result.put(reason.name(), count));
+        return result;
+    }
+
+    public Map<AssetProcessingException.Reason, Long> getErrorsByReason() {
+        Map<AssetProcessingException.Reason, Long> result = new EnumMap<>(AssetProcessingException.Reason.class);
+        errors.forEach((reason, count) -> result.put(reason, count.get()));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        queueWait.reset();
+        validation.reset();
+        for (Stage stage : processorStages) {
+            stage.reset();
+        }
+        errors.values().forEach(count -> count.set(0));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "queueWait=" + queueWait +
+            ", validation=" + validation +
+            ", processorStages=" + Arrays.toString(processorStages) +
+            ", errors=" + getErrors() +
+            ", writers=" + Arrays.toString(getWriters()) +
+            '}';
+    }
+}
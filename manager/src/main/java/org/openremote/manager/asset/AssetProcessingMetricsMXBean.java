@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.model.asset.ProcessingStageStatistics;
+import org.openremote.model.asset.WriterStatistics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link AssetProcessingMetrics}.
+ */
+public interface AssetProcessingMetricsMXBean {
+
+    ProcessingStageStatistics getQueueWait();
+
+    ProcessingStageStatistics[] getStages();
+
+    Map<String, Long> getErrors();
+
+    WriterStatistics[] getWriters();
+
+    void reset();
+}
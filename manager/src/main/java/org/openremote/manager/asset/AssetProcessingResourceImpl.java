@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.container.message.OverflowQueue;
+import org.openremote.container.web.WebResource;
+import org.openremote.manager.agent.AgentService;
+import org.openremote.model.asset.AssetProcessingResource;
+import org.openremote.model.asset.AssetProcessingStatistics;
+import org.openremote.model.http.RequestParams;
+
+import javax.ws.rs.BeanParam;
+
+public class AssetProcessingResourceImpl extends WebResource implements AssetProcessingResource {
+
+    final protected AssetProcessingService assetProcessingService;
+    final protected AgentService agentService;
+
+    public AssetProcessingResourceImpl(AssetProcessingService assetProcessingService, AgentService agentService) {
+        this.assetProcessingService = assetProcessingService;
+        this.agentService = agentService;
+    }
+
+    @Override
+    public AssetProcessingStatistics getStatistics(@BeanParam RequestParams requestParams) {
+        AssetProcessingMetrics metrics = assetProcessingService.getMetrics();
+        OverflowQueue assetQueue = assetProcessingService.getAssetQueue();
+        OverflowQueue sensorQueue = agentService.getSensorQueue();
+        return new AssetProcessingStatistics(
+            metrics.getQueueWait(),
+            metrics.getStages(),
+            metrics.getErrorsByReason(),
+            assetQueue.size(),
+            sensorQueue.size(),
+            assetQueue.getDroppedExchanges() + sensorQueue.getDroppedExchanges(),
+            assetQueue.getCoalescedExchanges() + sensorQueue.getCoalescedExchanges(),
+            metrics.getWriters()
+        );
+    }
+
+    @Override
+    public void resetStatistics(@BeanParam RequestParams requestParams) {
+        assetProcessingService.getMetrics().reset();
+    }
+}
@@ -21,14 +21,21 @@ package org.openremote.manager.asset;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.apache.camel.support.SynchronizationAdapter;
 import org.openremote.agent.protocol.Protocol;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.message.MessageBrokerSetupService;
+import org.openremote.container.message.MessageJournal;
+import org.openremote.container.message.OverflowQueue;
+import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
+import org.openremote.container.web.WebService;
 import org.openremote.manager.agent.AgentService;
+import org.openremote.manager.concurrent.ManagerExecutorService;
 import org.openremote.manager.datapoint.AssetDatapointService;
 import org.openremote.manager.event.ClientEventService;
 import org.openremote.manager.rules.RulesService;
@@ -41,12 +48,23 @@ import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.attribute.AttributeEvent.Source;
 import org.openremote.model.security.ClientRole;
 
-import java.util.ArrayList;
-import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.openremote.container.util.MapAccess.getBoolean;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.util.MapAccess.getString;
+import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.manager.asset.AssetRoute.*;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
@@ -73,7 +91,9 @@ import static org.openremote.model.attribute.AttributeEvent.Source.INTERNAL;
  * {@link AssetProcessingException.Reason}.
  * <p>
  * Once successfully validated the event is converted into an {@link AssetState} message which is then passed through
- * the processing chain of consumers.
+ * the processing chain of consumers. Sensor and internal events that don't change the attribute value are dropped
+ * before the processing chain if the attribute has {@link AssetMeta#CHANGE_ONLY} or if
+ * {@link #ATTRIBUTE_EVENT_CHANGE_ONLY} is enabled.
  * <p>
  * The regular processing chain is:
  * <ul>
@@ -123,14 +143,171 @@ import static org.openremote.model.attribute.AttributeEvent.Source.INTERNAL;
  * <p>
  * Checks if attribute is {@link AssetAttribute#isStoreDatapoints()}, and if so the {@link AttributeEvent} is stored
  * is stored in a time series of historical data. Then allows the message to continue if the commit was successful.
+ * <h2>Processing lanes</h2>
+ * <p>
+ * Events are consumed from the {@link #ASSET_QUEUE} in order and assigned to one of {@link #ASSET_PROCESSING_LANES}
+ * by hashing the asset identifier. Each lane validates its events and runs the processing chain in a single thread,
+ * so events of the same asset are always processed in order, while events of different assets are processed in
+ * parallel. With one lane, all events are processed in order of arrival. Events with the same timestamp are
+ * ordered by their ingress sequence, events sent without a sequence are sequenced when they are consumed from the
+ * {@link #ASSET_QUEUE}. A full lane blocks the consumer of the
+ * {@link #ASSET_QUEUE}, so a slow asset holds back the events of all lanes until its lane has room again.
+ * <p>
+ * The {@link #ASSET_QUEUE} and {@link Protocol#SENSOR_QUEUE} are bounded, when processing falls behind and a queue
+ * is full the configured {@link OverflowQueue.Policy} either blocks the sender, drops the oldest pending event, or
+ * replaces the pending event of the same attribute with the latest value.
+ * <p>
+ * Pending events are lost when the manager stops, unless {@link #ATTRIBUTE_EVENT_JOURNAL_DIR} is configured: sensor and
+ * internal events are then written to an {@link AttributeEventJournal} before they are accepted by the queues, and
+ * replayed on startup if the processing chain was not done with them.
  */
 public class AssetProcessingService extends RouteBuilder implements ContainerService {
 
     private static final Logger LOG = Logger.getLogger(AssetProcessingService.class.getName());
 
-    // TODO: Some of these options should be configurable depending on expected load etc.
+    // Name of the bounded queue instance in the message broker registry, see OverflowQueue
+    public static final String ASSET_QUEUE_NAME = "AssetQueue";
+
     // Message topic for communicating individual asset attribute changes
-    public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
+    public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&blockWhenFull=true&queue=#" + ASSET_QUEUE_NAME;
+
+    /**
+     * Maximum number of pending events in the {@link #ASSET_QUEUE}.
+     */
+    public static final String ASSET_QUEUE_SIZE = "ASSET_QUEUE_SIZE";
+    public static final int ASSET_QUEUE_SIZE_DEFAULT = 25000;
+
+    /**
+     * What to do when an event is sent and the {@link #ASSET_QUEUE} is full, one of {@link OverflowQueue.Policy}.
+     * Events sent by a caller waiting for a reply are never coalesced.
+     */
+    public static final String ASSET_QUEUE_OVERFLOW_POLICY = "ASSET_QUEUE_OVERFLOW_POLICY";
+    public static final String ASSET_QUEUE_OVERFLOW_POLICY_DEFAULT = OverflowQueue.Policy.BLOCK.name();
+
+    /**
+     * Number of lanes processing asset attribute events in parallel, the events of an asset are always processed
+     * in the same lane.
+     */
+    public static final String ASSET_PROCESSING_LANES = "ASSET_PROCESSING_LANES";
+    public static final int ASSET_PROCESSING_LANES_DEFAULT = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+
+    /**
+     * Maximum number of pending events in each processing lane. When a lane is full, the consumer of the
+     * {@link #ASSET_QUEUE} waits until the lane has room, so pending events back up in the {@link #ASSET_QUEUE}
+     * where the {@link #ASSET_QUEUE_OVERFLOW_POLICY} applies. Keep this small compared to {@link #ASSET_QUEUE_SIZE}.
+     */
+    public static final String ASSET_PROCESSING_LANE_QUEUE_SIZE = "ASSET_PROCESSING_LANE_QUEUE_SIZE";
+    public static final int ASSET_PROCESSING_LANE_QUEUE_SIZE_DEFAULT = 1000;
+
+    /**
+     * Ignore sensor and internal attribute events that don't change the value of the attribute, unless disabled
+     * on the attribute with {@link AssetMeta#CHANGE_ONLY}.
+     */
+    public static final String ATTRIBUTE_EVENT_CHANGE_ONLY = "ATTRIBUTE_EVENT_CHANGE_ONLY";
+    public static final boolean ATTRIBUTE_EVENT_CHANGE_ONLY_DEFAULT = false;
+
+    /**
+     * Directory of the {@link AttributeEventJournal} of pending sensor and internal events, the journal is disabled
+     * if not set.
+     */
+    public static final String ATTRIBUTE_EVENT_JOURNAL_DIR = "ATTRIBUTE_EVENT_JOURNAL_DIR";
+    public static final String ATTRIBUTE_EVENT_JOURNAL_DIR_DEFAULT = null;
+
+    /**
+     * Size in bytes of the memory-mapped segment files of the {@link AttributeEventJournal}.
+     */
+    public static final String ATTRIBUTE_EVENT_JOURNAL_SEGMENT_SIZE = "ATTRIBUTE_EVENT_JOURNAL_SEGMENT_SIZE";
+    public static final int ATTRIBUTE_EVENT_JOURNAL_SEGMENT_SIZE_DEFAULT = 16 * 1024 * 1024;
+
+    /**
+     * Maximum number of client events sent with {@link #processClientEventAsync} that are pending at the same time,
+     * further events are rejected until processing catches up.
+     */
+    public static final String ASYNC_CLIENT_EVENTS_MAX_PENDING = "ASYNC_CLIENT_EVENTS_MAX_PENDING";
+    public static final int ASYNC_CLIENT_EVENTS_MAX_PENDING_DEFAULT = 5000;
+
+    /**
+     * Maximum number of client events sent in batches with {@link #processClientEvents} that are pending at the same
+     * time. Batches don't take from {@link #ASYNC_CLIENT_EVENTS_MAX_PENDING}, so they can't starve single writes.
+     */
+    public static final String ASYNC_CLIENT_BATCH_EVENTS_MAX_PENDING = "ASYNC_CLIENT_BATCH_EVENTS_MAX_PENDING";
+    public static final int ASYNC_CLIENT_BATCH_EVENTS_MAX_PENDING_DEFAULT = 5000;
+
+    /**
+     * Maximum number of client events in one batch of {@link #processClientEvents}, larger batches are rejected.
+     */
+    public static final String ASYNC_CLIENT_BATCH_MAX_SIZE = "ASYNC_CLIENT_BATCH_MAX_SIZE";
+    public static final int ASYNC_CLIENT_BATCH_MAX_SIZE_DEFAULT = 1000;
+
+    protected static final String HEADER_PROCESSING_LANE = AssetProcessingService.class.getName() + ".PROCESSING_LANE";
+
+    /**
+     * A lane of the processing chain, with its pending event queue and throughput statistics.
+     */
+    public static class ProcessingLane {
+
+        final protected int index;
+        final protected String endpointUri;
+        final protected AtomicLong processedEvents = new AtomicLong();
+        protected SedaEndpoint endpoint;
+        protected long sampledEvents;
+        protected long sampledTimestamp = System.currentTimeMillis();
+        protected volatile double eventsPerSecond;
+
+        public ProcessingLane(int index, int queueSize) {
+            this.index = index;
+            this.endpointUri = "seda://AssetProcessingLane" + index
+                + "?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&blockWhenFull=true&size=" + queueSize;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getEndpointUri() {
+            return endpointUri;
+        }
+
+        public int getQueueSize() {
+            return endpoint != null ? endpoint.getCurrentQueueSize() : 0;
+        }
+
+        public long getProcessedEvents() {
+            return processedEvents.get();
+        }
+
+        /**
+         * @return The throughput of this lane in the last sampling period.
+         */
+        public double getEventsPerSecond() {
+            return eventsPerSecond;
+        }
+
+        protected synchronized void sample() {
+            long now = System.currentTimeMillis();
+            long events = processedEvents.get();
+            if (now > sampledTimestamp) {
+                eventsPerSecond = (events - sampledEvents) * 1000d / (now - sampledTimestamp);
+            }
+            sampledEvents = events;
+            sampledTimestamp = now;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                "index=" + index +
+                ", queueSize=" + getQueueSize() +
+                ", processedEvents=" + getProcessedEvents() +
+                ", eventsPerSecond=" + String.format("%.1f", getEventsPerSecond()) +
+                '}';
+        }
+    }
+
+    protected static final int PROCESSING_LANE_SAMPLE_INTERVAL_MILLIS = 10000;
+    protected static final int JOURNAL_FORCE_INTERVAL_MILLIS = 1000;
+    // Subdirectory of the journal directory with the events that failed in the processing chain
+    protected static final String ATTRIBUTE_EVENT_JOURNAL_FAILED_DIR = "failed";
 
     protected TimerService timerService;
     protected ManagerIdentityService identityService;
@@ -141,10 +318,21 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     protected AssetAttributeLinkingService assetAttributeLinkingService;
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
+    protected ManagerExecutorService executorService;
     // Used in testing to detect if initial/startup processing has completed
-    protected long lastProcessedEventTimestamp = System.currentTimeMillis();
+    protected volatile long lastProcessedEventTimestamp = System.currentTimeMillis();
 
     final protected List<Consumer<AssetState>> processors = new ArrayList<>();
+    final protected List<ProcessingLane> processingLanes = new ArrayList<>();
+    protected OverflowQueue assetQueue;
+    protected AssetProcessingMetrics metrics;
+    protected AttributeEventJournal attributeEventJournal;
+    protected boolean changeOnly;
+    final protected AttributeEventSequences attributeEventSequences = new AttributeEventSequences();
+    protected long sampledDiscardedEvents;
+    protected Semaphore asyncClientEventPermits;
+    protected Semaphore asyncClientBatchEventPermits;
+    protected int asyncClientBatchMaxSize;
 
     @Override
     public void init(Container container) throws Exception {
@@ -157,6 +345,48 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         assetAttributeLinkingService = container.getService(AssetAttributeLinkingService.class);
         messageBrokerService = container.getService(MessageBrokerService.class);
         clientEventService = container.getService(ClientEventService.class);
+        executorService = container.getService(ManagerExecutorService.class);
+
+        assetQueue = new OverflowQueue(
+            ASSET_QUEUE_NAME,
+            getInteger(container.getConfig(), ASSET_QUEUE_SIZE, ASSET_QUEUE_SIZE_DEFAULT),
+            OverflowQueue.Policy.valueOf(
+                getString(container.getConfig(), ASSET_QUEUE_OVERFLOW_POLICY, ASSET_QUEUE_OVERFLOW_POLICY_DEFAULT).toUpperCase(Locale.ROOT)
+            ),
+            attributeEventCoalescingKey(HEADER_SOURCE)
+        );
+        LOG.info("Using asset queue: " + assetQueue);
+        container.getService(MessageBrokerSetupService.class).getContext().getRegistry().put(ASSET_QUEUE_NAME, assetQueue);
+
+        String journalDir = getString(container.getConfig(), ATTRIBUTE_EVENT_JOURNAL_DIR, ATTRIBUTE_EVENT_JOURNAL_DIR_DEFAULT);
+        if (journalDir != null && !journalDir.isEmpty()) {
+            int segmentSize = getInteger(container.getConfig(), ATTRIBUTE_EVENT_JOURNAL_SEGMENT_SIZE, ATTRIBUTE_EVENT_JOURNAL_SEGMENT_SIZE_DEFAULT);
+            attributeEventJournal = new AttributeEventJournal(
+                new MessageJournal(Paths.get(journalDir), segmentSize),
+                new MessageJournal(Paths.get(journalDir, ATTRIBUTE_EVENT_JOURNAL_FAILED_DIR), segmentSize)
+            );
+            attributeEventJournal.open();
+            assetQueue.setListener(attributeEventJournal.getQueueListener(INTERNAL));
+        }
+
+        asyncClientEventPermits = new Semaphore(Math.max(
+            getInteger(container.getConfig(), ASYNC_CLIENT_EVENTS_MAX_PENDING, ASYNC_CLIENT_EVENTS_MAX_PENDING_DEFAULT), 1
+        ));
+        asyncClientBatchEventPermits = new Semaphore(Math.max(
+            getInteger(container.getConfig(), ASYNC_CLIENT_BATCH_EVENTS_MAX_PENDING, ASYNC_CLIENT_BATCH_EVENTS_MAX_PENDING_DEFAULT), 1
+        ));
+        asyncClientBatchMaxSize = Math.max(
+            getInteger(container.getConfig(), ASYNC_CLIENT_BATCH_MAX_SIZE, ASYNC_CLIENT_BATCH_MAX_SIZE_DEFAULT), 1
+        );
+
+        changeOnly = getBoolean(container.getConfig(), ATTRIBUTE_EVENT_CHANGE_ONLY, ATTRIBUTE_EVENT_CHANGE_ONLY_DEFAULT);
+
+        int lanes = Math.max(getInteger(container.getConfig(), ASSET_PROCESSING_LANES, ASSET_PROCESSING_LANES_DEFAULT), 1);
+        int laneQueueSize = getInteger(container.getConfig(), ASSET_PROCESSING_LANE_QUEUE_SIZE, ASSET_PROCESSING_LANE_QUEUE_SIZE_DEFAULT);
+        for (int i = 0; i < lanes; i++) {
+            processingLanes.add(new ProcessingLane(i, laneQueueSize));
+        }
+        LOG.info("Processing asset attribute events in lanes: " + lanes);
 
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
             if (!subscription.isEventType(AttributeEvent.class)) {
@@ -205,22 +435,91 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         processors.add(assetDatapointService);
         processors.add(assetAttributeLinkingService);
 
+        List<String> processorNames = new ArrayList<>();
+        for (Consumer<AssetState> processor : processors) {
+            processorNames.add(processor.getClass().getSimpleName());
+        }
+        metrics = new AssetProcessingMetrics(processorNames);
+        metrics.addWriter(() -> assetStorageService.getAttributeValueWriter() != null
+            ? assetStorageService.getAttributeValueWriter().getStatistics()
+            : null);
+        metrics.addWriter(() -> assetDatapointService.getDatapointWriter() != null
+            ? assetDatapointService.getDatapointWriter().getStatistics()
+            : null);
+
+        container.getService(WebService.class).getApiSingletons().add(
+            new AssetProcessingResourceImpl(this, agentService)
+        );
+
         container.getService(MessageBrokerSetupService.class).getContext().addRoutes(this);
     }
 
     @Override
     public void start(Container container) throws Exception {
+        OverflowQueue sensorQueue = agentService.getSensorQueue();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName metricsName = new ObjectName(AssetProcessingMetrics.OBJECT_NAME);
+        if (mBeanServer.isRegistered(metricsName)) {
+            mBeanServer.unregisterMBean(metricsName);
+        }
+        mBeanServer.registerMBean(metrics, metricsName);
 
+        if (attributeEventJournal != null) {
+            if (sensorQueue != null) {
+                sensorQueue.setListener(attributeEventJournal.getQueueListener(Source.SENSOR));
+            }
+            executorService.scheduleAtFixedRate(
+                attributeEventJournal::force, JOURNAL_FORCE_INTERVAL_MILLIS, JOURNAL_FORCE_INTERVAL_MILLIS
+            );
+        }
+
+        executorService.scheduleAtFixedRate(() -> {
+            processingLanes.forEach(ProcessingLane::sample);
+            metrics.sample();
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Processing lanes: " + processingLanes);
+                LOG.fine("Processing metrics: " + metrics);
+                if (attributeEventJournal != null) {
+                    LOG.fine("Attribute event journal: " + attributeEventJournal);
+                }
+            }
+            long discardedEvents = assetQueue.getDroppedExchanges() + assetQueue.getCoalescedExchanges();
+            if (sensorQueue != null) {
+                discardedEvents += sensorQueue.getDroppedExchanges() + sensorQueue.getCoalescedExchanges();
+            }
+            if (discardedEvents > sampledDiscardedEvents) {
+                LOG.warning("Processing is falling behind, events were dropped or coalesced: " + assetQueue + ", " + sensorQueue);
+            }
+            sampledDiscardedEvents = discardedEvents;
+        }, PROCESSING_LANE_SAMPLE_INTERVAL_MILLIS, PROCESSING_LANE_SAMPLE_INTERVAL_MILLIS);
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName metricsName = new ObjectName(AssetProcessingMetrics.OBJECT_NAME);
+        if (mBeanServer.isRegistered(metricsName)) {
+            mBeanServer.unregisterMBean(metricsName);
+        }
+        if (attributeEventJournal != null) {
+            attributeEventJournal.close();
+        }
     }
 
     @Override
     public void configure() throws Exception {
 
+        // Forget the event sequences of deleted assets
+        from(PERSISTENCE_TOPIC)
+            .routeId("AssetProcessingPersistenceChanges")
+            .filter(isPersistenceEventForEntityType(Asset.class))
+            .process(exchange -> {
+                PersistenceEvent persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                if (persistenceEvent.getCause() == PersistenceEvent.Cause.DELETE) {
+                    attributeEventSequences.remove(((Asset) persistenceEvent.getEntity()).getId());
+                }
+            });
+
         // A client wants to write attribute state through event bus
         from(CLIENT_EVENT_TOPIC)
             .routeId("FromClientUpdates")
@@ -253,23 +552,68 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
           - Do we want JMS/AMQP/WSS or SOME_API/MQTT/WSS? ActiveMQ or Moquette?
         */
+        // Assign events to processing lanes, preserving the order of events for each asset (exchanges
+        // expecting a reply, such as web service writes, wait for their lane to complete processing)
         from(ASSET_QUEUE)
             .routeId("AssetUpdates")
             .filter(body().isInstanceOf(AttributeEvent.class))
-            .doTry()
-            .process(extractAttributeEventDetails(assetStorageService))
-            .process(validateAttributeEvent())
-            .choice()
-            .when(header(HEADER_SOURCE).isEqualTo(CLIENT))
-            .process(validateAttributeEventFromClient(assetStorageService, identityService))
-            .when(header(HEADER_SOURCE).isEqualTo(Source.SENSOR))
-            .process(validateAttributeEventFromSensor(agentService))
-            .end()
-            .process(buildAssetState(timerService))
-            .process(this::processAssetState)
-            .endDoTry()
-            .doCatch(AssetProcessingException.class)
-            .process(handleAssetProcessingException(LOG));
+            .process(exchange -> {
+                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+                // Events sent without ingress sequence (e.g. client writes) are sequenced in order of arrival
+                if (event.getSequence() <= 0) {
+                    event.setSequence(timerService.nextEventSequence());
+                }
+                exchange.getIn().setHeader(HEADER_PROCESSING_LANE, getProcessingLane(event.getEntityId()).getEndpointUri());
+            })
+            .toD("${header." + HEADER_PROCESSING_LANE + "}");
+
+        for (ProcessingLane processingLane : processingLanes) {
+            from(processingLane.getEndpointUri())
+                .routeId("AssetUpdates-" + processingLane.getIndex())
+                .process(exchange -> processAttributeEvent(processingLane, exchange));
+
+            processingLane.endpoint = getContext().getEndpoint(processingLane.getEndpointUri(), SedaEndpoint.class);
+        }
+    }
+
+    /**
+     * @return The pending events, with counters of dropped and coalesced events.
+     */
+    public OverflowQueue getAssetQueue() {
+        return assetQueue;
+    }
+
+    /**
+     * @return The journal of pending events, or <code>null</code> if not enabled.
+     */
+    public AttributeEventJournal getAttributeEventJournal() {
+        return attributeEventJournal;
+    }
+
+    /**
+     * Sends the events of the journal that were not processed before the last shutdown to the {@link #ASSET_QUEUE}.
+     * Must be called once, after the protocol configurations are linked so sensor events can be validated.
+     */
+    public void replayAttributeEventJournal() {
+        if (attributeEventJournal == null)
+            return;
+        int replayed = attributeEventJournal.replay(messageBrokerService.getProducerTemplate(), ASSET_QUEUE, timerService);
+        if (replayed > 0) {
+            LOG.info("Replayed pending attribute events of journal: " + replayed);
+        }
+    }
+
+    public AssetProcessingMetrics getMetrics() {
+        return metrics;
+    }
+
+    public List<ProcessingLane> getProcessingLanes() {
+        return Collections.unmodifiableList(processingLanes);
+    }
+
+    protected ProcessingLane getProcessingLane(String assetId) {
+        int hash = assetId != null ? assetId.hashCode() : 0;
+        return processingLanes.get(Math.floorMod(hash, processingLanes.size()));
     }
 
     /**
@@ -283,40 +627,216 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         if (attributeEvent.getTimestamp() <= 0) {
             attributeEvent.setTimestamp(timerService.getCurrentTimeMillis());
         }
+        // Set ingress sequence if not already set
+        if (attributeEvent.getSequence() <= 0) {
+            attributeEvent.setSequence(timerService.nextEventSequence());
+        }
         messageBrokerService.getProducerTemplate().sendBodyAndHeader(ASSET_QUEUE, attributeEvent, HEADER_SOURCE, source);
     }
 
+    /**
+     * Send a client event to the {@link #ASSET_QUEUE} without waiting for it to be processed. The result is completed
+     * when processing is done, exceptionally with an {@link AssetProcessingException} if validation fails, with an
+     * {@link AttributeEventProcessingException} if a processor of the chain or the preparation of the event failed,
+     * with the error as cause, or with a
+     * {@link RejectedExecutionException} if the event was not processed because too many events are pending, see
+     * {@link #ASYNC_CLIENT_EVENTS_MAX_PENDING}, or it was dropped from a full queue. Pending events of the same
+     * attribute are never coalesced.
+     */
+    public CompletableFuture<Void> processClientEventAsync(AuthContext authContext, AttributeEvent event) {
+        return processClientEventAsync(authContext, event, false, asyncClientEventPermits);
+    }
+
+    /**
+     * Process a batch of client events without waiting for them to be processed, each event is sent like
+     * {@link #processClientEventAsync} but counts towards {@link #ASYNC_CLIENT_BATCH_EVENTS_MAX_PENDING}. The events go
+     * through the {@link #ASSET_QUEUE} in the given order, so the events of each asset are processed in order while
+     * the events of different assets are processed in parallel lanes. The caller must have verified that the realm of
+     * each asset is accessible and, if the user is restricted, that each asset is linked to the user; the remaining
+     * (attribute) access checks are done for every event.
+     *
+     * @return The result of each event, in the order given. A failed event doesn't affect the other events.
+     * @throws IllegalArgumentException If the batch has more events than {@link #getAsyncClientBatchMaxSize}.
+     */
+    public List<CompletableFuture<Void>> processClientEvents(AuthContext authContext, List<AttributeEvent> events) {
+        if (events.size() > asyncClientBatchMaxSize)
+            throw new IllegalArgumentException(
+                "Batch has more client events than allowed: " + events.size() + " > " + asyncClientBatchMaxSize
+            );
+        List<CompletableFuture<Void>> results = new ArrayList<>(events.size());
+        for (AttributeEvent event : events) {
+            results.add(processClientEventAsync(authContext, event, true, asyncClientBatchEventPermits));
+        }
+        return results;
+    }
+
+    /**
+     * @return The maximum number of client events in a batch of {@link #processClientEvents}, see
+     * {@link #ASYNC_CLIENT_BATCH_MAX_SIZE}.
+     */
+    public int getAsyncClientBatchMaxSize() {
+        return asyncClientBatchMaxSize;
+    }
+
+    protected CompletableFuture<Void> processClientEventAsync(AuthContext authContext,
+                                                              AttributeEvent event,
+                                                              boolean assetAccessVerified,
+                                                              Semaphore permits) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (!permits.tryAcquire()) {
+            result.completeExceptionally(new RejectedExecutionException("Too many pending client events"));
+            return result;
+        }
+        result.whenComplete((success, failure) -> permits.release());
+
+        messageBrokerService.getProducerTemplate().send(ASSET_QUEUE, exchange -> {
+            exchange.getIn().setBody(event);
+            exchange.getIn().setHeader(HEADER_SOURCE, CLIENT);
+            exchange.getIn().setHeader(Constants.AUTH_CONTEXT, authContext);
+            if (assetAccessVerified) {
+                exchange.getIn().setHeader(HEADER_ASSET_ACCESS_VERIFIED, true);
+            }
+            exchange.setProperty(PROPERTY_PROCESSING_RESULT, result);
+            // Completes the result if the event was not processed, e.g. dropped from a full queue
+            exchange.addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                public void onComplete(Exchange exchange) {
+                    result.complete(null);
+                }
+
+                @Override
+                public void onFailure(Exchange exchange) {
+                    RejectedExecutionException ex = new RejectedExecutionException("Client event was not processed: " + event);
+                    if (exchange.getException() != null) {
+                        ex.initCause(exchange.getException());
+                    }
+                    result.completeExceptionally(ex);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Validates the event of the exchange and converts it into an {@link AssetState} for the processing chain. The
+     * headers of the exchange are read once into an {@link AssetProcessingContext}, which then carries the event
+     * through the validation steps. If validation fails, the {@link AssetProcessingException} is logged and set as
+     * the out message body for senders expecting a reply. The {@link AssetRoute#PROPERTY_PROCESSING_RESULT} of the
+     * exchange is completed exceptionally if validation, a processor of the chain, or anything else failed. A journaled event is
+     * committed when processing is done; if it failed for any other reason than validation, it is moved to the
+     * journal of failed events.
+     */
+    protected void processAttributeEvent(ProcessingLane processingLane, Exchange exchange) {
+        processingLane.processedEvents.incrementAndGet();
+        metrics.recordQueueWait(exchange);
+        long startTime = System.nanoTime();
+
+        AssetProcessingContext context = AssetProcessingContext.of(exchange);
+        boolean processingFailed = false;
+        AssetProcessingException validationFailure = null;
+        Throwable processingError = null;
+        try {
+            try {
+                extractAttributeEventDetails(assetStorageService, context);
+                validateAttributeEvent(context);
+                if (context.getSource() == CLIENT) {
+                    validateAttributeEventFromClient(assetStorageService, identityService, context);
+                } else if (context.getSource() == Source.SENSOR) {
+                    validateAttributeEventFromSensor(agentService, context);
+                }
+                if (!buildAssetState(timerService, attributeEventSequences, changeOnly, context))
+                    return;
+            } catch (AssetProcessingException ex) {
+                metrics.getValidationStage().recordError();
+                metrics.recordError(ex.getReason());
+                handleAssetProcessingException(LOG, context, ex);
+                // Make the exception available if MEP is InOut
+                exchange.getOut().setBody(ex);
+                validationFailure = ex;
+                return;
+            }
+            metrics.getValidationStage().record(System.nanoTime() - startTime);
+
+            processAssetState(context.getAssetState());
+            if (context.getAssetState().getProcessingStatus() != AssetState.ProcessingStatus.ERROR) {
+                attributeEventSequences.applied(context.getEvent());
+            } else {
+                processingFailed = true;
+            }
+        } catch (Throwable t) {
+            // E.g. the asset could not be loaded because the database isn't available, the event may succeed later
+            processingFailed = true;
+            processingError = t;
+            throw t;
+        } finally {
+            // Invalid events are committed, they will not become valid when replayed
+            if (attributeEventJournal != null) {
+                attributeEventJournal.processed(exchange, processingFailed);
+            }
+            CompletableFuture<?> result = exchange.getProperty(PROPERTY_PROCESSING_RESULT, CompletableFuture.class);
+            if (result != null) {
+                if (validationFailure != null) {
+                    result.completeExceptionally(validationFailure);
+                } else if (processingFailed) {
+                    result.completeExceptionally(new AttributeEventProcessingException(
+                        context.getEvent(), processingError != null ? processingError : context.getAssetState().getError()
+                    ));
+                } else {
+                    result.complete(null);
+                }
+            }
+        }
+    }
+
     /**
      * This deals with single {@link AssetState} and pushes them through the chain where each
      * consumer is given the opportunity to consume the event or allow its progress to the next
      * consumer, see {@link AssetState.ProcessingStatus}.
      */
-    protected void processAssetState(Exchange exchange) {
-        AssetState assetState = exchange.getIn().getHeader(HEADER_ASSET_STATE, AssetState.class);
-        LOG.fine(">>> Processing start: " + assetState);
+    protected void processAssetState(AssetState assetState) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine(">>> Processing start: " + assetState);
+        }
         // Need to record time here otherwise an infinite loop generated inside one of the processors means the timestamp
         // is not updated so tests can't then detect the problem.
         lastProcessedEventTimestamp = System.currentTimeMillis();
         processorLoop:
-        for (Consumer<AssetState> processor : processors) {
+        for (int i = 0; i < processors.size(); i++) {
+            Consumer<AssetState> processor = processors.get(i);
+            // Processors added after startup (e.g. in tests) don't have a stage
+            AssetProcessingMetrics.Stage stage = metrics.getProcessorStage(i);
+            long startTime = System.nanoTime();
             try {
-                LOG.finest("==> Processor " + processor + " accepts: " + assetState);
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.finest("==> Processor " + processor + " accepts: " + assetState);
+                }
                 processor.accept(assetState);
             } catch (Throwable t) {
                 LOG.log(Level.SEVERE, "!!! Processor " + processor + " threw an exception whilst consuming: " + assetState, t);
                 assetState.setProcessingStatus(AssetState.ProcessingStatus.ERROR);
                 assetState.setError(t);
+            } finally {
+                if (stage != null) {
+                    stage.record(System.nanoTime() - startTime);
+                }
+            }
+            if (stage != null && assetState.getProcessingStatus() == AssetState.ProcessingStatus.ERROR) {
+                stage.recordError();
             }
 
             switch (assetState.getProcessingStatus()) {
                 case COMPLETED:
-                    LOG.finest("<== Processor " + processor + " finally handled: " + assetState);
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("<== Processor " + processor + " finally handled: " + assetState);
+                    }
                     break processorLoop;
                 case ERROR:
                     LOG.log(Level.SEVERE, "<== Processor " + processor + " error: " + assetState, assetState.getError());
                     break processorLoop;
                 default:
-                    LOG.finest("<== Processor " + processor + " done with: " + assetState);
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("<== Processor " + processor + " done with: " + assetState);
+                    }
             }
         }
         if (assetState.getProcessingStatus() != AssetState.ProcessingStatus.ERROR) {
@@ -326,7 +846,9 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
                 assetState.getId(), assetState.getAttributeName(), assetState.getValue(), timerService.getCurrentTimeMillis()
             ));
         }
-        LOG.fine("<<< Processing complete: " + assetState);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("<<< Processing complete: " + assetState);
+        }
     }
 
     @Override
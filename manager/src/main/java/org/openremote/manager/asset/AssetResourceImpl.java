@@ -20,17 +20,18 @@
 package org.openremote.manager.asset;
 
 import org.openremote.container.message.MessageBrokerService;
+import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.manager.web.ManagerWebResource;
 import org.openremote.model.asset.AssetProcessingException;
 import org.openremote.model.asset.AssetResource;
 import org.openremote.model.security.Tenant;
-import org.openremote.model.Constants;
 import org.openremote.model.asset.BaseAssetQuery.Select;
 import org.openremote.model.asset.*;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.attribute.AttributeWriteResult;
 import org.openremote.model.attribute.Meta;
 import org.openremote.model.attribute.MetaItem;
 import org.openremote.model.http.RequestParams;
@@ -40,14 +41,18 @@ import org.openremote.model.value.ValueException;
 import org.openremote.model.value.Values;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 import static javax.ws.rs.core.Response.Status.*;
 import static org.openremote.container.Container.JSON;
 import static org.openremote.model.asset.AssetQuery.*;
-import static org.openremote.model.attribute.AttributeEvent.Source.CLIENT;
 import static org.openremote.model.util.TextUtil.isNullOrEmpty;
 
 public class AssetResourceImpl extends ManagerWebResource implements AssetResource {
@@ -55,15 +60,22 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
     private static final Logger LOG = Logger.getLogger(AssetResourceImpl.class.getName());
 
     protected final static Asset[] EMPTY_ASSETS = new Asset[0];
+    protected final static long WRITE_ATTRIBUTE_VALUE_TIMEOUT_MILLIS = 10000;
+    protected final static long WRITE_ATTRIBUTE_VALUES_TIMEOUT_MILLIS = 30000;
+    protected final static int QUERY_PAGE_LIMIT_DEFAULT = 1000;
+    protected final static int QUERY_PAGE_LIMIT_MAX = 10000;
     protected final AssetStorageService assetStorageService;
+    protected final AssetProcessingService assetProcessingService;
     protected final MessageBrokerService messageBrokerService;
 
     public AssetResourceImpl(TimerService timerService,
                              ManagerIdentityService identityService,
                              AssetStorageService assetStorageService,
+                             AssetProcessingService assetProcessingService,
                              MessageBrokerService messageBrokerService) {
         super(timerService, identityService);
         this.assetStorageService = assetStorageService;
+        this.assetProcessingService = assetProcessingService;
         this.messageBrokerService = messageBrokerService;
     }
 
@@ -317,50 +329,154 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
 
     @Override
     public void writeAttributeValue(RequestParams requestParams, String assetId, String attributeName, String rawJson) {
+        Value value;
         try {
-            try {
-                Value value = Values.instance()
-                    .parse(rawJson)
-                    .orElse(null); // When parsing literal JSON "null"
+            value = Values.instance()
+                .parse(rawJson)
+                .orElse(null); // When parsing literal JSON "null"
+        } catch (ValueException ex) {
+            throw new WebApplicationException(new IllegalStateException("Error parsing JSON", ex), BAD_REQUEST);
+        }
 
-                AttributeEvent event = new AttributeEvent(
-                    new AttributeRef(assetId, attributeName), value, timerService.getCurrentTimeMillis()
-                );
+        AttributeEvent event = new AttributeEvent(
+            new AttributeRef(assetId, attributeName), value, timerService.getCurrentTimeMillis()
+        );
 
-                // Process asynchronously but block for a little while waiting for the result
-                Map<String, Object> headers = new HashMap<>();
-                headers.put(AttributeEvent.HEADER_SOURCE, CLIENT);
-                headers.put(Constants.AUTH_CONTEXT, getAuthContext());
-                Object result = messageBrokerService.getProducerTemplate().requestBodyAndHeaders(
-                    AssetProcessingService.ASSET_QUEUE, event, headers
-                );
+        // Don't block the worker thread while the event is processed, the response is sent when processing is done
+        AuthContext authContext = getAuthContext();
+        AsyncResponse asyncResponse = suspendResponse(WRITE_ATTRIBUTE_VALUE_TIMEOUT_MILLIS);
+        assetProcessingService.processClientEventAsync(authContext, event).whenComplete((result, failure) -> {
+            if (failure == null) {
+                asyncResponse.resume(Response.noContent().build());
+            } else {
+                asyncResponse.resume(toWebApplicationException(failure));
+            }
+        });
+    }
+
+    protected Throwable toWebApplicationException(Throwable failure) {
+        if (failure instanceof RejectedExecutionException) {
+            return new WebApplicationException(failure, SERVICE_UNAVAILABLE);
+        }
+        if (failure instanceof AttributeEventProcessingException) {
+            return new WebApplicationException(failure, INTERNAL_SERVER_ERROR);
+        }
+        if (!(failure instanceof AssetProcessingException)) {
+            return failure;
+        }
+        AssetProcessingException processingException = (AssetProcessingException) failure;
+        switch (processingException.getReason()) {
+            case ILLEGAL_SOURCE:
+            case NO_AUTH_CONTEXT:
+            case INSUFFICIENT_ACCESS:
+                return new WebApplicationException(FORBIDDEN);
+            case ASSET_NOT_FOUND:
+            case ATTRIBUTE_NOT_FOUND:
+                return new WebApplicationException(NOT_FOUND);
+            case INVALID_AGENT_LINK:
+            case ILLEGAL_AGENT_UPDATE:
+            case INVALID_ATTRIBUTE_EXECUTE_STATUS:
+                return new WebApplicationException(new IllegalStateException(processingException), BAD_REQUEST);
+            default:
+                return processingException;
+        }
+    }
+
+    @Override
+    public AttributeWriteResult[] writeAttributeValues(RequestParams requestParams, AttributeEvent[] events) {
+        if (events == null || events.length == 0)
+            return new AttributeWriteResult[0];
+        if (events.length > assetProcessingService.getAsyncClientBatchMaxSize())
+            throw new WebApplicationException(REQUEST_ENTITY_TOO_LARGE);
+
+        AttributeWriteResult[] results = new AttributeWriteResult[events.length];
+        boolean isRestrictedUser = isRestrictedUser();
+
+        // Check access once per asset, the remaining checks are done for each event during processing
+        Map<String, Optional<AssetProcessingException.Reason>> assetAccess = new HashMap<>();
+        List<AttributeEvent> accessibleEvents = new ArrayList<>();
+        List<Integer> accessibleEventIndexes = new ArrayList<>();
+        for (int i = 0; i < events.length; i++) {
+            AttributeEvent event = events[i];
+            if (event == null || event.getAttributeState() == null || event.getAttributeRef() == null) {
+                results[i] = new AttributeWriteResult(null, AssetProcessingException.Reason.ATTRIBUTE_NOT_FOUND);
+                continue;
+            }
+
+            String assetId = event.getEntityId();
+            AssetProcessingException.Reason failure = assetAccess.computeIfAbsent(assetId, id -> {
+                ServerAsset asset = assetStorageService.findCached(id);
+                if (asset == null)
+                    return Optional.of(AssetProcessingException.Reason.ASSET_NOT_FOUND);
+                if (!isTenantActiveAndAccessible(asset))
+                    return Optional.of(AssetProcessingException.Reason.INSUFFICIENT_ACCESS);
+                if (isRestrictedUser && !assetStorageService.isUserAsset(getUserId(), id))
+                    return Optional.of(AssetProcessingException.Reason.INSUFFICIENT_ACCESS);
+                return Optional.empty();
+            }).orElse(null);
+
+            if (failure != null) {
+                results[i] = new AttributeWriteResult(event.getAttributeRef(), failure);
+                continue;
+            }
 
-                if (result instanceof AssetProcessingException) {
-                    AssetProcessingException processingException = (AssetProcessingException) result;
-                    switch (processingException.getReason()) {
-                        case ILLEGAL_SOURCE:
-                        case NO_AUTH_CONTEXT:
-                        case INSUFFICIENT_ACCESS:
-                            throw new WebApplicationException(FORBIDDEN);
-                        case ASSET_NOT_FOUND:
-                        case ATTRIBUTE_NOT_FOUND:
-                            throw new WebApplicationException(NOT_FOUND);
-                        case INVALID_AGENT_LINK:
-                        case ILLEGAL_AGENT_UPDATE:
-                        case INVALID_ATTRIBUTE_EXECUTE_STATUS:
-                            throw new IllegalStateException(processingException);
-                        default:
-                            throw processingException;
+            if (event.getTimestamp() <= 0) {
+                event.setTimestamp(timerService.getCurrentTimeMillis());
+            }
+            accessibleEvents.add(event);
+            accessibleEventIndexes.add(i);
+        }
+
+        if (accessibleEvents.isEmpty())
+            return results;
+
+        // Don't block the worker thread while the events are processed, the response is sent when all events are
+        // done or the timeout is reached, events not done by then have a timeout result
+        AuthContext authContext = getAuthContext();
+        AsyncResponse asyncResponse = suspendResponse(WRITE_ATTRIBUTE_VALUES_TIMEOUT_MILLIS);
+        asyncResponse.setTimeoutHandler(response -> {
+            synchronized (results) {
+                for (int i = 0; i < accessibleEvents.size(); i++) {
+                    int index = accessibleEventIndexes.get(i);
+                    if (results[index] == null) {
+                        results[index] = new AttributeWriteResult(accessibleEvents.get(i).getAttributeRef(), AttributeWriteResult.Status.TIMEOUT);
                     }
                 }
-
-            } catch (ValueException ex) {
-                throw new IllegalStateException("Error parsing JSON", ex);
+                response.resume(results);
+            }
+        });
+
+        List<CompletableFuture<Void>> processing = assetProcessingService.processClientEvents(authContext, accessibleEvents);
+        for (int i = 0; i < processing.size(); i++) {
+            int index = accessibleEventIndexes.get(i);
+            AttributeRef attributeRef = accessibleEvents.get(i).getAttributeRef();
+            processing.get(i).whenComplete((result, failure) -> {
+                synchronized (results) {
+                    if (results[index] == null) {
+                        results[index] = toAttributeWriteResult(attributeRef, failure);
+                    }
+                }
+            });
+        }
+        CompletableFuture.allOf(processing.toArray(new CompletableFuture[processing.size()])).whenComplete((result, failure) -> {
+            synchronized (results) {
+                asyncResponse.resume(results);
             }
+        });
+        return null;
+    }
 
-        } catch (IllegalStateException ex) {
-            throw new WebApplicationException(ex, BAD_REQUEST);
+    protected AttributeWriteResult toAttributeWriteResult(AttributeRef attributeRef, Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
         }
+        if (failure == null)
+            return new AttributeWriteResult(attributeRef, AttributeWriteResult.Status.COMPLETED);
+        if (failure instanceof AssetProcessingException)
+            return new AttributeWriteResult(attributeRef, ((AssetProcessingException) failure).getReason());
+        if (failure instanceof RejectedExecutionException)
+            return new AttributeWriteResult(attributeRef, AttributeWriteResult.Status.REJECTED);
+        return new AttributeWriteResult(attributeRef, AttributeWriteResult.Status.ERROR);
     }
 
     @Override
@@ -430,50 +546,103 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
     @Override
     public Asset[] queryAssets(RequestParams requestParams, AssetQuery query) {
         try {
+            query = prepareQuery(query);
             if (query == null) {
                 return EMPTY_ASSETS;
             }
 
-            if (isRestrictedUser()) {
-                // A restricted user can only query linked assets
-                query = query.userId(getUserId());
-
-                // A restricted user may not query private asset data, only restricted or public
-                if (query.select == null)
-                    query.select = new Select();
-                if (query.select.access == null || query.select.access == Access.PRIVATE_READ)
-                    query.select.filterAccess(Access.RESTRICTED_READ);
-            }
+            List<ServerAsset> result = assetStorageService.findAll(query);
+            return result.toArray(new Asset[result.size()]);
 
-            Tenant tenant = query.tenantPredicate != null
-                ? !isNullOrEmpty(query.tenantPredicate.realmId)
-                ? identityService.getIdentityProvider().getTenantForRealmId(query.tenantPredicate.realmId)
-                : !isNullOrEmpty(query.tenantPredicate.realm)
-                ? identityService.getIdentityProvider().getTenantForRealm(query.tenantPredicate.realm)
-                : getAuthenticatedTenant()
-                : getAuthenticatedTenant();
+        } catch (IllegalStateException ex) {
+            throw new WebApplicationException(ex, BAD_REQUEST);
+        }
+    }
 
-            if (tenant == null) {
-                throw new WebApplicationException(NOT_FOUND);
-            }
+    @Override
+    public AssetQueryPage queryAssetPage(RequestParams requestParams, AssetQuery query) {
+        query = prepareQuery(query);
+        if (query == null) {
+            return new AssetQueryPage(EMPTY_ASSETS, null);
+        }
+        if (query.limit <= 0) {
+            query.limit = QUERY_PAGE_LIMIT_DEFAULT;
+        }
+        query.limit = Math.min(query.limit, QUERY_PAGE_LIMIT_MAX);
 
-            if (!isTenantActiveAndAccessible(tenant)) {
-                return EMPTY_ASSETS;
-            }
+        // The query is executed when the response is written
+        return new StreamingAssetQueryPage(assetStorageService, query);
+    }
 
-            // This replicates behaviour of old getRoot and getChildren methods
-            if (!isSuperUser() || query.parentPredicate == null || query.parentPredicate.noParent) {
-                query.tenant(new TenantPredicate(tenant.getId()));
-            }
+    @Override
+    public AssetTreePage queryAssetTreePage(RequestParams requestParams, AssetQuery query) {
+        if (query == null) {
+            return new AssetTreePage(EMPTY_ASSETS, null, null);
+        }
+        // Tree nodes don't need path and attributes, and are browsed by name
+        query.select(new Select(Include.ALL_EXCEPT_PATH_AND_ATTRIBUTES));
+        query.orderBy(new OrderBy(OrderBy.Property.NAME));
 
-            List<ServerAsset> result = assetStorageService.findAll(query);
-            return result.toArray(new Asset[result.size()]);
+        query = prepareQuery(query);
+        if (query == null) {
+            return new AssetTreePage(EMPTY_ASSETS, null, null);
+        }
+        if (query.limit <= 0) {
+            query.limit = QUERY_PAGE_LIMIT_DEFAULT;
+        }
+        query.limit = Math.min(query.limit, QUERY_PAGE_LIMIT_MAX);
 
+        try {
+            return assetStorageService.findTreePage(query);
         } catch (IllegalStateException ex) {
             throw new WebApplicationException(ex, BAD_REQUEST);
         }
     }
 
+    /**
+     * Restricts the query to the assets the user may access.
+     *
+     * @return <code>null</code> if the user can't access any assets of the query.
+     */
+    protected AssetQuery prepareQuery(AssetQuery query) {
+        if (query == null) {
+            return null;
+        }
+
+        if (isRestrictedUser()) {
+            // A restricted user can only query linked assets
+            query = query.userId(getUserId());
+
+            // A restricted user may not query private asset data, only restricted or public
+            if (query.select == null)
+                query.select = new Select();
+            if (query.select.access == null || query.select.access == Access.PRIVATE_READ)
+                query.select.filterAccess(Access.RESTRICTED_READ);
+        }
+
+        Tenant tenant = query.tenantPredicate != null
+            ? !isNullOrEmpty(query.tenantPredicate.realmId)
+            ? identityService.getIdentityProvider().getTenantForRealmId(query.tenantPredicate.realmId)
+            : !isNullOrEmpty(query.tenantPredicate.realm)
+            ? identityService.getIdentityProvider().getTenantForRealm(query.tenantPredicate.realm)
+            : getAuthenticatedTenant()
+            : getAuthenticatedTenant();
+
+        if (tenant == null) {
+            throw new WebApplicationException(NOT_FOUND);
+        }
+
+        if (!isTenantActiveAndAccessible(tenant)) {
+            return null;
+        }
+
+        // This replicates behaviour of old getRoot and getChildren methods
+        if (!isSuperUser() || query.parentPredicate == null || query.parentPredicate.noParent) {
+            query.tenant(new TenantPredicate(tenant.getId()));
+        }
+        return query;
+    }
+
     @Override
     public Asset[] queryPublicAssets(RequestParams requestParams, AssetQuery query) {
 
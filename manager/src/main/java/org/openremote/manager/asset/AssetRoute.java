@@ -21,8 +21,6 @@ package org.openremote.manager.asset;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Predicate;
-import org.apache.camel.Processor;
-import org.openremote.agent.protocol.Protocol;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
@@ -34,6 +32,7 @@ import org.openremote.model.Constants;
 import org.openremote.model.ValidationFailure;
 import org.openremote.model.asset.Asset;
 import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.asset.AssetMeta;
 import org.openremote.model.asset.AssetState;
 import org.openremote.model.asset.AssetType;
 import org.openremote.model.attribute.AttributeEvent;
@@ -43,20 +42,26 @@ import org.openremote.model.event.Event;
 import org.openremote.model.security.ClientRole;
 import org.openremote.model.value.Values;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.openremote.model.asset.agent.AgentLink.getAgentLink;
-import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
 
 public final class AssetRoute {
 
-    public static final String HEADER_ASSET = AssetRoute.class.getName() + ".ASSET";
-    public static final String HEADER_ATTRIBUTE = AssetRoute.class.getName() + ".ATTRIBUTE";
-    public static final String HEADER_ASSET_STATE = AssetRoute.class.getName() + ".ASSET_STATE";
+    private static final Logger LOG = Logger.getLogger(AssetRoute.class.getName());
+
+    // Set if the realm and restricted user access to the asset has been checked before the event was sent
+    public static final String HEADER_ASSET_ACCESS_VERIFIED = AssetRoute.class.getName() + ".ASSET_ACCESS_VERIFIED";
+
+    // A CompletableFuture completed when processing of the event is done, for senders not waiting for a reply
+    public static final String PROPERTY_PROCESSING_RESULT = AssetRoute.class.getName() + ".PROCESSING_RESULT";
 
     public static Predicate isPersistenceEventForEntityType(Class<?> type) {
         return exchange -> {
@@ -75,228 +80,245 @@ public final class AssetRoute {
         };
     }
 
-    public static Processor extractAttributeEventDetails(AssetStorageService assetStorageService) {
+    /**
+     * Pending {@link AttributeEvent}s of the same attribute and source may be coalesced in an overflowing queue,
+     * unless the sender expects a reply or a {@link #PROPERTY_PROCESSING_RESULT}.
+     */
+    public static Function<Exchange, Object> attributeEventCoalescingKey(String sourceHeader) {
         return exchange -> {
+            if (exchange.getPattern().isOutCapable() || exchange.getProperty(PROPERTY_PROCESSING_RESULT) != null)
+                return null;
+            if (!(exchange.getIn().getBody() instanceof AttributeEvent))
+                return null;
             AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-            if (event.getEntityId() == null || event.getEntityId().isEmpty())
-                return;
-            if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
-                return;
-
-            ServerAsset asset;
-            if (exchange.getIn().getHeader(HEADER_ASSET) == null) {
-                asset = assetStorageService.find(event.getEntityId(), true);
-                if (asset == null)
-                    return;
-                exchange.getIn().setHeader(HEADER_ASSET, asset);
-            } else {
-                asset = exchange.getIn().getHeader(HEADER_ASSET, ServerAsset.class);
-            }
-
-            AssetAttribute attribute;
-            if (exchange.getIn().getHeader(HEADER_ATTRIBUTE) == null) {
-                attribute = asset.getAttribute(event.getAttributeName()).orElse(null);
-                if (attribute == null)
-                    return;
-                exchange.getIn().setHeader(HEADER_ATTRIBUTE, attribute);
-            }
+            return Arrays.asList(event.getAttributeRef(), exchange.getIn().getHeader(sourceHeader));
         };
     }
 
-    public static Processor validateAttributeEvent() {
-        return exchange -> {
-
-            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-
-            Source source = exchange.getIn().getHeader(AttributeEvent.HEADER_SOURCE, () -> null, Source.class);
-            if (source == null) {
-                throw new AssetProcessingException(Reason.MISSING_SOURCE);
-            }
-
-            ServerAsset asset = exchange.getIn().getHeader(HEADER_ASSET, ServerAsset.class);
-            if (asset == null) {
-                throw new AssetProcessingException(Reason.ASSET_NOT_FOUND);
-            }
-
-            AssetAttribute attribute = exchange.getIn().getHeader(HEADER_ATTRIBUTE, AssetAttribute.class);
-            if (attribute == null) {
-                throw new AssetProcessingException(Reason.ATTRIBUTE_NOT_FOUND);
-            }
+    /**
+     * Resolve the asset and attribute of the event, they are not set on the context if not found.
+     */
+    public static void extractAttributeEventDetails(AssetStorageService assetStorageService, AssetProcessingContext context) {
+        AttributeEvent event = context.getEvent();
+        if (event.getEntityId() == null || event.getEntityId().isEmpty())
+            return;
+        if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
+            return;
+
+        if (context.getAsset() == null) {
+            ServerAsset asset = assetStorageService.findCached(event.getEntityId());
+            if (asset == null)
+                return;
+            context.setAsset(asset);
+        }
 
-            if (asset.getWellKnownType() == AssetType.AGENT) {
-                throw new AssetProcessingException(Reason.ILLEGAL_AGENT_UPDATE);
-            }
+        if (context.getAttribute() == null) {
+            context.getAsset().getAttribute(event.getAttributeName()).ifPresent(context::setAttribute);
+        }
+    }
 
-            // For executable attributes, non-sensor sources can set a writable attribute execute status
-            if (attribute.isExecutable() && source != Source.SENSOR) {
-                Optional<AttributeExecuteStatus> status = event.getValue()
-                    .flatMap(Values::getString)
-                    .flatMap(AttributeExecuteStatus::fromString);
+    public static void validateAttributeEvent(AssetProcessingContext context) {
+        AttributeEvent event = context.getEvent();
 
-                if (status.isPresent() && !status.get().isWrite()) {
-                    throw new AssetProcessingException(Reason.INVALID_ATTRIBUTE_EXECUTE_STATUS);
-                }
-            }
-        };
-    }
+        Source source = context.getSource();
+        if (source == null) {
+            throw new AssetProcessingException(Reason.MISSING_SOURCE);
+        }
 
-    public static Processor validateAttributeEventFromClient(AssetStorageService assetStorageService,
-                                                             ManagerIdentityService identityService) {
-        return exchange -> {
+        ServerAsset asset = context.getAsset();
+        if (asset == null) {
+            throw new AssetProcessingException(Reason.ASSET_NOT_FOUND);
+        }
 
-            AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
-            if (authContext == null) {
-                throw new AssetProcessingException(Reason.NO_AUTH_CONTEXT);
-            }
+        AssetAttribute attribute = context.getAttribute();
+        if (attribute == null) {
+            throw new AssetProcessingException(Reason.ATTRIBUTE_NOT_FOUND);
+        }
 
-            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-            ServerAsset asset = exchange.getIn().getHeader(HEADER_ASSET, ServerAsset.class);
-            AssetAttribute attribute = exchange.getIn().getHeader(HEADER_ATTRIBUTE, AssetAttribute.class);
-            Source source = exchange.getIn().getHeader(AttributeEvent.HEADER_SOURCE, () -> null, Source.class);
+        if (asset.getWellKnownType() == AssetType.AGENT) {
+            throw new AssetProcessingException(Reason.ILLEGAL_AGENT_UPDATE);
+        }
 
-            if (source != Source.CLIENT) {
-                throw new AssetProcessingException(Reason.ILLEGAL_SOURCE);
-            }
+        // For executable attributes, non-sensor sources can set a writable attribute execute status
+        if (attribute.isExecutable() && source != Source.SENSOR) {
+            Optional<AttributeExecuteStatus> status = event.getValue()
+                .flatMap(Values::getString)
+                .flatMap(AttributeExecuteStatus::fromString);
 
-            // Check realm, must be accessible
-            if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext, asset)) {
-                throw new AssetProcessingException(Reason.INSUFFICIENT_ACCESS);
+            if (status.isPresent() && !status.get().isWrite()) {
+                throw new AssetProcessingException(Reason.INVALID_ATTRIBUTE_EXECUTE_STATUS);
             }
+        }
+    }
 
-            // Check read-only
-            if (attribute.isReadOnly() && !authContext.isSuperUser()) {
+    public static void validateAttributeEventFromClient(AssetStorageService assetStorageService,
+                                                        ManagerIdentityService identityService,
+                                                        AssetProcessingContext context) {
+        AuthContext authContext = context.getAuthContext();
+        if (authContext == null) {
+            throw new AssetProcessingException(Reason.NO_AUTH_CONTEXT);
+        }
+
+        AttributeEvent event = context.getEvent();
+        ServerAsset asset = context.getAsset();
+        AssetAttribute attribute = context.getAttribute();
+
+        if (context.getSource() != Source.CLIENT) {
+            throw new AssetProcessingException(Reason.ILLEGAL_SOURCE);
+        }
+
+        boolean assetAccessVerified = context.isAssetAccessVerified();
+
+        // Check realm, must be accessible
+        if (!assetAccessVerified && !identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext, asset)) {
+            throw new AssetProcessingException(Reason.INSUFFICIENT_ACCESS);
+        }
+
+        // Check read-only
+        if (attribute.isReadOnly() && !authContext.isSuperUser()) {
+            throw new AssetProcessingException(Reason.INSUFFICIENT_ACCESS);
+        }
+
+        // Regular user must have write assets role
+        if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ASSETS.getValue(), Constants.KEYCLOAK_CLIENT_ID)) {
+            throw new AssetProcessingException(Reason.INSUFFICIENT_ACCESS);
+        }
+
+        // Check restricted user
+        if (identityService.getIdentityProvider().isRestrictedUser(authContext.getUserId())) {
+            // Must be asset linked to user
+            if (!assetAccessVerified && !assetStorageService.isUserAsset(authContext.getUserId(), event.getEntityId())) {
                 throw new AssetProcessingException(Reason.INSUFFICIENT_ACCESS);
             }
-
-            // Regular user must have write assets role
-            if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ASSETS.getValue(), Constants.KEYCLOAK_CLIENT_ID)) {
+            // Must be writable by restricted client
+            if (!attribute.isAccessRestrictedWrite()) {
                 throw new AssetProcessingException(Reason.INSUFFICIENT_ACCESS);
             }
-
-            // Check restricted user
-            if (identityService.getIdentityProvider().isRestrictedUser(authContext.getUserId())) {
-                // Must be asset linked to user
-                if (!assetStorageService.isUserAsset(authContext.getUserId(), event.getEntityId())) {
-                    throw new AssetProcessingException(Reason.INSUFFICIENT_ACCESS);
-                }
-                // Must be writable by restricted client
-                if (!attribute.isAccessRestrictedWrite()) {
-                    throw new AssetProcessingException(Reason.INSUFFICIENT_ACCESS);
-                }
-            }
-        };
+        }
     }
 
-    public static Processor validateAttributeEventFromSensor(AgentService agentService) {
-        return exchange -> {
-
-            AssetAttribute attribute = exchange.getIn().getHeader(HEADER_ATTRIBUTE, AssetAttribute.class);
-            Source source = exchange.getIn().getHeader(AttributeEvent.HEADER_SOURCE, () -> null, Source.class);
+    public static void validateAttributeEventFromSensor(AgentService agentService, AssetProcessingContext context) {
+        if (context.getSource() != Source.SENSOR) {
+            throw new AssetProcessingException(Reason.ILLEGAL_SOURCE);
+        }
 
-            if (source != Source.SENSOR) {
-                throw new AssetProcessingException(Reason.ILLEGAL_SOURCE);
-            }
-
-            Optional<AssetAttribute> protocolConfiguration =
-                getAgentLink(attribute).flatMap(agentService::getProtocolConfiguration);
-
-            if (!protocolConfiguration.isPresent()) {
-                throw new AssetProcessingException(Reason.INVALID_AGENT_LINK);
-            }
+        Optional<AssetAttribute> protocolConfiguration =
+            getAgentLink(context.getAttribute()).flatMap(agentService::getProtocolConfiguration);
 
-        };
+        if (!protocolConfiguration.isPresent()) {
+            throw new AssetProcessingException(Reason.INVALID_AGENT_LINK);
+        }
     }
 
-    public static Processor buildAssetState(TimerService timerService) {
-        return exchange -> {
-
-            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-            AttributeEvent.Source source = exchange.getIn().getHeader(HEADER_SOURCE, AttributeEvent.Source.class);
-            ServerAsset asset = exchange.getIn().getHeader(HEADER_ASSET, ServerAsset.class);
-            AssetAttribute attribute = exchange.getIn().getHeader(HEADER_ATTRIBUTE, AssetAttribute.class);
-
-            long eventTime = event.getTimestamp();
-            long processingTime = timerService.getCurrentTimeMillis();
-
-            // Ensure timestamp of event is not in the future as that would essentially block access to
-            // the attribute until after that time (maybe that is desirable behaviour)
-            // Allow a leniency of 1s
-            if (eventTime - processingTime > 1000) {
-                // TODO: Decide how to handle update events in the future - ignore or change timestamp
-                throw new AssetProcessingException(
-                    Reason.EVENT_IN_FUTURE,
-                    "current time: " + new Date(processingTime) + "/" + processingTime
-                        + ", event time: " + new Date(eventTime) + "/" + eventTime
-                );
-            }
-
-            // Hold on to existing attribute state so we can use it during processing
-            Optional<AttributeEvent> lastStateEvent = attribute.getStateEvent();
-
-            // Check the last update timestamp of the attribute, ignoring any event that is older than last update
-            // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
-            // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
-            lastStateEvent.map(Event::getTimestamp).filter(t -> t >= 0 && eventTime < t).ifPresent(
-                lastStateTime -> {
-                    throw new AssetProcessingException(
-                        Reason.EVENT_OUTDATED,
-                        "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
-                            + ", event time: " + new Date(eventTime) + "/" + eventTime);
-                }
+    /**
+     * Apply the event to the attribute and set the {@link AssetState} on the context.
+     *
+     * @param sequences         The sequences of applied events, to detect duplicate and out-of-sequence events with
+     *                          the same timestamp.
+     * @param changeOnlyDefault Ignore events that don't change the attribute value, unless the attribute has an
+     *                          {@link AssetMeta#CHANGE_ONLY} meta item.
+     * @return <code>false</code> if the event was ignored because it doesn't change the attribute value.
+     */
+    public static boolean buildAssetState(TimerService timerService,
+                                          AttributeEventSequences sequences,
+                                          boolean changeOnlyDefault,
+                                          AssetProcessingContext context) {
+        AttributeEvent event = context.getEvent();
+        Source source = context.getSource();
+        AssetAttribute attribute = context.getAttribute();
+
+        long eventTime = event.getTimestamp();
+        long processingTime = timerService.getCurrentTimeMillis();
+
+        // Ensure timestamp of event is not in the future as that would essentially block access to
+        // the attribute until after that time (maybe that is desirable behaviour)
+        // Allow a leniency of 1s
+        if (eventTime - processingTime > 1000) {
+            // TODO: Decide how to handle update events in the future - ignore or change timestamp
+            throw new AssetProcessingException(
+                Reason.EVENT_IN_FUTURE,
+                "current time: " + new Date(processingTime) + "/" + processingTime
+                    + ", event time: " + new Date(eventTime) + "/" + eventTime
             );
-
-            // Set new value and event timestamp on attribute
-            attribute.setValue(event.getValue().orElse(null), eventTime);
-
-            // Validate constraints of attribute
-            List<ValidationFailure> validationFailures = attribute.getValidationFailures();
-            if (!validationFailures.isEmpty()) {
-                throw new AssetProcessingException(
-                    Reason.ATTRIBUTE_VALIDATION_FAILURE, validationFailures.toString()
-                );
+        }
+
+        // Hold on to existing attribute state so we can use it during processing
+        Optional<AttributeEvent> lastStateEvent = attribute.getStateEvent();
+
+        // Check the last update timestamp of the attribute, ignoring any event that is older than last update
+        long lastStateTime = lastStateEvent.map(Event::getTimestamp).orElse(-1L);
+        if (lastStateTime >= 0 && eventTime < lastStateTime) {
+            throw new AssetProcessingException(
+                Reason.EVENT_OUTDATED,
+                "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
+                    + ", event time: " + new Date(eventTime) + "/" + eventTime);
+        }
+
+        // Events with the same timestamp are ordered by their ingress sequence, this drops duplicates and events
+        // overtaken by a later event in the same millisecond
+        if (sequences.isOutdated(event, lastStateTime)) {
+            throw new AssetProcessingException(
+                Reason.EVENT_OUTDATED,
+                "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
+                    + ", event sequence: " + event.getSequence());
+        }
+
+        // Stop processing if the value didn't change and the attribute only processes changes
+        if (source != Source.CLIENT
+            && !attribute.isExecutable()
+            && attribute.getChangeOnly().orElse(changeOnlyDefault)
+            && lastStateEvent.isPresent()
+            && Objects.equals(lastStateEvent.get().getValue().orElse(null), event.getValue().orElse(null))) {
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("Ignoring unchanged value of attribute: " + event);
             }
+            return false;
+        }
 
-            AssetState assetState = new AssetState(
-                asset,
-                attribute,
-                lastStateEvent.flatMap(AttributeEvent::getValue).orElse(null),
-                lastStateEvent.map(AttributeEvent::getTimestamp).orElse(-1L),
-                source
-            );
+        // Set new value and event timestamp on attribute
+        attribute.setValue(event.getValue().orElse(null), eventTime);
 
-            exchange.getIn().setHeader(HEADER_ASSET_STATE, assetState);
-        };
+        // Validate constraints of attribute
+        List<ValidationFailure> validationFailures = attribute.getValidationFailures();
+        if (!validationFailures.isEmpty()) {
+            throw new AssetProcessingException(
+                Reason.ATTRIBUTE_VALIDATION_FAILURE, validationFailures.toString()
+            );
+        }
+
+        context.setAssetState(new AssetState(
+            context.getAsset(),
+            attribute,
+            lastStateEvent.flatMap(AttributeEvent::getValue).orElse(null),
+            lastStateTime,
+            source
+        ));
+        return true;
     }
 
-    public static Processor handleAssetProcessingException(Logger logger) {
-        return exchange -> {
-            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-            Exception exception = (Exception) exchange.getProperty(Exchange.EXCEPTION_CAUGHT);
-
-            StringBuilder error = new StringBuilder();
-
-            Source source = exchange.getIn().getHeader(AttributeEvent.HEADER_SOURCE, "unknown source", Source.class);
-            if (source != null) {
-                error.append("Error processing from ").append(source);
-            }
-
-            String protocolName = exchange.getIn().getHeader(Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, String.class);
-            if (protocolName != null) {
-                error.append(" (protocol: ").append(protocolName).append(")");
-            }
-
-            if (exception instanceof AssetProcessingException) {
-                AssetProcessingException processingException = (AssetProcessingException) exception;
-                error.append(" - ").append(processingException.getReasonPhrase());
-                error.append(": ").append(event.toString());
-                logger.warning(error.toString());
-            } else {
-                error.append(": ").append(event.toString());
-                logger.log(Level.WARNING, error.toString(), exception);
-            }
-
-            // Make the exception available if MEP is InOut
-            exchange.getOut().setBody(exception);
-        };
+    /**
+     * Log the failed event, the message is only built if warnings are logged.
+     */
+    public static void handleAssetProcessingException(Logger logger, AssetProcessingContext context, Exception exception) {
+        if (!logger.isLoggable(Level.WARNING))
+            return;
+
+        StringBuilder error = new StringBuilder();
+
+        error.append("Error processing from ").append(context.getSource() != null ? context.getSource() : "unknown source");
+
+        if (context.getProtocolName() != null) {
+            error.append(" (protocol: ").append(context.getProtocolName()).append(")");
+        }
+
+        if (exception instanceof AssetProcessingException) {
+            AssetProcessingException processingException = (AssetProcessingException) exception;
+            error.append(" - ").append(processingException.getReasonPhrase());
+            error.append(": ").append(context.getEvent());
+            logger.warning(error.toString());
+        } else {
+            error.append(": ").append(context.getEvent());
+            logger.log(Level.WARNING, error.toString(), exception);
+        }
     }
 }
@@ -48,18 +48,28 @@ import org.openremote.model.util.TextUtil;
 import org.openremote.model.value.ObjectValue;
 import org.openremote.model.value.Value;
 import org.openremote.model.value.Values;
-import org.postgresql.util.PGobject;
+import org.postgresql.PGConnection;
+import org.postgresql.PGStatement;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.sql.*;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.util.MapAccess.getBoolean;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.asset.AssetRoute.isPersistenceEventForEntityType;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.manager.event.ClientEventService.getSessionKey;
@@ -70,18 +80,156 @@ import static org.openremote.model.util.TextUtil.isNullOrEmpty;
 
 public class AssetStorageService extends RouteBuilder implements ContainerService, Consumer<AssetState> {
 
+    /**
+     * Attribute value writes of concurrent callers are committed together in one transaction, the writer waits up
+     * to this time window for callers that are about to write and commits as soon as the writes of all waiting
+     * callers are in the batch; set to <code>0</code> to commit each write in its own transaction.
+     */
+    public static final String ATTRIBUTE_VALUE_COMMIT_WINDOW_MILLIS = "ATTRIBUTE_VALUE_COMMIT_WINDOW_MILLIS";
+    public static final int ATTRIBUTE_VALUE_COMMIT_WINDOW_MILLIS_DEFAULT = 5;
+
+    /**
+     * Maximum number of attribute value writes committed in one transaction.
+     */
+    public static final String ATTRIBUTE_VALUE_COMMIT_BATCH_SIZE = "ATTRIBUTE_VALUE_COMMIT_BATCH_SIZE";
+    public static final int ATTRIBUTE_VALUE_COMMIT_BATCH_SIZE_DEFAULT = 500;
+
+    /**
+     * Store current attribute values and value timestamps in the <code>ASSET_ATTRIBUTE_VALUE</code> table instead
+     * of rewriting the asset's attributes document on every value change. Queries overlay the stored values on
+     * the document, a value row is used if it isn't older than the value timestamp in the document. Values
+     * written while this is enabled are not visible when it is disabled again.
+     */
+    public static final String ATTRIBUTE_VALUE_TABLE = "ATTRIBUTE_VALUE_TABLE";
+    public static final boolean ATTRIBUTE_VALUE_TABLE_DEFAULT = false;
+
+    /**
+     * Maximum number of completely loaded assets kept in memory, see {@link #findCached}.
+     */
+    public static final String ASSET_CACHE_SIZE = "ASSET_CACHE_SIZE";
+    public static final int ASSET_CACHE_SIZE_DEFAULT = 10000;
+
+    /**
+     * Published after imported assets have been committed, see {@link AssetImport}.
+     */
+    public static final String ASSET_IMPORT_TOPIC =
+        "seda://AssetImportTopic?multipleConsumers=true&concurrentConsumers=1&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&limitConcurrentConsumers=false&size=1000";
+
+    // Number of rows fetched from the database at a time when streaming query results
+    protected static final int QUERY_FETCH_SIZE = 500;
+
+    // Maximum number of query shapes with cached SQL
+    protected static final int PREPARED_QUERY_CACHE_SIZE = 1000;
+
+    // Mean earth radius for the bounding box of geo radius predicates, the box is widened by the margin
+    protected static final double EARTH_RADIUS_METERS = 6371008.8;
+    protected static final double GEO_BOUNDING_BOX_MARGIN = 1.01;
+
+    // Maximum number of validation errors reported for an asset import
+    protected static final int IMPORT_MAX_ERRORS = 100;
+
+    // Newline-delimited JSON is read and written with COPY in CSV format, with quote and delimiter characters
+    // that can't occur in a JSON document so each line is one unquoted value
+    protected static final String COPY_NDJSON_OPTIONS = "(FORMAT csv, QUOTE e'\\x01', DELIMITER e'\\x02')";
+
+    protected static final String IMPORT_CREATE_DOCUMENTS_SQL =
+        "create temp table ASSET_IMPORT (LINE bigserial, DOCUMENT jsonb) on commit drop";
+
+    protected static final String IMPORT_COPY_DOCUMENTS_SQL =
+        "copy ASSET_IMPORT (DOCUMENT) from stdin with " + COPY_NDJSON_OPTIONS;
+
+    // Blank lines are null documents and skipped
+    protected static final String IMPORT_CREATE_ROWS_SQL =
+        "create temp table ASSET_IMPORT_ROW on commit drop as select" +
+            " LINE," +
+            " jsonb_typeof(DOCUMENT) = 'object' as IS_OBJECT," +
+            " DOCUMENT ->> 'id' as ID," +
+            " DOCUMENT ->> 'name' as NAME," +
+            " DOCUMENT ->> 'type' as ASSET_TYPE," +
+            " DOCUMENT ->> 'parentId' as PARENT_ID," +
+            " DOCUMENT ->> 'realmId' as REALM_ID," +
+            " coalesce(DOCUMENT -> 'accessPublicRead' = 'true', false) as ACCESS_PUBLIC_READ," +
+            " case when jsonb_typeof(DOCUMENT -> 'createdOn') = 'number'" +
+            " then to_timestamp((DOCUMENT ->> 'createdOn') :: numeric / 1000) else now() end as CREATED_ON," +
+            " nullif(DOCUMENT -> 'attributes', 'null') as ATTRIBUTES," +
+            " nullif(DOCUMENT -> 'coordinates', 'null') as COORDINATES," +
+            " case when jsonb_typeof(DOCUMENT -> 'coordinates') = 'array' then" +
+            " case when jsonb_array_length(DOCUMENT -> 'coordinates') = 2" +
+            " and jsonb_typeof(DOCUMENT -> 'coordinates' -> 0) = 'number'" +
+            " and jsonb_typeof(DOCUMENT -> 'coordinates' -> 1) = 'number'" +
+            " then ST_MakePoint((DOCUMENT -> 'coordinates' ->> 0) :: float8, (DOCUMENT -> 'coordinates' ->> 1) :: float8) end" +
+            " end as LOCATION," +
+            " cast(null as int) as DEPTH" +
+            " from ASSET_IMPORT where DOCUMENT is not null";
+
+    // The attribute name pattern is the first parameter, the maximum number of errors the second
+    protected static final String IMPORT_VALIDATE_SQL =
+        "select LINE, MESSAGE from (" +
+            "select LINE, 'Document is not an asset object' as MESSAGE from ASSET_IMPORT_ROW where not IS_OBJECT" +
+            " union all select LINE, 'Missing or invalid asset identifier' from ASSET_IMPORT_ROW" +
+            " where IS_OBJECT and (ID is null or length(ID) not between 1 and 36)" +
+            " union all select LINE, 'Duplicate asset identifier: ' || ID from (" +
+            "select LINE, ID, count(*) over (partition by ID) as N from ASSET_IMPORT_ROW where ID is not null" +
+            ") D where N > 1" +
+            " union all select R.LINE, 'Asset already exists: ' || R.ID from ASSET_IMPORT_ROW R join ASSET A on A.ID = R.ID" +
+            " union all select LINE, 'Missing or invalid asset name' from ASSET_IMPORT_ROW" +
+            " where IS_OBJECT and (NAME is null or length(NAME) not between 3 and 1023)" +
+            " union all select LINE, 'Missing or invalid asset type' from ASSET_IMPORT_ROW" +
+            " where IS_OBJECT and (ASSET_TYPE is null or length(ASSET_TYPE) not between 3 and 255)" +
+            " union all select R.LINE, 'Realm not found/active: ' || coalesce(R.REALM_ID, '') from ASSET_IMPORT_ROW R" +
+            " where R.IS_OBJECT and not exists (select 1 from PUBLIC.REALM RE where RE.ID = R.REALM_ID and RE.ENABLED)" +
+            " union all select R.LINE, 'Parent not found in same realm: ' || R.PARENT_ID from ASSET_IMPORT_ROW R" +
+            " where R.PARENT_ID is not null" +
+            " and not exists (select 1 from ASSET A where A.ID = R.PARENT_ID and A.REALM_ID = R.REALM_ID)" +
+            " and not exists (select 1 from ASSET_IMPORT_ROW P where P.ID = R.PARENT_ID and P.REALM_ID = R.REALM_ID)" +
+            " union all select LINE, 'Invalid asset attributes' from ASSET_IMPORT_ROW" +
+            " where jsonb_typeof(ATTRIBUTES) <> 'object'" +
+            " union all select R.LINE, 'Invalid asset attribute: ' || AX.key from ASSET_IMPORT_ROW R," +
+            " jsonb_each(case when jsonb_typeof(R.ATTRIBUTES) = 'object' then R.ATTRIBUTES else '{}' end) as AX" +
+            " where AX.key !~ ? or jsonb_typeof(AX.value) <> 'object'" +
+            " union all select LINE, 'Invalid asset coordinates' from ASSET_IMPORT_ROW" +
+            " where COORDINATES is not null and LOCATION is null" +
+            ") E order by LINE limit ?";
+
+    // Assets with parents outside of the import are roots of the import, assets not reached from a root are in a cycle
+    protected static final String IMPORT_UPDATE_DEPTH_SQL =
+        "with recursive TREE(ID, DEPTH) as (" +
+            "select R.ID, 0 from ASSET_IMPORT_ROW R" +
+            " where R.PARENT_ID is null or not exists (select 1 from ASSET_IMPORT_ROW P where P.ID = R.PARENT_ID)" +
+            " union all select R.ID, T.DEPTH + 1 from ASSET_IMPORT_ROW R join TREE T on R.PARENT_ID = T.ID" +
+            ") update ASSET_IMPORT_ROW R set DEPTH = T.DEPTH from TREE T where R.ID = T.ID";
+
+    protected static final String IMPORT_VALIDATE_DEPTH_SQL =
+        "select LINE, 'Asset is its own ancestor: ' || ID from ASSET_IMPORT_ROW where DEPTH is null order by LINE limit ?";
+
+    // Parents are inserted before their children so the path trigger can read the parent's path
+    protected static final String IMPORT_INSERT_SQL =
+        "insert into ASSET (ID, OBJ_VERSION, CREATED_ON, NAME, ASSET_TYPE, ACCESS_PUBLIC_READ, PARENT_ID, REALM_ID, ATTRIBUTES, LOCATION)" +
+            " select ID, 0, CREATED_ON, NAME, ASSET_TYPE, ACCESS_PUBLIC_READ, PARENT_ID, REALM_ID, coalesce(ATTRIBUTES, '{}'), LOCATION" +
+            " from ASSET_IMPORT_ROW where DEPTH = ?";
+
+    protected static final String IMPORT_SELECT_IMPORTED_SQL =
+        "select ID, REALM_ID, ASSET_TYPE = ? as IS_AGENT," +
+            " GET_ASSET_ATTRIBUTE_META(ATTRIBUTES) @> cast(? as jsonb) as HAS_AGENT_LINK," +
+            " GET_ASSET_ATTRIBUTE_META(ATTRIBUTES) @> cast(? as jsonb) as HAS_RULE_STATE" +
+            " from ASSET_IMPORT_ROW order by DEPTH, LINE";
+
+    /**
+     * The SQL and parameter binders of a query shape, binders read the parameter values from the executed query
+     * so the same instance can be used for all queries with the same shape.
+     */
     protected class PreparedAssetQuery {
-        protected String querySql;
-        protected List<ParameterBinder> binders;
+        final protected String querySql;
+        final protected List<ParameterBinder> binders;
 
         public PreparedAssetQuery(String querySql, List<ParameterBinder> binders) {
             this.querySql = querySql;
             this.binders = binders;
         }
 
-        protected void apply(PreparedStatement preparedStatement) {
+        protected void apply(BaseAssetQuery query, PreparedStatement preparedStatement) {
             for (ParameterBinder binder : binders) {
-                binder.accept(preparedStatement);
+                binder.accept(query, preparedStatement);
             }
         }
     }
@@ -92,6 +240,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected PersistenceService persistenceService;
     protected ManagerIdentityService identityService;
     protected ClientEventService clientEventService;
+    protected MessageBrokerService messageBrokerService;
+
+    // Write-through cache of completely loaded assets, used on the hot path of attribute event processing. The
+    // cached instances are never handed out or modified, callers always get a copy.
+    protected AssetCache assetCache;
+    // Generated SQL by query shape, see getQueryShape()
+    protected final Map<String, PreparedAssetQuery> preparedQueries = new ConcurrentHashMap<>();
+    protected AttributeValueWriter attributeValueWriter;
+    protected boolean attributeValueTable;
 
     @Override
     public void init(Container container) throws Exception {
@@ -99,6 +256,20 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         persistenceService = container.getService(PersistenceService.class);
         identityService = container.getService(ManagerIdentityService.class);
         clientEventService = container.getService(ClientEventService.class);
+        messageBrokerService = container.getService(MessageBrokerService.class);
+
+        attributeValueTable = getBoolean(container.getConfig(), ATTRIBUTE_VALUE_TABLE, ATTRIBUTE_VALUE_TABLE_DEFAULT);
+        assetCache = new AssetCache(getInteger(container.getConfig(), ASSET_CACHE_SIZE, ASSET_CACHE_SIZE_DEFAULT));
+
+        int commitWindowMillis = getInteger(container.getConfig(), ATTRIBUTE_VALUE_COMMIT_WINDOW_MILLIS, ATTRIBUTE_VALUE_COMMIT_WINDOW_MILLIS_DEFAULT);
+        if (commitWindowMillis > 0) {
+            attributeValueWriter = new AttributeValueWriter(
+                persistenceService,
+                attributeValueTable,
+                commitWindowMillis,
+                getInteger(container.getConfig(), ATTRIBUTE_VALUE_COMMIT_BATCH_SIZE, ATTRIBUTE_VALUE_COMMIT_BATCH_SIZE_DEFAULT)
+            );
+        }
 
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
             if (!subscription.isEventType(AssetTreeModifiedEvent.class))
@@ -115,20 +286,31 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 container.getService(TimerService.class),
                 identityService,
                 this,
-                container.getService(MessageBrokerService.class)
+                container.getService(AssetProcessingService.class),
+                messageBrokerService
             )
         );
+        container.getService(WebService.class).getApiSingletons().add(new StreamingAssetQueryPage.Writer());
+        container.getService(WebService.class).getApiSingletons().add(
+            new AssetBulkResourceImpl(timerService, identityService, this)
+        );
 
         container.getService(MessageBrokerSetupService.class).getContext().addRoutes(this);
     }
 
     @Override
     public void start(Container container) throws Exception {
+        if (attributeValueWriter != null) {
+            attributeValueWriter.start();
+        }
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        if (attributeValueWriter != null) {
+            attributeValueWriter.stop();
+        }
+        assetCache.clear();
     }
 
     @Override
@@ -146,6 +328,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (!storeAttributeValue(assetId, attributeName, value, valueTimestamp)) {
             throw new RuntimeException("Database update failed, no rows updated");
         }
+        updateCached(assetId, assetState.getAttribute());
     }
 
     @SuppressWarnings("unchecked")
@@ -155,7 +338,11 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         from(PERSISTENCE_TOPIC)
             .routeId("AssetPersistenceChanges")
             .filter(isPersistenceEventForEntityType(ServerAsset.class))
-            .process(exchange -> publishModificationEvents(exchange.getIn().getBody(PersistenceEvent.class)));
+            .process(exchange -> {
+                PersistenceEvent<ServerAsset> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                evictCached(persistenceEvent.getEntity().getId());
+                publishModificationEvents(persistenceEvent);
+            });
 
         // React if a client wants to read attribute state
         from(CLIENT_EVENT_TOPIC)
@@ -221,6 +408,48 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return find(new AssetQuery().select(new Select(loadComplete ? ALL : ALL_EXCEPT_PATH_AND_ATTRIBUTES, access)).id(assetId));
     }
 
+    /**
+     * @return The group commit writer of attribute values with its batch and commit latency statistics, or
+     * <code>null</code> if each attribute value is committed in its own transaction.
+     */
+    public AttributeValueWriter getAttributeValueWriter() {
+        return attributeValueWriter;
+    }
+
+    /**
+     * Same as {@link #find(String, boolean)} with complete loading, but served from memory if the asset was
+     * loaded before. The cache is updated when attribute values are stored and invalidated when the asset (or
+     * one of its parents) is modified or deleted. The returned instance is a copy and can be modified freely.
+     */
+    public ServerAsset findCached(String assetId) {
+        return findCached(assetId, 0);
+    }
+
+    /**
+     * @param minimumVersion Reload the asset from the database if the cached instance is older than this version.
+     */
+    public ServerAsset findCached(String assetId, long minimumVersion) {
+        if (assetId == null)
+            throw new IllegalArgumentException("Can't query null asset identifier");
+        ServerAsset asset = assetCache.get(assetId);
+        if (asset == null || asset.getVersion() < minimumVersion) {
+            // Not cached if the asset is updated or evicted while it is loaded
+            long stamp = assetCache.getStamp(assetId);
+            asset = find(assetId, true);
+            if (asset == null)
+                return null;
+            assetCache.put(asset, stamp);
+        }
+        return ServerAsset.copy(asset);
+    }
+
+    /**
+     * @return The cache of {@link #findCached}.
+     */
+    public AssetCache getAssetCache() {
+        return assetCache;
+    }
+
     public ServerAsset find(BaseAssetQuery query) {
         return persistenceService.doReturningTransaction(em -> find(em, query));
     }
@@ -229,6 +458,27 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return persistenceService.doReturningTransaction(em -> findAll(em, query));
     }
 
+    /**
+     * Passes the results of the query to the consumer as they are read from the database, without collecting them.
+     *
+     * @return The cursor of the next page if the query has a {@link BaseAssetQuery#limit} and the page is full,
+     * otherwise <code>null</code>.
+     */
+    public String streamAll(BaseAssetQuery query, Consumer<ServerAsset> consumer) {
+        return persistenceService.doReturningTransaction(em -> streamAll(em, query, consumer));
+    }
+
+    /**
+     * @return The assets of the query with the number of children of each asset. If the query is restricted to the
+     * assets of a user, only children linked to the user are counted.
+     */
+    public AssetTreePage findTreePage(BaseAssetQuery query) {
+        List<ServerAsset> assets = new ArrayList<>();
+        String nextCursor = streamAll(query, assets::add);
+        int[] childCounts = countChildren(assets, query.userId);
+        return new AssetTreePage(assets.toArray(new Asset[assets.size()]), childCounts, nextCursor);
+    }
+
     public List<String> findNames(String... ids) {
         if (ids == null || ids.length == 0)
             return new ArrayList<>();
@@ -284,7 +534,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
      * @throws IllegalArgumentException if the realm or parent is illegal, or other asset constraint is violated.
      */
     public ServerAsset merge(ServerAsset asset, boolean overrideVersion, String userName) {
-        return persistenceService.doReturningTransaction(em -> {
+        ServerAsset mergedAsset = persistenceService.doReturningTransaction(em -> {
 
             // Update all empty attribute timestamps with server-time (a caller which doesn't have a
             // reliable time source such as a browser should clear the timestamp when setting an attribute
@@ -363,13 +613,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             return updatedAsset;
         });
+        evictCached(mergedAsset.getId());
+        return mergedAsset;
     }
 
     /**
      * @return <code>true</code> if the asset was deleted, false if the asset still has children and can't be deleted.
      */
     public boolean delete(String assetId) {
-        return persistenceService.doReturningTransaction(em -> {
+        boolean deleted = persistenceService.doReturningTransaction(em -> {
             Asset asset = em.find(ServerAsset.class, assetId);
             if (asset != null) {
                 List<ServerAsset> children = findAll(em, new AssetQuery()
@@ -382,6 +634,85 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             }
             return true;
         });
+        if (deleted) {
+            evictCached(assetId);
+        }
+        return deleted;
+    }
+
+    /**
+     * Imports new assets from newline-delimited JSON documents (see {@link AssetBulkResource}), in one transaction
+     * and without loading the assets into the persistence context. The documents are copied into a temporary table
+     * and validated there; attribute values are only checked for their structure. Existing assets are never
+     * modified, if any document is invalid nothing is imported.
+     * <p>
+     * Instead of a persistence event per asset, one {@link AssetImport} is published on {@link #ASSET_IMPORT_TOPIC}
+     * after commit, and one {@link AssetTreeModifiedEvent} per realm.
+     *
+     * @throws IllegalStateException if a document is not valid JSON or can't be read.
+     */
+    public AssetImportResult importAssets(InputStream documents) {
+        AssetImport assetImport = new AssetImport();
+        AssetImportResult result = persistenceService.doReturningTransaction(em ->
+            em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<AssetImportResult>() {
+                @Override
+                public AssetImportResult execute(Connection connection) throws SQLException {
+                    return importAssets(connection, documents, assetImport);
+                }
+            })
+        );
+        if (assetImport.assetCount > 0) {
+            LOG.info("Imported assets: " + assetImport);
+            messageBrokerService.getProducerTemplate().sendBody(ASSET_IMPORT_TOPIC, assetImport);
+            for (String realmId : assetImport.getRealmIds()) {
+                clientEventService.publishEvent(
+                    new AssetTreeModifiedEvent(timerService.getCurrentTimeMillis(), realmId, true)
+                );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes all assets, or the assets of a realm, as newline-delimited JSON documents that can be imported with
+     * {@link #importAssets}. Parents are written before their children. Rows are copied from the database to the
+     * output as they are read, memory use doesn't depend on the number of assets.
+     */
+    public void exportAssets(String realmId, OutputStream output) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("copy (select jsonb_build_object(");
+        sb.append("'id', A.ID, ");
+        sb.append("'version', A.OBJ_VERSION, ");
+        sb.append("'createdOn', cast(extract(epoch from A.CREATED_ON) * 1000 as int8), ");
+        sb.append("'name', A.NAME, ");
+        sb.append("'type', A.ASSET_TYPE, ");
+        sb.append("'accessPublicRead', A.ACCESS_PUBLIC_READ, ");
+        sb.append("'parentId', A.PARENT_ID, ");
+        sb.append("'realmId', A.REALM_ID, ");
+        sb.append("'coordinates', case when A.LOCATION is not null then jsonb_build_array(ST_X(A.LOCATION), ST_Y(A.LOCATION)) end, ");
+        sb.append("'attributes', ").append(buildAttributesColumn(1));
+        sb.append(") from ASSET A");
+        if (realmId != null) {
+            // COPY can't have parameters, the realm identifier is a quoted literal
+            sb.append(" where A.REALM_ID = '").append(realmId.replace("'", "''")).append("'");
+        }
+        sb.append(" order by array_length(A.PATH, 1), A.ID");
+        sb.append(") to stdout with ").append(COPY_NDJSON_OPTIONS);
+        String exportSql = sb.toString();
+
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                LOG.fine("Executing: " + exportSql);
+                try {
+                    long rows = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(exportSql, output);
+                    LOG.fine("Exported assets: " + rows);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
     }
 
     public boolean isUserAsset(String userId, String assetId) {
@@ -479,17 +810,33 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     /* ####################################################################################### */
 
-    protected interface ParameterBinder extends Consumer<PreparedStatement> {
+    protected interface ParameterBinder extends BiConsumer<BaseAssetQuery, PreparedStatement> {
         @Override
-        default void accept(PreparedStatement st) {
+        default void accept(BaseAssetQuery query, PreparedStatement st) {
             try {
-                acceptStatement(st);
+                acceptStatement(query, st);
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
         }
 
-        void acceptStatement(PreparedStatement st) throws SQLException;
+        void acceptStatement(BaseAssetQuery query, PreparedStatement st) throws SQLException;
+    }
+
+    protected void updateCached(String assetId, AssetAttribute attribute) {
+        String attributeName = attribute.getName().orElse(null);
+        if (attributeName == null)
+            return;
+        assetCache.update(assetId, attributeName, attribute.getObjectValue());
+    }
+
+    /**
+     * Removes the asset and all of its cached descendants, their path and parent details might be affected.
+     */
+    protected void evictCached(String assetId) {
+        if (assetId == null)
+            return;
+        assetCache.evict(assetId);
     }
 
     protected ServerAsset find(EntityManager em, String assetId, boolean loadComplete) {
@@ -519,6 +866,12 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
     protected List<ServerAsset> findAll(EntityManager em, BaseAssetQuery query) {
+        List<ServerAsset> result = new ArrayList<>();
+        streamAll(em, query, result::add);
+        return result;
+    }
+
+    protected String streamAll(EntityManager em, BaseAssetQuery query, Consumer<ServerAsset> consumer) {
 
         // Use a default projection if it's missing
         if (query.select == null)
@@ -532,26 +885,137 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (query.orderBy == null && query.id == null)
             query.orderBy = new OrderBy(OrderBy.Property.CREATED_ON);
 
-        PreparedAssetQuery querySql = buildQuery(query);
+        PreparedAssetQuery querySql = getPreparedQuery(query);
 
-        return em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<List<ServerAsset>>() {
+        return em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<String>() {
             @Override
-            public List<ServerAsset> execute(Connection connection) throws SQLException {
+            public String execute(Connection connection) throws SQLException {
                 LOG.fine("Executing: " + querySql.querySql);
-                PreparedStatement st = connection.prepareStatement(querySql.querySql);
-                querySql.apply(st);
-
-                try (ResultSet rs = st.executeQuery()) {
-                    List<ServerAsset> result = new ArrayList<>();
-                    while (rs.next()) {
-                        result.add(mapResultTuple(query, rs));
+                try (PreparedStatement st = connection.prepareStatement(querySql.querySql)) {
+                    // The SQL of a query shape doesn't change, use a named server-side statement right away so
+                    // PostgreSQL can skip parsing and planning when the connection executes the shape again
+                    if (st.isWrapperFor(PGStatement.class)) {
+                        st.unwrap(PGStatement.class).setPrepareThreshold(1);
+                    }
+                    // Read the result set in batches instead of loading all rows
+                    st.setFetchSize(QUERY_FETCH_SIZE);
+                    querySql.apply(query, st);
+
+                    try (ResultSet rs = st.executeQuery()) {
+                        int rows = 0;
+                        String nextCursor = null;
+                        while (rs.next()) {
+                            consumer.accept(mapResultTuple(query, rs));
+                            if (++rows == query.limit && isKeysetPaged(query)) {
+                                nextCursor = encodeCursor(query.orderBy, getOrderByValue(query.orderBy, rs), rs.getString("ID"));
+                            }
+                        }
+                        return nextCursor;
                     }
-                    return result;
                 }
             }
         });
     }
 
+    /**
+     * @return The cached SQL of the query's shape, generated if this is the first query with the shape.
+     */
+    protected PreparedAssetQuery getPreparedQuery(BaseAssetQuery query) {
+        if (query.cursor != null) {
+            // Fail early on invalid cursors, the cursor values are only decoded when binding parameters
+            if (!isKeysetPaged(query))
+                throw new IllegalStateException("Query cursor requires order and no asset identifier: " + query);
+            decodeCursor(query.orderBy, query.cursor);
+        }
+
+        String queryShape = getQueryShape(query);
+        PreparedAssetQuery preparedQuery = preparedQueries.get(queryShape);
+        if (preparedQuery == null) {
+            preparedQuery = buildQuery(query);
+            if (preparedQueries.size() < PREPARED_QUERY_CACHE_SIZE) {
+                preparedQueries.putIfAbsent(queryShape, preparedQuery);
+            }
+        }
+        return preparedQuery;
+    }
+
+    /**
+     * The shape of a query contains everything that changes the generated SQL: which predicates are present, how
+     * they match, and what is selected. Queries with the same shape only differ in their parameter values.
+     */
+    protected String getQueryShape(BaseAssetQuery query) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(query.select.include).append(',').append(query.select.recursive).append(',').append(query.select.access);
+        sb.append(",attributeNames=").append(query.select.attributeNames != null ? query.select.attributeNames.length : -1);
+        sb.append(",id=").append(query.id != null);
+        sb.append(",name=");
+        appendPredicateShape(sb, query.namePredicate);
+        if (query.parentPredicate != null) {
+            sb.append(",parent=").append(query.parentPredicate.id != null)
+                .append(',').append(query.parentPredicate.type != null)
+                .append(',').append(query.parentPredicate.noParent);
+        }
+        sb.append(",path=").append(query.pathPredicate != null && query.pathPredicate.hasPath());
+        if (query.tenantPredicate != null) {
+            sb.append(",tenant=").append(query.tenantPredicate.realmId != null)
+                .append(',').append(query.tenantPredicate.realm != null);
+        }
+        if (query.geoPredicate != null) {
+            sb.append(",geo=").append(query.geoPredicate.hasBoundingBox())
+                .append(',').append(query.geoPredicate.hasRadius());
+        }
+        sb.append(",user=").append(query.userId != null);
+        sb.append(",type=");
+        appendPredicateShape(sb, query.type);
+        if (query.attributeMetaPredicates != null) {
+            for (AttributeMetaPredicate attributeMetaPredicate : query.attributeMetaPredicates) {
+                sb.append(",meta=");
+                appendPredicateShape(sb, attributeMetaPredicate.itemNamePredicate);
+                sb.append(':');
+                appendPredicateShape(sb, attributeMetaPredicate.itemValuePredicate);
+            }
+        }
+        if (query.attributePredicates != null) {
+            for (AttributePredicate attributePredicate : query.attributePredicates) {
+                sb.append(",attribute=");
+                appendPredicateShape(sb, attributePredicate.name);
+                sb.append(':');
+                appendPredicateShape(sb, attributePredicate.value);
+            }
+        }
+        if (query.orderBy != null) {
+            sb.append(",orderBy=").append(query.orderBy.property).append(',').append(query.orderBy.descending);
+        }
+        sb.append(",cursor=").append(query.cursor != null);
+        sb.append(",limit=").append(query.limit > 0);
+        return sb.toString();
+    }
+
+    protected void appendPredicateShape(StringBuilder sb, ValuePredicate predicate) {
+        if (predicate == null) {
+            sb.append('-');
+        } else if (predicate instanceof StringPredicate) {
+            StringPredicate stringPredicate = (StringPredicate) predicate;
+            sb.append("S(").append(stringPredicate.match).append(',').append(stringPredicate.caseSensitive).append(')');
+        } else if (predicate instanceof BooleanPredicate) {
+            // The boolean value is part of the SQL
+            sb.append("B(").append(((BooleanPredicate) predicate).predicate).append(')');
+        } else if (predicate instanceof StringArrayPredicate) {
+            sb.append("SA(");
+            for (StringPredicate stringPredicate : ((StringArrayPredicate) predicate).predicates) {
+                appendPredicateShape(sb, stringPredicate);
+            }
+            sb.append(')');
+        } else if (predicate instanceof DateTimePredicate) {
+            sb.append("DT(").append(((DateTimePredicate) predicate).operatorMatch).append(')');
+        } else if (predicate instanceof NumberPredicate) {
+            NumberPredicate numberPredicate = (NumberPredicate) predicate;
+            sb.append("N(").append(numberPredicate.operatorMatch).append(',').append(numberPredicate.numberType).append(')');
+        } else {
+            sb.append(predicate.getClass().getName());
+        }
+    }
+
     protected PreparedAssetQuery buildQuery(BaseAssetQuery query) {
         LOG.fine("Building: " + query);
         StringBuilder sb = new StringBuilder();
@@ -573,7 +1037,11 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(buildWhereClause(query, 3, binders));
         }
 
-        sb.append(buildOrderByString(query));
+        if (query.cursor != null) {
+            sb.append(buildCursorFilter(query, binders));
+        }
+
+        sb.append(buildOrderByString(query, binders));
         return new PreparedAssetQuery(sb.toString(), binders);
     }
 
@@ -609,21 +1077,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 break;
         }
 
-        if (!recursive || level == 3) {
-            if (include == ALL) {
-                sb.append(", get_asset_tree_path(A.ID) as PATH");
-            } else {
-                sb.append(", NULL as PATH");
-            }
+        if (include == ALL) {
+            sb.append(", A.PATH as PATH");
+        } else if (!recursive || level == 3) {
+            sb.append(", NULL as PATH");
         }
 
         if (include != ALL_EXCEPT_PATH_AND_ATTRIBUTES) {
 
             if (recursive && level != 3) {
-                sb.append(", A.ATTRIBUTES as ATTRIBUTES");
+                sb.append(", ").append(buildAttributesColumn(level)).append(" as ATTRIBUTES");
             } else {
                 boolean namesOnly = include == AssetQuery.Include.ONLY_ID_AND_NAME_AND_ATTRIBUTE_NAMES;
-                sb.append(buildAttributeSelect(query.select.attributeNames, query.select.access, namesOnly, binders));
+                sb.append(buildAttributeSelect(buildAttributesColumn(level), query.select.attributeNames, query.select.access, namesOnly, binders));
             }
         } else {
             sb.append(", NULL as ATTRIBUTES");
@@ -632,9 +1098,27 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return sb.toString();
     }
 
-    protected String buildAttributeSelect(String[] attributeNames, Access access, boolean namesOnly, List<ParameterBinder> binders) {
+    /**
+     * The attributes document of the asset, with the current values of the attribute value table if it is used.
+     */
+    protected String buildAttributesColumn(int level) {
+        // The CTE select (level 3) reads the attributes already selected by the recursive query
+        if (!attributeValueTable || level == 3)
+            return "A.ATTRIBUTES";
+
+        // Aggregate of stored values is null if there are none, then use the document as is
+        return "coalesce(A.ATTRIBUTES || (" +
+            "select jsonb_object_agg(AV.NAME, jsonb_set(jsonb_set(A.ATTRIBUTES -> AV.NAME, '{value}', AV.VALUE, true), '{valueTimestamp}', to_jsonb(AV.TIMESTAMP), true))" +
+            " from ASSET_ATTRIBUTE_VALUE AV" +
+            " where AV.ASSET_ID = A.ID" +
+            " and A.ATTRIBUTES -> AV.NAME is not null" +
+            " and AV.TIMESTAMP >= coalesce((A.ATTRIBUTES #>> array[text(AV.NAME), 'valueTimestamp'])::numeric, 0)" +
+            "), A.ATTRIBUTES)";
+    }
+
+    protected String buildAttributeSelect(String attributesColumn, String[] attributeNames, Access access, boolean namesOnly, List<ParameterBinder> binders) {
         if (attributeNames == null && access == PRIVATE_READ && !namesOnly) {
-            return ", A.ATTRIBUTES as ATTRIBUTES";
+            return ", " + attributesColumn + " as ATTRIBUTES";
         }
 
         StringBuilder sb = new StringBuilder();
@@ -646,7 +1130,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(" from jsonb_array_elements(AX.VALUE #> '{meta}') as AM");
             sb.append(" where AM.VALUE #>> '{name}' = '");
             sb.append(AssetMeta.LABEL.getUrn());
-            sb.append("'))) from jsonb_each(A.attributes) as AX");
+            sb.append("'))) from jsonb_each(").append(attributesColumn).append(") as AX");
             if (access != PRIVATE_READ) {
                 // Use implicit inner join on meta array set to only select non-private attributes
                 sb.append(", jsonb_array_elements(AX.VALUE #> '{meta}') as AM");
@@ -654,7 +1138,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         } else if (access != PRIVATE_READ) {
             // Use sub-select for processing the attributes the meta inside each attribute is replaced with filtered meta
             // (coalesce null to empty array because jsonb_set() with null will clear the whole object)
-            sb.append("select json_object_agg(AX.key, jsonb_set(AX.value, '{meta}', coalesce(AMF.VALUE, jsonb_build_array()), false)) from jsonb_each(A.attributes) as AX");
+            sb.append("select json_object_agg(AX.key, jsonb_set(AX.value, '{meta}', coalesce(AMF.VALUE, jsonb_build_array()), false)) from jsonb_each(")
+                .append(attributesColumn).append(") as AX");
             // Use implicit inner join on meta array set to only select attributes with a non-private access meta item
             sb.append(", jsonb_array_elements(AX.VALUE #> '{meta}') as AM");
             // Use subquery to filter out meta items not marked as non-private access
@@ -664,7 +1149,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(access == RESTRICTED_READ ? AssetModel.META_ITEM_RESTRICTED_READ_SQL_FRAGMENT : AssetModel.META_ITEM_PUBLIC_READ_SQL_FRAGMENT);
             sb.append(") as AMF ON true");
         } else {
-            sb.append("select json_object_agg(AX.key, AX.value) from jsonb_each(A.attributes) as AX");
+            sb.append("select json_object_agg(AX.key, AX.value) from jsonb_each(").append(attributesColumn).append(") as AX");
         }
 
         sb.append(" where true");
@@ -673,9 +1158,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(" AND AX.key IN (");
             for (int i = 0; i < attributeNames.length; i++) {
                 sb.append(i == attributeNames.length - 1 ? "?" : "?,");
-                final String attributeName = attributeNames[i];
+                final int index = i;
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, attributeName));
+                binders.add((q, st) -> st.setString(pos, q.select.attributeNames[index]));
             }
             sb.append(") ");
         }
@@ -686,7 +1171,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 new AssetQuery.AttributeMetaPredicate()
                     .itemName(access == RESTRICTED_READ ? AssetMeta.ACCESS_RESTRICTED_READ: AssetMeta.ACCESS_PUBLIC_READ)
                     .itemValue(new AssetQuery.BooleanPredicate(true));
-            sb.append(buildAttributeMetaFilter(accessPredicate, binders));
+            sb.append(buildAttributeMetaFilter(accessPredicate, q -> accessPredicate, binders));
         }
 
         sb.append(") AS ATTRIBUTES");
@@ -733,7 +1218,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return sb.toString();
     }
 
-    protected String buildOrderByString(BaseAssetQuery query) {
+    protected String buildOrderByString(BaseAssetQuery query, List<ParameterBinder> binders) {
         StringBuilder sb = new StringBuilder();
 
         if (query.id != null && !query.select.recursive) {
@@ -742,30 +1227,101 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
         if (query.orderBy != null && query.orderBy.property != null) {
             sb.append(" order by ");
+            sb.append(buildOrderByColumn(query.orderBy.property, isKeysetPaged(query)));
+            sb.append(query.orderBy.descending ? " desc " : " asc ");
 
-            switch (query.orderBy.property) {
-                case CREATED_ON:
-                    sb.append(" A.CREATED_ON ");
-                    break;
-                case ASSET_TYPE:
-                    sb.append(" A.ASSET_TYPE ");
-                    break;
-                case NAME:
-                    sb.append(" A.NAME ");
-                    break;
-                case PARENT_ID:
-                    sb.append(" A.PARENT_ID ");
-                    break;
-                case REALM_ID:
-                    sb.append(" A.REALM_ID ");
-                    break;
+            if (isKeysetPaged(query)) {
+                // Assets with the same order value are ordered by identifier, a page continues after the last asset
+                sb.append(query.orderBy.descending ? ", A.ID desc " : ", A.ID asc ");
             }
-            sb.append(query.orderBy.descending ? "desc " : "asc ");
         }
 
+        if (query.limit > 0) {
+            sb.append(" limit ?");
+            final int pos = binders.size() + 1;
+            binders.add((q, st) -> st.setInt(pos, q.limit));
+        }
+
+        return sb.toString();
+    }
+
+    protected String buildOrderByColumn(OrderBy.Property property, boolean keysetPaged) {
+        switch (property) {
+            case CREATED_ON:
+                return "A.CREATED_ON";
+            case ASSET_TYPE:
+                return "A.ASSET_TYPE";
+            case NAME:
+                return "A.NAME";
+            case PARENT_ID:
+                // Row value comparison of the keyset doesn't match null values
+                return keysetPaged ? "coalesce(A.PARENT_ID, '')" : "A.PARENT_ID";
+            case REALM_ID:
+                return "A.REALM_ID";
+            default:
+                throw new UnsupportedOperationException("Order by property not supported: " + property);
+        }
+    }
+
+    /**
+     * Continue after the last asset of the previous page, in the order of the query.
+     */
+    protected String buildCursorFilter(BaseAssetQuery query, List<ParameterBinder> binders) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(" and (").append(buildOrderByColumn(query.orderBy.property, true)).append(", A.ID)");
+        sb.append(query.orderBy.descending ? " < " : " > ");
+        sb.append(query.orderBy.property == OrderBy.Property.CREATED_ON ? "(cast(? as timestamp with time zone), ?)" : "(?, ?)");
+        final int valuePos = binders.size() + 1;
+        binders.add((q, st) -> st.setString(valuePos, decodeCursor(q.orderBy, q.cursor)[0]));
+        final int idPos = binders.size() + 1;
+        binders.add((q, st) -> st.setString(idPos, decodeCursor(q.orderBy, q.cursor)[1]));
         return sb.toString();
     }
 
+    protected boolean isKeysetPaged(BaseAssetQuery query) {
+        return (query.limit > 0 || query.cursor != null)
+            && query.id == null
+            && query.orderBy != null
+            && query.orderBy.property != null;
+    }
+
+    protected String getOrderByValue(OrderBy orderBy, ResultSet rs) throws SQLException {
+        // The database text representation, so timestamps keep their precision
+        String value = rs.getString(orderBy.property.name());
+        return value != null ? value : "";
+    }
+
+    /**
+     * The cursor is opaque for clients, it contains the order of the query so it can't be used with a different order.
+     */
+    protected String encodeCursor(OrderBy orderBy, String orderByValue, String assetId) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Container.JSON.writeValueAsBytes(new String[]{
+                orderBy.property.name(), Boolean.toString(orderBy.descending), orderByValue, assetId
+            }));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error encoding query cursor", ex);
+        }
+    }
+
+    /**
+     * @return The order value and asset identifier of the last asset of the previous page.
+     */
+    protected String[] decodeCursor(OrderBy orderBy, String cursor) {
+        String[] values;
+        try {
+            values = Container.JSON.readValue(Base64.getUrlDecoder().decode(cursor), String[].class);
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new IllegalStateException("Invalid query cursor: " + cursor);
+        }
+        if (values == null || values.length != 4
+            || !orderBy.property.name().equals(values[0])
+            || !Boolean.toString(orderBy.descending).equals(values[1])) {
+            throw new IllegalStateException("Query cursor doesn't match order of query: " + cursor);
+        }
+        return new String[]{values[2], values[3]};
+    }
+
     protected String buildWhereClause(BaseAssetQuery query, int level, List<ParameterBinder> binders) {
         // level = 1 is main query
         // level = 2 is union
@@ -781,14 +1337,14 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (level == 1 && query.id != null) {
             sb.append(" and A.ID = ?");
             final int pos = binders.size() + 1;
-            binders.add(st -> st.setString(pos, query.id));
+            binders.add((q, st) -> st.setString(pos, q.id));
         }
 
         if (level == 1 && query.namePredicate != null) {
             sb.append(query.namePredicate.caseSensitive ? " and A.NAME " : " and upper(A.NAME)");
             sb.append(query.namePredicate.match == AssetQuery.Match.EXACT ? " = ?" : " like ?");
             final int pos = binders.size() + 1;
-            binders.add(st -> st.setString(pos, query.namePredicate.prepareValue()));
+            binders.add((q, st) -> st.setString(pos, q.namePredicate.prepareValue()));
         }
 
         if (query.parentPredicate != null) {
@@ -797,38 +1353,38 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 sb.append(" and p.ID = a.PARENT_ID");
                 sb.append(" and A.PARENT_ID = ?");
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.parentPredicate.id));
+                binders.add((q, st) -> st.setString(pos, q.parentPredicate.id));
             } else if (query.parentPredicate.type != null) {
                 sb.append(" and p.ID = a.PARENT_ID");
                 sb.append(" and P.ASSET_TYPE = ?");
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.parentPredicate.type));
+                binders.add((q, st) -> st.setString(pos, q.parentPredicate.type));
             } else if (level == 1 && query.parentPredicate.noParent) {
                 sb.append(" and A.PARENT_ID is null");
             }
         }
 
         if (level == 1 && query.pathPredicate != null && query.pathPredicate.hasPath()) {
-            sb.append(" and ? <@ get_asset_tree_path(A.ID)");
+            sb.append(" and A.PATH @> ?");
             final int pos = binders.size() + 1;
-            binders.add(st -> st.setArray(pos, st.getConnection().createArrayOf("text", query.pathPredicate.path)));
+            binders.add((q, st) -> st.setArray(pos, st.getConnection().createArrayOf("text", q.pathPredicate.path)));
         }
 
         if (!recursive || level == 3) {
             if (query.tenantPredicate != null && query.tenantPredicate.realmId != null) {
                 sb.append(" and R.ID = ?");
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.tenantPredicate.realmId));
+                binders.add((q, st) -> st.setString(pos, q.tenantPredicate.realmId));
             } else if (query.tenantPredicate != null && query.tenantPredicate.realm != null) {
                 sb.append(" and R.NAME = ?");
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.tenantPredicate.realm));
+                binders.add((q, st) -> st.setString(pos, q.tenantPredicate.realm));
             }
 
             if (query.userId != null) {
                 sb.append(" and ua.ASSET_ID = a.ID and ua.USER_ID = ?");
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.userId));
+                binders.add((q, st) -> st.setString(pos, q.userId));
             }
 
             if (level == 1 && query.select.access == Access.PUBLIC_READ) {
@@ -839,12 +1395,42 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 sb.append(query.type.caseSensitive ? " and A.ASSET_TYPE" : " and upper(A.ASSET_TYPE)");
                 sb.append(query.type.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.type.prepareValue()));
+                binders.add((q, st) -> st.setString(pos, q.type.prepareValue()));
+            }
+
+            if (query.geoPredicate != null && query.geoPredicate.hasBoundingBox()) {
+                // The bounding box operator is served by the spatial index of the location
+                sb.append(" and A.LOCATION && ST_MakeEnvelope(?, ?, ?, ?)");
+                for (int i = 0; i < 4; i++) {
+                    final int index = i;
+                    final int pos = binders.size() + 1;
+                    binders.add((q, st) -> st.setDouble(pos, q.geoPredicate.boundingBox[index]));
+                }
+            } else if (query.geoPredicate != null && query.geoPredicate.hasRadius()) {
+                // Pre-filter with a bounding box of the circle for the spatial index, then compare the distance on
+                // the spheroid
+                sb.append(" and A.LOCATION && ST_MakeEnvelope(?, ?, ?, ?)");
+                for (int i = 0; i < 4; i++) {
+                    final int index = i;
+                    final int pos = binders.size() + 1;
+                    binders.add((q, st) -> st.setDouble(pos, getRadiusBoundingBox(q.geoPredicate)[index]));
+                }
+                sb.append(" and ST_DWithin(cast(A.LOCATION as geography), cast(ST_MakePoint(?, ?) as geography), ?)");
+                final int pos = binders.size() + 1;
+                binders.add((q, st) -> st.setDouble(pos, q.geoPredicate.center[0]));
+                binders.add((q, st) -> st.setDouble(pos + 1, q.geoPredicate.center[1]));
+                binders.add((q, st) -> st.setDouble(pos + 2, q.geoPredicate.radiusMeters));
             }
 
             if (query.attributeMetaPredicates != null) {
-                for (AttributeMetaPredicate attributeMetaPredicate : query.attributeMetaPredicates) {
-                    String attributeMetaFilter = buildAttributeMetaFilter(attributeMetaPredicate, binders);
+                for (int i = 0; i < query.attributeMetaPredicates.length; i++) {
+                    final int index = i;
+                    sb.append(buildAttributeMetaContainment(
+                        query.attributeMetaPredicates[i], q -> q.attributeMetaPredicates[index], binders
+                    ));
+                    String attributeMetaFilter = buildAttributeMetaFilter(
+                        query.attributeMetaPredicates[i], q -> q.attributeMetaPredicates[index], binders
+                    );
 
                     if (attributeMetaFilter.length() > 0) {
                         sb.append(" and A.ID in (select A.ID from");
@@ -858,13 +1444,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             }
 
             if (query.attributePredicates != null) {
-                for (AssetQuery.AttributePredicate attributePredicate : query.attributePredicates) {
+                for (int i = 0; i < query.attributePredicates.length; i++) {
+                    final int index = i;
+                    sb.append(buildAttributeContainment(
+                        query.attributePredicates[i], q -> q.attributePredicates[index], binders
+                    ));
                     StringBuilder attributeFilterBuilder = new StringBuilder();
-                    attributeFilterBuilder.append(buildAttributeFilter(attributePredicate, binders));
+                    attributeFilterBuilder.append(buildAttributeFilter(
+                        query.attributePredicates[i], q -> q.attributePredicates[index], binders
+                    ));
 
                     if (attributeFilterBuilder.length() > 0) {
                         sb.append(" and A.ID in (select A.ID from");
-                        sb.append(" jsonb_each(A.ATTRIBUTES) as AX");
+                        sb.append(" jsonb_each(").append(buildAttributesColumn(level)).append(") as AX");
                         sb.append(" where true");
                         sb.append(attributeFilterBuilder.toString());
                         sb.append(")");
@@ -875,7 +1467,102 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return sb.toString();
     }
 
-    protected String buildAttributeMetaFilter(AssetQuery.AttributeMetaPredicate attributeMetaPredicate, List<ParameterBinder> binders) {
+    /**
+     * @return West, south, east, and north of a box containing the circle of the predicate, with a margin for the
+     * difference between sphere and spheroid. Near the poles and across the antimeridian the box has all longitudes.
+     */
+    protected static double[] getRadiusBoundingBox(GeoPredicate geoPredicate) {
+        double lng = geoPredicate.center[0];
+        double lat = geoPredicate.center[1];
+        double latDelta = Math.toDegrees(geoPredicate.radiusMeters / EARTH_RADIUS_METERS) * GEO_BOUNDING_BOX_MARGIN;
+        double south = Math.max(-90, lat - latDelta);
+        double north = Math.min(90, lat + latDelta);
+        double maxLat = Math.max(Math.abs(south), Math.abs(north));
+        if (maxLat < 90) {
+            double lngDelta = latDelta / Math.cos(Math.toRadians(maxLat));
+            if (lng - lngDelta >= -180 && lng + lngDelta <= 180) {
+                return new double[]{lng - lngDelta, south, lng + lngDelta, north};
+            }
+        }
+        return new double[]{-180, south, 180, north};
+    }
+
+    /**
+     * Pre-filter for an exact meta item name or a boolean meta item value with jsonb containment, served by the
+     * index on all meta items of an asset. The containment is only a candidate filter, the meta filter of the
+     * predicate still applies. String values are not contained, the meta filter compares their text form and also
+     * matches numbers and booleans.
+     */
+    protected String buildAttributeMetaContainment(AttributeMetaPredicate attributeMetaPredicate,
+                                                   Function<BaseAssetQuery, AttributeMetaPredicate> predicateOfQuery,
+                                                   List<ParameterBinder> binders) {
+        if (!isExactMatch(attributeMetaPredicate.itemNamePredicate) && !isContainable(attributeMetaPredicate.itemValuePredicate))
+            return "";
+
+        final int pos = binders.size() + 1;
+        binders.add((q, st) -> {
+            AttributeMetaPredicate predicate = predicateOfQuery.apply(q);
+            ObjectValue metaItem = Values.createObject();
+            if (isExactMatch(predicate.itemNamePredicate) && predicate.itemNamePredicate.value != null) {
+                metaItem.put("name", predicate.itemNamePredicate.value);
+            }
+            getContainedValue(predicate.itemValuePredicate).ifPresent(value -> metaItem.put("value", value));
+            st.setString(pos, "[" + metaItem.toJson() + "]");
+        });
+        return " and GET_ASSET_ATTRIBUTE_META(A.ATTRIBUTES) @> cast(? as jsonb)";
+    }
+
+    /**
+     * Pre-filter for an exact attribute name with jsonb containment, served by the index on the attributes
+     * document. If values are stored in the document, boolean values are also part of the containment.
+     */
+    protected String buildAttributeContainment(AttributePredicate attributePredicate,
+                                               Function<BaseAssetQuery, AttributePredicate> predicateOfQuery,
+                                               List<ParameterBinder> binders) {
+        if (!isExactMatch(attributePredicate.name))
+            return "";
+
+        final int pos = binders.size() + 1;
+        binders.add((q, st) -> {
+            AttributePredicate predicate = predicateOfQuery.apply(q);
+            ObjectValue attribute = Values.createObject();
+            if (!attributeValueTable) {
+                getContainedValue(predicate.value).ifPresent(value -> attribute.put("value", value));
+            }
+            ObjectValue attributes = Values.createObject();
+            if (predicate.name.value != null) {
+                attributes.put(predicate.name.value, attribute);
+            }
+            st.setString(pos, attributes.toJson());
+        });
+        return " and A.ATTRIBUTES @> cast(? as jsonb)";
+    }
+
+    protected boolean isExactMatch(StringPredicate predicate) {
+        return predicate != null && predicate.match == AssetQuery.Match.EXACT && predicate.caseSensitive;
+    }
+
+    /**
+     * @return <code>true</code> if the filter of the predicate compares the JSON value, so containment of the value
+     * doesn't exclude more than the filter. This must only depend on the shape of the predicate as the SQL is
+     * cached by query shape.
+     */
+    protected boolean isContainable(ValuePredicate predicate) {
+        return predicate instanceof BooleanPredicate;
+    }
+
+    protected Optional<Value> getContainedValue(ValuePredicate predicate) {
+        if (!isContainable(predicate))
+            return Optional.empty();
+        return Optional.of(Values.create(((BooleanPredicate) predicate).predicate));
+    }
+
+    /**
+     * @param predicateOfQuery Returns the predicate of the executed query when binding its parameter values.
+     */
+    protected String buildAttributeMetaFilter(AssetQuery.AttributeMetaPredicate attributeMetaPredicate,
+                                              Function<BaseAssetQuery, AttributeMetaPredicate> predicateOfQuery,
+                                              List<ParameterBinder> binders) {
         StringBuilder attributeMetaBuilder = new StringBuilder();
 
         if (attributeMetaPredicate.itemNamePredicate != null) {
@@ -885,7 +1572,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             );
             attributeMetaBuilder.append(attributeMetaPredicate.itemNamePredicate.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
             final int pos = binders.size() + 1;
-            binders.add(st -> st.setString(pos, attributeMetaPredicate.itemNamePredicate.prepareValue()));
+            binders.add((q, st) -> st.setString(pos, predicateOfQuery.apply(q).itemNamePredicate.prepareValue()));
         }
         if (attributeMetaPredicate.itemValuePredicate != null) {
             if (attributeMetaPredicate.itemValuePredicate instanceof AssetQuery.StringPredicate) {
@@ -896,7 +1583,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 );
                 attributeMetaBuilder.append(stringPredicate.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, stringPredicate.prepareValue()));
+                binders.add((q, st) -> st.setString(pos,
+                    ((StringPredicate) predicateOfQuery.apply(q).itemValuePredicate).prepareValue()
+                ));
             } else if (attributeMetaPredicate.itemValuePredicate instanceof AssetQuery.BooleanPredicate) {
                 AssetQuery.BooleanPredicate booleanPredicate = (AssetQuery.BooleanPredicate) attributeMetaPredicate.itemValuePredicate;
                 attributeMetaBuilder.append(" and AM.VALUE #> '{value}' = to_jsonb(")
@@ -911,8 +1600,11 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                         : " and upper(AM.VALUE #> '{value}' ->> " + i + ")"
                     );
                     attributeMetaBuilder.append(stringPredicate.match == AssetQuery.Match.EXACT ? " = ?" : " like ?");
+                    final int index = i;
                     final int pos = binders.size() + 1;
-                    binders.add(st -> st.setString(pos, stringPredicate.prepareValue()));
+                    binders.add((q, st) -> st.setString(pos,
+                        ((StringArrayPredicate) predicateOfQuery.apply(q).itemValuePredicate).predicates[index].prepareValue()
+                    ));
                 }
             }
         }
@@ -920,7 +1612,12 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return attributeMetaBuilder.toString();
     }
 
-    protected String buildAttributeFilter(AssetQuery.AttributePredicate attributePredicate, List<ParameterBinder> binders) {
+    /**
+     * @param predicateOfQuery Returns the predicate of the executed query when binding its parameter values.
+     */
+    protected String buildAttributeFilter(AssetQuery.AttributePredicate attributePredicate,
+                                          Function<BaseAssetQuery, AttributePredicate> predicateOfQuery,
+                                          List<ParameterBinder> binders) {
         StringBuilder attributeBuilder = new StringBuilder();
 
         if (attributePredicate.name != null) {
@@ -930,7 +1627,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             );
             attributeBuilder.append(attributePredicate.name.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
             final int pos = binders.size() + 1;
-            binders.add(st -> st.setString(pos, attributePredicate.name.prepareValue()));
+            binders.add((q, st) -> st.setString(pos, predicateOfQuery.apply(q).name.prepareValue()));
         }
         if (attributePredicate.value != null) {
             if (attributePredicate.value instanceof AssetQuery.StringPredicate) {
@@ -941,7 +1638,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 );
                 attributeBuilder.append(stringPredicate.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, stringPredicate.prepareValue()));
+                binders.add((q, st) -> st.setString(pos, ((StringPredicate) predicateOfQuery.apply(q).value).prepareValue()));
             } else if (attributePredicate.value instanceof AssetQuery.BooleanPredicate) {
                 AssetQuery.BooleanPredicate booleanPredicate = (AssetQuery.BooleanPredicate) attributePredicate.value;
                 attributeBuilder.append(" and AX.VALUE #> '{value}' = to_jsonb(")
@@ -956,19 +1653,24 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                         : " and upper(AX.VALUE #> '{value}' ->> " + i + ")"
                     );
                     attributeBuilder.append(stringPredicate.match == AssetQuery.Match.EXACT ? " = ?" : " like ?");
+                    final int index = i;
                     final int pos = binders.size() + 1;
-                    binders.add(st -> st.setString(pos, stringPredicate.prepareValue()));
+                    binders.add((q, st) -> st.setString(pos,
+                        ((StringArrayPredicate) predicateOfQuery.apply(q).value).predicates[index].prepareValue()
+                    ));
                 }
             } else if (attributePredicate.value instanceof AssetQuery.DateTimePredicate) {
                 AssetQuery.DateTimePredicate dateTimePredicate = (AssetQuery.DateTimePredicate) attributePredicate.value;
+                Function<BaseAssetQuery, DateTimePredicate> dateTimePredicateOfQuery =
+                    q -> (DateTimePredicate) predicateOfQuery.apply(q).value;
                 attributeBuilder.append(" and to_timestamp(AX.VALUE #>> '{value}', ?)");
                 final int keyFormatPos = binders.size() + 1;
-                binders.add(st -> st.setString(keyFormatPos, dateTimePredicate.dateFormat));
+                binders.add((q, st) -> st.setString(keyFormatPos, dateTimePredicateOfQuery.apply(q).dateFormat));
 
                 final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, dateTimePredicate.value));
+                binders.add((q, st) -> st.setString(pos, dateTimePredicateOfQuery.apply(q).value));
                 final int formatPos = binders.size() + 1;
-                binders.add(st -> st.setString(formatPos, dateTimePredicate.dateFormat));
+                binders.add((q, st) -> st.setString(formatPos, dateTimePredicateOfQuery.apply(q).dateFormat));
 
                 switch (dateTimePredicate.operatorMatch) {
                     case EXACT:
@@ -989,13 +1691,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     case BETWEEN:
                         attributeBuilder.append(" BETWEEN to_timestamp(?, ?) AND to_timestamp(?, ?)");
                         final int pos2 = binders.size() + 1;
-                        binders.add(st -> st.setString(pos2, dateTimePredicate.rangeValue));
+                        binders.add((q, st) -> st.setString(pos2, dateTimePredicateOfQuery.apply(q).rangeValue));
                         final int formatPos2 = binders.size() + 1;
-                        binders.add(st -> st.setString(formatPos2, dateTimePredicate.dateFormat));
+                        binders.add((q, st) -> st.setString(formatPos2, dateTimePredicateOfQuery.apply(q).dateFormat));
                         break;
                 }
             } else if (attributePredicate.value instanceof AssetQuery.NumberPredicate) {
                 AssetQuery.NumberPredicate numberPredicate = (AssetQuery.NumberPredicate) attributePredicate.value;
+                Function<BaseAssetQuery, NumberPredicate> numberPredicateOfQuery =
+                    q -> (NumberPredicate) predicateOfQuery.apply(q).value;
                 attributeBuilder.append(" and (AX.VALUE #>> '{value}')::numeric");
                 switch (numberPredicate.operatorMatch) {
                     case EXACT:
@@ -1023,17 +1727,17 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 switch (numberPredicate.numberType) {
                     case DOUBLE:
                     default:
-                        binders.add(st -> st.setDouble(pos, numberPredicate.value));
+                        binders.add((q, st) -> st.setDouble(pos, numberPredicateOfQuery.apply(q).value));
                         if (numberPredicate.operatorMatch == OperatorMatch.BETWEEN) {
                             final int pos2 = binders.size() + 1;
-                            binders.add(st -> st.setDouble(pos, numberPredicate.rangeValue));
+                            binders.add((q, st) -> st.setDouble(pos2, numberPredicateOfQuery.apply(q).rangeValue));
                         }
                         break;
                     case INTEGER:
-                        binders.add(st -> st.setInt(pos, (int) numberPredicate.value));
+                        binders.add((q, st) -> st.setInt(pos, (int) numberPredicateOfQuery.apply(q).value));
                         if (numberPredicate.operatorMatch == OperatorMatch.BETWEEN) {
                             final int pos2 = binders.size() + 1;
-                            binders.add(st -> st.setInt(pos2, (int) numberPredicate.rangeValue));
+                            binders.add((q, st) -> st.setInt(pos2, (int) numberPredicateOfQuery.apply(q).rangeValue));
                         }
                         break;
                 }
@@ -1073,56 +1777,142 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
     protected boolean storeAttributeValue(String assetId, String attributeName, Value value, String timestamp) {
+        // Check we don't have a SQL injection hole in attribute name!
+        if (!AssetAttribute.ATTRIBUTE_NAME_VALIDATOR.test(attributeName)) {
+            LOG.fine(
+                "Invalid attribute name (must match '" + AssetAttribute.ATTRIBUTE_NAME_PATTERN + "'): " + attributeName
+            );
+            return false;
+        }
+
+        if (attributeValueWriter != null && attributeValueWriter.isRunning()) {
+            return attributeValueWriter.write(assetId, attributeName, value, timestamp);
+        }
+
         return persistenceService.doReturningTransaction(entityManager ->
             entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(AttributeValueWriter.getAttributeValueSql(attributeValueTable))) {
+                    AttributeValueWriter.bindAttributeValue(connection, statement, attributeValueTable, assetId, attributeName, value, timestamp);
+                    int updatedRows = statement.executeUpdate();
+                    LOG.fine("Stored asset '" + assetId + "' attribute '" + attributeName + "' value, affected rows: " + updatedRows);
+                    return updatedRows == 1;
+                }
+            })
+        );
+    }
 
-                String update =
-                    "update ASSET" +
-                        " set ATTRIBUTES = jsonb_set(jsonb_set(ATTRIBUTES, ?, ?, true), ?, ?, true)" +
-                        " where ID = ? and ATTRIBUTES -> ? is not null";
-                try (PreparedStatement statement = connection.prepareStatement(update)) {
-
-                    // Bind the value (and check we don't have a SQL injection hole in attribute name!)
-                    if (!AssetAttribute.ATTRIBUTE_NAME_VALIDATOR.test(attributeName)) {
-                        LOG.fine(
-                            "Invalid attribute name (must match '" + AssetAttribute.ATTRIBUTE_NAME_PATTERN + "'): " + attributeName
-                        );
-                        return false;
-                    }
+    protected AssetImportResult importAssets(Connection connection, InputStream documents, AssetImport assetImport) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute(IMPORT_CREATE_DOCUMENTS_SQL);
+        }
+        try {
+            connection.unwrap(PGConnection.class).getCopyAPI().copyIn(IMPORT_COPY_DOCUMENTS_SQL, documents);
+        } catch (SQLException ex) {
+            // The message has the line of the invalid document
+            throw new IllegalStateException("Invalid asset import document: " + ex.getMessage(), ex);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error reading asset import documents: " + ex.getMessage(), ex);
+        }
+        try (Statement st = connection.createStatement()) {
+            st.execute(IMPORT_CREATE_ROWS_SQL);
+        }
 
-                    Array attributeValuePath = connection.createArrayOf(
-                        "text",
-                        new String[]{attributeName, "value"}
-                    );
-                    statement.setArray(1, attributeValuePath);
-
-                    PGobject pgJsonValue = new PGobject();
-                    pgJsonValue.setType("jsonb");
-                    // Careful, do not set Java null (as returned by value.toJson()) here! It will erase your whole SQL column!
-                    pgJsonValue.setValue(value == null ? "null" : value.toJson());
-                    statement.setObject(2, pgJsonValue);
-
-                    // Bind the value timestamp
-                    Array attributeValueTimestampPath = connection.createArrayOf(
-                        "text",
-                        new String[]{attributeName, "valueTimestamp"}
-                    );
-                    statement.setArray(3, attributeValueTimestampPath);
-                    PGobject pgJsonValueTimestamp = new PGobject();
-                    pgJsonValueTimestamp.setType("jsonb");
-                    pgJsonValueTimestamp.setValue(timestamp);
-                    statement.setObject(4, pgJsonValueTimestamp);
+        List<String> errors = new ArrayList<>();
+        try (PreparedStatement st = connection.prepareStatement(IMPORT_VALIDATE_SQL)) {
+            st.setString(1, "^\\w+$");
+            st.setInt(2, IMPORT_MAX_ERRORS);
+            readImportErrors(st, errors);
+        }
+        if (errors.isEmpty()) {
+            try (Statement st = connection.createStatement()) {
+                st.executeUpdate(IMPORT_UPDATE_DEPTH_SQL);
+            }
+            try (PreparedStatement st = connection.prepareStatement(IMPORT_VALIDATE_DEPTH_SQL)) {
+                st.setInt(1, IMPORT_MAX_ERRORS);
+                readImportErrors(st, errors);
+            }
+        }
+        if (!errors.isEmpty())
+            return new AssetImportResult(0, errors);
+
+        int imported = 0;
+        try (PreparedStatement st = connection.prepareStatement(IMPORT_INSERT_SQL)) {
+            int inserted;
+            int depth = 0;
+            do {
+                st.setInt(1, depth++);
+                inserted = st.executeUpdate();
+                imported += inserted;
+            } while (inserted > 0);
+        }
 
-                    // Bind asset ID and attribute name
-                    statement.setString(5, assetId);
-                    statement.setString(6, attributeName);
+        try (PreparedStatement st = connection.prepareStatement(IMPORT_SELECT_IMPORTED_SQL)) {
+            st.setString(1, AssetType.AGENT.getValue());
+            st.setString(2, Values.createArray().add(Values.createObject().put("name", AssetMeta.AGENT_LINK.getUrn())).toJson());
+            st.setString(3, Values.createArray().add(Values.createObject().put("name", AssetMeta.RULE_STATE.getUrn())).toJson());
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    String assetId = rs.getString("ID");
+                    assetImport.realmIds.add(rs.getString("REALM_ID"));
+                    if (rs.getBoolean("IS_AGENT"))
+                        assetImport.agentIds.add(assetId);
+                    if (rs.getBoolean("HAS_AGENT_LINK"))
+                        assetImport.agentLinkAssetIds.add(assetId);
+                    if (rs.getBoolean("HAS_RULE_STATE"))
+                        assetImport.ruleStateAssetIds.add(assetId);
+                }
+            }
+        }
+        assetImport.assetCount = imported;
+        return new AssetImportResult(imported, errors);
+    }
 
-                    int updatedRows = statement.executeUpdate();
-                    LOG.fine("Stored asset '" + assetId + "' attribute '" + attributeName + "' value, affected rows: " + updatedRows);
-                    return updatedRows == 1;
+    protected void readImportErrors(PreparedStatement st, List<String> errors) throws SQLException {
+        try (ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+                errors.add("Line " + rs.getLong(1) + ": " + rs.getString(2));
+            }
+        }
+    }
+
+    protected int[] countChildren(List<? extends Asset> parents, String userId) {
+        int[] childCounts = new int[parents.size()];
+        if (parents.isEmpty())
+            return childCounts;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("select A.PARENT_ID, count(*) from ASSET A where A.PARENT_ID = any(?)");
+        if (userId != null) {
+            sb.append(" and exists (select 1 from USER_ASSET UA where UA.ASSET_ID = A.ID and UA.USER_ID = ?)");
+        }
+        sb.append(" group by A.PARENT_ID");
+        String countSql = sb.toString();
+
+        Map<String, Integer> counts = persistenceService.doReturningTransaction(em ->
+            em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<Map<String, Integer>>() {
+                @Override
+                public Map<String, Integer> execute(Connection connection) throws SQLException {
+                    try (PreparedStatement st = connection.prepareStatement(countSql)) {
+                        String[] parentIds = parents.stream().map(Asset::getId).toArray(String[]::new);
+                        st.setArray(1, connection.createArrayOf("text", parentIds));
+                        if (userId != null) {
+                            st.setString(2, userId);
+                        }
+                        Map<String, Integer> result = new HashMap<>();
+                        try (ResultSet rs = st.executeQuery()) {
+                            while (rs.next()) {
+                                result.put(rs.getString(1), rs.getInt(2));
+                            }
+                        }
+                        return result;
+                    }
                 }
             })
         );
+        for (int i = 0; i < childCounts.length; i++) {
+            childCounts[i] = counts.getOrDefault(parents.get(i).getId(), 0);
+        }
+        return childCounts;
     }
 
     protected void publishModificationEvents(PersistenceEvent<ServerAsset> persistenceEvent) {
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.openremote.container.Container;
+import org.openremote.container.message.MessageJournal;
+import org.openremote.container.message.OverflowQueue;
+import org.openremote.container.timer.TimerService;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeEvent.Source;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.openremote.agent.protocol.Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL;
+import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
+
+/**
+ * Writes sensor and internal {@link AttributeEvent}s to a {@link MessageJournal} when they are sent to a queue of
+ * the processing chain, so events that were accepted but not processed before the manager stopped or crashed are
+ * processed after a restart. An event is committed when the processing chain is done with it, or when the queue
+ * discards it. An event that fails in the processing chain, for example because the database isn't available, is
+ * moved to a separate journal of failed events and processed again once after a restart. The segments of the journal
+ * are then deleted as soon as their other events have been processed, only the (rare) failed events are kept until
+ * the next restart.
+ * <p>
+ * Client events and events sent by a caller waiting for a reply are not journaled: the authorization of a client
+ * can't be verified again, and a waiting caller is notified of the failure.
+ */
+public class AttributeEventJournal {
+
+    private static final Logger LOG = Logger.getLogger(AttributeEventJournal.class.getName());
+
+    public static final String PROPERTY_JOURNAL_ID = AttributeEventJournal.class.getName() + ".JOURNAL_ID";
+    public static final String PROPERTY_REPLAYED = AttributeEventJournal.class.getName() + ".REPLAYED";
+    public static final String PROPERTY_FAILED_JOURNAL_ID = AttributeEventJournal.class.getName() + ".FAILED_JOURNAL_ID";
+
+    protected static class JournalRecord {
+        protected AttributeEvent event;
+        protected Source source;
+        protected String protocolName;
+
+        protected JournalRecord() {
+        }
+
+        public JournalRecord(AttributeEvent event, Source source, String protocolName) {
+            this.event = event;
+            this.source = source;
+            this.protocolName = protocolName;
+        }
+    }
+
+    final protected MessageJournal journal;
+    final protected MessageJournal failedJournal;
+    protected List<MessageJournal.Record> pendingRecords = Collections.emptyList();
+    protected List<MessageJournal.Record> failedRecords = Collections.emptyList();
+
+    public AttributeEventJournal(MessageJournal journal, MessageJournal failedJournal) {
+        this.journal = journal;
+        this.failedJournal = failedJournal;
+    }
+
+    public MessageJournal getJournal() {
+        return journal;
+    }
+
+    public MessageJournal getFailedJournal() {
+        return failedJournal;
+    }
+
+    public void open() throws IOException {
+        pendingRecords = journal.open();
+        failedRecords = failedJournal.open();
+    }
+
+    public void force() {
+        journal.force();
+        failedJournal.force();
+    }
+
+    public void close() {
+        journal.close();
+        failedJournal.close();
+    }
+
+    /**
+     * @param defaultSource The source of events without {@link AttributeEvent#HEADER_SOURCE}.
+     */
+    public OverflowQueue.Listener getQueueListener(Source defaultSource) {
+        return new OverflowQueue.Listener() {
+            @Override
+            public void onEnqueue(Exchange exchange) {
+                append(exchange, defaultSource);
+            }
+
+            @Override
+            public void onDiscard(Exchange exchange) {
+                processed(exchange, false);
+            }
+        };
+    }
+
+    /**
+     * Commits the event of the exchange. If processing failed and the event has not been replayed yet, the event is
+     * moved to the journal of failed events first.
+     */
+    public void processed(Exchange exchange, boolean failed) {
+        Long failedId = exchange.getProperty(PROPERTY_FAILED_JOURNAL_ID, Long.class);
+        if (failedId != null) {
+            failedJournal.commit(failedId);
+            return;
+        }
+        Long id = exchange.getProperty(PROPERTY_JOURNAL_ID, Long.class);
+        if (id == null)
+            return;
+        if (failed && !exchange.getProperty(PROPERTY_REPLAYED, false, Boolean.class)) {
+            try {
+                long movedId = failedJournal.append(Container.JSON.writeValueAsBytes(createRecord(exchange, Source.INTERNAL)));
+                LOG.fine("Moved failed event to journal of failed events for replay: " + id + " -> " + movedId);
+            } catch (IOException | IllegalStateException ex) {
+                // The journal of failed events may be closed already when the manager stops
+                LOG.log(Level.WARNING, "Error moving failed event to journal of failed events, keeping it in journal: " + id, ex);
+                return;
+            }
+        }
+        journal.commit(id);
+    }
+
+    /**
+     * Sends the events that failed and the events that were pending when the journal was last closed to the
+     * endpoint, each in the order they were journaled. The events get a new ingress sequence, as the sequence is not
+     * persistent.
+     *
+     * @return The number of replayed events.
+     */
+    public int replay(ProducerTemplate producerTemplate, String endpointUri, TimerService timerService) {
+        List<MessageJournal.Record> failed = failedRecords;
+        List<MessageJournal.Record> pending = pendingRecords;
+        failedRecords = Collections.emptyList();
+        pendingRecords = Collections.emptyList();
+        if (failed.isEmpty() && pending.isEmpty())
+            return 0;
+
+        LOG.info("Replaying failed and pending attribute events of journal: " + failed.size() + ", " + pending.size());
+        return replay(producerTemplate, endpointUri, timerService, failedJournal, PROPERTY_FAILED_JOURNAL_ID, failed)
+            + replay(producerTemplate, endpointUri, timerService, journal, PROPERTY_JOURNAL_ID, pending);
+    }
+
+    protected int replay(ProducerTemplate producerTemplate,
+                         String endpointUri,
+                         TimerService timerService,
+                         MessageJournal journal,
+                         String journalIdProperty,
+                         List<MessageJournal.Record> records) {
+        int replayed = 0;
+        for (MessageJournal.Record record : records) {
+            JournalRecord journalRecord;
+            try {
+                journalRecord = Container.JSON.readValue(record.getMessage(), JournalRecord.class);
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Discarding unreadable journal record: " + record, ex);
+                journal.commit(record.getId());
+                continue;
+            }
+            journalRecord.event.setSequence(timerService.nextEventSequence());
+            producerTemplate.send(endpointUri, exchange -> {
+                exchange.getIn().setBody(journalRecord.event);
+                exchange.getIn().setHeader(HEADER_SOURCE, journalRecord.source);
+                if (journalRecord.protocolName != null) {
+                    exchange.getIn().setHeader(SENSOR_QUEUE_SOURCE_PROTOCOL, journalRecord.protocolName);
+                }
+                exchange.setProperty(journalIdProperty, record.getId());
+                exchange.setProperty(PROPERTY_REPLAYED, true);
+            });
+            replayed++;
+        }
+        return replayed;
+    }
+
+    protected void append(Exchange exchange, Source defaultSource) {
+        if (exchange.getPattern().isOutCapable()
+            || exchange.getProperty(PROPERTY_JOURNAL_ID) != null
+            || exchange.getProperty(PROPERTY_FAILED_JOURNAL_ID) != null)
+            return;
+        Object body = exchange.getIn().getBody();
+        if (!(body instanceof AttributeEvent))
+            return;
+        JournalRecord record = createRecord(exchange, defaultSource);
+        if (record.source == null || record.source == Source.CLIENT)
+            return;
+
+        try {
+            long id = journal.append(Container.JSON.writeValueAsBytes(record));
+            exchange.setProperty(PROPERTY_JOURNAL_ID, id);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error writing attribute event to journal: " + body, ex);
+        }
+    }
+
+    protected JournalRecord createRecord(Exchange exchange, Source defaultSource) {
+        return new JournalRecord(
+            exchange.getIn().getBody(AttributeEvent.class),
+            exchange.getIn().getHeader(HEADER_SOURCE, defaultSource, Source.class),
+            exchange.getIn().getHeader(SENSOR_QUEUE_SOURCE_PROTOCOL, String.class)
+        );
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "journal=" + journal +
+            ", failedJournal=" + failedJournal +
+            '}';
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.model.asset.AssetState;
+import org.openremote.model.attribute.AttributeEvent;
+
+/**
+ * An {@link AttributeEvent} could not be processed, a processor of the chain set the
+ * {@link AssetState.ProcessingStatus#ERROR} status or the event could not be prepared for the chain, e.g. because
+ * the asset could not be loaded. The event might have been processed partially.
+ */
+public class AttributeEventProcessingException extends RuntimeException {
+
+    public AttributeEventProcessingException(AttributeEvent event, Throwable cause) {
+        super("Processing of attribute event failed: " + event, cause);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeRef;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the timestamp and sequence of the last sequenced {@link AttributeEvent} applied to each attribute. An
+ * event with the same timestamp as the current attribute state is outdated if its sequence is not greater than the
+ * sequence of the event that produced the current state, this rejects duplicates and out-of-sequence events within
+ * the same millisecond. The sequences are kept in memory only, after a restart events are ordered by timestamp
+ * until a sequenced event has been applied.
+ */
+public class AttributeEventSequences {
+
+    protected static class AppliedEvent {
+        final protected long timestamp;
+        final protected long sequence;
+
+        public AppliedEvent(long timestamp, long sequence) {
+            this.timestamp = timestamp;
+            this.sequence = sequence;
+        }
+    }
+
+    final protected Map<AttributeRef, AppliedEvent> appliedEvents = new ConcurrentHashMap<>();
+
+    /**
+     * @param lastStateTime The timestamp of the current attribute state.
+     */
+    public boolean isOutdated(AttributeEvent event, long lastStateTime) {
+        if (event.getSequence() <= 0 || event.getTimestamp() != lastStateTime)
+            return false;
+        AppliedEvent appliedEvent = appliedEvents.get(event.getAttributeRef());
+        return appliedEvent != null
+            && appliedEvent.timestamp == lastStateTime
+            && event.getSequence() <= appliedEvent.sequence;
+    }
+
+    public void applied(AttributeEvent event) {
+        if (event.getSequence() > 0) {
+            appliedEvents.put(event.getAttributeRef(), new AppliedEvent(event.getTimestamp(), event.getSequence()));
+        }
+    }
+
+    public void remove(String assetId) {
+        appliedEvents.keySet().removeIf(attributeRef -> attributeRef.getEntityId().equals(assetId));
+    }
+
+    public void clear() {
+        appliedEvents.clear();
+    }
+
+    public int size() {
+        return appliedEvents.size();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "size=" + size() +
+            '}';
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.hibernate.Session;
+import org.openremote.container.concurrent.ContainerExecutor;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.asset.WriterStatistics;
+import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.value.Value;
+import org.postgresql.util.PGobject;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Group commit of asset attribute values. Callers of {@link #write} are blocked until the batch containing their
+ * write has been committed, so concurrent callers (e.g. the asset processing lanes) share one transaction. The
+ * batch is committed as soon as the writes of all waiting callers are in the batch, no further write can arrive
+ * before the commit; otherwise the writer waits up to the window for the writes of callers that are about to
+ * write, or until the maximum batch size is reached. The batch is stored with a batched statement in a single
+ * transaction, in order of arrival.
+ * <p>
+ * The number of pending writes is bounded, a caller waits for room in the queue until the write timeout. When
+ * the writer is stopped, pending writes are committed before it shuts down.
+ * <p>
+ * Values are written into the asset's attributes document, or into the narrow <code>ASSET_ATTRIBUTE_VALUE</code>
+ * table if the writer is created with <code>valueTable</code>.
+ */
+public class AttributeValueWriter {
+
+    private static final Logger LOG = Logger.getLogger(AttributeValueWriter.class.getName());
+
+    public static final String UPDATE_ATTRIBUTE_VALUE_SQL =
+        "update ASSET" +
+            " set ATTRIBUTES = jsonb_set(jsonb_set(ATTRIBUTES, ?, ?, true), ?, ?, true)" +
+            " where ID = ? and ATTRIBUTES -> ? is not null";
+
+    public static final String UPSERT_ATTRIBUTE_VALUE_SQL =
+        "insert into ASSET_ATTRIBUTE_VALUE (ASSET_ID, NAME, VALUE, TIMESTAMP)" +
+            " select A.ID, ?, ?, ? from ASSET A where A.ID = ? and A.ATTRIBUTES -> ? is not null" +
+            " on conflict (ASSET_ID, NAME) do update set VALUE = excluded.VALUE, TIMESTAMP = excluded.TIMESTAMP";
+
+    public static final int WRITE_TIMEOUT_MILLIS = 10000;
+
+    public static final int MAX_PENDING_WRITES = 10000;
+
+    protected static final int POLL_MILLIS = 100;
+
+    protected static class PendingWrite {
+        final protected AttributeRef attributeRef;
+        final protected Value value;
+        final protected String timestamp;
+        final protected CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        public PendingWrite(AttributeRef attributeRef, Value value, String timestamp) {
+            this.attributeRef = attributeRef;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    final protected PersistenceService persistenceService;
+    final protected boolean valueTable;
+    final protected long windowMillis;
+    final protected int maxBatchSize;
+    final protected BlockingQueue<PendingWrite> pendingWrites = new ArrayBlockingQueue<>(MAX_PENDING_WRITES);
+    // Callers blocked in write(), waiting for their write to be committed
+    final protected AtomicInteger waitingWriters = new AtomicInteger();
+    protected ExecutorService writerExecutor;
+    protected volatile boolean running;
+
+    final protected AtomicLong batches = new AtomicLong();
+    final protected AtomicLong writes = new AtomicLong();
+    final protected AtomicLong failedWrites = new AtomicLong();
+    final protected AtomicLong totalCommitMillis = new AtomicLong();
+    protected volatile long lastBatchSize;
+    protected volatile long lastCommitMillis;
+    protected volatile long maxCommitMillis;
+
+    public AttributeValueWriter(PersistenceService persistenceService, boolean valueTable, long windowMillis, int maxBatchSize) {
+        this.persistenceService = persistenceService;
+        this.valueTable = valueTable;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        writerExecutor = new ContainerExecutor("Attribute value writer", 1, 1, 60, -1);
+        writerExecutor.execute(this::writeBatches);
+    }
+
+    /**
+     * Commits the pending writes and stops the writer, writes still pending after the write timeout fail.
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        writerExecutor.shutdown();
+        try {
+            if (!writerExecutor.awaitTermination(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warning("Attribute value writer did not commit pending writes in time, stopping");
+                writerExecutor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            writerExecutor.shutdownNow();
+        }
+        failPendingWrites(new IllegalStateException("Attribute value writer stopped"));
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return <code>true</code> if the attribute value was stored, <code>false</code> if the asset or attribute doesn't exist.
+     */
+    public boolean write(String assetId, String attributeName, Value value, String timestamp) {
+        if (!running)
+            throw new IllegalStateException("Attribute value writer not running");
+
+        PendingWrite pendingWrite = new PendingWrite(new AttributeRef(assetId, attributeName), value, timestamp);
+        waitingWriters.incrementAndGet();
+        try {
+            long deadline = System.currentTimeMillis() + WRITE_TIMEOUT_MILLIS;
+            if (!pendingWrites.offer(pendingWrite, WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                throw new RuntimeException("Timeout waiting for room in attribute value writer queue: " + pendingWrite.attributeRef);
+            // The writer might have stopped and drained the queue before the write was added
+            if (!running && pendingWrites.remove(pendingWrite))
+                throw new IllegalStateException("Attribute value writer not running");
+            return pendingWrite.result.get(Math.max(deadline - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for attribute value commit: " + pendingWrite.attributeRef, ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Storing attribute value failed: " + pendingWrite.attributeRef, ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new RuntimeException("Timeout waiting for attribute value commit: " + pendingWrite.attributeRef, ex);
+        } finally {
+            waitingWriters.decrementAndGet();
+        }
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * @return The number of pending writes that are not in a batch yet.
+     */
+    public int getPendingWrites() {
+        return pendingWrites.size();
+    }
+
+    /**
+     * @return The number of writes that failed because storing their batch failed.
+     */
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    public long getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public double getAverageBatchSize() {
+        long batchCount = batches.get();
+        return batchCount > 0 ? (double) writes.get() / batchCount : 0;
+    }
+
+    public long getLastCommitMillis() {
+        return lastCommitMillis;
+    }
+
+    public long getMaxCommitMillis() {
+        return maxCommitMillis;
+    }
+
+    public double getAverageCommitMillis() {
+        long batchCount = batches.get();
+        return batchCount > 0 ? (double) totalCommitMillis.get() / batchCount : 0;
+    }
+
+    public WriterStatistics getStatistics() {
+        return new WriterStatistics(
+            "Attribute value writer",
+            getPendingWrites(),
+            getWrites(),
+            0,
+            getFailedWrites(),
+            getBatches(),
+            getAverageBatchSize(),
+            getAverageCommitMillis(),
+            getMaxCommitMillis()
+        );
+    }
+
+    protected void writeBatches() {
+        // Keep going until the pending writes are committed after stop()
+        while (running || !pendingWrites.isEmpty()) {
+            try {
+                PendingWrite first = pendingWrites.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+
+                List<PendingWrite> batch = new ArrayList<>();
+                batch.add(first);
+                try {
+                    collectBatch(batch);
+                } finally {
+                    writeBatch(batch);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable t) {
+                LOG.log(Level.SEVERE, "Error in attribute value writer", t);
+            }
+        }
+    }
+
+    protected void collectBatch(List<PendingWrite> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            // Callers are blocked until their write is committed, once the writes of all waiting callers are in
+            // the batch only a new caller can add a write, don't wait for it
+            boolean wait = remaining > 0 && running && batch.size() < waitingWriters.get();
+            PendingWrite next = wait ? pendingWrites.poll(remaining, TimeUnit.NANOSECONDS) : pendingWrites.poll();
+            if (next == null)
+                break;
+            batch.add(next);
+        }
+    }
+
+    protected void writeBatch(List<PendingWrite> batch) {
+        long startTime = System.currentTimeMillis();
+        try {
+            int[] updatedRows = persistenceService.doReturningTransaction(entityManager ->
+                entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(getAttributeValueSql(valueTable))) {
+                        for (PendingWrite pendingWrite : batch) {
+                            bindAttributeValue(
+                                connection,
+                                statement,
+                                valueTable,
+                                pendingWrite.attributeRef.getEntityId(),
+                                pendingWrite.attributeRef.getAttributeName(),
+                                pendingWrite.value,
+                                pendingWrite.timestamp
+                            );
+                            statement.addBatch();
+                        }
+                        return statement.executeBatch();
+                    }
+                })
+            );
+
+            long commitMillis = System.currentTimeMillis() - startTime;
+            recordBatch(batch.size(), commitMillis);
+            LOG.fine("Stored attribute values in batch of " + batch.size() + ", commit took " + commitMillis + "ms");
+
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(updatedRows[i] == 1 || updatedRows[i] == Statement.SUCCESS_NO_INFO);
+            }
+        } catch (Exception ex) {
+            failedWrites.addAndGet(batch.size());
+            for (PendingWrite pendingWrite : batch) {
+                pendingWrite.result.completeExceptionally(ex);
+            }
+        }
+    }
+
+    protected void recordBatch(int batchSize, long commitMillis) {
+        batches.incrementAndGet();
+        writes.addAndGet(batchSize);
+        totalCommitMillis.addAndGet(commitMillis);
+        lastBatchSize = batchSize;
+        lastCommitMillis = commitMillis;
+        if (commitMillis > maxCommitMillis) {
+            maxCommitMillis = commitMillis;
+        }
+    }
+
+    protected void failPendingWrites(Exception cause) {
+        List<PendingWrite> remaining = new ArrayList<>();
+        pendingWrites.drainTo(remaining);
+        for (PendingWrite pendingWrite : remaining) {
+            pendingWrite.result.completeExceptionally(cause);
+        }
+    }
+
+    public static String getAttributeValueSql(boolean valueTable) {
+        return valueTable ? UPSERT_ATTRIBUTE_VALUE_SQL : UPDATE_ATTRIBUTE_VALUE_SQL;
+    }
+
+    /**
+     * Binds the parameters of {@link #getAttributeValueSql}.
+     */
+    public static void bindAttributeValue(Connection connection, PreparedStatement statement, boolean valueTable,
+                                          String assetId, String attributeName, Value value, String timestamp) throws SQLException {
+        if (valueTable) {
+            statement.setString(1, attributeName);
+            statement.setObject(2, toJsonb(value));
+            statement.setLong(3, Long.parseLong(timestamp));
+            statement.setString(4, assetId);
+            statement.setString(5, attributeName);
+            return;
+        }
+
+        Array attributeValuePath = connection.createArrayOf(
+            "text",
+            new String[]{attributeName, "value"}
+        );
+        statement.setArray(1, attributeValuePath);
+
+        statement.setObject(2, toJsonb(value));
+
+        // Bind the value timestamp
+        Array attributeValueTimestampPath = connection.createArrayOf(
+            "text",
+            new String[]{attributeName, "valueTimestamp"}
+        );
+        statement.setArray(3, attributeValueTimestampPath);
+        PGobject pgJsonValueTimestamp = new PGobject();
+        pgJsonValueTimestamp.setType("jsonb");
+        pgJsonValueTimestamp.setValue(timestamp);
+        statement.setObject(4, pgJsonValueTimestamp);
+
+        // Bind asset ID and attribute name
+        statement.setString(5, assetId);
+        statement.setString(6, attributeName);
+    }
+
+    protected static PGobject toJsonb(Value value) throws SQLException {
+        PGobject pgJsonValue = new PGobject();
+        pgJsonValue.setType("jsonb");
+        // Careful, do not set Java null (as returned by value.toJson()) here! It will erase your whole SQL column!
+        pgJsonValue.setValue(value == null ? "null" : value.toJson());
+        return pgJsonValue;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "valueTable=" + valueTable +
+            ", windowMillis=" + windowMillis +
+            ", maxBatchSize=" + maxBatchSize +
+            ", batches=" + getBatches() +
+            ", writes=" + getWrites() +
+            ", pendingWrites=" + getPendingWrites() +
+            ", averageBatchSize=" + String.format("%.1f", getAverageBatchSize()) +
+            ", averageCommitMillis=" + String.format("%.1f", getAverageCommitMillis()) +
+            ", maxCommitMillis=" + getMaxCommitMillis() +
+            '}';
+    }
+}
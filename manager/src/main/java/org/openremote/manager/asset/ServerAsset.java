@@ -103,6 +103,22 @@ public class ServerAsset extends Asset {
         return serverAsset;
     }
 
+    /**
+     * Copy all properties, the attributes are deep copied so the result can be modified
+     * without affecting the original instance.
+     */
+    public static ServerAsset copy(ServerAsset asset) {
+        ServerAsset copy = new ServerAsset(
+            asset.getId(), asset.getVersion(), asset.getCreatedOn(), asset.getName(), asset.getType(), asset.isAccessPublicRead(),
+            asset.getParentId(), asset.getParentName(), asset.getParentType(),
+            asset.getRealmId(), asset.getTenantRealm(), asset.getTenantDisplayName(),
+            asset.getPath() != null ? asset.getPath().clone() : null,
+            asset.getAttributes() != null ? asset.getAttributes().deepCopy() : null
+        );
+        copy.setLocation(asset.getLocation());
+        return copy;
+    }
+
     @Column(name = "LOCATION")
     @Access(AccessType.PROPERTY)
     @JsonIgnore
@@ -139,6 +155,18 @@ public class ServerAsset extends Asset {
         setLocation(position);
     }
 
+    protected ServerAsset(String id, long version, Date createdOn, String name, String type, boolean accessPublicRead,
+                          String parentId, String parentName, String parentType,
+                          String realmId, String tenantRealm, String tenantDisplayName,
+                          String[] path, ObjectValue attributes) {
+        super(
+            id, version, createdOn, name, type, accessPublicRead,
+            parentId, parentName, parentType,
+            realmId, tenantRealm, tenantDisplayName,
+            path, attributes
+        );
+    }
+
     public ServerAsset(@NotNull String name, @NotNull AssetType type) {
         this(name, type, null, null);
     }
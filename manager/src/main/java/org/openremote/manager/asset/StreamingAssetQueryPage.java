@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openremote.container.Container;
+import org.openremote.model.asset.AssetQueryPage;
+import org.openremote.model.asset.BaseAssetQuery;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+
+/**
+ * An {@link AssetQueryPage} that is not loaded when it is returned by a resource method, the query is executed
+ * when the response is written by the {@link Writer} and each asset is serialized as it is read from the database.
+ * Memory use doesn't depend on the size of the page.
+ */
+public class StreamingAssetQueryPage extends AssetQueryPage {
+
+    @Provider
+    @Produces(MediaType.APPLICATION_JSON)
+    public static class Writer implements MessageBodyWriter<StreamingAssetQueryPage> {
+
+        @Override
+        public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            return StreamingAssetQueryPage.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public long getSize(StreamingAssetQueryPage page, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(StreamingAssetQueryPage page, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
+            ObjectWriter assetWriter = Container.JSON.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            JsonGenerator generator = Container.JSON.getFactory().createGenerator(entityStream, JsonEncoding.UTF8);
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("assets");
+            try {
+                page.nextCursor = page.assetStorageService.streamAll(page.query, asset -> {
+                    try {
+                        assetWriter.writeValue(generator, asset);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (IllegalStateException ex) {
+                // Invalid query, nothing has been written yet
+                throw new WebApplicationException(ex, BAD_REQUEST);
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            generator.writeEndArray();
+            if (page.nextCursor != null) {
+                generator.writeStringField("nextCursor", page.nextCursor);
+            }
+            generator.writeEndObject();
+            generator.flush();
+        }
+    }
+
+    final protected AssetStorageService assetStorageService;
+    final protected BaseAssetQuery query;
+
+    public StreamingAssetQueryPage(AssetStorageService assetStorageService, BaseAssetQuery query) {
+        this.assetStorageService = assetStorageService;
+        this.query = query;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "query=" + query +
+            ", nextCursor='" + nextCursor + '\'' +
+            '}';
+    }
+}
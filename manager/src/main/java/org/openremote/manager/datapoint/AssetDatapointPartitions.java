@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+
+/**
+ * Monthly partitions of the <code>ASSET_DATAPOINT</code> table. The database doesn't support declarative
+ * partitioning, so partitions are tables inheriting from <code>ASSET_DATAPOINT</code> with a check constraint on
+ * the <code>TIMESTAMP</code> range of their month (UTC). Queries of the parent table include the partitions, and
+ * partitions outside of a constant timestamp range in the query are excluded by the planner.
+ * <p>
+ * Inserts are not routed by the database, datapoints must be inserted into the table returned by {@link #getTable}.
+ * Datapoints of months without partition, e.g. stored before partitioning was enabled, stay in the parent table. The
+ * month partitioning was enabled in can have datapoints in the parent table and in its partition, the primary key of
+ * the partition doesn't cover the parent table, so the {@link AssetDatapointWriter} deletes a datapoint from the
+ * parent table when it stores a datapoint with the same key in the partition.
+ * <p>
+ * A partition is removed from the partitions returned by {@link #getTable} before it is dropped. A writer which
+ * has chosen the partition before may still fail because the table no longer exists, and then stores its batch
+ * again.
+ */
+public class AssetDatapointPartitions {
+
+    private static final Logger LOG = Logger.getLogger(AssetDatapointPartitions.class.getName());
+
+    public static final String DATAPOINT_TABLE = "ASSET_DATAPOINT";
+
+    protected static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    protected static final String SELECT_PARTITIONS_SQL =
+        "select C.relname from pg_inherits I" +
+            " join pg_class C on C.oid = I.inhrelid" +
+            " join pg_class P on P.oid = I.inhparent" +
+            " join pg_namespace N on N.oid = P.relnamespace" +
+            " where P.relname = lower('" + DATAPOINT_TABLE + "') and N.nspname = current_schema()";
+
+    final protected PersistenceService persistenceService;
+    final protected NavigableSet<YearMonth> partitions = new ConcurrentSkipListSet<>();
+
+    public AssetDatapointPartitions(PersistenceService persistenceService) {
+        this.persistenceService = persistenceService;
+    }
+
+    public static String getTableName(YearMonth month) {
+        return DATAPOINT_TABLE + "_" + month.format(SUFFIX_FORMAT);
+    }
+
+    public static YearMonth getMonth(long timestamp) {
+        return YearMonth.from(Instant.ofEpochMilli(timestamp).atOffset(ZoneOffset.UTC));
+    }
+
+    public static long getStartMillis(YearMonth month) {
+        return month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * @return The partition of the timestamp, or the parent table if there is no partition for its month.
+     */
+    public String getTable(long timestamp) {
+        YearMonth month = getMonth(timestamp);
+        return partitions.contains(month) ? getTableName(month) : DATAPOINT_TABLE;
+    }
+
+    public SortedSet<YearMonth> getPartitions() {
+        return Collections.unmodifiableSortedSet(partitions);
+    }
+
+    /**
+     * Reads the existing partitions from the database.
+     */
+    public void load() {
+        List<String> tableNames = persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                List<String> names = new ArrayList<>();
+                try (PreparedStatement st = connection.prepareStatement(SELECT_PARTITIONS_SQL);
+                     ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        names.add(rs.getString(1));
+                    }
+                }
+                return names;
+            })
+        );
+        partitions.clear();
+        String prefix = DATAPOINT_TABLE.toLowerCase(Locale.ROOT) + "_";
+        for (String tableName : tableNames) {
+            if (!tableName.startsWith(prefix))
+                continue;
+            try {
+                partitions.add(YearMonth.parse(tableName.substring(prefix.length()), SUFFIX_FORMAT));
+            } catch (Exception ex) {
+                LOG.warning("Ignoring unknown table inheriting from " + DATAPOINT_TABLE + ": " + tableName);
+            }
+        }
+        LOG.fine("Loaded datapoint partitions: " + partitions);
+    }
+
+    /**
+     * Creates the missing partitions of the month of the timestamp and the given number of following months.
+     */
+    public void createPartitions(long timestamp, int monthsAhead) {
+        YearMonth month = getMonth(timestamp);
+        for (int i = 0; i <= monthsAhead; i++) {
+            if (!partitions.contains(month.plusMonths(i))) {
+                createPartition(month.plusMonths(i));
+            }
+        }
+    }
+
+    protected void createPartition(YearMonth month) {
+        String table = getTableName(month);
+        long start = getStartMillis(month);
+        long end = getStartMillis(month.plusMonths(1));
+        LOG.info("Creating datapoint partition: " + table);
+        persistenceService.doTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                try (Statement st = connection.createStatement()) {
+                    st.execute("create table " + table + " (" +
+                        " check (TIMESTAMP >= " + start + " and TIMESTAMP < " + end + ")" +
+                        ") inherits (" + DATAPOINT_TABLE + ")");
+                    // Keys, indexes and foreign keys are not inherited
+                    st.execute("alter table " + table + " add primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)");
+                    st.execute("alter table " + table + " add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade");
+                    st.execute("create index on " + table + " using brin (TIMESTAMP)");
+                }
+            })
+        );
+        partitions.add(month);
+    }
+
+    /**
+     * Drops the partitions which only contain datapoints older than the timestamp.
+     *
+     * @return The estimated number of datapoints in the dropped partitions.
+     */
+    public long dropPartitionsBefore(long timestamp) {
+        long dropped = 0;
+        for (YearMonth month : new ArrayList<>(partitions.headSet(getMonth(timestamp)))) {
+            if (getStartMillis(month.plusMonths(1)) > timestamp)
+                continue;
+            String table = getTableName(month);
+            // New datapoints of the month are stored in the parent table from now on
+            partitions.remove(month);
+            try {
+                dropped += dropPartition(table);
+            } catch (RuntimeException ex) {
+                partitions.add(month);
+                throw ex;
+            }
+            LOG.info("Dropped expired datapoint partition: " + table);
+        }
+        return dropped;
+    }
+
+    protected long dropPartition(String table) {
+        return persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                long count;
+                try (Statement st = connection.createStatement()) {
+                    // Use the planner statistics, counting would read the whole partition
+                    try (ResultSet rs = st.executeQuery("select cast(reltuples as int8) from pg_class where oid = cast('" + table + "' as regclass)")) {
+                        rs.next();
+                        count = Math.max(rs.getLong(1), 0);
+                    }
+                    st.execute("drop table " + table);
+                }
+                return count;
+            })
+        );
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "partitions=" + partitions +
+            '}';
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.model.datapoint.AssetDatapoint;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Maintains the <code>ASSET_DATAPOINT_ROLLUP</code> table, which holds the count, sum, minimum and maximum of
+ * the datapoints of an attribute per minute, hour and day. When datapoints are stored, their minute buckets are
+ * recomputed from the stored datapoints, then the enclosing hour buckets from the minute buckets and the day
+ * buckets from the hour buckets. Recomputing instead of adding keeps the rollups correct when a datapoint replaces
+ * an earlier datapoint with the same timestamp.
+ * <p>
+ * Concurrent transactions storing datapoints of the same attribute would recompute the enclosing buckets without
+ * seeing each other's changes, so the rollups of an attribute are updated while holding a transaction-level
+ * advisory lock of the attribute. Locks are taken in a consistent order, so transactions can't deadlock on them.
+ * <p>
+ * Buckets are timestamps without time zone, truncated in the database session time zone like the chart queries.
+ * When clocks go back, two minutes of UTC time map to the same local minute bucket, so a minute bucket is always
+ * recomputed from the datapoints of all UTC minutes it covers.
+ * Rollups are not deleted when raw datapoints are purged, so charts of long time ranges outlive the raw data;
+ * minute and hour rollups are purged separately with their own maximum age, see {@link #getPurgeRollupsSql}.
+ */
+public class AssetDatapointRollup {
+
+    public enum Resolution {
+
+        MINUTE("minute", null),
+        HOUR("hour", MINUTE),
+        DAY("day", HOUR);
+
+        final protected String field;
+        final protected Resolution source;
+
+        Resolution(String field, Resolution source) {
+            this.field = field;
+            this.source = source;
+        }
+
+        /**
+         * @return The <code>date_trunc</code> field of the bucket.
+         */
+        public String getField() {
+            return field;
+        }
+    }
+
+    public static final long MINUTE_MILLIS = 60 * 1000;
+    public static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+    /**
+     * The numeric value of a number or boolean datapoint, <code>null</code> for other values. The JSON value is
+     * only converted if a datapoint was stored without <code>NUMBER_VALUE</code>, before the column was added.
+     */
+    public static final String DATAPOINT_NUMBER_VALUE =
+        "coalesce(DP.NUMBER_VALUE, case jsonb_typeof(DP.VALUE)" +
+            " when 'number' then cast(DP.VALUE #>> '{}' as float8)" +
+            " when 'boolean' then case when cast(DP.VALUE #>> '{}' as boolean) then 1.0 else 0.0 end" +
+            " end)";
+
+    /**
+     * Locks the attributes of the changed minute buckets until the end of the transaction.
+     */
+    protected static final String LOCK_ATTRIBUTES =
+        "select pg_advisory_xact_lock(K.ENTITY_KEY, K.ATTRIBUTE_KEY) from (" +
+            " select distinct hashtext(K.ENTITY_ID) as ENTITY_KEY, hashtext(K.ATTRIBUTE_NAME) as ATTRIBUTE_KEY" +
+            " from unnest(cast(? as varchar[]), cast(? as varchar[])) as K(ENTITY_ID, ATTRIBUTE_NAME)" +
+            " order by ENTITY_KEY, ATTRIBUTE_KEY" +
+            ") K";
+
+    protected static final String UPSERT_ROLLUP =
+        " on conflict (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, BUCKET) do update set" +
+            " COUNT = excluded.COUNT, SUM = excluded.SUM, MIN = excluded.MIN, MAX = excluded.MAX";
+
+    /**
+     * The UTC minutes of a local minute bucket start at the local time of the bucket minus the UTC offset in effect
+     * at that time. The candidate offsets are those in effect a day before, at, and a day after the changed UTC
+     * minute, which includes the offsets before and after any change of the offset near the bucket. A candidate is
+     * only used if it maps back to the bucket.
+     *
+     * @param table The datapoint table or the partition containing all UTC minutes of the changed minute buckets.
+     *              The datapoints of a partition's month stored in the parent table before the partition was created
+     *              are included.
+     */
+    public static String getUpdateMinuteRollupSql(String table) {
+        String datapoints = AssetDatapointPartitions.DATAPOINT_TABLE.equals(table)
+            ? table
+            : "(select * from " + table + " union all select * from only " + AssetDatapointPartitions.DATAPOINT_TABLE + ")";
+        return "insert into ASSET_DATAPOINT_ROLLUP (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, BUCKET, COUNT, SUM, MIN, MAX)" +
+            " select K.ENTITY_ID, K.ATTRIBUTE_NAME, 'minute', K.BUCKET," +
+            " count(DP.V), sum(DP.V), min(DP.V), max(DP.V)" +
+            " from (" +
+            "   select distinct K.ENTITY_ID, K.ATTRIBUTE_NAME, K.BUCKET, R.RANGE_START" +
+            "   from (" +
+            "     select K.*, cast(date_trunc('minute', to_timestamp(K.BUCKET_START / 1000)) as timestamp) as BUCKET" +
+            "     from unnest(cast(? as varchar[]), cast(? as varchar[]), cast(? as int8[])) as K(ENTITY_ID, ATTRIBUTE_NAME, BUCKET_START)" +
+            "   ) K" +
+            "   cross join lateral (" +
+            "     select cast(extract(epoch from K.BUCKET)" +
+            "     - extract(timezone from to_timestamp(K.BUCKET_START / 1000 + O.SHIFT)) as int8) * 1000 as RANGE_START" +
+            "     from (values (-" + DAY_MILLIS / 1000 + "), (0), (" + DAY_MILLIS / 1000 + ")) as O(SHIFT)" +
+            "   ) R" +
+            "   where cast(date_trunc('minute', to_timestamp(R.RANGE_START / 1000)) as timestamp) = K.BUCKET" +
+            " ) K" +
+            " cross join lateral (" +
+            "   select " + DATAPOINT_NUMBER_VALUE + " as V from " + datapoints + " DP" +
+            "   where DP.ENTITY_ID = K.ENTITY_ID and DP.ATTRIBUTE_NAME = K.ATTRIBUTE_NAME" +
+            "   and DP.TIMESTAMP >= K.RANGE_START and DP.TIMESTAMP < K.RANGE_START + " + MINUTE_MILLIS +
+            " ) DP" +
+            " group by K.ENTITY_ID, K.ATTRIBUTE_NAME, K.BUCKET" +
+            " having count(DP.V) > 0" +
+            UPSERT_ROLLUP;
+    }
+
+    /**
+     * Recomputes the buckets of a resolution from its source resolution, the parameters are the minute buckets
+     * that changed. The resolution fields are inlined, they are constants of {@link Resolution}.
+     */
+    protected static String getUpdateRollupSql(Resolution resolution) {
+        return "insert into ASSET_DATAPOINT_ROLLUP (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, BUCKET, COUNT, SUM, MIN, MAX)" +
+            " select K.ENTITY_ID, K.ATTRIBUTE_NAME, '" + resolution.field + "', K.BUCKET," +
+            " sum(R.COUNT), sum(R.SUM), min(R.MIN), max(R.MAX)" +
+            " from (" +
+            "   select distinct K.ENTITY_ID, K.ATTRIBUTE_NAME," +
+            "   date_trunc('" + resolution.field + "', cast(to_timestamp(K.BUCKET_START / 1000) as timestamp)) as BUCKET" +
+            "   from unnest(cast(? as varchar[]), cast(? as varchar[]), cast(? as int8[])) as K(ENTITY_ID, ATTRIBUTE_NAME, BUCKET_START)" +
+            " ) K" +
+            " join ASSET_DATAPOINT_ROLLUP R on R.ENTITY_ID = K.ENTITY_ID and R.ATTRIBUTE_NAME = K.ATTRIBUTE_NAME" +
+            " and R.RESOLUTION = '" + resolution.source.field + "'" +
+            " and R.BUCKET >= K.BUCKET and R.BUCKET < K.BUCKET + interval '1 " + resolution.field + "'" +
+            " group by K.ENTITY_ID, K.ATTRIBUTE_NAME, K.BUCKET" +
+            UPSERT_ROLLUP;
+    }
+
+    /**
+     * Deletes a batch of buckets of the resolution older than the given time, rows are deleted by key like the
+     * expired datapoints. The parameters are the resolution, the time in seconds and the batch size.
+     */
+    public static String getPurgeRollupsSql() {
+        return "delete from ASSET_DATAPOINT_ROLLUP R using (" +
+            " select X.ENTITY_ID, X.ATTRIBUTE_NAME, X.RESOLUTION, X.BUCKET from ASSET_DATAPOINT_ROLLUP X" +
+            " where X.RESOLUTION = ? and X.BUCKET < cast(to_timestamp(?) as timestamp)" +
+            " limit ?" +
+            ") X" +
+            " where R.ENTITY_ID = X.ENTITY_ID and R.ATTRIBUTE_NAME = X.ATTRIBUTE_NAME" +
+            " and R.RESOLUTION = X.RESOLUTION and R.BUCKET = X.BUCKET";
+    }
+
+    protected static class MinuteBucket {
+        final protected String entityId;
+        final protected String attributeName;
+        final protected long bucketStart;
+
+        public MinuteBucket(String entityId, String attributeName, long bucketStart) {
+            this.entityId = entityId;
+            this.attributeName = attributeName;
+            this.bucketStart = bucketStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            MinuteBucket that = (MinuteBucket) o;
+            return bucketStart == that.bucketStart
+                && entityId.equals(that.entityId)
+                && attributeName.equals(that.attributeName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = entityId.hashCode();
+            result = 31 * result + attributeName.hashCode();
+            result = 31 * result + (int) (bucketStart ^ (bucketStart >>> 32));
+            return result;
+        }
+    }
+
+    /**
+     * Updates the rollups of the given stored datapoints, call this in the transaction that stored them.
+     *
+     * @param table The datapoint table or the partition the datapoints were stored in. The minute buckets are read
+     *              from the datapoint table instead if a bucket may cover UTC minutes of an adjacent partition.
+     */
+    public static void update(Connection connection, String table, Collection<AssetDatapoint> datapoints) throws SQLException {
+        Set<MinuteBucket> buckets = new LinkedHashSet<>();
+        for (AssetDatapoint datapoint : datapoints) {
+            long timestamp = datapoint.getTimestamp();
+            buckets.add(new MinuteBucket(
+                datapoint.getEntityId(),
+                datapoint.getAttributeName(),
+                timestamp - Math.floorMod(timestamp, MINUTE_MILLIS)
+            ));
+        }
+        if (buckets.isEmpty())
+            return;
+
+        String[] entityIds = new String[buckets.size()];
+        String[] attributeNames = new String[buckets.size()];
+        Long[] bucketStarts = new Long[buckets.size()];
+        int i = 0;
+        for (MinuteBucket bucket : buckets) {
+            entityIds[i] = bucket.entityId;
+            attributeNames[i] = bucket.attributeName;
+            bucketStarts[i] = bucket.bucketStart;
+            i++;
+        }
+
+        // The UTC minutes of a bucket near the start or end of a partition's month can be in the adjacent month
+        String datapointTable = table;
+        if (!AssetDatapointPartitions.DATAPOINT_TABLE.equals(table)) {
+            for (MinuteBucket bucket : buckets) {
+                if (isNearMonthBoundary(bucket.bucketStart)) {
+                    datapointTable = AssetDatapointPartitions.DATAPOINT_TABLE;
+                    break;
+                }
+            }
+        }
+
+        // Taken in its own statement, so the following statements see what the previous lock holder committed
+        try (PreparedStatement statement = connection.prepareStatement(LOCK_ATTRIBUTES)) {
+            statement.setArray(1, connection.createArrayOf("varchar", entityIds));
+            statement.setArray(2, connection.createArrayOf("varchar", attributeNames));
+            statement.execute();
+        }
+        updateBuckets(connection, getUpdateMinuteRollupSql(datapointTable), entityIds, attributeNames, bucketStarts);
+        updateBuckets(connection, getUpdateRollupSql(Resolution.HOUR), entityIds, attributeNames, bucketStarts);
+        updateBuckets(connection, getUpdateRollupSql(Resolution.DAY), entityIds, attributeNames, bucketStarts);
+    }
+
+    protected static boolean isNearMonthBoundary(long timestamp) {
+        YearMonth month = AssetDatapointPartitions.getMonth(timestamp);
+        return timestamp - AssetDatapointPartitions.getStartMillis(month) < DAY_MILLIS
+            || AssetDatapointPartitions.getStartMillis(month.plusMonths(1)) - timestamp <= DAY_MILLIS;
+    }
+
+    protected static void updateBuckets(Connection connection, String sql, String[] entityIds, String[] attributeNames, Long[] bucketStarts) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setArray(1, connection.createArrayOf("varchar", entityIds));
+            statement.setArray(2, connection.createArrayOf("varchar", attributeNames));
+            statement.setArray(3, connection.createArrayOf("int8", bucketStarts));
+            statement.executeUpdate();
+        }
+    }
+}
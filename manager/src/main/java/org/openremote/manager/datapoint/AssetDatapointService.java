@@ -1,5 +1,6 @@
 package org.openremote.manager.datapoint;
 
+import org.drools.core.base.evaluators.TimeIntervalParser;
 import org.hibernate.Session;
 import org.hibernate.jdbc.AbstractReturningWork;
 import org.openremote.container.Container;
@@ -8,24 +9,40 @@ import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.WebService;
 import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.manager.concurrent.ManagerExecutorService;
+import org.openremote.manager.datapoint.AssetDatapointRollup.Resolution;
 import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.asset.AssetMeta;
 import org.openremote.model.asset.AssetState;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.AssetDatapoint;
 import org.openremote.model.datapoint.Datapoint;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.NumberDatapoint;
+import org.openremote.model.value.Value;
+import org.openremote.model.value.Values;
 import org.postgresql.util.PGInterval;
 
 import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.openremote.container.util.MapAccess.getBoolean;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.util.MapAccess.getString;
+import static org.openremote.model.util.TextUtil.isNullOrEmpty;
+
 /**
  * Store and retrieve datapoints for asset attributes.
  */
@@ -33,17 +50,179 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
 
     private static final Logger LOG = Logger.getLogger(AssetDatapointService.class.getName());
 
+    /**
+     * Datapoints are queued and stored by a background writer at this interval, set to <code>0</code> to store
+     * each datapoint in its own transaction while processing the attribute event.
+     */
+    public static final String DATAPOINT_FLUSH_INTERVAL_MILLIS = "DATAPOINT_FLUSH_INTERVAL_MILLIS";
+    public static final int DATAPOINT_FLUSH_INTERVAL_MILLIS_DEFAULT = 1000;
+
+    /**
+     * Maximum number of datapoints stored with one statement by the background writer.
+     */
+    public static final String DATAPOINT_FLUSH_BATCH_SIZE = "DATAPOINT_FLUSH_BATCH_SIZE";
+    public static final int DATAPOINT_FLUSH_BATCH_SIZE_DEFAULT = 5000;
+
+    /**
+     * Maximum number of datapoints waiting for the background writer, further datapoints are dropped.
+     */
+    public static final String DATAPOINT_QUEUE_SIZE = "DATAPOINT_QUEUE_SIZE";
+    public static final int DATAPOINT_QUEUE_SIZE_DEFAULT = 100000;
+
+    /**
+     * Maximum age of stored datapoints, for example "90d", older datapoints are purged periodically. An attribute
+     * can have its own maximum age with {@link AssetMeta#DATAPOINTS_MAX_AGE}. Datapoints are kept forever if empty.
+     */
+    public static final String DATAPOINTS_MAX_AGE = "DATAPOINTS_MAX_AGE";
+    public static final String DATAPOINTS_MAX_AGE_DEFAULT = "";
+
+    /**
+     * Maximum age of the minute rollups of datapoints, see {@link AssetDatapointRollup}, older rollups are purged
+     * periodically. Minute rollups are kept forever if empty.
+     */
+    public static final String DATAPOINTS_MINUTE_ROLLUP_MAX_AGE = "DATAPOINTS_MINUTE_ROLLUP_MAX_AGE";
+    public static final String DATAPOINTS_MINUTE_ROLLUP_MAX_AGE_DEFAULT = "30d";
+
+    /**
+     * Maximum age of the hour rollups of datapoints, older rollups are purged periodically. Hour rollups are kept
+     * forever if empty, day rollups are always kept.
+     */
+    public static final String DATAPOINTS_HOUR_ROLLUP_MAX_AGE = "DATAPOINTS_HOUR_ROLLUP_MAX_AGE";
+    public static final String DATAPOINTS_HOUR_ROLLUP_MAX_AGE_DEFAULT = "365d";
+
+    /**
+     * Store datapoints in monthly partitions of the datapoint table, purging then drops expired partitions instead
+     * of deleting rows. Existing datapoints stay in the parent table and are purged by deleting rows.
+     */
+    public static final String DATAPOINTS_PARTITIONED = "DATAPOINTS_PARTITIONED";
+    public static final boolean DATAPOINTS_PARTITIONED_DEFAULT = false;
+
+    /**
+     * Number of monthly datapoint partitions created ahead of the current month.
+     */
+    public static final String DATAPOINTS_PARTITIONS_AHEAD = "DATAPOINTS_PARTITIONS_AHEAD";
+    public static final int DATAPOINTS_PARTITIONS_AHEAD_DEFAULT = 2;
+
+    public static final int PARTITION_MAINTENANCE_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Interval of the datapoint purge job, set to <code>0</code> to disable purging.
+     */
+    public static final String DATAPOINTS_PURGE_INTERVAL_MILLIS = "DATAPOINTS_PURGE_INTERVAL_MILLIS";
+    public static final int DATAPOINTS_PURGE_INTERVAL_MILLIS_DEFAULT = 60 * 60 * 1000;
+
+    /**
+     * Maximum number of datapoints deleted in one transaction of the purge job.
+     */
+    public static final String DATAPOINTS_PURGE_BATCH_SIZE = "DATAPOINTS_PURGE_BATCH_SIZE";
+    public static final int DATAPOINTS_PURGE_BATCH_SIZE_DEFAULT = 10000;
+
+    protected static final String SELECT_DATAPOINTS_MAX_AGE_SQL =
+        "select A.ID, AX.key, AM.value ->> 'value' from ASSET A" +
+            " cross join jsonb_each(A.ATTRIBUTES) as AX" +
+            " cross join jsonb_array_elements(" +
+            "   case when jsonb_typeof(AX.value -> 'meta') = 'array' then AX.value -> 'meta' else '[]' :: jsonb end" +
+            " ) as AM" +
+            " where GET_ASSET_ATTRIBUTE_META(A.ATTRIBUTES) @> cast(? as jsonb)" +
+            " and AM.value ->> 'name' = ?";
+
+    /**
+     * Datapoints are deleted by key, row identifiers are not unique across partitions. The timestamp limit is
+     * inlined so the planner excludes partitions which are too recent.
+     */
+    protected static String getPurgeAttributeDatapointsSql(long before) {
+        return "delete from ASSET_DATAPOINT D using (" +
+            " select DP.ENTITY_ID, DP.ATTRIBUTE_NAME, DP.TIMESTAMP from ASSET_DATAPOINT DP" +
+            " where DP.ENTITY_ID = ? and DP.ATTRIBUTE_NAME = ? and DP.TIMESTAMP < " + before +
+            " limit ?" +
+            ") X" +
+            " where D.ENTITY_ID = X.ENTITY_ID and D.ATTRIBUTE_NAME = X.ATTRIBUTE_NAME and D.TIMESTAMP = X.TIMESTAMP" +
+            " and D.TIMESTAMP < " + before;
+    }
+
+    /**
+     * See {@link #getPurgeAttributeDatapointsSql}.
+     */
+    protected static String getPurgeDatapointsSql(long before) {
+        return "delete from ASSET_DATAPOINT D using (" +
+            " select DP.ENTITY_ID, DP.ATTRIBUTE_NAME, DP.TIMESTAMP from ASSET_DATAPOINT DP" +
+            " where DP.TIMESTAMP < " + before +
+            " and (DP.ENTITY_ID, DP.ATTRIBUTE_NAME) not in (select * from unnest(cast(? as varchar[]), cast(? as varchar[])))" +
+            " limit ?" +
+            ") X" +
+            " where D.ENTITY_ID = X.ENTITY_ID and D.ATTRIBUTE_NAME = X.ATTRIBUTE_NAME and D.TIMESTAMP = X.TIMESTAMP" +
+            " and D.TIMESTAMP < " + before;
+    }
+
+    protected static final String SELECT_DATAPOINTS_SQL =
+        "select TIMESTAMP, NUMBER_VALUE, VALUE from ASSET_DATAPOINT" +
+            " where ENTITY_ID = ? and ATTRIBUTE_NAME = ?" +
+            " order by TIMESTAMP desc";
+
+    protected interface StatementBinder {
+        void bind(Connection connection, PreparedStatement statement) throws SQLException;
+    }
+
     protected PersistenceService persistenceService;
+    protected TimerService timerService;
+    protected AssetStorageService assetStorageService;
+    protected ManagerExecutorService executorService;
+    protected AssetDatapointWriter datapointWriter;
+    protected int flushIntervalMillis;
+    protected AssetDatapointPartitions partitions;
+    protected int partitionsAhead;
+    protected ScheduledFuture partitionFuture;
+    protected long maxAgeMillis;
+    final protected Map<Resolution, Long> rollupMaxAgeMillis = new LinkedHashMap<>();
+    protected int purgeIntervalMillis;
+    protected int purgeBatchSize;
+    protected ScheduledFuture purgeFuture;
+
+    final protected AtomicLong purgedDatapoints = new AtomicLong();
+    final protected AtomicLong purgedRollups = new AtomicLong();
+    protected volatile long lastPurgedDatapoints;
+    protected volatile long lastPurgeMillis;
 
     @Override
     public void init(Container container) throws Exception {
         persistenceService = container.getService(PersistenceService.class);
+        timerService = container.getService(TimerService.class);
+        assetStorageService = container.getService(AssetStorageService.class);
+        executorService = container.getService(ManagerExecutorService.class);
+
+        String maxAge = getString(container.getConfig(), DATAPOINTS_MAX_AGE, DATAPOINTS_MAX_AGE_DEFAULT);
+        maxAgeMillis = isNullOrEmpty(maxAge) ? 0 : TimeIntervalParser.parseSingle(maxAge);
+        String minuteRollupMaxAge = getString(container.getConfig(), DATAPOINTS_MINUTE_ROLLUP_MAX_AGE, DATAPOINTS_MINUTE_ROLLUP_MAX_AGE_DEFAULT);
+        if (!isNullOrEmpty(minuteRollupMaxAge)) {
+            rollupMaxAgeMillis.put(Resolution.MINUTE, TimeIntervalParser.parseSingle(minuteRollupMaxAge));
+        }
+        String hourRollupMaxAge = getString(container.getConfig(), DATAPOINTS_HOUR_ROLLUP_MAX_AGE, DATAPOINTS_HOUR_ROLLUP_MAX_AGE_DEFAULT);
+        if (!isNullOrEmpty(hourRollupMaxAge)) {
+            rollupMaxAgeMillis.put(Resolution.HOUR, TimeIntervalParser.parseSingle(hourRollupMaxAge));
+        }
+        purgeIntervalMillis = getInteger(container.getConfig(), DATAPOINTS_PURGE_INTERVAL_MILLIS, DATAPOINTS_PURGE_INTERVAL_MILLIS_DEFAULT);
+        purgeBatchSize = Math.max(getInteger(container.getConfig(), DATAPOINTS_PURGE_BATCH_SIZE, DATAPOINTS_PURGE_BATCH_SIZE_DEFAULT), 1);
+
+        if (getBoolean(container.getConfig(), DATAPOINTS_PARTITIONED, DATAPOINTS_PARTITIONED_DEFAULT)) {
+            partitions = new AssetDatapointPartitions(persistenceService);
+            partitionsAhead = Math.max(getInteger(container.getConfig(), DATAPOINTS_PARTITIONS_AHEAD, DATAPOINTS_PARTITIONS_AHEAD_DEFAULT), 0);
+        }
+
+        // The writer is also used to store datapoints inline if it isn't started
+        flushIntervalMillis = getInteger(container.getConfig(), DATAPOINT_FLUSH_INTERVAL_MILLIS, DATAPOINT_FLUSH_INTERVAL_MILLIS_DEFAULT);
+        datapointWriter = new AssetDatapointWriter(
+            persistenceService,
+            this::getDatapointTable,
+            flushIntervalMillis,
+            getInteger(container.getConfig(), DATAPOINT_FLUSH_BATCH_SIZE, DATAPOINT_FLUSH_BATCH_SIZE_DEFAULT),
+            getInteger(container.getConfig(), DATAPOINT_QUEUE_SIZE, DATAPOINT_QUEUE_SIZE_DEFAULT)
+        );
 
         container.getService(WebService.class).getApiSingletons().add(
             new AssetDatapointResourceImpl(
-                container.getService(TimerService.class),
+                timerService,
                 container.getService(ManagerIdentityService.class),
-                container.getService(AssetStorageService.class),
+                assetStorageService,
                 this
             )
         );
@@ -52,10 +231,48 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
 
     @Override
     public void start(Container container) throws Exception {
+        if (partitions != null) {
+            // Partitions must exist before datapoints are written
+            partitions.load();
+            partitions.createPartitions(timerService.getCurrentTimeMillis(), partitionsAhead);
+            partitionFuture = executorService.scheduleAtFixedRate(() -> {
+                try {
+                    partitions.createPartitions(timerService.getCurrentTimeMillis(), partitionsAhead);
+                } catch (Exception ex) {
+                    LOG.log(Level.WARNING, "Creating datapoint partitions failed", ex);
+                }
+            }, PARTITION_MAINTENANCE_INTERVAL_MILLIS, PARTITION_MAINTENANCE_INTERVAL_MILLIS);
+        }
+        if (flushIntervalMillis > 0) {
+            datapointWriter.start();
+        }
+        if (purgeIntervalMillis > 0) {
+            purgeFuture = executorService.scheduleAtFixedRate(() -> {
+                try {
+                    purgeDatapoints();
+                } catch (Exception ex) {
+                    LOG.log(Level.WARNING, "Purging expired datapoints failed", ex);
+                }
+                try {
+                    purgeRollups();
+                } catch (Exception ex) {
+                    LOG.log(Level.WARNING, "Purging expired datapoint rollups failed", ex);
+                }
+            }, purgeIntervalMillis, purgeIntervalMillis);
+        }
     }
 
     @Override
     public void stop(Container container) throws Exception {
+        if (purgeFuture != null) {
+            purgeFuture.cancel(false);
+            purgeFuture = null;
+        }
+        if (partitionFuture != null) {
+            partitionFuture.cancel(false);
+            partitionFuture = null;
+        }
+        datapointWriter.stop();
     }
 
     @Override
@@ -65,20 +282,214 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
             && assetState.getAttribute().getStateEvent().isPresent()) {
             LOG.finest("Storing datapoint for: " + assetState);
             AssetDatapoint assetDatapoint = new AssetDatapoint(assetState.getAttribute().getStateEvent().get());
-            persistenceService.doTransaction(entityManager -> entityManager.persist(assetDatapoint));
+            if (datapointWriter.isRunning()) {
+                datapointWriter.write(assetDatapoint);
+            } else {
+                datapointWriter.store(Collections.singletonList(assetDatapoint));
+            }
+        }
+    }
+
+    public AssetDatapointWriter getDatapointWriter() {
+        return datapointWriter;
+    }
+
+    /**
+     * @return The partitions of the datapoint table, or <code>null</code> if datapoints are not partitioned.
+     */
+    public AssetDatapointPartitions getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return The table datapoints with the given timestamp are stored in.
+     */
+    public String getDatapointTable(long timestamp) {
+        return partitions != null ? partitions.getTable(timestamp) : AssetDatapointPartitions.DATAPOINT_TABLE;
+    }
+
+    /**
+     * @return The number of datapoints deleted by all purge runs.
+     */
+    public long getPurgedDatapoints() {
+        return purgedDatapoints.get();
+    }
+
+    /**
+     * @return The number of rollup buckets deleted by all purge runs.
+     */
+    public long getPurgedRollups() {
+        return purgedRollups.get();
+    }
+
+    public long getLastPurgedDatapoints() {
+        return lastPurgedDatapoints;
+    }
+
+    public long getLastPurgeMillis() {
+        return lastPurgeMillis;
+    }
+
+    /**
+     * Deletes datapoints older than the maximum age of their attribute, or the global maximum age if the attribute
+     * has none. Datapoints are deleted in batches, each in its own short transaction, so concurrent writes of
+     * datapoints aren't blocked for the whole purge. If datapoints are partitioned, partitions older than all
+     * maximum ages are dropped first.
+     *
+     * @return The number of deleted datapoints.
+     */
+    public long purgeDatapoints() {
+        long startTime = System.currentTimeMillis();
+        long now = timerService.getCurrentTimeMillis();
+        Map<AttributeRef, Long> attributeMaxAges = getAttributeMaxAges();
+
+        long purged = 0;
+        if (partitions != null && maxAgeMillis > 0) {
+            long longestMaxAgeMillis = maxAgeMillis;
+            for (long attributeMaxAgeMillis : attributeMaxAges.values()) {
+                longestMaxAgeMillis = Math.max(longestMaxAgeMillis, attributeMaxAgeMillis);
+            }
+            purged += partitions.dropPartitionsBefore(now - longestMaxAgeMillis);
+        }
+
+        for (Map.Entry<AttributeRef, Long> attributeMaxAge : attributeMaxAges.entrySet()) {
+            purged += deleteInBatches(getPurgeAttributeDatapointsSql(now - attributeMaxAge.getValue()), (connection, st) -> {
+                st.setString(1, attributeMaxAge.getKey().getEntityId());
+                st.setString(2, attributeMaxAge.getKey().getAttributeName());
+                st.setInt(3, purgeBatchSize);
+            });
+        }
+
+        if (maxAgeMillis > 0) {
+            String[] entityIds = new String[attributeMaxAges.size()];
+            String[] attributeNames = new String[attributeMaxAges.size()];
+            int i = 0;
+            for (AttributeRef attributeRef : attributeMaxAges.keySet()) {
+                entityIds[i] = attributeRef.getEntityId();
+                attributeNames[i] = attributeRef.getAttributeName();
+                i++;
+            }
+            purged += deleteInBatches(getPurgeDatapointsSql(now - maxAgeMillis), (connection, st) -> {
+                st.setArray(1, connection.createArrayOf("varchar", entityIds));
+                st.setArray(2, connection.createArrayOf("varchar", attributeNames));
+                st.setInt(3, purgeBatchSize);
+            });
+        }
+
+        purgedDatapoints.addAndGet(purged);
+        lastPurgedDatapoints = purged;
+        lastPurgeMillis = System.currentTimeMillis() - startTime;
+        if (purged > 0) {
+            LOG.info("Purged " + purged + " expired datapoints in " + lastPurgeMillis + "ms");
+        } else {
+            LOG.fine("No expired datapoints to purge");
+        }
+        return purged;
+    }
+
+    /**
+     * Deletes minute and hour rollups older than {@link #DATAPOINTS_MINUTE_ROLLUP_MAX_AGE} and
+     * {@link #DATAPOINTS_HOUR_ROLLUP_MAX_AGE}, in batches like expired datapoints.
+     *
+     * @return The number of deleted rollup buckets.
+     */
+    public long purgeRollups() {
+        long now = timerService.getCurrentTimeMillis();
+        long purged = 0;
+        for (Map.Entry<Resolution, Long> resolutionMaxAge : rollupMaxAgeMillis.entrySet()) {
+            if (resolutionMaxAge.getValue() <= 0)
+                continue;
+            long beforeSeconds = (now - resolutionMaxAge.getValue()) / 1000;
+            purged += deleteInBatches(AssetDatapointRollup.getPurgeRollupsSql(), (connection, st) -> {
+                st.setString(1, resolutionMaxAge.getKey().getField());
+                st.setLong(2, beforeSeconds);
+                st.setInt(3, purgeBatchSize);
+            });
         }
+        purgedRollups.addAndGet(purged);
+        if (purged > 0) {
+            LOG.info("Purged " + purged + " expired datapoint rollups");
+        } else {
+            LOG.fine("No expired datapoint rollups to purge");
+        }
+        return purged;
+    }
+
+    /**
+     * @return The maximum age in milliseconds of attributes with {@link AssetMeta#DATAPOINTS_MAX_AGE}.
+     */
+    protected Map<AttributeRef, Long> getAttributeMaxAges() {
+        return persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                Map<AttributeRef, Long> attributeMaxAges = new LinkedHashMap<>();
+                try (PreparedStatement st = connection.prepareStatement(SELECT_DATAPOINTS_MAX_AGE_SQL)) {
+                    st.setString(1, Values.createArray().add(Values.createObject().put("name", AssetMeta.DATAPOINTS_MAX_AGE.getUrn())).toJson());
+                    st.setString(2, AssetMeta.DATAPOINTS_MAX_AGE.getUrn());
+                    try (ResultSet rs = st.executeQuery()) {
+                        while (rs.next()) {
+                            AttributeRef attributeRef = new AttributeRef(rs.getString(1), rs.getString(2));
+                            String maxAge = rs.getString(3);
+                            try {
+                                long attributeMaxAgeMillis = TimeIntervalParser.parseSingle(maxAge);
+                                if (attributeMaxAgeMillis > 0) {
+                                    attributeMaxAges.put(attributeRef, attributeMaxAgeMillis);
+                                }
+                            } catch (Exception ex) {
+                                LOG.warning("Ignoring invalid datapoints max age '" + maxAge + "' of: " + attributeRef);
+                            }
+                        }
+                    }
+                }
+                return attributeMaxAges;
+            })
+        );
+    }
+
+    protected long deleteInBatches(String sql, StatementBinder binder) {
+        long deleted = 0;
+        int batchDeleted;
+        do {
+            batchDeleted = persistenceService.doReturningTransaction(entityManager ->
+                entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                    try (PreparedStatement st = connection.prepareStatement(sql)) {
+                        binder.bind(connection, st);
+                        return st.executeUpdate();
+                    }
+                })
+            );
+            deleted += batchDeleted;
+        } while (batchDeleted >= purgeBatchSize);
+        return deleted;
     }
 
+    /**
+     * The JSON value of a datapoint is read if it was stored, otherwise the datapoint is a number stored only as
+     * <code>NUMBER_VALUE</code>, see {@link Datapoint}.
+     */
     public List<AssetDatapoint> getDatapoints(AttributeRef attributeRef) {
-        return persistenceService.doReturningTransaction(entityManager -> entityManager.createQuery(
-            "select dp from AssetDatapoint dp " +
-                "where dp.entityId = :assetId " +
-                "and dp.attributeName = :attributeName " +
-                "order by dp.timestamp desc",
-            AssetDatapoint.class)
-            .setParameter("assetId", attributeRef.getEntityId())
-            .setParameter("attributeName", attributeRef.getAttributeName())
-            .getResultList());
+        return persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                List<AssetDatapoint> datapoints = new ArrayList<>();
+                try (PreparedStatement st = connection.prepareStatement(SELECT_DATAPOINTS_SQL)) {
+                    st.setString(1, attributeRef.getEntityId());
+                    st.setString(2, attributeRef.getAttributeName());
+                    try (ResultSet rs = st.executeQuery()) {
+                        while (rs.next()) {
+                            String json = rs.getString(3);
+                            Value value;
+                            if (json != null) {
+                                value = Values.parse(json).orElse(null);
+                            } else {
+                                double numberValue = rs.getDouble(2);
+                                value = rs.wasNull() ? null : Values.create(numberValue);
+                            }
+                            datapoints.add(new AssetDatapoint(attributeRef, value, rs.getLong(1)));
+                        }
+                    }
+                }
+                return datapoints;
+            })
+        );
     }
 
     public NumberDatapoint[] aggregateDatapoints(AssetAttribute attribute,
@@ -94,6 +505,7 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
                 public NumberDatapoint[] execute(Connection connection) throws SQLException {
 
                     String truncateX;
+                    Resolution resolution;
                     String step;
                     String interval;
                     Function<Timestamp, String> labelFunction;
@@ -103,30 +515,35 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
                     switch (datapointInterval) {
                         case HOUR:
                             truncateX = "minute";
+                            resolution = Resolution.MINUTE;
                             step = "1 minute";
                             interval = "1 hour";
                             labelFunction = timeFormat::format;
                             break;
                         case DAY:
                             truncateX = "hour";
+                            resolution = Resolution.HOUR;
                             step = "1 hour";
                             interval = "1 day";
                             labelFunction = timeFormat::format;
                             break;
                         case WEEK:
                             truncateX = "day";
+                            resolution = Resolution.DAY;
                             step = "1 day";
                             interval = "7 day";
                             labelFunction = dayFormat::format;
                             break;
                         case MONTH:
                             truncateX = "day";
+                            resolution = Resolution.DAY;
                             step = "1 day";
                             interval = "1 month";
                             labelFunction = dayFormat::format;
                             break;
                         case YEAR:
                             truncateX = "month";
+                            resolution = Resolution.DAY;
                             step = "1 month";
                             interval = "1 year";
                             labelFunction = dayFormat::format;
@@ -135,41 +552,36 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
                             throw new IllegalArgumentException("Can't handle interval: " + datapointInterval);
                     }
 
-                    StringBuilder query = new StringBuilder();
-
-                    query.append("select TS as X, coalesce(AVG_VALUE, null) as Y " +
-                        " from ( " +
-                        "       select date_trunc(?, GS)::timestamp TS " +
-                        "       from generate_series(to_timestamp(?) - ?, to_timestamp(?), ?) GS " +
-                        "       ) TS " +
-                        "  left join ( " +
-                        "       select " +
-                        "           date_trunc(?, to_timestamp(TIMESTAMP / 1000))::timestamp as TS, ");
-
                     switch (attribute.getTypeOrThrow().getValueType()) {
                         case NUMBER:
-                            query.append(" AVG(VALUE::text::numeric) as AVG_VALUE ");
-                            break;
                         case BOOLEAN:
-                            query.append(" AVG(case when VALUE::text::boolean is true then 1 else 0 end) as AVG_VALUE ");
                             break;
                         default:
                             throw new IllegalArgumentException("Can't aggregate number datapoints for type of: " + attribute);
                     }
 
-                    query.append(" from ASSET_DATAPOINT " +
+                    // Average the rollup buckets that fall into each chart bucket, boolean values are rolled up as 1 or 0
+                    String query = "select TS as X, AVG_VALUE as Y " +
+                        " from ( " +
+                        "       select date_trunc(?, GS)::timestamp TS " +
+                        "       from generate_series(to_timestamp(?) - ?, to_timestamp(?), ?) GS " +
+                        "       ) TS " +
+                        "  left join ( " +
+                        "       select " +
+                        "           date_trunc(?, R.BUCKET) as TS, " +
+                        "           sum(R.SUM) / sum(R.COUNT) as AVG_VALUE " +
+                        "         from ASSET_DATAPOINT_ROLLUP R " +
                         "         where " +
-                        "           to_timestamp(TIMESTAMP / 1000) >= to_timestamp(?) - ? " +
+                        "           R.ENTITY_ID = ? and R.ATTRIBUTE_NAME = ? and R.RESOLUTION = ? " +
                         "           and " +
-                        "           to_timestamp(TIMESTAMP / 1000) <= to_timestamp(?) " +
+                        "           R.BUCKET >= date_trunc(?, to_timestamp(?) - ?)::timestamp " +
                         "           and " +
-                        "           ENTITY_ID = ? and ATTRIBUTE_NAME = ? " +
+                        "           R.BUCKET <= to_timestamp(?)::timestamp " +
                         "         group by TS " +
                         "  ) DP using (TS) " +
-                        " order by TS asc "
-                    );
+                        " order by TS asc ";
 
-                    PreparedStatement st = connection.prepareStatement(query.toString());
+                    PreparedStatement st = connection.prepareStatement(query);
 
                     long timestampSeconds = timestamp / 1000;
                     st.setString(1, truncateX);
@@ -178,11 +590,13 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
                     st.setLong(4, timestampSeconds);
                     st.setObject(5, new PGInterval(step));
                     st.setString(6, truncateX);
-                    st.setLong(7, timestampSeconds);
-                    st.setObject(8, new PGInterval(interval));
-                    st.setLong(9, timestampSeconds);
-                    st.setString(10, attributeRef.getEntityId());
-                    st.setString(11, attributeRef.getAttributeName());
+                    st.setString(7, attributeRef.getEntityId());
+                    st.setString(8, attributeRef.getAttributeName());
+                    st.setString(9, resolution.getField());
+                    st.setString(10, truncateX);
+                    st.setLong(11, timestampSeconds);
+                    st.setObject(12, new PGInterval(interval));
+                    st.setLong(13, timestampSeconds);
 
                     try (ResultSet rs = st.executeQuery()) {
                         List<NumberDatapoint> result = new ArrayList<>();
@@ -201,6 +615,11 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
+            "datapointWriter=" + datapointWriter +
+            ", partitions=" + partitions +
+            ", maxAgeMillis=" + maxAgeMillis +
+            ", purgedDatapoints=" + getPurgedDatapoints() +
+            ", purgedRollups=" + getPurgedRollups() +
             '}';
     }
 }
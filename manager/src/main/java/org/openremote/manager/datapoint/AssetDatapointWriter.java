@@ -0,0 +1,400 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.concurrent.ContainerExecutor;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.asset.WriterStatistics;
+import org.openremote.model.datapoint.AssetDatapoint;
+import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.value.ValueType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous writer of asset datapoints. Datapoints are queued without waiting for storage and a single writer
+ * thread inserts them every flush interval, or as soon as the maximum batch size is reached, with one multi-row
+ * statement per batch. The queue is bounded, datapoints are dropped when it is full. Pending datapoints are
+ * flushed when the writer is stopped.
+ * <p>
+ * Datapoints of assets which have been deleted in the meantime are ignored, a later datapoint with the same
+ * timestamp as a queued or stored datapoint of the same attribute replaces it. The {@link AssetDatapointRollup}
+ * is updated in the same transaction.
+ */
+public class AssetDatapointWriter {
+
+    private static final Logger LOG = Logger.getLogger(AssetDatapointWriter.class.getName());
+
+    /**
+     * @param table The datapoint table or one of its partitions.
+     */
+    public static String getInsertDatapointsSql(String table) {
+        String datapoints = "select DP.ENTITY_ID, DP.ATTRIBUTE_NAME, DP.TIMESTAMP, DP.NUMBER_VALUE, cast(DP.VALUE as jsonb) as VALUE" +
+            " from unnest(cast(? as varchar[]), cast(? as varchar[]), cast(? as int8[]), cast(? as float8[]), cast(? as text[]))" +
+            " as DP(ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, NUMBER_VALUE, VALUE)" +
+            " join ASSET A on A.ID = DP.ENTITY_ID";
+        String upsert = " on conflict (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP) do update set" +
+            " NUMBER_VALUE = excluded.NUMBER_VALUE, VALUE = excluded.VALUE";
+        if (AssetDatapointPartitions.DATAPOINT_TABLE.equals(table)) {
+            return "insert into " + table + " (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, NUMBER_VALUE, VALUE) " + datapoints + upsert;
+        }
+        // The key of a partition doesn't cover the parent table, a datapoint stored in the parent table before the
+        // partition was created is replaced by deleting it
+        return "with DP as (" + datapoints + ")," +
+            " REPLACED as (" +
+            "   delete from only " + AssetDatapointPartitions.DATAPOINT_TABLE + " P using DP" +
+            "   where P.ENTITY_ID = DP.ENTITY_ID and P.ATTRIBUTE_NAME = DP.ATTRIBUTE_NAME and P.TIMESTAMP = DP.TIMESTAMP" +
+            " )" +
+            " insert into " + table + " (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, NUMBER_VALUE, VALUE)" +
+            " select ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, NUMBER_VALUE, VALUE from DP" +
+            upsert;
+    }
+
+    /**
+     * The SQL state of a statement on a table which doesn't exist.
+     */
+    protected static final String UNDEFINED_TABLE_STATE = "42P01";
+
+    public static final int STOP_TIMEOUT_MILLIS = 10000;
+
+    final protected PersistenceService persistenceService;
+    final protected Function<Long, String> datapointTable;
+    final protected long flushIntervalMillis;
+    final protected int maxBatchSize;
+    final protected BlockingQueue<AssetDatapoint> pendingDatapoints;
+    protected ExecutorService writerExecutor;
+    protected volatile boolean running;
+
+    final protected AtomicLong queuedDatapoints = new AtomicLong();
+    final protected AtomicLong droppedDatapoints = new AtomicLong();
+    final protected AtomicLong storedDatapoints = new AtomicLong();
+    final protected AtomicLong failedDatapoints = new AtomicLong();
+    final protected AtomicLong batches = new AtomicLong();
+    final protected AtomicLong totalCommitMillis = new AtomicLong();
+    protected volatile long lastBatchSize;
+    protected volatile long maxCommitMillis;
+
+    /**
+     * @param datapointTable Returns the table of a datapoint with the given timestamp.
+     */
+    public AssetDatapointWriter(PersistenceService persistenceService, Function<Long, String> datapointTable,
+                                long flushIntervalMillis, int maxBatchSize, int queueCapacity) {
+        this.persistenceService = persistenceService;
+        this.datapointTable = datapointTable;
+        this.flushIntervalMillis = Math.max(flushIntervalMillis, 1);
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        this.pendingDatapoints = new ArrayBlockingQueue<>(Math.max(queueCapacity, 1));
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        writerExecutor = new ContainerExecutor("Asset datapoint writer", 1, 1, 60, -1);
+        writerExecutor.execute(this::writeBatches);
+    }
+
+    /**
+     * Stops the writer thread and stores the pending datapoints in the calling thread.
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        writerExecutor.shutdown();
+        try {
+            if (!writerExecutor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warning("Asset datapoint writer didn't stop in time, flushing pending datapoints anyway");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Queues the datapoint for storage and returns immediately.
+     *
+     * @return <code>false</code> if the queue is full and the datapoint was dropped.
+     */
+    public boolean write(AssetDatapoint datapoint) {
+        if (!running)
+            throw new IllegalStateException("Asset datapoint writer not running");
+
+        if (!pendingDatapoints.offer(datapoint)) {
+            // Don't flood the log when storage can't keep up
+            if (droppedDatapoints.incrementAndGet() % 1000 == 1) {
+                LOG.warning("Asset datapoint queue is full, dropped " + getDroppedDatapoints() + " datapoints so far: " + datapoint);
+            }
+            return false;
+        }
+        queuedDatapoints.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stores all pending datapoints in the calling thread.
+     */
+    public void flush() {
+        List<AssetDatapoint> batch = new ArrayList<>();
+        while (pendingDatapoints.drainTo(batch, maxBatchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    public int getPendingDatapoints() {
+        return pendingDatapoints.size();
+    }
+
+    public long getQueuedDatapoints() {
+        return queuedDatapoints.get();
+    }
+
+    /**
+     * @return The number of datapoints which were not queued because the queue was full.
+     */
+    public long getDroppedDatapoints() {
+        return droppedDatapoints.get();
+    }
+
+    /**
+     * @return The number of inserted or replaced datapoints.
+     */
+    public long getStoredDatapoints() {
+        return storedDatapoints.get();
+    }
+
+    /**
+     * @return The number of datapoints lost because storing their batch failed.
+     */
+    public long getFailedDatapoints() {
+        return failedDatapoints.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public long getMaxCommitMillis() {
+        return maxCommitMillis;
+    }
+
+    public double getAverageCommitMillis() {
+        long batchCount = batches.get();
+        return batchCount > 0 ? (double) totalCommitMillis.get() / batchCount : 0;
+    }
+
+    public WriterStatistics getStatistics() {
+        long batchCount = getBatches();
+        return new WriterStatistics(
+            "Asset datapoint writer",
+            getPendingDatapoints(),
+            getStoredDatapoints(),
+            getDroppedDatapoints(),
+            getFailedDatapoints(),
+            batchCount,
+            batchCount > 0 ? (double) getStoredDatapoints() / batchCount : 0,
+            getAverageCommitMillis(),
+            getMaxCommitMillis()
+        );
+    }
+
+    protected void writeBatches() {
+        List<AssetDatapoint> batch = new ArrayList<>();
+        while (running) {
+            try {
+                AssetDatapoint first = pendingDatapoints.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (running && batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+                    if (pendingDatapoints.drainTo(batch, maxBatchSize - batch.size()) == 0) {
+                        AssetDatapoint next = pendingDatapoints.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null)
+                            break;
+                        batch.add(next);
+                    }
+                }
+                writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException ex) {
+                // Don't lose the datapoints already taken from the queue
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable t) {
+                LOG.log(Level.SEVERE, "Error in asset datapoint writer", t);
+                batch.clear();
+            }
+        }
+    }
+
+    protected void writeBatch(List<AssetDatapoint> batch) {
+        try {
+            store(batch);
+        } catch (Exception ex) {
+            failedDatapoints.addAndGet(batch.size());
+            LOG.log(Level.WARNING, "Storing batch of " + batch.size() + " asset datapoints failed", ex);
+        }
+    }
+
+    /**
+     * Stores the datapoints in the calling thread, in one transaction. If a partition was dropped after it was chosen
+     * as the table of some datapoints, the batch is stored again in the tables chosen then.
+     *
+     * @return The number of inserted or replaced datapoints.
+     */
+    public int store(List<AssetDatapoint> batch) {
+        // Collapse datapoints of the same attribute and timestamp, the latest datapoint wins
+        Map<AssetDatapoint, AssetDatapoint> datapoints = new LinkedHashMap<>();
+        for (AssetDatapoint datapoint : batch) {
+            datapoints.remove(datapoint);
+            datapoints.put(datapoint, datapoint);
+        }
+
+        long startTime = System.currentTimeMillis();
+        int stored;
+        try {
+            stored = storeInTables(datapoints.values());
+        } catch (RuntimeException ex) {
+            if (!isUndefinedTable(ex))
+                throw ex;
+            LOG.fine("Datapoint table was dropped while storing batch, retrying: " + ex);
+            stored = storeInTables(datapoints.values());
+        }
+
+        long commitMillis = System.currentTimeMillis() - startTime;
+        recordBatch(datapoints.size(), stored, commitMillis);
+        LOG.fine("Stored " + stored + " of " + batch.size() + " asset datapoints, commit took " + commitMillis + "ms");
+        return stored;
+    }
+
+    protected int storeInTables(Collection<AssetDatapoint> datapoints) {
+        // Each table is written with its own statement, datapoints are not routed to partitions by the database
+        Map<String, List<AssetDatapoint>> datapointsByTable = new LinkedHashMap<>();
+        for (AssetDatapoint datapoint : datapoints) {
+            datapointsByTable.computeIfAbsent(datapointTable.apply(datapoint.getTimestamp()), table -> new ArrayList<>()).add(datapoint);
+        }
+
+        return persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                int inserted = 0;
+                for (Map.Entry<String, List<AssetDatapoint>> tableDatapoints : datapointsByTable.entrySet()) {
+                    inserted += insert(connection, tableDatapoints.getKey(), tableDatapoints.getValue());
+                    AssetDatapointRollup.update(connection, tableDatapoints.getKey(), tableDatapoints.getValue());
+                }
+                return inserted;
+            })
+        );
+    }
+
+    protected static boolean isUndefinedTable(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && UNDEFINED_TABLE_STATE.equals(((SQLException) cause).getSQLState()))
+                return true;
+        }
+        return false;
+    }
+
+    protected int insert(Connection connection, String table, List<AssetDatapoint> datapoints) throws SQLException {
+        int size = datapoints.size();
+        String[] entityIds = new String[size];
+        String[] attributeNames = new String[size];
+        Long[] timestamps = new Long[size];
+        Double[] numberValues = new Double[size];
+        String[] values = new String[size];
+        int i = 0;
+        for (AssetDatapoint datapoint : datapoints) {
+            entityIds[i] = datapoint.getEntityId();
+            attributeNames[i] = datapoint.getAttributeName();
+            timestamps[i] = datapoint.getTimestamp();
+            numberValues[i] = Datapoint.toNumberValue(datapoint.getValue());
+            // Only numbers are stored without JSON value, booleans keep it so their type is known when read
+            if (numberValues[i] == null || datapoint.getValue().getType() != ValueType.NUMBER) {
+                // Careful, do not store SQL null, a datapoint without value must have a JSON null value
+                values[i] = datapoint.getValue() != null ? datapoint.getValue().toJson() : "null";
+            }
+            i++;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(getInsertDatapointsSql(table))) {
+            statement.setArray(1, connection.createArrayOf("varchar", entityIds));
+            statement.setArray(2, connection.createArrayOf("varchar", attributeNames));
+            statement.setArray(3, connection.createArrayOf("int8", timestamps));
+            statement.setArray(4, connection.createArrayOf("float8", numberValues));
+            statement.setArray(5, connection.createArrayOf("text", values));
+            return statement.executeUpdate();
+        }
+    }
+
+    protected void recordBatch(int batchSize, int stored, long commitMillis) {
+        batches.incrementAndGet();
+        storedDatapoints.addAndGet(stored);
+        totalCommitMillis.addAndGet(commitMillis);
+        lastBatchSize = batchSize;
+        if (commitMillis > maxCommitMillis) {
+            maxCommitMillis = commitMillis;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "flushIntervalMillis=" + flushIntervalMillis +
+            ", maxBatchSize=" + maxBatchSize +
+            ", pendingDatapoints=" + getPendingDatapoints() +
+            ", queuedDatapoints=" + getQueuedDatapoints() +
+            ", droppedDatapoints=" + getDroppedDatapoints() +
+            ", storedDatapoints=" + getStoredDatapoints() +
+            ", failedDatapoints=" + getFailedDatapoints() +
+            ", batches=" + getBatches() +
+            ", averageCommitMillis=" + String.format("%.1f", getAverageCommitMillis()) +
+            ", maxCommitMillis=" + getMaxCommitMillis() +
+            '}';
+    }
+}
@@ -28,6 +28,7 @@ import org.openremote.container.message.MessageBrokerSetupService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.timer.TimerService;
+import org.openremote.manager.asset.AssetImport;
 import org.openremote.manager.asset.AssetProcessingService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.asset.ServerAsset;
@@ -57,6 +58,7 @@ import java.util.stream.Stream;
 
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.util.MapAccess.getString;
+import static org.openremote.manager.asset.AssetStorageService.ASSET_IMPORT_TOPIC;
 import static org.openremote.manager.asset.AssetRoute.isPersistenceEventForEntityType;
 import static org.openremote.model.AbstractValueTimestampHolder.VALUE_TIMESTAMP_FIELD_NAME;
 import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
@@ -153,6 +155,19 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
                 final ServerAsset eventAsset = (ServerAsset) persistenceEvent.getEntity();
                 processAssetChange(eventAsset, persistenceEvent);
             });
+
+        // Imported assets have no persistence events, insert their rule state attributes as for inserted assets
+        from(ASSET_IMPORT_TOPIC)
+            .routeId("RuleEngineAssetImports")
+            .process(exchange -> {
+                AssetImport assetImport = exchange.getIn().getBody(AssetImport.class);
+                for (String assetId : assetImport.getRuleStateAssetIds()) {
+                    ServerAsset asset = assetStorageService.find(assetId, true);
+                    if (asset != null) {
+                        processAssetChange(asset, new PersistenceEvent<>(PersistenceEvent.Cause.INSERT, asset, new String[0], new Object[0]));
+                    }
+                }
+            });
     }
 
     @Override
@@ -275,7 +290,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
 
                 // Build an update with a fully loaded asset
                 ruleStateAttributes.forEach(attribute -> {
-                    ServerAsset loadedAsset = assetStorageService.find(asset.getId(), true);
+                    ServerAsset loadedAsset = assetStorageService.findCached(asset.getId(), asset.getVersion());
                     // If the asset is now gone it was deleted immediately after being inserted, nothing more to do
                     if (loadedAsset == null)
                         return;
@@ -296,7 +311,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
                 }
 
                 // Fully load the asset
-                final Asset loadedAsset = assetStorageService.find(asset.getId(), true);
+                final Asset loadedAsset = assetStorageService.findCached(asset.getId(), asset.getVersion());
                 // If the asset is now gone it was deleted immediately after being updated, nothing more to do
                 if (loadedAsset == null)
                     return;
@@ -523,7 +538,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
             .entrySet()
             .stream()
             .map(es ->
-                new Pair<>(assetStorageService.find(es.getKey(), true), es.getValue())
+                new Pair<>(assetStorageService.findCached(es.getKey()), es.getValue())
             )
             .filter(assetAndRules -> assetAndRules.key != null)
             .collect(Collectors.groupingBy(assetAndRules -> assetAndRules.key.getRealmId()))
@@ -0,0 +1,92 @@
+/*
+  ############################# ASSET PATH #############################
+
+  The path of an asset is materialised in the ASSET table instead of being computed
+  with a recursive query for every row. The path starts with the asset's own
+  identifier and ends with the identifier of its root asset. It is maintained by
+  triggers when an asset is inserted or moved to another parent, moving an asset
+  also updates the paths of all of its descendants.
+ */
+
+alter table ASSET
+  add column PATH text [];
+
+update ASSET
+set PATH = GET_ASSET_TREE_PATH(ID);
+
+alter table ASSET
+  alter column PATH set not null;
+
+create index ASSET_PATH_IDX
+  on ASSET using gin (PATH);
+
+/*
+  ############################# FUNCTIONS #############################
+ */
+
+create or replace function GET_ASSET_TREE_PATH(ASSET_ID text)
+  returns text [] as
+$$
+select PATH
+from ASSET
+where ID = ASSET_ID;
+$$
+language sql stable;
+
+create or replace function UPDATE_ASSET_PATH()
+  returns trigger as
+$$
+declare
+  PARENT_PATH text [];
+begin
+  if TG_OP = 'UPDATE' and NEW.PARENT_ID is not distinct from OLD.PARENT_ID and NEW.PATH is not null
+  then
+    return NEW;
+  end if;
+
+  if NEW.PARENT_ID is null
+  then
+    NEW.PATH = array [text(NEW.ID)];
+  else
+    select P.PATH
+    into PARENT_PATH
+    from ASSET P
+    where P.ID = NEW.PARENT_ID;
+
+    if text(NEW.ID) = any (PARENT_PATH)
+    then
+      raise exception 'Asset can not be moved below its own descendant: %', NEW.ID;
+    end if;
+
+    NEW.PATH = array_prepend(text(NEW.ID), PARENT_PATH);
+  end if;
+  return NEW;
+end;
+$$
+language plpgsql;
+
+create or replace function UPDATE_ASSET_DESCENDANT_PATHS()
+  returns trigger as
+$$
+begin
+  update ASSET
+  set PATH = PATH [1 : array_position(PATH, text(NEW.ID)) - 1] || NEW.PATH
+  where PATH @> array [text(NEW.ID)] and ID <> NEW.ID;
+  return null;
+end;
+$$
+language plpgsql;
+
+/*
+  ############################# TRIGGERS #############################
+ */
+
+create trigger ASSET_PATH_TRIGGER
+before insert or update of PARENT_ID on ASSET
+for each row execute procedure UPDATE_ASSET_PATH();
+
+create trigger ASSET_DESCENDANT_PATHS_TRIGGER
+after update of PARENT_ID on ASSET
+for each row
+when (OLD.PARENT_ID is distinct from NEW.PARENT_ID)
+execute procedure UPDATE_ASSET_DESCENDANT_PATHS();
@@ -0,0 +1,20 @@
+/*
+  ############################# ASSET ATTRIBUTE VALUE #############################
+
+  Current attribute values and value timestamps, stored outside of the ASSET.ATTRIBUTES
+  document when the manager is configured with ATTRIBUTE_VALUE_TABLE. A value row
+  overrides the value in the document if it isn't older than the document's value
+  timestamp. Updates don't change indexed columns, the fill factor leaves room on
+  each page so they can be heap-only tuple updates.
+ */
+
+create table ASSET_ATTRIBUTE_VALUE (
+  ASSET_ID  varchar(43)  not null,
+  NAME      varchar(255) not null,
+  VALUE     jsonb        not null,
+  TIMESTAMP int8         not null,
+  primary key (ASSET_ID, NAME)
+) with (fillfactor = 70);
+
+alter table ASSET_ATTRIBUTE_VALUE
+  add foreign key (ASSET_ID) references ASSET (ID) on delete cascade;
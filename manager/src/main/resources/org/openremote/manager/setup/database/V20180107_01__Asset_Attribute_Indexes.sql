@@ -0,0 +1,29 @@
+/*
+  ############################# ASSET ATTRIBUTE INDEXES #############################
+
+  Attribute and meta predicates of asset queries are pre-filtered with jsonb containment
+  operators, these indexes serve them instead of scanning the attributes of every asset.
+ */
+
+/*
+  All meta items of all attributes as one array, meta item containment can't be expressed
+  on the attributes document because the attribute names are keys.
+ */
+create or replace function GET_ASSET_ATTRIBUTE_META(ATTRIBUTES jsonb)
+  returns jsonb as
+$$
+select coalesce(jsonb_agg(AM.VALUE), '[]' :: jsonb)
+from jsonb_each(ATTRIBUTES) as AX,
+      jsonb_array_elements(
+          case when jsonb_typeof(AX.VALUE -> 'meta') = 'array'
+            then AX.VALUE -> 'meta'
+          else '[]' :: jsonb end
+      ) as AM;
+$$
+language sql immutable;
+
+create index ASSET_ATTRIBUTES_IDX
+  on ASSET using gin (ATTRIBUTES jsonb_path_ops);
+
+create index ASSET_ATTRIBUTE_META_IDX
+  on ASSET using gin (GET_ASSET_ATTRIBUTE_META(ATTRIBUTES) jsonb_path_ops);
@@ -0,0 +1,8 @@
+/*
+  ############################# ASSET LOCATION INDEX #############################
+
+  Geo predicates of asset queries filter the location with the bounding box operator,
+  served by this index instead of testing the location of every asset.
+ */
+create index ASSET_LOCATION_IDX
+  on ASSET using gist (LOCATION);
@@ -0,0 +1,13 @@
+/*
+  ############################# ASSET TREE INDEXES #############################
+
+  Browsing the asset tree reads the children of a parent, or the root assets of a
+  realm, ordered by name in pages, and counts the children of each asset. These
+  indexes serve the pages in order and the counts without scanning all assets.
+ */
+create index ASSET_PARENT_ID_IDX
+  on ASSET (PARENT_ID, NAME, ID);
+
+create index ASSET_ROOT_IDX
+  on ASSET (REALM_ID, NAME, ID)
+  where PARENT_ID is null;
@@ -0,0 +1,24 @@
+/*
+  ############################# ASSET DATAPOINT KEY #############################
+
+  Datapoints are read by entity, attribute and time range, the primary key leading
+  with the value couldn't serve these queries. A datapoint is now identified by its
+  attribute and timestamp, so the key is also the time index of each attribute.
+ */
+
+/*
+  Keep only the last stored value when an attribute has several datapoints with the
+  same timestamp, these were only distinct because of the value in the old key.
+ */
+delete from ASSET_DATAPOINT DP
+using ASSET_DATAPOINT D
+where DP.ENTITY_ID = D.ENTITY_ID
+      and DP.ATTRIBUTE_NAME = D.ATTRIBUTE_NAME
+      and DP.TIMESTAMP = D.TIMESTAMP
+      and DP.ctid < D.ctid;
+
+alter table ASSET_DATAPOINT
+  drop constraint ASSET_DATAPOINT_PKEY;
+
+alter table ASSET_DATAPOINT
+  add primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP);
@@ -0,0 +1,9 @@
+/*
+  ############################# ASSET DATAPOINT RETENTION #############################
+
+  The datapoint purge job selects expired datapoints of all attributes by timestamp.
+  Datapoints are stored roughly in timestamp order, a small block range index serves
+  this without slowing down datapoint inserts like a btree index would.
+ */
+create index ASSET_DATAPOINT_TIMESTAMP_IDX
+  on ASSET_DATAPOINT using brin (TIMESTAMP);
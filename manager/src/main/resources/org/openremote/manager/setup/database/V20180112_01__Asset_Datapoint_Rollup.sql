@@ -0,0 +1,61 @@
+/*
+  ############################# ASSET DATAPOINT ROLLUP #############################
+
+  Count, sum, minimum and maximum of the number and boolean datapoints of an attribute
+  per minute, hour and day. Chart queries read the coarsest resolution that fits the
+  chart interval instead of aggregating raw datapoints. Buckets are truncated in the
+  session time zone, like the chart buckets.
+ */
+create table ASSET_DATAPOINT_ROLLUP (
+  ENTITY_ID      varchar(36)  not null,
+  ATTRIBUTE_NAME varchar(255) not null,
+  RESOLUTION     varchar(6)   not null,
+  BUCKET         timestamp    not null,
+  COUNT          int8         not null,
+  SUM            float8       not null,
+  MIN            float8       not null,
+  MAX            float8       not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, BUCKET)
+);
+
+alter table ASSET_DATAPOINT_ROLLUP
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+/*
+  Roll up the existing datapoints, later datapoints are rolled up when they are stored.
+ */
+insert into ASSET_DATAPOINT_ROLLUP (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, BUCKET, COUNT, SUM, MIN, MAX)
+  select
+    DP.ENTITY_ID,
+    DP.ATTRIBUTE_NAME,
+    'minute',
+    DP.BUCKET,
+    count(DP.V),
+    sum(DP.V),
+    min(DP.V),
+    max(DP.V)
+  from (
+         select
+           ENTITY_ID,
+           ATTRIBUTE_NAME,
+           cast(date_trunc('minute', to_timestamp(TIMESTAMP / 1000)) as timestamp) as BUCKET,
+           case jsonb_typeof(VALUE)
+           when 'number' then cast(VALUE #>> '{}' as float8)
+           when 'boolean' then case when cast(VALUE #>> '{}' as boolean) then 1.0 else 0.0 end
+           end as V
+         from ASSET_DATAPOINT
+       ) DP
+  group by DP.ENTITY_ID, DP.ATTRIBUTE_NAME, DP.BUCKET
+  having count(DP.V) > 0;
+
+insert into ASSET_DATAPOINT_ROLLUP (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, BUCKET, COUNT, SUM, MIN, MAX)
+  select ENTITY_ID, ATTRIBUTE_NAME, 'hour', date_trunc('hour', BUCKET), sum(COUNT), sum(SUM), min(MIN), max(MAX)
+  from ASSET_DATAPOINT_ROLLUP
+  where RESOLUTION = 'minute'
+  group by ENTITY_ID, ATTRIBUTE_NAME, date_trunc('hour', BUCKET);
+
+insert into ASSET_DATAPOINT_ROLLUP (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, BUCKET, COUNT, SUM, MIN, MAX)
+  select ENTITY_ID, ATTRIBUTE_NAME, 'day', date_trunc('day', BUCKET), sum(COUNT), sum(SUM), min(MIN), max(MAX)
+  from ASSET_DATAPOINT_ROLLUP
+  where RESOLUTION = 'hour'
+  group by ENTITY_ID, ATTRIBUTE_NAME, date_trunc('day', BUCKET);
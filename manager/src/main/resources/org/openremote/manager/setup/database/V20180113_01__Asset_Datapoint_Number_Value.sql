@@ -0,0 +1,21 @@
+/*
+  ############################# ASSET DATAPOINT NUMBER VALUE #############################
+
+  Number and boolean datapoints are stored as double precision NUMBER_VALUE, booleans as
+  1 or 0, so aggregating them doesn't convert JSON on every row. The JSON VALUE is not
+  stored for numbers, booleans keep it so their type doesn't depend on the attribute.
+  Partitions inherit the new column and constraint.
+
+  Existing datapoints are not converted, rewriting the table would lock it for a long
+  time. They keep their JSON VALUE, which is converted when NUMBER_VALUE is empty. Adding
+  the column and dropping the not null constraint only change the catalog, the check
+  constraint holds for existing rows and is not validated.
+ */
+alter table ASSET_DATAPOINT
+  add column NUMBER_VALUE float8;
+
+alter table ASSET_DATAPOINT
+  alter column VALUE drop not null;
+
+alter table ASSET_DATAPOINT
+  add constraint ASSET_DATAPOINT_VALUE_CHECK check (NUMBER_VALUE is not null or VALUE is not null) not valid;
@@ -0,0 +1,9 @@
+/*
+  ############################# ASSET DATAPOINT ROLLUP RETENTION #############################
+
+  The rollup purge job selects expired minute and hour buckets of all attributes by
+  bucket. Buckets are stored roughly in time order, a small block range index serves
+  this without slowing down rollup updates like a btree index would.
+ */
+create index ASSET_DATAPOINT_ROLLUP_BUCKET_IDX
+  on ASSET_DATAPOINT_ROLLUP using brin (BUCKET);
@@ -328,6 +328,21 @@ public class AssetAttribute extends Attribute {
         }
     }
 
+    public Optional<String> getDatapointsMaxAge() {
+        return getMetaStream()
+            .filter(isMetaNameEqualTo(DATAPOINTS_MAX_AGE))
+            .findFirst()
+            .flatMap(AbstractValueHolder::getValueAsString);
+    }
+
+    public void setDatapointsMaxAge(String maxAge) {
+        if (!isNullOrEmpty(maxAge)) {
+            replaceMetaByName(getMeta(), DATAPOINTS_MAX_AGE, Values.create(maxAge));
+        } else {
+            getMeta().removeIf(isMetaNameEqualTo(DATAPOINTS_MAX_AGE));
+        }
+    }
+
     public boolean isRuleState() {
         return getMetaStream()
             .filter(isMetaNameEqualTo(RULE_STATE))
@@ -360,6 +375,24 @@ public class AssetAttribute extends Attribute {
         }
     }
 
+    /**
+     * @return The {@link AssetMeta#CHANGE_ONLY} setting of the attribute, if present.
+     */
+    public Optional<Boolean> getChangeOnly() {
+        return getMetaStream()
+            .filter(isMetaNameEqualTo(CHANGE_ONLY))
+            .findFirst()
+            .flatMap(AbstractValueHolder::getValueAsBoolean);
+    }
+
+    public void setChangeOnly(Boolean changeOnly) {
+        if (changeOnly != null) {
+            replaceMetaByName(getMeta(), CHANGE_ONLY, Values.create(changeOnly));
+        } else {
+            getMeta().removeIf(isMetaNameEqualTo(CHANGE_ONLY));
+        }
+    }
+
     public Optional<String> getRuleEventExpires() {
         return getMetaStream()
             .filter(isMetaNameEqualTo(RULE_EVENT_EXPIRES))
@@ -272,6 +272,19 @@ public enum AssetMeta implements MetaItemDescriptor {
         Values.create(true),
         true),
 
+    /**
+     * Set maximum age of stored datapoints of the attribute, for example "30d". Older datapoints are purged
+     * periodically, this overrides the global datapoint retention of the manager.
+     */
+    DATAPOINTS_MAX_AGE(
+        ASSET_META_NAMESPACE + ":dataPointsMaxAge",
+        new Access(true, false, true),
+        ValueType.STRING,
+        "^([+-])?((\\d+)[Dd])?\\s*((\\d+)[Hh])?\\s*((\\d+)[Mm])?\\s*((\\d+)[Ss])?\\s*((\\d+)([Mm][Ss])?)?$", // From DROOLS
+        PatternFailure.DAYS_HOURS_MINS_SECONDS.name(),
+        null,
+        false),
+
     /**
      * Should attribute writes be processed by the rules engines as {@link AssetState} facts in knowledge sessions,
      * with a lifecycle that reflects the state of the asset attribute. The state facts in the rules sessions are kept
@@ -340,7 +353,22 @@ public enum AssetMeta implements MetaItemDescriptor {
         null,
         null,
         Values.create(true),
-        true);
+        true),
+
+    /**
+     * Ignore sensor and internal updates of the attribute that don't change its value, the event is not passed on
+     * to agents, rules, storage, datapoints, or clients. Set to <code>false</code> to process every update when
+     * the manager is configured to ignore unchanged values by default. Client writes and executable attributes
+     * are always processed.
+     */
+    CHANGE_ONLY(
+        ASSET_META_NAMESPACE + ":changeOnly",
+        new Access(true, false, true),
+        ValueType.BOOLEAN,
+        null,
+        null,
+        Values.create(true),
+        false);
 
     final protected String urn;
     final protected Access access;
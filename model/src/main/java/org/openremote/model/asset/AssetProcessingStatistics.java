@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.asset;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A snapshot of the asset attribute event processing chain: the time events waited in queues, the time spent in
+ * each stage, processing failures by {@link AssetProcessingException.Reason}, and the state of the bounded queues.
+ */
+public class AssetProcessingStatistics {
+
+    protected ProcessingStageStatistics queueWait;
+    protected ProcessingStageStatistics[] stages;
+    protected Map<AssetProcessingException.Reason, Long> errors;
+    protected int assetQueueSize;
+    protected int sensorQueueSize;
+    protected long droppedEvents;
+    protected long coalescedEvents;
+    protected WriterStatistics[] writers;
+
+    protected AssetProcessingStatistics() {
+    }
+
+    public AssetProcessingStatistics(ProcessingStageStatistics queueWait,
+                                     ProcessingStageStatistics[] stages,
+                                     Map<AssetProcessingException.Reason, Long> errors,
+                                     int assetQueueSize,
+                                     int sensorQueueSize,
+                                     long droppedEvents,
+                                     long coalescedEvents,
+                                     WriterStatistics[] writers) {
+        this.queueWait = queueWait;
+        this.stages = stages;
+        this.errors = errors;
+        this.assetQueueSize = assetQueueSize;
+        this.sensorQueueSize = sensorQueueSize;
+        this.droppedEvents = droppedEvents;
+        this.coalescedEvents = coalescedEvents;
+        this.writers = writers;
+    }
+
+    /**
+     * @return The time between sending an event and the start of its processing.
+     */
+    public ProcessingStageStatistics getQueueWait() {
+        return queueWait;
+    }
+
+    public ProcessingStageStatistics[] getStages() {
+        return stages;
+    }
+
+    public Map<AssetProcessingException.Reason, Long> getErrors() {
+        return errors;
+    }
+
+    public int getAssetQueueSize() {
+        return assetQueueSize;
+    }
+
+    public int getSensorQueueSize() {
+        return sensorQueueSize;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public long getCoalescedEvents() {
+        return coalescedEvents;
+    }
+
+    /**
+     * @return The batching writers of attribute values and datapoints.
+     */
+    public WriterStatistics[] getWriters() {
+        return writers;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "queueWait=" + queueWait +
+            ", stages=" + Arrays.toString(stages) +
+            ", errors=" + errors +
+            ", assetQueueSize=" + assetQueueSize +
+            ", sensorQueueSize=" + sensorQueueSize +
+            ", droppedEvents=" + droppedEvents +
+            ", coalescedEvents=" + coalescedEvents +
+            ", writers=" + Arrays.toString(writers) +
+            '}';
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.asset;
+
+/**
+ * A page of the results of an {@link AssetQuery}. If there may be more results, the {@link #nextCursor} is set and
+ * can be used as {@link AssetQuery#cursor} of the same query to get the next page.
+ */
+public class AssetQueryPage {
+
+    protected Asset[] assets;
+    protected String nextCursor;
+
+    protected AssetQueryPage() {
+    }
+
+    public AssetQueryPage(Asset[] assets, String nextCursor) {
+        this.assets = assets;
+        this.nextCursor = nextCursor;
+    }
+
+    public Asset[] getAssets() {
+        return assets;
+    }
+
+    /**
+     * @return The cursor of the next page, or <code>null</code> if this is the last page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "assets=" + (assets != null ? assets.length : 0) +
+            ", nextCursor='" + nextCursor + '\'' +
+            '}';
+    }
+}
@@ -23,6 +23,8 @@ import jsinterop.annotations.JsType;
 import org.openremote.model.asset.Asset;
 import org.openremote.model.asset.AssetQuery;
 import org.openremote.model.asset.UserAsset;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeWriteResult;
 import org.openremote.model.http.RequestParams;
 import org.openremote.model.http.SuccessStatusCode;
 
@@ -56,6 +58,7 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
  *     <li>{@link #get}</li>
  *     <li>{@link #update}</li>
  *     <li>{@link #writeAttributeValue}</li>
+ *     <li>{@link #writeAttributeValues}</li>
  * </ul>
  */
 @Path("asset")
@@ -181,6 +184,9 @@ public interface AssetResource {
      * this method, query the system later to determine the actual state and outcome of the write operation. The version
      * of the asset entity will not be incremented by this operation, thus concurrent updates can overwrite data
      * undetected ("last commit wins").
+     * <p>
+     * The response is sent when the event has been validated and processed, without holding a server thread while
+     * waiting. A 503 status is returned if too many writes are pending or processing doesn't complete in time.
      */
     @PUT
     @Path("{assetId}/attribute/{attributeName}")
@@ -190,6 +196,28 @@ public interface AssetResource {
     @SuppressWarnings("unusable-by-js")
     void writeAttributeValue(@BeanParam RequestParams requestParams, @PathParam("assetId") String assetId, @PathParam("attributeName") String attributeName, String rawJson);
 
+    /**
+     * Updates attributes of several assets, with the same access rules as {@link #writeAttributeValue}. Access
+     * to each asset is checked once, and the events are processed in parallel, while the events of an asset are
+     * processed in the order given. If an event has no timestamp, the current server time is used.
+     * <p>
+     * Returns the outcome of each event in the order given; a failed event does not affect the processing of other
+     * events. The response is sent when all events have been processed, without holding a server thread while
+     * waiting. Events rejected because too many writes are pending, or not processed in time, have a
+     * {@link org.openremote.model.attribute.AttributeWriteResult.Status#REJECTED} or
+     * {@link org.openremote.model.attribute.AttributeWriteResult.Status#TIMEOUT} result. A request with more events
+     * than the configured maximum batch size (1000 by default) is rejected with a 413 status, without writing any
+     * values.
+     */
+    @PUT
+    @Path("attributes")
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"write:assets"})
+    @SuppressWarnings("unusable-by-js")
+    AttributeWriteResult[] writeAttributeValues(@BeanParam RequestParams requestParams, AttributeEvent[] events);
+
     /**
      * Creates an asset. The identifier value of the asset can be provided, it should be a globally unique string value,
      * and must be at least 22 characters long. If no identifier value is provided, a unique value will be generated by
@@ -238,6 +266,37 @@ public interface AssetResource {
     @SuppressWarnings("unusable-by-js")
     Asset[] queryAssets(@BeanParam RequestParams requestParams, AssetQuery query);
 
+    /**
+     * Retrieve a page of assets using an {@link AssetQuery}, with the same access rules as {@link #queryAssets}. The
+     * page contains at most {@link AssetQuery#limit} assets, a default limit is used if not set. To get the next page,
+     * repeat the query with the {@link AssetQueryPage#getNextCursor} as {@link AssetQuery#cursor}. Results are
+     * paginated by their order, and by identifier for assets with the same order value, so a page continues after
+     * the last asset of the previous page even when assets are created or deleted in between.
+     */
+    @POST
+    @Path("query/page")
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:assets"})
+    @SuppressWarnings("unusable-by-js")
+    AssetQueryPage queryAssetPage(@BeanParam RequestParams requestParams, AssetQuery query);
+
+    /**
+     * Retrieve a page of assets for browsing the asset tree, usually the children of a parent or the root assets of a
+     * realm, with the same access rules as {@link #queryAssets}. Assets are ordered by name and only have their
+     * identity, type, and realm. The page also has the number of children of each asset, for a restricted user only
+     * linked children are counted. Paging works as for {@link #queryAssetPage}.
+     */
+    @POST
+    @Path("query/tree")
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:assets"})
+    @SuppressWarnings("unusable-by-js")
+    AssetTreePage queryAssetTreePage(@BeanParam RequestParams requestParams, AssetQuery query);
+
     /**
      * Retrieve public assets using an {@link AssetQuery}.
      * <p>
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.asset;
+
+/**
+ * A page of assets for browsing the asset tree, with the number of children of each asset so a tree node can be
+ * shown as a leaf without loading its children. The assets only have their identity, type, and realm; path and
+ * attributes are not loaded.
+ */
+public class AssetTreePage extends AssetQueryPage {
+
+    protected int[] childCounts;
+
+    protected AssetTreePage() {
+    }
+
+    public AssetTreePage(Asset[] assets, int[] childCounts, String nextCursor) {
+        super(assets, nextCursor);
+        this.childCounts = childCounts;
+    }
+
+    /**
+     * @return The number of children of the asset at the same index in {@link #getAssets()}.
+     */
+    public int[] getChildCounts() {
+        return childCounts;
+    }
+
+    public int getChildCount(int index) {
+        return childCounts != null && index < childCounts.length ? childCounts[index] : 0;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "assets=" + (assets != null ? assets.length : 0) +
+            ", nextCursor='" + nextCursor + '\'' +
+            '}';
+    }
+}
@@ -475,6 +475,50 @@ public class BaseAssetQuery<CHILD extends BaseAssetQuery<CHILD>> {
         }
     }
 
+    /**
+     * Restricts assets to a location inside a bounding box, or within a distance of a center point. Coordinates are
+     * LNG/LAT pairs as in {@link Asset#getCoordinates()}. Assets without a location never match.
+     */
+    public static class GeoPredicate {
+        // West, south, east, north
+        public double[] boundingBox;
+        public double[] center;
+        public double radiusMeters;
+
+        public GeoPredicate() {
+        }
+
+        public GeoPredicate boundingBox(double west, double south, double east, double north) {
+            this.boundingBox = new double[]{west, south, east, north};
+            this.center = null;
+            return this;
+        }
+
+        public GeoPredicate radius(double lng, double lat, double radiusMeters) {
+            this.center = new double[]{lng, lat};
+            this.radiusMeters = radiusMeters;
+            this.boundingBox = null;
+            return this;
+        }
+
+        public boolean hasBoundingBox() {
+            return boundingBox != null && boundingBox.length == 4;
+        }
+
+        public boolean hasRadius() {
+            return center != null && center.length == 2;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                "boundingBox=" + Arrays.toString(boundingBox) +
+                ", center=" + Arrays.toString(center) +
+                ", radiusMeters=" + radiusMeters +
+                '}';
+        }
+    }
+
     public static class AttributePredicate {
         public StringPredicate name;
         public ValuePredicate value;
@@ -662,6 +706,7 @@ public class BaseAssetQuery<CHILD extends BaseAssetQuery<CHILD>> {
     public ParentPredicate parentPredicate;
     public PathPredicate pathPredicate;
     public TenantPredicate tenantPredicate;
+    public GeoPredicate geoPredicate;
     public String userId;
     public StringPredicate type;
     public AttributePredicate[] attributePredicates;
@@ -670,6 +715,10 @@ public class BaseAssetQuery<CHILD extends BaseAssetQuery<CHILD>> {
     // Ordering
     public OrderBy orderBy;
 
+    // Pagination, the cursor is returned with the previous page and continues after its last result in the same order
+    public int limit;
+    public String cursor;
+
     protected BaseAssetQuery() {
     }
 
@@ -719,6 +768,11 @@ public class BaseAssetQuery<CHILD extends BaseAssetQuery<CHILD>> {
         return (CHILD) this;
     }
 
+    public CHILD geo(GeoPredicate geoPredicate) {
+        this.geoPredicate = geoPredicate;
+        return (CHILD) this;
+    }
+
     public CHILD userId(String userId) {
         this.userId = userId;
         return (CHILD) this;
@@ -748,6 +802,16 @@ public class BaseAssetQuery<CHILD extends BaseAssetQuery<CHILD>> {
         return (CHILD) this;
     }
 
+    public CHILD limit(int limit) {
+        this.limit = limit;
+        return (CHILD) this;
+    }
+
+    public CHILD cursor(String cursor) {
+        this.cursor = cursor;
+        return (CHILD) this;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -757,11 +821,14 @@ public class BaseAssetQuery<CHILD extends BaseAssetQuery<CHILD>> {
             ", parentPredicate=" + parentPredicate +
             ", pathPredicate=" + pathPredicate +
             ", tenantPredicate=" + tenantPredicate +
+            ", geoPredicate=" + geoPredicate +
             ", userId='" + userId + '\'' +
             ", type=" + type +
             ", attributePredicates=" + Arrays.toString(attributePredicates) +
             ", attributeMetaPredicates=" + Arrays.toString(attributeMetaPredicates) +
             ", orderBy=" + orderBy +
+            ", limit=" + limit +
+            ", cursor='" + cursor + '\'' +
             '}';
     }
 }
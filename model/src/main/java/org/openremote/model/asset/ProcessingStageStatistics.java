@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.asset;
+
+/**
+ * Timing of a stage of the asset attribute event processing chain, durations are in milliseconds.
+ */
+public class ProcessingStageStatistics {
+
+    protected String name;
+    protected long events;
+    protected long errors;
+    protected double eventsPerSecond;
+    protected double p50Millis;
+    protected double p99Millis;
+    protected double maxMillis;
+
+    protected ProcessingStageStatistics() {
+    }
+
+    public ProcessingStageStatistics(String name, long events, long errors, double eventsPerSecond, double p50Millis, double p99Millis, double maxMillis) {
+        this.name = name;
+        this.events = events;
+        this.errors = errors;
+        this.eventsPerSecond = eventsPerSecond;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "name='" + name + '\'' +
+            ", events=" + events +
+            ", errors=" + errors +
+            ", eventsPerSecond=" + eventsPerSecond +
+            ", p50Millis=" + p50Millis +
+            ", p99Millis=" + p99Millis +
+            ", maxMillis=" + maxMillis +
+            '}';
+    }
+}
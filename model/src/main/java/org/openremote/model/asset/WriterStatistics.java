@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.asset;
+
+/**
+ * Throughput of a batching writer of the asset attribute event processing chain, collected since startup.
+ * Durations are in milliseconds.
+ */
+public class WriterStatistics {
+
+    protected String name;
+    protected int pending;
+    protected long writes;
+    protected long dropped;
+    protected long failed;
+    protected long batches;
+    protected double averageBatchSize;
+    protected double averageCommitMillis;
+    protected double maxCommitMillis;
+
+    protected WriterStatistics() {
+    }
+
+    public WriterStatistics(String name, int pending, long writes, long dropped, long failed, long batches,
+                            double averageBatchSize, double averageCommitMillis, double maxCommitMillis) {
+        this.name = name;
+        this.pending = pending;
+        this.writes = writes;
+        this.dropped = dropped;
+        this.failed = failed;
+        this.batches = batches;
+        this.averageBatchSize = averageBatchSize;
+        this.averageCommitMillis = averageCommitMillis;
+        this.maxCommitMillis = maxCommitMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of writes waiting for the next batch.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return The number of committed writes.
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return The number of writes discarded because the writer's queue was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The number of writes lost because their batch failed.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public double getAverageBatchSize() {
+        return averageBatchSize;
+    }
+
+    public double getAverageCommitMillis() {
+        return averageCommitMillis;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "name='" + name + '\'' +
+            ", pending=" + pending +
+            ", writes=" + writes +
+            ", dropped=" + dropped +
+            ", failed=" + failed +
+            ", batches=" + batches +
+            ", averageBatchSize=" + averageBatchSize +
+            ", averageCommitMillis=" + averageCommitMillis +
+            ", maxCommitMillis=" + maxCommitMillis +
+            '}';
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.openremote.model.attribute;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.openremote.model.event.shared.EventFilter;
 import org.openremote.model.event.shared.SharedEvent;
 import org.openremote.model.value.Value;
@@ -104,6 +105,9 @@ public class AttributeEvent extends SharedEvent {
 
     protected AttributeState attributeState;
 
+    @JsonIgnore
+    protected long sequence;
+
     protected AttributeEvent() {
     }
 
@@ -161,10 +165,23 @@ public class AttributeEvent extends SharedEvent {
         return getAttributeState().getCurrentValue();
     }
 
+    /**
+     * @return The ingress sequence of the event, ordering events with the same timestamp; <code>0</code> if
+     * the event has no sequence. The sequence is only used within the server and not serialized.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
             "timestamp=" + timestamp +
+            (sequence > 0 ? ", sequence=" + sequence : "") +
             ", attributeState=" + attributeState +
             "}";
     }
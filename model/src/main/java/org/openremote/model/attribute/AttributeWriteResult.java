@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.attribute;
+
+import org.openremote.model.asset.AssetProcessingException;
+
+/**
+ * The outcome of writing an {@link AttributeEvent}, the {@link #failure} reason is set if the event
+ * was not valid.
+ */
+public class AttributeWriteResult {
+
+    public enum Status {
+
+        /**
+         * The event was processed successfully.
+         */
+        COMPLETED,
+
+        /**
+         * The event was not valid and not applied, see {@link #getFailure()}.
+         */
+        FAILED,
+
+        /**
+         * A processor failed while processing the event, the event might have been applied partially.
+         */
+        ERROR,
+
+        /**
+         * The event was not processed because too many events are pending, it can be sent again later.
+         */
+        REJECTED,
+
+        /**
+         * Processing of the event didn't complete in time, the outcome is unknown.
+         */
+        TIMEOUT
+    }
+
+    protected AttributeRef ref;
+    protected Status status;
+    protected AssetProcessingException.Reason failure;
+
+    protected AttributeWriteResult() {
+    }
+
+    public AttributeWriteResult(AttributeRef ref, AssetProcessingException.Reason failure) {
+        this(ref, failure == null ? Status.COMPLETED : Status.FAILED, failure);
+    }
+
+    public AttributeWriteResult(AttributeRef ref, Status status) {
+        this(ref, status, null);
+    }
+
+    protected AttributeWriteResult(AttributeRef ref, Status status, AssetProcessingException.Reason failure) {
+        this.ref = ref;
+        this.status = status;
+        this.failure = failure;
+    }
+
+    public AttributeRef getRef() {
+        return ref;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public AssetProcessingException.Reason getFailure() {
+        return failure;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.COMPLETED;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "ref=" + ref +
+            ", status=" + status +
+            ", failure=" + failure +
+            '}';
+    }
+}
@@ -22,11 +22,13 @@ package org.openremote.model.datapoint;
 import org.openremote.model.attribute.*;
 import org.openremote.model.value.Value;
 import org.openremote.model.value.ValueType;
+import org.openremote.model.value.Values;
 
 import javax.persistence.Column;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.PostLoad;
 import java.io.Serializable;
 
 import static org.openremote.model.Constants.PERSISTENCE_JSON_VALUE_TYPE;
@@ -35,6 +37,12 @@ import static org.openremote.model.Constants.PERSISTENCE_JSON_VALUE_TYPE;
  * <p>
  * A datapoint is used to hold time series data of an entity attribute.
  * <p>
+ * A datapoint is identified by its entity, attribute and timestamp; an attribute has at most one value at a
+ * given timestamp.
+ * <p>
+ * Number and boolean values are also stored as <code>NUMBER_VALUE</code>, booleans as <code>1</code> or
+ * <code>0</code>, so they can be aggregated without converting JSON. The JSON <code>VALUE</code> may be empty for
+ * numbers, booleans and other values always have it, so the type of a value never depends on the attribute.
  */
 @MappedSuperclass
 @IdClass(Datapoint.class)
@@ -57,6 +65,22 @@ public abstract class Datapoint implements Serializable {
         return attribute.getType().map(attributeType -> isDatapointsCapable(attributeType.getValueType())).orElse(false);
     }
 
+    /**
+     * @return The <code>NUMBER_VALUE</code> of a number or boolean value, <code>null</code> for other values.
+     */
+    public static Double toNumberValue(Value value) {
+        if (value == null)
+            return null;
+        switch (value.getType()) {
+            case NUMBER:
+                return Values.getNumber(value).orElse(null);
+            case BOOLEAN:
+                return Values.getBoolean(value).map(bool -> bool ? 1d : 0d).orElse(null);
+            default:
+                return null;
+        }
+    }
+
     @Id
     @Column(name = "ENTITY_ID", length = 36, nullable = false)
     protected String entityId;
@@ -69,11 +93,13 @@ public abstract class Datapoint implements Serializable {
     @Column(name = "TIMESTAMP", nullable = false)
     protected long timestamp;
 
-    @Id
-    @Column(name = "VALUE", columnDefinition = "jsonb", nullable = false)
+    @Column(name = "VALUE", columnDefinition = "jsonb")
     @org.hibernate.annotations.Type(type = PERSISTENCE_JSON_VALUE_TYPE)
     protected Value value;
 
+    @Column(name = "NUMBER_VALUE")
+    protected Double numberValue;
+
     public Datapoint() {
     }
 
@@ -93,7 +119,7 @@ public abstract class Datapoint implements Serializable {
         this.entityId = entityId;
         this.attributeName = attributeName;
         this.timestamp = timestamp;
-        this.value = value;
+        setValue(value);
     }
 
     public String getEntityId() {
@@ -126,6 +152,21 @@ public abstract class Datapoint implements Serializable {
 
     public void setValue(Value value) {
         this.value = value;
+        this.numberValue = toNumberValue(value);
+    }
+
+    public Double getNumberValue() {
+        return numberValue;
+    }
+
+    /**
+     * A number stored without JSON value is read from <code>NUMBER_VALUE</code>.
+     */
+    @PostLoad
+    protected void postLoad() {
+        if (value == null && numberValue != null) {
+            value = Values.create(numberValue);
+        }
     }
 
     @Override
@@ -137,8 +178,7 @@ public abstract class Datapoint implements Serializable {
 
         return timestamp == datapoint.timestamp
             && entityId.equals(datapoint.entityId)
-            && attributeName.equals(datapoint.attributeName)
-            && value.equals(datapoint.value);
+            && attributeName.equals(datapoint.attributeName);
     }
 
     @Override
@@ -146,7 +186,6 @@ public abstract class Datapoint implements Serializable {
         int result = entityId.hashCode();
         result = 31 * result + attributeName.hashCode();
         result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
-        result = 31 * result + value.hashCode();
         return result;
     }
 
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.test;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.openremote.agent.protocol.Protocol;
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.asset.AssetProcessingContext;
+import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.manager.asset.AttributeEventSequences;
+import org.openremote.manager.asset.ServerAsset;
+import org.openremote.model.ValidationFailure;
+import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.asset.AssetProcessingException;
+import org.openremote.model.asset.AssetProcessingException.Reason;
+import org.openremote.model.asset.AssetState;
+import org.openremote.model.asset.AssetType;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeEvent.Source;
+import org.openremote.model.attribute.AttributeExecuteStatus;
+import org.openremote.model.attribute.AttributeType;
+import org.openremote.model.event.Event;
+import org.openremote.model.value.Values;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static org.openremote.manager.asset.AssetRoute.buildAssetState;
+import static org.openremote.manager.asset.AssetRoute.extractAttributeEventDetails;
+import static org.openremote.manager.asset.AssetRoute.validateAttributeEvent;
+import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
+
+/**
+ * Measures the allocations per attribute event of the validation steps of the asset processing chain. The typed
+ * variant runs the production code: {@link AssetProcessingContext#of} and the steps of
+ * {@link org.openremote.manager.asset.AssetRoute}. The header variant runs the same steps as they were implemented
+ * before the typed context, passing the asset, attribute and asset state in message headers and reading them with
+ * type conversion. Both variants use an asset storage service that returns the asset without a database, and
+ * internal events, as the checks of client and sensor events need the identity and agent services.
+ * <p>
+ * Run with <code>main()</code>, the number of events is the optional first argument.
+ */
+public class AssetProcessingContextBenchmark {
+
+    protected static final String HEADER_ASSET = "org.openremote.manager.asset.AssetRoute.ASSET";
+    protected static final String HEADER_ATTRIBUTE = "org.openremote.manager.asset.AssetRoute.ATTRIBUTE";
+    protected static final String HEADER_ASSET_STATE = "org.openremote.manager.asset.AssetRoute.ASSET_STATE";
+
+    final protected CamelContext camelContext = new DefaultCamelContext();
+    final protected ServerAsset asset = new ServerAsset("Benchmark asset", AssetType.THING);
+    final protected TimerService timerService = new TimerService() {
+        @Override
+        public long getCurrentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+    final protected AssetStorageService assetStorageService = new AssetStorageService() {
+        @Override
+        public ServerAsset findCached(String assetId, long minimumVersion) {
+            return asset;
+        }
+    };
+    final protected AttributeEventSequences attributeEventSequences = new AttributeEventSequences();
+    final protected List<Processor> headerProcessors = Arrays.asList(
+        extractAttributeEventDetailsFromHeaders(),
+        validateAttributeEventFromHeaders(),
+        buildAssetStateFromHeaders()
+    );
+    // Event timestamps must increase, or events are dropped as outdated
+    protected long nextTimestamp = System.currentTimeMillis() - 100_000_000L;
+    protected long nextSequence = 1;
+    protected Object sink;
+
+    public AssetProcessingContextBenchmark() {
+        asset.setId("BenchmarkAsset");
+        asset.setAttributes(new AssetAttribute("temperature", AttributeType.NUMBER, Values.create(20)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        AssetProcessingContextBenchmark benchmark = new AssetProcessingContextBenchmark();
+        System.out.println("Header map bytes/event: " + benchmark.measureHeaders(events));
+        System.out.println("Typed context bytes/event: " + benchmark.measureContext(events));
+    }
+
+    /**
+     * @return Bytes allocated per event when passing state through message headers.
+     */
+    public double measureHeaders(int events) throws Exception {
+        runHeaders(createExchanges(events));
+        Exchange[] exchanges = createExchanges(events);
+        long before = getAllocatedBytes();
+        runHeaders(exchanges);
+        return (double) (getAllocatedBytes() - before) / events;
+    }
+
+    /**
+     * @return Bytes allocated per event when passing state through the typed context.
+     */
+    public double measureContext(int events) {
+        runContext(createExchanges(events));
+        Exchange[] exchanges = createExchanges(events);
+        long before = getAllocatedBytes();
+        runContext(exchanges);
+        return (double) (getAllocatedBytes() - before) / events;
+    }
+
+    protected void runHeaders(Exchange[] exchanges) throws Exception {
+        for (Exchange exchange : exchanges) {
+            for (Processor processor : headerProcessors) {
+                processor.process(exchange);
+                if (exchange.getProperty(Exchange.ROUTE_STOP) != null)
+                    break;
+            }
+            sink = exchange.getIn().getHeader(HEADER_ASSET_STATE, AssetState.class);
+        }
+    }
+
+    protected void runContext(Exchange[] exchanges) {
+        for (Exchange exchange : exchanges) {
+            AssetProcessingContext context = AssetProcessingContext.of(exchange);
+            extractAttributeEventDetails(assetStorageService, context);
+            validateAttributeEvent(context);
+            if (buildAssetState(timerService, attributeEventSequences, false, context)) {
+                sink = context.getAssetState();
+            }
+        }
+    }
+
+    protected Exchange[] createExchanges(int count) {
+        Exchange[] exchanges = new Exchange[count];
+        for (int i = 0; i < count; i++) {
+            AttributeEvent event = new AttributeEvent(asset.getId(), "temperature", Values.create(i), nextTimestamp++);
+            event.setSequence(nextSequence++);
+            Exchange exchange = new DefaultExchange(camelContext);
+            exchange.getIn().setBody(event);
+            exchange.getIn().setHeader(HEADER_SOURCE, Source.INTERNAL);
+            exchange.getIn().setHeader(Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, "urn:benchmark");
+            exchanges[i] = exchange;
+        }
+        return exchanges;
+    }
+
+    protected Processor extractAttributeEventDetailsFromHeaders() {
+        return exchange -> {
+            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+            if (event.getEntityId() == null || event.getEntityId().isEmpty())
+                return;
+            if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
+                return;
+
+            ServerAsset asset;
+            if (exchange.getIn().getHeader(HEADER_ASSET) == null) {
+                asset = assetStorageService.findCached(event.getEntityId());
+                if (asset == null)
+                    return;
+                exchange.getIn().setHeader(HEADER_ASSET, asset);
+            } else {
+                asset = exchange.getIn().getHeader(HEADER_ASSET, ServerAsset.class);
+            }
+
+            if (exchange.getIn().getHeader(HEADER_ATTRIBUTE) == null) {
+                AssetAttribute attribute = asset.getAttribute(event.getAttributeName()).orElse(null);
+                if (attribute == null)
+                    return;
+                exchange.getIn().setHeader(HEADER_ATTRIBUTE, attribute);
+            }
+        };
+    }
+
+    protected Processor validateAttributeEventFromHeaders() {
+        return exchange -> {
+            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+
+            Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+            if (source == null) {
+                throw new AssetProcessingException(Reason.MISSING_SOURCE);
+            }
+
+            ServerAsset asset = exchange.getIn().getHeader(HEADER_ASSET, ServerAsset.class);
+            if (asset == null) {
+                throw new AssetProcessingException(Reason.ASSET_NOT_FOUND);
+            }
+
+            AssetAttribute attribute = exchange.getIn().getHeader(HEADER_ATTRIBUTE, AssetAttribute.class);
+            if (attribute == null) {
+                throw new AssetProcessingException(Reason.ATTRIBUTE_NOT_FOUND);
+            }
+
+            if (asset.getWellKnownType() == AssetType.AGENT) {
+                throw new AssetProcessingException(Reason.ILLEGAL_AGENT_UPDATE);
+            }
+
+            if (attribute.isExecutable() && source != Source.SENSOR) {
+                Optional<AttributeExecuteStatus> status = event.getValue()
+                    .flatMap(Values::getString)
+                    .flatMap(AttributeExecuteStatus::fromString);
+
+                if (status.isPresent() && !status.get().isWrite()) {
+                    throw new AssetProcessingException(Reason.INVALID_ATTRIBUTE_EXECUTE_STATUS);
+                }
+            }
+        };
+    }
+
+    protected Processor buildAssetStateFromHeaders() {
+        return exchange -> {
+            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+            Source source = exchange.getIn().getHeader(HEADER_SOURCE, Source.class);
+            ServerAsset asset = exchange.getIn().getHeader(HEADER_ASSET, ServerAsset.class);
+            AssetAttribute attribute = exchange.getIn().getHeader(HEADER_ATTRIBUTE, AssetAttribute.class);
+
+            long eventTime = event.getTimestamp();
+            long processingTime = timerService.getCurrentTimeMillis();
+            if (eventTime - processingTime > 1000) {
+                throw new AssetProcessingException(Reason.EVENT_IN_FUTURE);
+            }
+
+            Optional<AttributeEvent> lastStateEvent = attribute.getStateEvent();
+
+            lastStateEvent.map(Event::getTimestamp).filter(t -> t >= 0 && eventTime < t).ifPresent(
+                lastStateTime -> {
+                    throw new AssetProcessingException(Reason.EVENT_OUTDATED);
+                }
+            );
+
+            if (source != Source.CLIENT
+                && !attribute.isExecutable()
+                && attribute.getChangeOnly().orElse(false)
+                && lastStateEvent.isPresent()
+                && Objects.equals(lastStateEvent.get().getValue().orElse(null), event.getValue().orElse(null))) {
+                exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+                return;
+            }
+
+            attribute.setValue(event.getValue().orElse(null), eventTime);
+
+            List<ValidationFailure> validationFailures = attribute.getValidationFailures();
+            if (!validationFailures.isEmpty()) {
+                throw new AssetProcessingException(Reason.ATTRIBUTE_VALIDATION_FAILURE, validationFailures.toString());
+            }
+
+            AssetState assetState = new AssetState(
+                asset,
+                attribute,
+                lastStateEvent.flatMap(AttributeEvent::getValue).orElse(null),
+                lastStateEvent.map(AttributeEvent::getTimestamp).orElse(-1L),
+                source
+            );
+
+            exchange.getIn().setHeader(HEADER_ASSET_STATE, assetState);
+        };
+    }
+
+    protected static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -10,6 +10,7 @@ import org.openremote.app.client.admin.TenantArrayMapper
 import org.openremote.app.client.assets.AssetArrayMapper
 import org.openremote.app.client.assets.AssetMapper
 import org.openremote.app.client.assets.AssetQueryMapper
+import org.openremote.app.client.assets.AssetTreePageMapper
 import org.openremote.app.client.assets.browser.*
 import org.openremote.app.client.event.SubscriptionFailureEvent
 import org.openremote.app.client.i18n.ManagerMessages
@@ -87,6 +88,7 @@ class AssetBrowserPresenterTest extends Specification implements ManagerContaine
         def assetMapper = new ClientObjectMapper(container.JSON, Asset.class) as AssetMapper
         def assetQueryMapper = new ClientObjectMapper(container.JSON, AssetQuery.class) as AssetQueryMapper
         def assetArrayMapper = new ClientObjectMapper(container.JSON, Asset[].class) as AssetArrayMapper
+        def assetTreePageMapper = new ClientObjectMapper(container.JSON, AssetTreePage.class) as AssetTreePageMapper
         def tenantArrayMapper = new ClientObjectMapper(container.JSON, Tenant[].class) as TenantArrayMapper
 
         and: "The expected result"
@@ -131,6 +133,7 @@ class AssetBrowserPresenterTest extends Specification implements ManagerContaine
                 assetMapper,
                 assetQueryMapper,
                 assetArrayMapper,
+                assetTreePageMapper,
                 tenantResource,
                 tenantArrayMapper
         )
@@ -285,6 +288,7 @@ class AssetBrowserPresenterTest extends Specification implements ManagerContaine
         def assetMapper = new ClientObjectMapper(container.JSON, Asset.class) as AssetMapper
         def assetQueryMapper = new ClientObjectMapper(container.JSON, AssetQuery.class) as AssetQueryMapper
         def assetArrayMapper = new ClientObjectMapper(container.JSON, Asset[].class) as AssetArrayMapper
+        def assetTreePageMapper = new ClientObjectMapper(container.JSON, AssetTreePage.class) as AssetTreePageMapper
         def tenantArrayMapper = new ClientObjectMapper(container.JSON, Tenant[].class) as TenantArrayMapper
 
         and: "The expected result"
@@ -329,6 +333,7 @@ class AssetBrowserPresenterTest extends Specification implements ManagerContaine
                 assetMapper,
                 assetQueryMapper,
                 assetArrayMapper,
+                assetTreePageMapper,
                 tenantResource,
                 tenantArrayMapper
         )
@@ -463,6 +468,7 @@ class AssetBrowserPresenterTest extends Specification implements ManagerContaine
         def assetMapper = new ClientObjectMapper(container.JSON, Asset.class) as AssetMapper
         def assetQueryMapper = new ClientObjectMapper(container.JSON, AssetQuery.class) as AssetQueryMapper
         def assetArrayMapper = new ClientObjectMapper(container.JSON, Asset[].class) as AssetArrayMapper
+        def assetTreePageMapper = new ClientObjectMapper(container.JSON, AssetTreePage.class) as AssetTreePageMapper
         def tenantArrayMapper = new ClientObjectMapper(container.JSON, Tenant[].class) as TenantArrayMapper
 
         and: "The expected result"
@@ -504,6 +510,7 @@ class AssetBrowserPresenterTest extends Specification implements ManagerContaine
                 assetMapper,
                 assetQueryMapper,
                 assetArrayMapper,
+                assetTreePageMapper,
                 tenantResource,
                 tenantArrayMapper
         )
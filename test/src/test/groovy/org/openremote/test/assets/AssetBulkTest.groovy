@@ -0,0 +1,65 @@
+package org.openremote.test.assets
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.ManagerDemoSetup
+import org.openremote.model.asset.AssetQuery
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+import static org.openremote.model.asset.BaseAssetQuery.*
+
+class AssetBulkTest extends Specification implements ManagerContainerTrait {
+
+    def "Export and import assets"() {
+
+        given: "the server container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(defaultConfig(serverPort), defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+
+        when: "the assets of a realm are exported"
+        def exported = new ByteArrayOutputStream()
+        assetStorageService.exportAssets(managerDemoSetup.customerARealmId, exported)
+        def documents = exported.toString(StandardCharsets.UTF_8.name()).readLines().collect { new JsonSlurper().parseText(it) }
+
+        then: "all assets of the realm should be exported with parents before children"
+        documents.size() == assetStorageService.findAll(new AssetQuery().tenant(new TenantPredicate(managerDemoSetup.customerARealmId))).size()
+        documents.every { it.realmId == managerDemoSetup.customerARealmId }
+        documents.findIndexOf { it.id == managerDemoSetup.smartHomeId } < documents.findIndexOf { it.id == managerDemoSetup.apartment1Id }
+
+        when: "the exported assets are imported again with new identifiers, children before parents"
+        def newIds = documents.collectEntries { [(it.id): UUID.randomUUID().toString()] }
+        def importDocuments = documents.reverse().collect {
+            it.id = newIds[it.id]
+            it.parentId = it.parentId != null ? newIds[it.parentId] : null
+            JsonOutput.toJson(it)
+        }.join("\n")
+        def result = assetStorageService.importAssets(new ByteArrayInputStream(importDocuments.getBytes(StandardCharsets.UTF_8)))
+
+        then: "all assets should be imported"
+        result.errors.isEmpty()
+        result.imported == documents.size()
+        def apartment1 = assetStorageService.find(newIds[managerDemoSetup.apartment1Id], true)
+        apartment1.name == "Apartment 1"
+        apartment1.path[0] == newIds[managerDemoSetup.apartment1Id]
+        apartment1.path[1] == newIds[managerDemoSetup.smartHomeId]
+        apartment1.getAttributesList().size() == assetStorageService.find(managerDemoSetup.apartment1Id, true).getAttributesList().size()
+
+        when: "the same assets are imported again"
+        result = assetStorageService.importAssets(new ByteArrayInputStream(importDocuments.getBytes(StandardCharsets.UTF_8)))
+
+        then: "nothing should be imported and the errors should be reported"
+        result.imported == 0
+        result.errors.size() == documents.size()
+        result.errors[0] == "Line 1: Asset already exists: " + documents.last().id
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
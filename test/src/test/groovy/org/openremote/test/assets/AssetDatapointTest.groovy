@@ -2,17 +2,42 @@ package org.openremote.test.assets
 
 import org.openremote.agent.protocol.simulator.SimulatorProtocol
 import org.openremote.manager.asset.AssetStorageService
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.datapoint.AssetDatapointPartitions
+import org.openremote.manager.datapoint.AssetDatapointRollup
 import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.datapoint.AssetDatapointWriter
 import org.openremote.manager.setup.SetupService
 import org.openremote.manager.setup.builtin.ManagerDemoSetup
 import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.datapoint.AssetDatapoint
 import org.openremote.model.datapoint.DatapointInterval
+import org.openremote.model.value.ValueType
 import org.openremote.model.value.Values
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import org.hibernate.Session
+import org.hibernate.jdbc.Work
+
+import javax.persistence.EntityManager
+import java.sql.Connection
+import java.time.Instant
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.temporal.ChronoUnit
+import java.util.concurrent.CountDownLatch
+import java.util.function.Function
+
+import static java.util.concurrent.TimeUnit.DAYS
+import static java.util.concurrent.TimeUnit.HOURS
 import static java.util.concurrent.TimeUnit.SECONDS
+import static java.util.concurrent.TimeUnit.MINUTES
+import static org.openremote.manager.datapoint.AssetDatapointService.DATAPOINTS_HOUR_ROLLUP_MAX_AGE
+import static org.openremote.manager.datapoint.AssetDatapointService.DATAPOINTS_MAX_AGE
+import static org.openremote.manager.datapoint.AssetDatapointService.DATAPOINTS_MINUTE_ROLLUP_MAX_AGE
+import static org.openremote.manager.datapoint.AssetDatapointService.DATAPOINTS_PARTITIONED
 
 class AssetDatapointTest extends Specification implements ManagerContainerTrait {
 
@@ -173,4 +198,443 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
         cleanup: "the server should be stopped"
         stopContainer(container)
     }
+
+    def "Purge expired asset datapoints"() {
+
+        when: "the demo agent and thing have been deployed with a global datapoint retention of one day"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort) << [(DATAPOINTS_MAX_AGE): "1d"], defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+
+        and: "an attribute has its own retention of three days"
+        def thing = assetStorageService.find(managerDemoSetup.thingId, true)
+        thing.getAttribute("light1Toggle").get().setDatapointsMaxAge("3d")
+        assetStorageService.merge(thing)
+
+        and: "old datapoints have been stored"
+        def now = getClockTimeOf(container)
+        persistenceService.doTransaction { em ->
+            em.persist(new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(1), now - DAYS.toMillis(2)))
+            em.persist(new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(2), now - HOURS.toMillis(1)))
+            em.persist(new AssetDatapoint(managerDemoSetup.thingId, "light1Toggle", Values.create(true), now - DAYS.toMillis(4)))
+            em.persist(new AssetDatapoint(managerDemoSetup.thingId, "light1Toggle", Values.create(false), now - DAYS.toMillis(2)))
+        }
+
+        and: "expired datapoints are purged"
+        def purged = assetDatapointService.purgeDatapoints()
+
+        then: "only datapoints older than the retention of their attribute should be deleted"
+        purged == 2
+        def powerTimestamps = assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption")).collect { it.timestamp }
+        powerTimestamps.contains(now - HOURS.toMillis(1))
+        !powerTimestamps.contains(now - DAYS.toMillis(2))
+        def toggleTimestamps = assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1Toggle")).collect { it.timestamp }
+        toggleTimestamps.contains(now - DAYS.toMillis(2))
+        !toggleTimestamps.contains(now - DAYS.toMillis(4))
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Store asset datapoints in monthly partitions"() {
+
+        when: "the demo agent and thing have been deployed with partitioned datapoints"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort) << [(DATAPOINTS_PARTITIONED): "true"], defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def partitions = assetDatapointService.getPartitions()
+        def now = getClockTimeOf(container)
+        def currentMonth = AssetDatapointPartitions.getMonth(now)
+
+        then: "the partitions of the current and the next months should have been created"
+        partitions.getPartitions().containsAll([currentMonth, currentMonth.plusMonths(1), currentMonth.plusMonths(2)])
+        assetDatapointService.getDatapointTable(now) == AssetDatapointPartitions.getTableName(currentMonth)
+
+        when: "a datapoint is stored"
+        assetDatapointService.getDatapointWriter().store([
+            new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(123), now - 1)
+        ])
+
+        then: "it should be stored in the partition of the current month"
+        assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption"))
+            .collect { it.timestamp }.contains(now - 1)
+
+        when: "a datapoint of the current month is stored in the parent table, as before partitioning was enabled"
+        def persistenceService = container.getService(PersistenceService.class)
+        persistenceService.doTransaction { em ->
+            em.persist(new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(1), now - 2))
+        }
+
+        and: "a datapoint with the same key is stored"
+        assetDatapointService.getDatapointWriter().store([
+            new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(2), now - 2)
+        ])
+
+        then: "it should replace the datapoint in the parent table"
+        assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption"))
+            .findAll { it.timestamp == now - 2 }.collect { Values.getNumber(it.value).orElse(null) } == [2d]
+
+        when: "a datapoint is stored by a writer which chose a partition that has been dropped in the meantime"
+        def tableChoices = 0
+        def writer = new AssetDatapointWriter(persistenceService, { Long timestamp ->
+            tableChoices++ == 0 ? AssetDatapointPartitions.getTableName(currentMonth.minusYears(100)) : assetDatapointService.getDatapointTable(timestamp)
+        }, 1000, 100, 100)
+        def stored = writer.store([
+            new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(3), now - 3)
+        ])
+
+        then: "the batch should be stored again in the current table"
+        stored == 1
+        writer.failedDatapoints == 0
+        assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption"))
+            .collect { it.timestamp }.contains(now - 3)
+
+        when: "the partition of the current month is dropped"
+        partitions.dropPartitionsBefore(AssetDatapointPartitions.getStartMillis(currentMonth.plusMonths(1)))
+
+        then: "its datapoints should be gone and new datapoints of the month should be stored in the parent table"
+        !assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption"))
+            .collect { it.timestamp }.contains(now - 1)
+        assetDatapointService.getDatapointTable(now) == AssetDatapointPartitions.DATAPOINT_TABLE
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Queue asset datapoints and store them in batches"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        and: "the demo agent and thing have been deployed"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort), defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+
+        and: "a writer with a small queue which stores one datapoint per batch and waits until it may store"
+        def storing = new CountDownLatch(1)
+        def writer = new AssetDatapointWriter(persistenceService, { AssetDatapointPartitions.DATAPOINT_TABLE }, 60000, 1, 5) {
+            @Override
+            int store(List<AssetDatapoint> batch) {
+                storing.await()
+                return super.store(batch)
+            }
+        }
+        writer.start()
+        def now = getClockTimeOf(container)
+        def createDatapoint = { int value ->
+            new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(value), now - 1000 + value)
+        }
+
+        when: "a datapoint is taken by the writer"
+        writer.write(createDatapoint(0))
+
+        then: "the writer should wait to store it"
+        conditions.eventually {
+            assert writer.pendingDatapoints == 0
+        }
+
+        when: "more datapoints are written than the queue can hold"
+        def queued = (1..10).collect { writer.write(createDatapoint(it)) }
+
+        then: "the datapoints that don't fit should be dropped without waiting"
+        queued == [true] * 5 + [false] * 5
+        writer.pendingDatapoints == 5
+        writer.queuedDatapoints == 6
+        writer.droppedDatapoints == 5
+        writer.storedDatapoints == 0
+
+        when: "the writer may store and is stopped"
+        storing.countDown()
+        writer.stop()
+
+        then: "all queued datapoints should have been stored in batches"
+        !writer.running
+        writer.pendingDatapoints == 0
+        writer.storedDatapoints == 6
+        writer.failedDatapoints == 0
+        writer.batches == 6
+        writer.statistics.writes == 6
+        writer.statistics.dropped == 5
+        def timestamps = assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption")).collect { it.timestamp }
+        (0..5).every { timestamps.contains(now - 1000 + it) }
+        (6..10).every { !timestamps.contains(now - 1000 + it) }
+
+        when: "a datapoint is written to the stopped writer"
+        writer.write(createDatapoint(11))
+
+        then: "it should be rejected"
+        thrown(IllegalStateException)
+
+        cleanup: "the server should be stopped"
+        storing?.countDown()
+        writer?.stop()
+        stopContainer(container)
+    }
+
+    def "Replace queued and stored asset datapoints with the same timestamp"() {
+
+        when: "the demo agent and thing have been deployed"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort), defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def writer = assetDatapointService.getDatapointWriter()
+        def now = getClockTimeOf(container)
+
+        and: "a batch with two datapoints of the same timestamp and a datapoint of a deleted asset is stored"
+        def stored = writer.store([
+            new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(1), now - 100),
+            new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(2), now - 100),
+            new AssetDatapoint("DeletedAssetId123456789", "light1PowerConsumption", Values.create(3), now - 100)
+        ])
+
+        then: "the latest datapoint should be stored and the datapoint of the deleted asset ignored"
+        stored == 1
+        def datapoints = assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption"))
+        datapoints.findAll { it.timestamp == now - 100 }.collect { Values.getNumber(it.value).orElse(null) } == [2d]
+
+        when: "a datapoint with the same timestamp is stored again"
+        writer.store([new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(4), now - 100)])
+
+        then: "it should replace the stored datapoint"
+        assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption"))
+            .findAll { it.timestamp == now - 100 }.collect { Values.getNumber(it.value).orElse(null) } == [4d]
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Roll up asset datapoints per minute, hour and day"() {
+
+        given: "the demo agent and thing have been deployed with minute and hour rollups kept for a week"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort) << [
+                (DATAPOINTS_MINUTE_ROLLUP_MAX_AGE): "7d",
+                (DATAPOINTS_HOUR_ROLLUP_MAX_AGE)  : "7d"
+        ], defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def writer = assetDatapointService.getDatapointWriter()
+        def now = getClockTimeOf(container)
+
+        and: "a query of the rollups of an attribute in a time range"
+        def getRollups = { String attributeName, String resolution, long from, long to ->
+            persistenceService.doReturningTransaction(new Function<EntityManager, List>() {
+                @Override
+                List apply(EntityManager em) {
+                    em.createNativeQuery(
+                            "select COUNT, SUM, MIN, MAX from ASSET_DATAPOINT_ROLLUP" +
+                                    " where ENTITY_ID = :entityId and ATTRIBUTE_NAME = :attributeName and RESOLUTION = :resolution" +
+                                    " and BUCKET >= date_trunc(:resolution, cast(to_timestamp(:fromSeconds) as timestamp))" +
+                                    " and BUCKET < cast(to_timestamp(:toSeconds) as timestamp)" +
+                                    " order by BUCKET"
+                    ).setParameter("entityId", managerDemoSetup.thingId)
+                            .setParameter("attributeName", attributeName)
+                            .setParameter("resolution", resolution)
+                            .setParameter("fromSeconds", from.intdiv(1000))
+                            .setParameter("toSeconds", to.intdiv(1000))
+                            .getResultList()
+                            .collect { [it[0] as long, it[1] as double, it[2] as double, it[3] as double] }
+                }
+            })
+        }
+
+        when: "number datapoints are stored in two minutes of an hour ten days ago"
+        def hour = now - DAYS.toMillis(10) - Math.floorMod(now, HOURS.toMillis(1))
+        def minute = hour + MINUTES.toMillis(10)
+        writer.store([
+                new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(1), minute),
+                new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(2), minute + 1000),
+                new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(6), minute + 2000),
+                new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(10), minute + MINUTES.toMillis(1))
+        ])
+
+        then: "each minute, the hour and the day should be rolled up"
+        getRollups("light1PowerConsumption", "minute", hour, hour + HOURS.toMillis(1)) == [[3L, 9d, 1d, 6d], [1L, 10d, 10d, 10d]]
+        getRollups("light1PowerConsumption", "hour", hour, hour + HOURS.toMillis(1)) == [[4L, 19d, 1d, 10d]]
+        getRollups("light1PowerConsumption", "day", hour, hour + HOURS.toMillis(1)) == [[4L, 19d, 1d, 10d]]
+
+        when: "a datapoint is replaced"
+        writer.store([
+                new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(3), minute + 2000)
+        ])
+
+        then: "the rollups should be recomputed"
+        getRollups("light1PowerConsumption", "minute", hour, hour + HOURS.toMillis(1)) == [[3L, 6d, 1d, 3d], [1L, 10d, 10d, 10d]]
+        getRollups("light1PowerConsumption", "hour", hour, hour + HOURS.toMillis(1)) == [[4L, 16d, 1d, 10d]]
+        getRollups("light1PowerConsumption", "day", hour, hour + HOURS.toMillis(1)) == [[4L, 16d, 1d, 10d]]
+
+        when: "boolean datapoints are stored"
+        writer.store([
+                new AssetDatapoint(managerDemoSetup.thingId, "light1Toggle", Values.create(true), minute),
+                new AssetDatapoint(managerDemoSetup.thingId, "light1Toggle", Values.create(false), minute + 1000),
+                new AssetDatapoint(managerDemoSetup.thingId, "light1Toggle", Values.create(true), minute + 2000)
+        ])
+
+        then: "they should be rolled up as 1 or 0"
+        getRollups("light1Toggle", "hour", hour, hour + HOURS.toMillis(1)) == [[3L, 2d, 0d, 1d]]
+
+        when: "datapoints of the same hour are stored inline by several threads at the same time"
+        def otherHour = hour - DAYS.toMillis(2)
+        def threads = (0..7).collect { thread ->
+            Thread.start {
+                (0..24).each { i ->
+                    writer.store([
+                            new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(1), otherHour + (thread * 25 + i) * 1000)
+                    ])
+                }
+            }
+        }
+        threads*.join()
+
+        then: "the hour and day should include all datapoints"
+        getRollups("light1PowerConsumption", "minute", otherHour, otherHour + HOURS.toMillis(1)).sum { it[0] } == 200
+        getRollups("light1PowerConsumption", "hour", otherHour, otherHour + HOURS.toMillis(1)) == [[200L, 200d, 1d, 1d]]
+        getRollups("light1PowerConsumption", "day", otherHour, otherHour + HOURS.toMillis(1)) == [[200L, 200d, 1d, 1d]]
+
+        when: "a recent datapoint is stored and expired rollups are purged"
+        writer.store([
+                new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(5), now - 1000)
+        ])
+        def purged = assetDatapointService.purgeRollups()
+
+        then: "the minute and hour rollups should be deleted and the day rollups kept"
+        purged > 0
+        assetDatapointService.purgedRollups == purged
+        getRollups("light1PowerConsumption", "minute", otherHour, hour + HOURS.toMillis(1)).isEmpty()
+        getRollups("light1PowerConsumption", "hour", otherHour, hour + HOURS.toMillis(1)).isEmpty()
+        getRollups("light1Toggle", "hour", hour, hour + HOURS.toMillis(1)).isEmpty()
+        getRollups("light1PowerConsumption", "day", hour, hour + HOURS.toMillis(1)) == [[4L, 16d, 1d, 10d]]
+        getRollups("light1PowerConsumption", "day", otherHour, otherHour + HOURS.toMillis(1)) == [[200L, 200d, 1d, 1d]]
+
+        and: "the recent rollups should be kept"
+        !getRollups("light1PowerConsumption", "minute", now - MINUTES.toMillis(1), now).isEmpty()
+
+        when: "datapoints are stored in separate batches in a session time zone where clocks go back"
+        def zone = ZoneId.of("Europe/Amsterdam")
+        def transition = zone.rules.nextTransition(Instant.ofEpochMilli(now))
+        while (!transition.overlap) {
+            transition = zone.rules.nextTransition(transition.instant)
+        }
+        def storeInZone = { List<AssetDatapoint> datapoints ->
+            persistenceService.doTransaction { EntityManager em ->
+                em.unwrap(Session.class).doWork(new Work() {
+                    @Override
+                    void execute(Connection connection) {
+                        connection.createStatement().execute("set local TimeZone = '" + zone.id + "'")
+                        writer.insert(connection, AssetDatapointPartitions.DATAPOINT_TABLE, datapoints)
+                        AssetDatapointRollup.update(connection, AssetDatapointPartitions.DATAPOINT_TABLE, datapoints)
+                    }
+                })
+            }
+        }
+        // Half an hour before and after the transition, the same local minute in the old and the new offset
+        def firstMinute = transition.instant.toEpochMilli() - MINUTES.toMillis(30)
+        def secondMinute = transition.instant.toEpochMilli() + MINUTES.toMillis(30)
+        storeInZone([new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(4), firstMinute + 10000)])
+        storeInZone([new AssetDatapoint(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(8), secondMinute + 20000)])
+
+        and: "the rollups of the local minute and hour are read"
+        def localMinute = transition.dateTimeBefore.minusMinutes(30)
+        def getRollup = { String resolution, LocalDateTime bucket ->
+            persistenceService.doReturningTransaction(new Function<EntityManager, List>() {
+                @Override
+                List apply(EntityManager em) {
+                    em.createNativeQuery(
+                            "select COUNT, SUM, MIN, MAX from ASSET_DATAPOINT_ROLLUP" +
+                                    " where ENTITY_ID = :entityId and ATTRIBUTE_NAME = :attributeName and RESOLUTION = :resolution" +
+                                    " and BUCKET = cast(:bucket as timestamp)"
+                    ).setParameter("entityId", managerDemoSetup.thingId)
+                            .setParameter("attributeName", "light1PowerConsumption")
+                            .setParameter("resolution", resolution)
+                            .setParameter("bucket", bucket.toString().replace('T', ' '))
+                            .getResultList()
+                            .collect { [it[0] as long, it[1] as double, it[2] as double, it[3] as double] }
+                }
+            })
+        }
+
+        then: "the local minute, hour and day should include the datapoints of both UTC minutes"
+        getRollup("minute", localMinute) == [[2L, 12d, 4d, 8d]]
+        getRollup("hour", localMinute.truncatedTo(ChronoUnit.HOURS)) == [[2L, 12d, 4d, 8d]]
+        getRollup("day", localMinute.truncatedTo(ChronoUnit.DAYS)) == [[2L, 12d, 4d, 8d]]
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Store and read number and boolean asset datapoints independent of the attribute type"() {
+
+        given: "the demo agent and thing have been deployed"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort), defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def now = getClockTimeOf(container)
+
+        when: "number and boolean datapoints of an attribute the asset doesn't have are stored by the writer"
+        assetDatapointService.getDatapointWriter().store([
+                new AssetDatapoint(managerDemoSetup.thingId, "removedAttribute", Values.create(12.5), now - 4000),
+                new AssetDatapoint(managerDemoSetup.thingId, "removedAttribute", Values.create(true), now - 3000)
+        ])
+
+        and: "as entities"
+        persistenceService.doTransaction { em ->
+            em.persist(new AssetDatapoint(managerDemoSetup.thingId, "removedAttribute", Values.create(false), now - 2000))
+            em.persist(new AssetDatapoint(managerDemoSetup.thingId, "removedAttribute", Values.create(7), now - 1000))
+        }
+
+        then: "the datapoints should be read with their original type"
+        def datapoints = assetDatapointService.getDatapoints(new AttributeRef(managerDemoSetup.thingId, "removedAttribute"))
+        datapoints.collect { it.timestamp } == [now - 1000, now - 2000, now - 3000, now - 4000]
+        datapoints.collect { it.value.type } == [ValueType.NUMBER, ValueType.BOOLEAN, ValueType.BOOLEAN, ValueType.NUMBER]
+        Values.getNumber(datapoints[0].value).orElse(null) == 7d
+        !Values.getBoolean(datapoints[1].value).orElse(true)
+        Values.getBoolean(datapoints[2].value).orElse(false)
+        Values.getNumber(datapoints[3].value).orElse(null) == 12.5d
+
+        and: "the entities should read the same values and number values"
+        def entities = persistenceService.doReturningTransaction(new Function<EntityManager, List>() {
+            @Override
+            List apply(EntityManager em) {
+                em.createQuery(
+                        "select dp from AssetDatapoint dp where dp.entityId = :entityId and dp.attributeName = :attributeName order by dp.timestamp desc",
+                        AssetDatapoint.class
+                ).setParameter("entityId", managerDemoSetup.thingId)
+                        .setParameter("attributeName", "removedAttribute")
+                        .getResultList()
+            }
+        })
+        entities.collect { it.value.type } == [ValueType.NUMBER, ValueType.BOOLEAN, ValueType.BOOLEAN, ValueType.NUMBER]
+        entities.collect { it.numberValue } == [7d, 0d, 1d, 12.5d]
+        Values.getNumber(entities[3].value).orElse(null) == 12.5d
+
+        and: "numbers should be stored without JSON value and booleans with it"
+        def storedValues = persistenceService.doReturningTransaction(new Function<EntityManager, List>() {
+            @Override
+            List apply(EntityManager em) {
+                em.createNativeQuery(
+                        "select NUMBER_VALUE, VALUE #>> '{}' from ASSET_DATAPOINT" +
+                                " where ENTITY_ID = :entityId and ATTRIBUTE_NAME = 'removedAttribute' and TIMESTAMP in (:numberTimestamp, :booleanTimestamp)" +
+                                " order by TIMESTAMP"
+                ).setParameter("entityId", managerDemoSetup.thingId)
+                        .setParameter("numberTimestamp", now - 4000)
+                        .setParameter("booleanTimestamp", now - 3000)
+                        .getResultList()
+            }
+        })
+        storedValues.collect { [it[0] as double, it[1]] } == [[12.5d, null], [1d, "true"]]
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
 }
@@ -1,14 +1,21 @@
 package org.openremote.test.assets
 
 import com.fasterxml.uuid.Generators
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.setup.SetupService
 import org.openremote.manager.setup.builtin.KeycloakDemoSetup
 import org.openremote.manager.setup.builtin.ManagerDemoSetup
 import org.openremote.model.asset.AssetResource
 import org.openremote.model.asset.Asset
 import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetMeta
 import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeRef
 import org.openremote.model.attribute.AttributeType
+import org.openremote.model.attribute.AttributeWriteResult
+import org.openremote.model.attribute.MetaItem
 import org.openremote.model.value.Values
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
@@ -96,6 +103,44 @@ class AssetIntegrityTest extends Specification implements ManagerContainerTrait
             assert !asset.getAttribute("foo").get().getValue().isPresent()
         }
 
+        when: "an attribute linked to an agent that doesn't exist is written directly"
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def serverAsset = assetStorageService.find(testAsset.getId(), true)
+        serverAsset.addAttributes(
+                new AssetAttribute("linked", AttributeType.STRING).setMeta(
+                        new MetaItem(AssetMeta.AGENT_LINK, new AttributeRef("doesnotexist", "doesnotexist").toArrayValue())
+                )
+        )
+        assetStorageService.merge(serverAsset)
+        assetResource.writeAttributeValue(null, testAsset.getId(), "linked", "\"bar\"")
+
+        then: "the processing error should be returned"
+        ex = thrown()
+        ex.response.status == 500
+
+        when: "the failing attribute and another attribute are written in bulk"
+        def writeResults = assetResource.writeAttributeValues(null, [
+                new AttributeEvent(testAsset.getId(), "linked", Values.create("bar")),
+                new AttributeEvent(testAsset.getId(), "foo", Values.create("bar3"))
+        ] as AttributeEvent[])
+
+        then: "the processing error should be returned for the failed event only"
+        writeResults.length == 2
+        writeResults[0].status == AttributeWriteResult.Status.ERROR
+        writeResults[1].status == AttributeWriteResult.Status.COMPLETED
+        assetResource.get(null, testAsset.getId()).getAttribute("foo").get().getValueAsString().get() == "bar3"
+
+        when: "more events than allowed in one batch are written in bulk"
+        def batchMaxSize = container.getService(AssetProcessingService.class).asyncClientBatchMaxSize
+        assetResource.writeAttributeValues(null, (0..batchMaxSize).collect {
+            new AttributeEvent(testAsset.getId(), "foo", Values.create("batch" + it))
+        } as AttributeEvent[])
+
+        then: "the request should be rejected without writing any value"
+        ex = thrown()
+        ex.response.status == 413
+        assetResource.get(null, testAsset.getId()).getAttribute("foo").get().getValueAsString().get() == "bar3"
+
         when: "an asset is updated with a different type"
         testAsset = assetResource.get(null, testAsset.getId())
         testAsset.setType(AssetType.BUILDING)
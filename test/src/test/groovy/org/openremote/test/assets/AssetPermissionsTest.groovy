@@ -8,7 +8,9 @@ import org.openremote.model.asset.AssetResource
 import org.openremote.model.asset.Asset
 import org.openremote.model.asset.AssetAttribute
 import org.openremote.model.asset.AssetQuery
+import org.openremote.model.asset.AssetProcessingException
 import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
 import org.openremote.model.attribute.AttributeType
 import org.openremote.model.attribute.Meta
 import org.openremote.model.attribute.MetaItem
@@ -400,6 +402,25 @@ class AssetPermissionsTest extends Specification implements ManagerContainerTrai
         ex = thrown()
         ex.response.status == 403
 
+        when: "asset attributes are written in bulk in the authenticated realm, a foreign realm, and of a non-existent asset"
+        def writeResults = assetResource.writeAttributeValues(null, [
+                new AttributeEvent(managerDemoSetup.smartOfficeId, "geoStreet", Values.create("Teststreet 789")),
+                new AttributeEvent(managerDemoSetup.smartHomeId, "geoStreet", Values.create("Teststreet 789")),
+                new AttributeEvent("doesnotexist", "geoStreet", Values.create("Teststreet 789")),
+                new AttributeEvent(managerDemoSetup.smartOfficeId, "doesnotexist", Values.create("Teststreet 789"))
+        ] as AttributeEvent[])
+
+        then: "the result of each write should match"
+        writeResults.length == 4
+        writeResults[0].success
+        writeResults[1].failure == AssetProcessingException.Reason.INSUFFICIENT_ACCESS
+        writeResults[2].failure == AssetProcessingException.Reason.ASSET_NOT_FOUND
+        writeResults[3].failure == AssetProcessingException.Reason.ATTRIBUTE_NOT_FOUND
+        conditions.eventually {
+            def asset = assetResource.get(null, managerDemoSetup.smartOfficeId)
+            assert asset.getAttribute("geoStreet").get().getValue().get().toJson() == Values.create("Teststreet 789").toJson()
+        }
+
         cleanup: "the server should be stopped"
         stopContainer(container)
     }
@@ -0,0 +1,108 @@
+package org.openremote.test.assets
+
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.openremote.agent.protocol.Protocol
+import org.openremote.container.security.basic.BasicAuthContext
+import org.openremote.manager.asset.AssetProcessingContext
+import org.openremote.manager.asset.ServerAsset
+import org.openremote.model.Constants
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetState
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.value.Values
+import spock.lang.Specification
+
+import static org.openremote.manager.asset.AssetRoute.HEADER_ASSET_ACCESS_VERIFIED
+import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE
+import static org.openremote.model.attribute.AttributeEvent.Source.CLIENT
+import static org.openremote.model.attribute.AttributeEvent.Source.SENSOR
+
+class AssetProcessingContextTest extends Specification {
+
+    def camelContext = new DefaultCamelContext()
+
+    def "Create the processing context from the message headers of an exchange"() {
+        given: "an exchange carrying a client event"
+        def event = new AttributeEvent("TestAsset", "temperature", Values.create(21))
+        def authContext = new BasicAuthContext("master", "123", "testuser")
+        def exchange = new DefaultExchange(camelContext)
+        exchange.getIn().setBody(event)
+        exchange.getIn().setHeader(HEADER_SOURCE, CLIENT)
+        exchange.getIn().setHeader(Constants.AUTH_CONTEXT, authContext)
+        exchange.getIn().setHeader(HEADER_ASSET_ACCESS_VERIFIED, true)
+
+        when: "the context is created"
+        def context = AssetProcessingContext.of(exchange)
+
+        then: "the event and headers should be available on the context"
+        context.event.is(event)
+        context.source == CLIENT
+        context.authContext.is(authContext)
+        context.assetAccessVerified
+        context.protocolName == null
+
+        and: "nothing should have been resolved yet"
+        context.asset == null
+        context.attribute == null
+        context.assetState == null
+    }
+
+    def "Create the processing context from a sensor event with converted headers"() {
+        given: "an exchange carrying a sensor event with the source as a string"
+        def event = new AttributeEvent("TestAsset", "temperature", Values.create(21))
+        def exchange = new DefaultExchange(camelContext)
+        exchange.getIn().setBody(event)
+        exchange.getIn().setHeader(HEADER_SOURCE, SENSOR.name())
+        exchange.getIn().setHeader(Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, "TestProtocol")
+
+        when: "the context is created"
+        def context = AssetProcessingContext.of(exchange)
+
+        then: "the source should be converted and the protocol should be available"
+        context.event.is(event)
+        context.source == SENSOR
+        context.protocolName == "TestProtocol"
+
+        and: "the event should not have been verified or authenticated"
+        context.authContext == null
+        !context.assetAccessVerified
+    }
+
+    def "Create the processing context without a source"() {
+        given: "an exchange without headers"
+        def event = new AttributeEvent("TestAsset", "temperature", Values.create(21))
+        def exchange = new DefaultExchange(camelContext)
+        exchange.getIn().setBody(event)
+
+        when: "the context is created"
+        def context = AssetProcessingContext.of(exchange)
+
+        then: "the source should be empty"
+        context.event.is(event)
+        context.source == null
+        !context.assetAccessVerified
+    }
+
+    def "Carry the resolved asset state through the processing steps"() {
+        given: "a context"
+        def event = new AttributeEvent("TestAsset", "temperature", Values.create(21))
+        def context = new AssetProcessingContext(event, SENSOR, null, false, "TestProtocol")
+
+        when: "the asset, attribute and asset state are resolved"
+        def asset = new ServerAsset("Test asset", AssetType.THING)
+        def attribute = new AssetAttribute("temperature", AttributeType.NUMBER, Values.create(20))
+        def assetState = new AssetState(asset, attribute, SENSOR)
+        context.asset = asset
+        context.attribute = attribute
+        context.assetState = assetState
+
+        then: "the steps should see the resolved values"
+        context.asset.is(asset)
+        context.attribute.is(attribute)
+        context.assetState.is(assetState)
+        context.toString().contains("TestProtocol")
+    }
+}
@@ -0,0 +1,105 @@
+package org.openremote.test.assets
+
+import org.openremote.container.util.LatencyHistogram
+import org.openremote.manager.asset.AssetProcessingMetrics
+import org.openremote.model.asset.AssetProcessingException
+import org.openremote.model.asset.WriterStatistics
+import spock.lang.Specification
+
+import javax.management.MBeanServerFactory
+import javax.management.ObjectName
+import javax.management.openmbean.CompositeData
+import javax.management.openmbean.TabularData
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
+class AssetProcessingMetricsTest extends Specification {
+
+    def "Calculate latency percentiles within the bucket accuracy"() {
+        given: "a histogram"
+        def histogram = new LatencyHistogram()
+
+        expect: "no values without recordings"
+        histogram.getValueAtPercentile(50) == 0
+        histogram.getMaxNanos() == 0
+
+        when: "durations of 1 to 10000 microseconds are recorded"
+        (1..10000).each { histogram.record(TimeUnit.MICROSECONDS.toNanos(it)) }
+
+        then: "the percentiles should be at most one sub-bucket above the exact value"
+        histogram.count == 10000
+        histogram.maxNanos == TimeUnit.MICROSECONDS.toNanos(10000)
+        [50, 90, 99].each { percentile ->
+            long exact = TimeUnit.MICROSECONDS.toNanos(percentile * 100)
+            long value = histogram.getValueAtPercentile(percentile)
+            assert value >= exact
+            assert value <= exact * (1 + 1 / 32d)
+        }
+        histogram.getValueAtPercentile(100) == histogram.maxNanos
+        Math.abs(histogram.getValueAtPercentile(50, TimeUnit.MILLISECONDS) - 5d) < 5d / 32
+
+        and: "small durations should be exact"
+        def small = new LatencyHistogram()
+        (0..31).each { small.record(it) }
+        small.getValueAtPercentile(50) == 15
+        small.getValueAtPercentile(100) == 31
+
+        when: "the histogram is reset"
+        histogram.reset()
+
+        then: "nothing should be recorded"
+        histogram.count == 0
+        histogram.getValueAtPercentile(99) == 0
+    }
+
+    def "Expose processing metrics and writer statistics through JMX"() {
+        given: "metrics of two processors and two writers, one of them not available"
+        def metrics = new AssetProcessingMetrics(["FirstProcessor", "SecondProcessor"])
+        metrics.addWriter({ new WriterStatistics("Test writer", 1, 100, 2, 3, 10, 10d, 1.5d, 4d) } as Supplier<WriterStatistics>)
+        metrics.addWriter({ null } as Supplier<WriterStatistics>)
+
+        and: "the metrics are registered as an MXBean"
+        def mBeanServer = MBeanServerFactory.newMBeanServer()
+        def objectName = new ObjectName(AssetProcessingMetrics.OBJECT_NAME)
+        mBeanServer.registerMBean(metrics, objectName)
+
+        when: "events are recorded"
+        metrics.validationStage.record(TimeUnit.MILLISECONDS.toNanos(2))
+        metrics.getProcessorStage(0).record(TimeUnit.MILLISECONDS.toNanos(4))
+        metrics.getProcessorStage(1).recordError()
+        metrics.recordError(AssetProcessingException.Reason.ASSET_NOT_FOUND)
+
+        then: "the stages should be available as composite data in processing order"
+        def stages = mBeanServer.getAttribute(objectName, "Stages") as CompositeData[]
+        stages.collect { it.get("name") } == ["Validation", "FirstProcessor", "SecondProcessor"]
+        stages[0].get("events") == 1L
+        stages[1].get("p99Millis") as double >= 4d
+        stages[2].get("errors") == 1L
+
+        and: "the errors should be counted by reason"
+        (mBeanServer.getAttribute(objectName, "Errors") as TabularData).values().find { CompositeData it ->
+            it.get("key") == AssetProcessingException.Reason.ASSET_NOT_FOUND.name()
+        }?.get("value") == 1L
+
+        and: "only the available writer should be listed"
+        def writers = mBeanServer.getAttribute(objectName, "Writers") as CompositeData[]
+        writers.length == 1
+        writers[0].get("name") == "Test writer"
+        writers[0].get("writes") == 100L
+        writers[0].get("dropped") == 2L
+        writers[0].get("averageBatchSize") == 10d
+
+        and: "a processor added later should not have a stage"
+        metrics.getProcessorStage(2) == null
+
+        when: "the metrics are reset through JMX"
+        mBeanServer.invoke(objectName, "reset", null, null)
+
+        then: "the stages and errors should be cleared"
+        (mBeanServer.getAttribute(objectName, "Stages") as CompositeData[]).every { it.get("events") == 0L && it.get("errors") == 0L }
+        metrics.errorsByReason.values().every { it == 0L }
+
+        cleanup:
+        mBeanServer?.unregisterMBean(objectName)
+    }
+}
@@ -1,8 +1,13 @@
 package org.openremote.test.assets
 
 import org.openremote.agent.protocol.AbstractProtocol
+import org.openremote.container.message.MessageBrokerService
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.agent.AgentService
+import org.openremote.manager.asset.AssetProcessingResourceImpl
 import org.openremote.manager.asset.AssetProcessingService
 import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.asset.AttributeEventProcessingException
 import org.openremote.manager.asset.ServerAsset
 import org.openremote.manager.setup.SetupService
 import org.openremote.manager.setup.builtin.KeycloakDemoSetup
@@ -18,9 +23,16 @@ import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import javax.persistence.PersistenceException
+import java.nio.file.Files
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.function.Consumer
 import java.util.logging.Logger
 
+import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE
+import static org.openremote.model.attribute.AttributeEvent.Source.INTERNAL
+
 class AssetProcessingTest extends Specification implements ManagerContainerTrait {
     Logger LOG = Logger.getLogger(AssetProcessingTest.class.getName())
 
@@ -282,4 +294,356 @@ class AssetProcessingTest extends Specification implements ManagerContainerTrait
         cleanup: "the server should be stopped"
         stopContainer(container)
     }
+
+    def "Process more attribute events than the processing lanes can hold"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 30, delay: 0.5)
+
+        and: "the container is started with two small processing lanes"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(
+                defaultConfig(serverPort) << [
+                        (AssetProcessingService.ASSET_PROCESSING_LANES)          : "2",
+                        (AssetProcessingService.ASSET_PROCESSING_LANE_QUEUE_SIZE): "5"
+                ],
+                defaultServices()
+        )
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+
+        and: "the initial event processing is done"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        and: "two assets with a counter attribute"
+        def assets = (1..2).collect {
+            def asset = new ServerAsset("Counter Asset " + it, AssetType.THING, assetStorageService.find(managerDemoSetup.lobbyId))
+            asset.setAttributes(new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0)))
+            assetStorageService.merge(asset)
+        }
+
+        and: "a slow processor recording the processed counter values of each asset"
+        Map<String, List<Integer>> processedValues = [:].withDefault { [].asSynchronized() }.asSynchronized()
+        def maxLaneQueueSize = 0
+        def firstProcessor = assetProcessingService.processors[0]
+        assetProcessingService.processors.set(0, { AssetState assetState ->
+            if (assetState.attributeName == "counter") {
+                processedValues[assetState.id].add(Values.getNumber(assetState.value).orElse(-1d).intValue())
+                maxLaneQueueSize = Math.max(maxLaneQueueSize, assetProcessingService.processingLanes.collect { it.queueSize }.max())
+                Thread.sleep(2)
+            }
+            firstProcessor.accept(assetState)
+        } as Consumer<AssetState>)
+
+        when: "more events are sent than the processing lanes can hold"
+        (1..100).each { value ->
+            assets.each { asset ->
+                assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "counter", Values.create(value)))
+            }
+        }
+
+        then: "all events should be processed in order for each asset"
+        conditions.eventually {
+            assets.each { asset ->
+                assert processedValues[asset.id] == (1..100).toList()
+            }
+        }
+
+        and: "the lanes should not have held more than their size, the backlog waited in the asset queue"
+        maxLaneQueueSize <= 5
+        assetProcessingService.assetQueue.droppedExchanges == 0
+        assetProcessingService.assetQueue.coalescedExchanges == 0
+
+        and: "the processing statistics should include the writers of attribute values and datapoints"
+        def statistics = new AssetProcessingResourceImpl(assetProcessingService, container.getService(AgentService.class)).getStatistics(null)
+        statistics.writers.collect { it.name } == ["Attribute value writer", "Asset datapoint writer"]
+        statistics.writers[0].writes >= 200
+        statistics.stages.find { it.name == "AssetStorageService" }.events >= 200
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Apply the asset queue overflow policy when processing falls behind"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 30, delay: 0.5)
+
+        and: "the container is started with a small asset queue and one small processing lane"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(
+                defaultConfig(serverPort) << [
+                        (AssetProcessingService.ASSET_QUEUE_SIZE)                : "5",
+                        (AssetProcessingService.ASSET_QUEUE_OVERFLOW_POLICY)     : policy,
+                        (AssetProcessingService.ASSET_PROCESSING_LANES)          : "1",
+                        (AssetProcessingService.ASSET_PROCESSING_LANE_QUEUE_SIZE): "1"
+                ],
+                defaultServices()
+        )
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+
+        and: "the initial event processing is done"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        and: "an asset with a counter attribute"
+        def asset = new ServerAsset("Counter Asset", AssetType.THING, assetStorageService.find(managerDemoSetup.lobbyId))
+        asset.setAttributes(new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0)))
+        asset = assetStorageService.merge(asset)
+
+        and: "a slow processor recording the processed counter values"
+        List<Integer> processedValues = [].asSynchronized()
+        def firstProcessor = assetProcessingService.processors[0]
+        assetProcessingService.processors.set(0, { AssetState assetState ->
+            if (assetState.attributeName == "counter") {
+                processedValues.add(Values.getNumber(assetState.value).orElse(-1d).intValue())
+                Thread.sleep(10)
+            }
+            firstProcessor.accept(assetState)
+        } as Consumer<AssetState>)
+
+        when: "more events are sent than the queues can hold"
+        (1..100).each { value ->
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "counter", Values.create(value)))
+        }
+
+        then: "the latest value should be processed and older values processed in order"
+        conditions.eventually {
+            assert processedValues.last() == 100
+        }
+        processedValues == processedValues.toSorted()
+
+        and: "the policy should have discarded some of the pending events"
+        processedValues.size() < 100
+        assetProcessingService.assetQueue.droppedExchanges == expectedDropped(processedValues)
+        assetProcessingService.assetQueue.coalescedExchanges == expectedCoalesced(processedValues)
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+
+        where:
+        policy        | expectedDropped                        | expectedCoalesced
+        "DROP_OLDEST" | { List values -> 100 - values.size() } | { List values -> 0 }
+        "COALESCE"    | { List values -> 0 }                   | { List values -> 100 - values.size() }
+    }
+
+    def "Order attribute events with the same timestamp by their ingress sequence"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.5)
+
+        and: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(defaultConfig(serverPort), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def messageBrokerService = container.getService(MessageBrokerService.class)
+        def timerService = container.getService(TimerService.class)
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+
+        and: "the initial event processing is done"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        and: "an asset with a counter attribute"
+        def asset = new ServerAsset("Counter Asset", AssetType.THING, assetStorageService.find(managerDemoSetup.lobbyId))
+        asset.setAttributes(new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0)))
+        asset = assetStorageService.merge(asset)
+
+        and: "a processor recording the processed counter values"
+        List<Integer> processedValues = [].asSynchronized()
+        def firstProcessor = assetProcessingService.processors[0]
+        assetProcessingService.processors.set(0, { AssetState assetState ->
+            if (assetState.attributeName == "counter") {
+                processedValues.add(Values.getNumber(assetState.value).orElse(-1d).intValue())
+            }
+            firstProcessor.accept(assetState)
+        } as Consumer<AssetState>)
+
+        when: "events without sequence and with the same timestamp are sent to the asset queue"
+        def timestamp = timerService.currentTimeMillis
+        def events = (1..10).collect { value ->
+            new AttributeEvent(asset.id, "counter", Values.create(value), timestamp)
+        }
+        events.each { event ->
+            messageBrokerService.producerTemplate.sendBodyAndHeader(AssetProcessingService.ASSET_QUEUE, event, HEADER_SOURCE, INTERNAL)
+        }
+
+        then: "all events should be applied in order of arrival"
+        conditions.eventually {
+            assert processedValues == (1..10).toList()
+            assert assetStorageService.find(asset.id, true).getAttribute("counter").get().valueAsNumber.get() == 10
+        }
+
+        and: "the events should have been sequenced when they were consumed from the asset queue"
+        events.every { it.sequence > 0 }
+        events.collect { it.sequence } == events.collect { it.sequence }.toSorted()
+
+        when: "one of the sequenced events is sent again"
+        messageBrokerService.producerTemplate.sendBodyAndHeader(AssetProcessingService.ASSET_QUEUE, events[4], HEADER_SOURCE, INTERNAL)
+
+        then: "the duplicate should be ignored"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+        processedValues == (1..10).toList()
+        assetStorageService.find(asset.id, true).getAttribute("counter").get().valueAsNumber.get() == 10
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Skip unchanged attribute values in change-only mode"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.5)
+
+        and: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(
+                defaultConfig(serverPort) << [(AssetProcessingService.ATTRIBUTE_EVENT_CHANGE_ONLY): changeOnlyDefault],
+                defaultServices()
+        )
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+
+        and: "the initial event processing is done"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        and: "an asset with a counter attribute"
+        def asset = new ServerAsset("Counter Asset", AssetType.THING, assetStorageService.find(managerDemoSetup.lobbyId))
+        def counter = new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0))
+        counter.setChangeOnly(changeOnly)
+        asset.setAttributes(counter)
+        asset = assetStorageService.merge(asset)
+
+        and: "a processor recording the processed counter values"
+        List<Integer> processedValues = [].asSynchronized()
+        def firstProcessor = assetProcessingService.processors[0]
+        assetProcessingService.processors.set(0, { AssetState assetState ->
+            if (assetState.attributeName == "counter") {
+                processedValues.add(Values.getNumber(assetState.value).orElse(-1d).intValue())
+            }
+            firstProcessor.accept(assetState)
+        } as Consumer<AssetState>)
+
+        when: "repeated values are sent"
+        [1, 1, 2, 2, 2, 3].each { value ->
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "counter", Values.create(value)))
+        }
+
+        then: "the expected values should have been processed"
+        conditions.eventually {
+            assert processedValues.last() == 3
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+        processedValues == expectedValues
+        assetStorageService.find(asset.id, true).getAttribute("counter").get().valueAsNumber.get() == 3
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+
+        where:
+        changeOnlyDefault | changeOnly | expectedValues
+        "false"           | null       | [1, 1, 2, 2, 2, 3]
+        "false"           | true       | [1, 2, 3]
+        "true"            | null       | [1, 2, 3]
+        "true"            | false      | [1, 1, 2, 2, 2, 3]
+    }
+
+    def "Move attribute events to the failed journal and fail client writes if the asset lookup fails"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.5)
+
+        and: "an asset storage service failing lookups while the database is not available"
+        def databaseAvailable = new AtomicBoolean(true)
+        def failingAssetStorageService = new AssetStorageService() {
+            @Override
+            ServerAsset findCached(String assetId, long minimumVersion) {
+                if (!databaseAvailable.get())
+                    throw new PersistenceException("Database not available")
+                return super.findCached(assetId, minimumVersion)
+            }
+        }
+
+        and: "the container is started with a journal"
+        def journalDirectory = Files.createTempDirectory("journal")
+        def serverPort = findEphemeralPort()
+        def container = startContainer(
+                defaultConfig(serverPort) << [(AssetProcessingService.ATTRIBUTE_EVENT_JOURNAL_DIR): journalDirectory.toString()],
+                defaultServices().collect { it.getClass() == AssetStorageService.class ? failingAssetStorageService : it }
+        )
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def journal = assetProcessingService.attributeEventJournal
+
+        and: "the initial event processing is done"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+            assert journal.journal.pendingRecords == 0
+        }
+
+        and: "an asset with a counter attribute"
+        def asset = new ServerAsset("Counter Asset", AssetType.THING, assetStorageService.find(managerDemoSetup.lobbyId))
+        asset.setAttributes(new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0)))
+        asset = assetStorageService.merge(asset)
+
+        when: "an event is sent while the database is not available"
+        databaseAvailable.set(false)
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "counter", Values.create(1)))
+
+        then: "the event should be moved to the journal of failed events"
+        conditions.eventually {
+            assert journal.failedJournal.pendingRecords == 1
+            assert journal.journal.pendingRecords == 0
+        }
+
+        when: "a client writes a value asynchronously while the database is not available"
+        def result = assetProcessingService.processClientEventAsync(
+                null, new AttributeEvent(asset.id, "counter", Values.create(2))
+        )
+
+        then: "the write should fail with the lookup failure as cause"
+        conditions.eventually {
+            assert result.isCompletedExceptionally()
+        }
+        def failure = null
+        try {
+            result.get()
+        } catch (ExecutionException ex) {
+            failure = ex.cause
+        }
+        failure instanceof AttributeEventProcessingException
+        failure.cause instanceof PersistenceException
+
+        and: "the client event should not be journaled"
+        journal.failedJournal.pendingRecords == 1
+
+        when: "an invalid event is sent once the database is available again"
+        databaseAvailable.set(true)
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "missingAttribute", Values.create(1)))
+
+        then: "the invalid event should be committed without moving it"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+            assert journal.journal.pendingRecords == 0
+        }
+        journal.failedJournal.pendingRecords == 1
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+        journalDirectory?.toFile()?.deleteDir()
+    }
 }
@@ -2,6 +2,7 @@ package org.openremote.test.assets
 
 import org.openremote.container.Container
 import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetCache
 import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.asset.ServerAsset
 import org.openremote.manager.setup.SetupService
@@ -10,11 +11,16 @@ import org.openremote.manager.setup.builtin.ManagerDemoSetup
 import org.openremote.model.asset.AssetMeta
 import org.openremote.model.asset.AssetQuery
 import org.openremote.model.asset.AssetType
+import org.openremote.model.value.Values
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Shared
 import spock.lang.Specification
 
+import org.hibernate.Session
+import org.hibernate.jdbc.ReturningWork
+
 import javax.persistence.EntityManager
+import java.sql.Connection
 import java.util.function.Function
 
 import static org.openremote.model.asset.BaseAssetQuery.*
@@ -636,4 +642,323 @@ class AssetQueryTest extends Specification implements ManagerContainerTrait {
         assert asset.getAttribute("co2Level").get().valueAsNumber.get() == 350
 
     }
+
+    def "Query assets in pages"() {
+
+        when: "all assets of a realm are queried in one page"
+        def query = {
+            new AssetQuery()
+                    .select(new Select(Include.ONLY_ID_AND_NAME))
+                    .tenant(new TenantPredicate(keycloakDemoSetup.customerATenant.id))
+                    .orderBy(new OrderBy(NAME))
+        }
+        def allAssets = assetStorageService.findAll(query())
+
+        then: "there should be several assets"
+        allAssets.size() > 3
+
+        when: "the assets are queried in pages of two"
+        def pagedAssets = []
+        def cursor = null
+        def pages = 0
+        while (true) {
+            def page = []
+            cursor = assetStorageService.streamAll(query().limit(2).cursor(cursor), { page.add(it) })
+            pagedAssets.addAll(page)
+            pages++
+            if (cursor == null)
+                break
+        }
+
+        then: "all assets should be returned once, in order of name"
+        pagedAssets.size() == allAssets.size()
+        pagedAssets.collect { it.id } as Set == allAssets.collect { it.id } as Set
+        pagedAssets.collect { it.name } == allAssets.collect { it.name }
+        pages == (int) (allAssets.size() / 2) + 1
+
+        when: "a cursor is used with a different order"
+        def firstPageCursor = assetStorageService.streamAll(query().limit(2), {})
+        assetStorageService.findAll(query().orderBy(new OrderBy(CREATED_ON)).cursor(firstPageCursor))
+
+        then: "the query should be rejected"
+        thrown(IllegalStateException)
+    }
+
+    def "Query assets with the same shape"() {
+
+        when: "the children of two different parents are queried"
+        def apartment1Children = assetStorageService.findAll(
+                new AssetQuery().parent(new ParentPredicate(managerDemoSetup.apartment1Id))
+        )
+        def cachedShapes = assetStorageService.preparedQueries.size()
+        def apartment2Children = assetStorageService.findAll(
+                new AssetQuery().parent(new ParentPredicate(managerDemoSetup.apartment2Id))
+        )
+
+        then: "the second query should use the cached SQL of the first with its own parameters"
+        assetStorageService.preparedQueries.size() == cachedShapes
+        apartment1Children.size() > 0
+        apartment2Children.size() > 0
+        apartment1Children.every { it.parentId == managerDemoSetup.apartment1Id }
+        apartment2Children.every { it.parentId == managerDemoSetup.apartment2Id }
+    }
+
+    def "Find assets in the asset cache"() {
+
+        given: "an empty asset cache"
+        def assetCache = assetStorageService.getAssetCache()
+        assetCache.clear()
+
+        when: "an asset and its parent are found"
+        def lobby = assetStorageService.findCached(managerDemoSetup.lobbyId)
+        def groundFloor = assetStorageService.findCached(managerDemoSetup.groundFloorId)
+
+        then: "both should be cached and returned as copies"
+        lobby.id == managerDemoSetup.lobbyId
+        groundFloor.id == managerDemoSetup.groundFloorId
+        assetCache.get(managerDemoSetup.lobbyId) != null
+        assetCache.get(managerDemoSetup.groundFloorId) != null
+        !assetCache.get(managerDemoSetup.lobbyId).is(lobby)
+
+        when: "the parent is evicted"
+        assetStorageService.evictCached(managerDemoSetup.groundFloorId)
+
+        then: "the parent and its cached descendants should be removed"
+        assetCache.get(managerDemoSetup.groundFloorId) == null
+        assetCache.get(managerDemoSetup.lobbyId) == null
+        assetCache.size() == 0
+
+        when: "an asset is evicted while it is loaded"
+        def stamp = assetCache.getStamp(managerDemoSetup.lobbyId)
+        def loadedLobby = assetStorageService.find(managerDemoSetup.lobbyId, true)
+        assetStorageService.evictCached(managerDemoSetup.groundFloorId)
+
+        then: "the loaded asset should not be cached"
+        !assetCache.put(loadedLobby, stamp)
+        assetCache.get(managerDemoSetup.lobbyId) == null
+
+        when: "an attribute of an asset is updated while it is loaded"
+        stamp = assetCache.getStamp(managerDemoSetup.lobbyId)
+        loadedLobby = assetStorageService.find(managerDemoSetup.lobbyId, true)
+        assetCache.update(managerDemoSetup.lobbyId, "foo", Values.createObject())
+
+        then: "the loaded asset should not be cached"
+        !assetCache.put(loadedLobby, stamp)
+        assetCache.get(managerDemoSetup.lobbyId) == null
+
+        when: "an asset is loaded without concurrent changes"
+        stamp = assetCache.getStamp(managerDemoSetup.lobbyId)
+        loadedLobby = assetStorageService.find(managerDemoSetup.lobbyId, true)
+
+        then: "it should be cached"
+        assetCache.put(loadedLobby, stamp)
+        assetCache.get(managerDemoSetup.lobbyId).is(loadedLobby)
+
+        when: "more assets are found than the cache can hold"
+        def smallCache = new AssetCache(2)
+        [managerDemoSetup.smartOfficeId, managerDemoSetup.groundFloorId, managerDemoSetup.lobbyId].each {
+            smallCache.put(assetStorageService.find(it, true), smallCache.getStamp(it))
+        }
+
+        then: "the least recently used asset should be removed"
+        smallCache.size() == 2
+        smallCache.get(managerDemoSetup.smartOfficeId) == null
+        smallCache.get(managerDemoSetup.groundFloorId) != null
+        smallCache.get(managerDemoSetup.lobbyId) != null
+
+        when: "an evicted asset has descendants in the cache"
+        smallCache.evict(managerDemoSetup.smartOfficeId)
+
+        then: "the descendants should be removed"
+        smallCache.size() == 0
+
+        cleanup: "the asset cache"
+        assetCache.clear()
+    }
+
+    def "Query asset tree pages with child counts"() {
+
+        when: "the children of the smart office are queried as a tree page"
+        def page = assetStorageService.findTreePage(
+                new AssetQuery()
+                        .parent(new ParentPredicate(managerDemoSetup.smartOfficeId))
+                        .orderBy(new OrderBy(NAME))
+                        .limit(10)
+        )
+
+        then: "the ground floor should be returned with its number of children"
+        page.assets.size() == 1
+        page.assets[0].id == managerDemoSetup.groundFloorId
+        page.getChildCount(0) == 1
+        page.nextCursor == null
+
+        when: "the children of the agent are queried as a tree page"
+        page = assetStorageService.findTreePage(
+                new AssetQuery()
+                        .parent(new ParentPredicate(managerDemoSetup.agentId))
+                        .orderBy(new OrderBy(NAME))
+                        .limit(10)
+        )
+
+        then: "the thing should have no children"
+        page.assets.collect { it.id }.contains(managerDemoSetup.thingId)
+        page.getChildCount(page.assets.findIndexOf { it.id == managerDemoSetup.thingId }) == 0
+    }
+
+    def "Query assets by location"() {
+
+        when: "assets are queried within a bounding box around the smart office"
+        def assets = assetStorageService.findAll(
+                new AssetQuery().geo(new GeoPredicate().boundingBox(5.459, 51.444, 5.461, 51.446))
+        )
+
+        then: "the smart office and its descendants should be found, but not the smart home"
+        assets.collect { it.id }.containsAll([managerDemoSetup.smartOfficeId, managerDemoSetup.lobbyId, managerDemoSetup.thingId])
+        !assets.collect { it.id }.contains(managerDemoSetup.smartHomeId)
+
+        when: "assets are queried within 500 meters of the smart home"
+        assets = assetStorageService.findAll(
+                new AssetQuery().geo(new GeoPredicate().radius(5.470945, 51.438000, 500))
+        )
+
+        then: "the smart office, about 1.1 kilometers away, should not be found"
+        assets.collect { it.id }.contains(managerDemoSetup.smartHomeId)
+        !assets.collect { it.id }.contains(managerDemoSetup.smartOfficeId)
+
+        when: "assets are queried within 2 kilometers of the smart home"
+        assets = assetStorageService.findAll(
+                new AssetQuery().geo(new GeoPredicate().radius(5.470945, 51.438000, 2000))
+        )
+
+        then: "the smart office should be found"
+        assets.collect { it.id }.containsAll([managerDemoSetup.smartHomeId, managerDemoSetup.smartOfficeId])
+    }
+
+    def "Query attributes and meta items with indexes"() {
+
+        given: "a large number of synthetic assets"
+        persistenceService.doTransaction { EntityManager em ->
+            em.createNativeQuery(
+                    "insert into ASSET (ID, ATTRIBUTES, CREATED_ON, NAME, REALM_ID, ASSET_TYPE, ACCESS_PUBLIC_READ, OBJ_VERSION)" +
+                            " select 'synthetic' || i, jsonb_build_object(" +
+                            "   'serial', jsonb_build_object('type', 'STRING', 'value', 'S' || i),"+
+                            "   'alarm', jsonb_build_object('type', 'BOOLEAN', 'value', i % 500 = 0)," +
+                            "   'temperature', jsonb_build_object('type', 'NUMBER', 'value', i, 'meta', jsonb_build_array(" +
+                            "     jsonb_build_object('name', :ruleState, 'value', i % 1000 = 0)" +
+                            "   ))" +
+                            " ), now(), 'Synthetic ' || i, :realmId, :assetType, false, 0" +
+                            " from generate_series(1, 20000) as i"
+            ).setParameter("ruleState", AssetMeta.RULE_STATE.urn)
+                    .setParameter("realmId", keycloakDemoSetup.masterTenant.id)
+                    .setParameter("assetType", THING.value)
+                    .executeUpdate()
+            em.createNativeQuery("analyze ASSET").executeUpdate()
+        }
+
+        expect: "a meta item query to use the attribute meta index"
+        def metaQuery = new AssetQuery()
+                .select(new Select(Include.ONLY_ID_AND_NAME))
+                .attributeMeta(new AttributeMetaPredicate(AssetMeta.RULE_STATE, new BooleanPredicate(true)))
+        explain(metaQuery).contains("asset_attribute_meta_idx")
+        assetStorageService.findAll(metaQuery).findAll { it.id.startsWith("synthetic") }.size() == 20
+
+        and: "a boolean attribute value query to use the attributes index"
+        def attributeQuery = new AssetQuery()
+                .select(new Select(Include.ONLY_ID_AND_NAME))
+                .attributes(new AttributePredicate(new StringPredicate("alarm"), new BooleanPredicate(true)))
+        explain(attributeQuery).contains("asset_attributes_idx")
+        assetStorageService.findAll(attributeQuery).findAll { it.id.startsWith("synthetic") }.size() == 40
+
+        and: "a string attribute value query to find the same assets as before"
+        assetStorageService.findAll(new AssetQuery()
+                .select(new Select(Include.ONLY_ID_AND_NAME))
+                .attributes(new AttributePredicate(new StringPredicate("serial"), new StringPredicate("S42")))
+        ).collect { it.id } == ["synthetic42"]
+
+        cleanup: "the synthetic assets should be removed"
+        persistenceService.doTransaction { EntityManager em ->
+            em.createNativeQuery("delete from ASSET where ID like 'synthetic%'").executeUpdate()
+        }
+    }
+
+    def "Query number and boolean values with string predicates"() {
+
+        given: "an asset with number, boolean and array values"
+        persistenceService.doTransaction { EntityManager em ->
+            em.createNativeQuery(
+                    "insert into ASSET (ID, ATTRIBUTES, CREATED_ON, NAME, REALM_ID, ASSET_TYPE, ACCESS_PUBLIC_READ, OBJ_VERSION)" +
+                            " select 'synthetic1', jsonb_build_object(" +
+                            "   'temperature', jsonb_build_object('type', 'NUMBER', 'value', 5, 'meta', jsonb_build_array(" +
+                            "     jsonb_build_object('name', :ruleState, 'value', true)," +
+                            "     jsonb_build_object('name', :label, 'value', 7)" +
+                            "   ))," +
+                            "   'alarm', jsonb_build_object('type', 'BOOLEAN', 'value', true)," +
+                            "   'position', jsonb_build_object('type', 'ARRAY', 'value', jsonb_build_array(3, false, 'north'))" +
+                            " ), now(), 'Synthetic 1', :realmId, :assetType, false, 0"
+            ).setParameter("ruleState", AssetMeta.RULE_STATE.urn)
+                    .setParameter("label", AssetMeta.LABEL.urn)
+                    .setParameter("realmId", keycloakDemoSetup.masterTenant.id)
+                    .setParameter("assetType", THING.value)
+                    .executeUpdate()
+        }
+
+        expect: "string predicates to match the text of number and boolean attribute values"
+        findSynthetic(new AssetQuery().attributes(
+                new AttributePredicate(new StringPredicate("temperature"), new StringPredicate("5"))
+        )) == ["synthetic1"]
+        findSynthetic(new AssetQuery().attributes(
+                new AttributePredicate(new StringPredicate("alarm"), new StringPredicate("true"))
+        )) == ["synthetic1"]
+        findSynthetic(new AssetQuery().attributes(
+                new AttributePredicate(new StringPredicate("temperature"), new StringPredicate("6"))
+        )).isEmpty()
+
+        and: "string array predicates to match the text of number and boolean elements"
+        findSynthetic(new AssetQuery().attributes(new AttributePredicate(
+                new StringPredicate("position"),
+                new StringArrayPredicate(new StringPredicate("3"), new StringPredicate("false"), new StringPredicate("north"))
+        ))) == ["synthetic1"]
+
+        and: "string predicates to match the text of number and boolean meta item values"
+        findSynthetic(new AssetQuery().attributeMeta(
+                new AttributeMetaPredicate(AssetMeta.RULE_STATE, new StringPredicate("true"))
+        )) == ["synthetic1"]
+        findSynthetic(new AssetQuery().attributeMeta(
+                new AttributeMetaPredicate(AssetMeta.LABEL, new StringPredicate("7"))
+        )) == ["synthetic1"]
+
+        cleanup: "the synthetic asset should be removed"
+        persistenceService.doTransaction { EntityManager em ->
+            em.createNativeQuery("delete from ASSET where ID like 'synthetic%'").executeUpdate()
+        }
+    }
+
+    List<String> findSynthetic(AssetQuery query) {
+        assetStorageService.findAll(query.select(new Select(Include.ONLY_ID_AND_NAME)))
+                .collect { it.id }
+                .findAll { it.startsWith("synthetic") }
+    }
+
+    String explain(AssetQuery query) {
+        def preparedQuery = assetStorageService.buildQuery(query)
+        persistenceService.doReturningTransaction(new Function<EntityManager, String>() {
+            @Override
+            String apply(EntityManager em) {
+                em.unwrap(Session.class).doReturningWork(new ReturningWork<String>() {
+                    @Override
+                    String execute(Connection connection) {
+                        def st = connection.prepareStatement("explain " + preparedQuery.querySql)
+                        preparedQuery.apply(query, st)
+                        def rs = st.executeQuery()
+                        def plan = new StringBuilder()
+                        while (rs.next()) {
+                            plan.append(rs.getString(1)).append("\n")
+                        }
+                        st.close()
+                        return plan.toString().toLowerCase(Locale.ROOT)
+                    }
+                })
+            }
+        })
+    }
 }
@@ -0,0 +1,151 @@
+package org.openremote.test.assets
+
+import org.apache.camel.component.mock.MockEndpoint
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.openremote.container.message.MessageJournal
+import org.openremote.container.message.OverflowQueue
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AttributeEventJournal
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.value.Values
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+import static org.openremote.manager.asset.AttributeEventJournal.PROPERTY_FAILED_JOURNAL_ID
+import static org.openremote.manager.asset.AttributeEventJournal.PROPERTY_JOURNAL_ID
+import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE
+import static org.openremote.model.attribute.AttributeEvent.Source.INTERNAL
+
+class AttributeEventJournalTest extends Specification {
+
+    def "Replay uncommitted journal records after restart and delete committed segments"() {
+        given: "a journal with small segments"
+        def directory = Files.createTempDirectory("journal")
+        def journal = new MessageJournal(directory, 64)
+        journal.open().isEmpty()
+
+        when: "records are appended and every other record is committed"
+        def ids = (0..9).collect { journal.append("event$it".bytes) }
+        ids.eachWithIndex { id, i -> if (i % 2 == 0) journal.commit(id) }
+        journal.close()
+
+        and: "the journal is opened again"
+        journal = new MessageJournal(directory, 64)
+        def pendingRecords = journal.open()
+
+        then: "the uncommitted records should be replayed in order"
+        pendingRecords.collect { new String(it.message) } == ["event1", "event3", "event5", "event7", "event9"]
+
+        when: "the replayed records are committed"
+        pendingRecords.each { journal.commit(it.id) }
+
+        then: "all segment files should be deleted"
+        journal.segmentCount == 0
+        directory.toFile().list().length == 0
+
+        cleanup:
+        journal?.close()
+        directory?.toFile()?.deleteDir()
+    }
+
+    def "Move failed attribute events out of the journal and replay them once after restart"() {
+        given: "an attribute event journal with small segments"
+        def directory = Files.createTempDirectory("journal")
+        def createJournal = {
+            new AttributeEventJournal(
+                new MessageJournal(directory, 1024),
+                new MessageJournal(directory.resolve("failed"), 1024)
+            )
+        }
+        def journal = createJournal()
+        journal.open()
+        def listener = journal.getQueueListener(INTERNAL)
+
+        and: "a camel context"
+        def camelContext = new DefaultCamelContext()
+        camelContext.start()
+        def createExchange = { int value ->
+            def exchange = new DefaultExchange(camelContext)
+            exchange.getIn().setBody(new AttributeEvent("TestAsset", "counter", Values.create(value), 1000L + value))
+            exchange
+        }
+
+        when: "events are journaled and the first event fails in the processing chain"
+        def exchanges = (1..50).collect { createExchange(it) }
+        exchanges.each { listener.onEnqueue(it) }
+        exchanges.eachWithIndex { exchange, i -> journal.processed(exchange, i == 0) }
+
+        then: "all events should be committed and the full segments deleted"
+        journal.journal.pendingRecords == 0
+        journal.journal.segmentCount == 1
+
+        and: "the failed event should be kept in the journal of failed events"
+        journal.failedJournal.pendingRecords == 1
+
+        when: "the journal is opened again and replayed"
+        journal.close()
+        journal = createJournal()
+        journal.open()
+        MockEndpoint replayEndpoint = camelContext.getEndpoint("mock:replay", MockEndpoint.class)
+        def replayed = journal.replay(camelContext.createProducerTemplate(), "mock:replay", new TimerService())
+
+        then: "only the failed event should be replayed"
+        replayed == 1
+        def replayedExchange = replayEndpoint.receivedExchanges[0]
+        Values.getNumber(replayedExchange.getIn().getBody(AttributeEvent.class).value.get()).get() == 1
+        replayedExchange.getIn().getHeader(HEADER_SOURCE) == INTERNAL
+        replayedExchange.getProperty(PROPERTY_FAILED_JOURNAL_ID) != null
+        replayedExchange.getProperty(PROPERTY_JOURNAL_ID) == null
+
+        when: "the replayed event fails again"
+        journal.processed(replayedExchange, true)
+
+        then: "it should be committed"
+        journal.failedJournal.pendingRecords == 0
+        journal.journal.pendingRecords == 0
+
+        cleanup:
+        journal?.close()
+        camelContext?.stop()
+        directory?.toFile()?.deleteDir()
+    }
+
+    def "Commit attribute events dropped from a full queue"() {
+        given: "an attribute event journal"
+        def directory = Files.createTempDirectory("journal")
+        def journal = new AttributeEventJournal(
+            new MessageJournal(directory, 1024),
+            new MessageJournal(directory.resolve("failed"), 1024)
+        )
+        journal.open()
+
+        and: "a full queue dropping the oldest event"
+        def camelContext = new DefaultCamelContext()
+        def queue = new OverflowQueue("TestQueue", 2, OverflowQueue.Policy.DROP_OLDEST, null)
+        queue.setListener(journal.getQueueListener(INTERNAL))
+
+        when: "more events are put into the queue than it can hold"
+        (1..5).each { value ->
+            def exchange = new DefaultExchange(camelContext)
+            exchange.getIn().setBody(new AttributeEvent("TestAsset", "counter", Values.create(value), 1000L + value))
+            queue.put(exchange)
+        }
+
+        then: "the dropped events should be committed"
+        queue.droppedExchanges == 3
+        journal.journal.appendedRecords == 5
+        journal.journal.pendingRecords == 2
+
+        when: "the remaining events are processed"
+        queue.toList().each { journal.processed(it, false) }
+
+        then: "no events should be pending"
+        journal.journal.pendingRecords == 0
+
+        cleanup:
+        journal?.close()
+        directory?.toFile()?.deleteDir()
+    }
+}
@@ -0,0 +1,150 @@
+package org.openremote.test.assets
+
+import org.openremote.agent.protocol.simulator.SimulatorProtocol
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.asset.AttributeValueWriter
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.ManagerDemoSetup
+import org.openremote.model.asset.AssetQuery
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.persistence.EntityManager
+import java.util.concurrent.CountDownLatch
+import java.util.function.Consumer
+import java.util.function.Function
+
+import static org.openremote.manager.asset.AssetStorageService.ATTRIBUTE_VALUE_TABLE
+import static org.openremote.model.asset.BaseAssetQuery.*
+
+class AttributeValueTableTest extends Specification implements ManagerContainerTrait {
+
+    def "Store attribute values in the attribute value table"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, initialDelay: 1, delay: 1)
+
+        when: "the container is started with the attribute value table"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(defaultConfig(serverPort) << [(ATTRIBUTE_VALUE_TABLE): "true"], defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def simulatorProtocol = container.getService(SimulatorProtocol.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+
+        and: "a simulated sensor receives a new value"
+        conditions.eventually {
+            assert simulatorProtocol.getValue(managerDemoSetup.thingId, "light1PowerConsumption").isPresent()
+        }
+        simulatorProtocol.putValue(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(13.3))
+
+        then: "the loaded asset should have the new value"
+        conditions.eventually {
+            def thing = assetStorageService.find(managerDemoSetup.thingId, true)
+            assert thing.getAttribute("light1PowerConsumption").flatMap { it.getValueAsNumber() }.orElse(null) == 13.3d
+        }
+
+        and: "the value should be stored in the value table and not in the attributes document"
+        def storedValues = persistenceService.doReturningTransaction(new Function<EntityManager, List>() {
+            @Override
+            List apply(EntityManager em) {
+                em.createNativeQuery(
+                        "select AV.VALUE #>> '{}', A.ATTRIBUTES #>> '{light1PowerConsumption,value}'" +
+                                " from ASSET_ATTRIBUTE_VALUE AV join ASSET A on A.ID = AV.ASSET_ID" +
+                                " where AV.ASSET_ID = :assetId and AV.NAME = 'light1PowerConsumption'"
+                ).setParameter("assetId", managerDemoSetup.thingId).getResultList()
+            }
+        })
+        storedValues.size() == 1
+        Double.valueOf(storedValues[0][0] as String) == 13.3d
+        storedValues[0][1] != storedValues[0][0]
+
+        and: "attribute value predicates should match the stored value"
+        def things = assetStorageService.findAll(
+                new AssetQuery()
+                        .select(new Select(Include.ALL_EXCEPT_PATH))
+                        .attributes(new AttributePredicate(new StringPredicate("light1PowerConsumption"), new NumberPredicate(13.3)))
+        )
+        things.collect { it.id }.contains(managerDemoSetup.thingId)
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Commit attribute values in groups and commit pending values when stopped"() {
+
+        given: "the server container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(defaultConfig(serverPort), defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+
+        and: "an attribute value writer with a long commit window"
+        def writer = new AttributeValueWriter(persistenceService, false, 2000, 500)
+        writer.start()
+
+        when: "a single value is written"
+        def startTime = System.currentTimeMillis()
+        def stored = writer.write(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(1.1), Long.toString(startTime))
+
+        then: "it should be committed without waiting for the window, no other caller is waiting"
+        stored
+        System.currentTimeMillis() - startTime < 1000
+        writer.batches == 1
+        writer.writes == 1
+
+        when: "the asset row is locked so batches can't commit"
+        def lockAcquired = new CountDownLatch(1)
+        def releaseLock = new CountDownLatch(1)
+        def lockHolder = Thread.start {
+            persistenceService.doTransaction(new Consumer<EntityManager>() {
+                @Override
+                void accept(EntityManager em) {
+                    em.createNativeQuery("select ID from ASSET where ID = :id for update")
+                            .setParameter("id", managerDemoSetup.thingId)
+                            .getResultList()
+                    lockAcquired.countDown()
+                    releaseLock.await()
+                }
+            })
+        }
+        lockAcquired.await()
+
+        and: "several callers write values"
+        def results = [].asSynchronized()
+        def callers = (1..5).collect { i ->
+            Thread.start {
+                results.add(writer.write(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(i as double), Long.toString(System.currentTimeMillis())))
+            }
+        }
+        new PollingConditions(timeout: 5).eventually {
+            assert writer.waitingWriters.get() == 5
+        }
+
+        and: "the writer is stopped while values are pending and the lock is released"
+        def stopper = Thread.start { writer.stop() }
+        Thread.sleep(200)
+        releaseLock.countDown()
+        callers*.join()
+        stopper.join()
+        lockHolder.join()
+
+        then: "all pending values should have been committed"
+        results == [true] * 5
+        writer.writes == 6
+        writer.pendingWrites == 0
+        !writer.running
+
+        when: "a value is written after the writer was stopped"
+        writer.write(managerDemoSetup.thingId, "light1PowerConsumption", Values.create(2.2), Long.toString(System.currentTimeMillis()))
+
+        then: "the write should be rejected"
+        thrown(IllegalStateException)
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
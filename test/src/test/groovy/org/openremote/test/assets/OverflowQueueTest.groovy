@@ -0,0 +1,145 @@
+package org.openremote.test.assets
+
+import org.apache.camel.Exchange
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.apache.camel.support.SynchronizationAdapter
+import org.openremote.container.message.OverflowQueue
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.function.Function
+
+import static org.openremote.container.message.OverflowQueue.Policy.*
+
+class OverflowQueueTest extends Specification {
+
+    @Shared
+    def camelContext = new DefaultCamelContext()
+
+    def conditions = new PollingConditions(timeout: 5, delay: 0.1)
+
+    Exchange createExchange(String body, String key = null) {
+        def exchange = new DefaultExchange(camelContext)
+        exchange.in.body = body
+        exchange.in.setHeader("key", key)
+        exchange
+    }
+
+    def coalescingKey = { Exchange exchange -> exchange.in.getHeader("key") } as Function<Exchange, Object>
+
+    def "Block the producer of a full queue until there is room"() {
+        given: "a full queue"
+        def queue = new OverflowQueue("Test", 2, BLOCK, coalescingKey)
+        queue.put(createExchange("a"))
+        queue.put(createExchange("b"))
+
+        when: "another exchange is put"
+        def producer = Thread.start { queue.put(createExchange("c")) }
+        Thread.sleep(200)
+
+        then: "the producer should wait"
+        producer.alive
+        queue.size() == 2
+
+        when: "an exchange is taken"
+        def taken = queue.take()
+
+        then: "the waiting exchange should be added in order and nothing discarded"
+        taken.in.body == "a"
+        conditions.eventually {
+            assert !producer.alive
+            assert queue.collect { it.in.body } == ["b", "c"]
+        }
+        queue.droppedExchanges == 0
+        queue.coalescedExchanges == 0
+    }
+
+    def "Drop the oldest exchange of a full queue"() {
+        given: "a full queue with a listener"
+        def queue = new OverflowQueue("Test", 2, DROP_OLDEST, coalescingKey)
+        List<Exchange> discarded = []
+        queue.listener = new OverflowQueue.Listener() {
+            @Override
+            void onEnqueue(Exchange exchange) {
+            }
+
+            @Override
+            void onDiscard(Exchange exchange) {
+                discarded.add(exchange)
+            }
+        }
+        def oldest = createExchange("a")
+        def failed = false
+        oldest.addOnCompletion(new SynchronizationAdapter() {
+            @Override
+            void onFailure(Exchange exchange) {
+                failed = true
+            }
+        })
+        queue.put(oldest)
+        queue.put(createExchange("b"))
+
+        when: "another exchange is put"
+        queue.put(createExchange("c"))
+
+        then: "the oldest exchange should be dropped and fail"
+        queue.collect { it.in.body } == ["b", "c"]
+        queue.droppedExchanges == 1
+        discarded == [oldest]
+        oldest.exception instanceof IllegalStateException
+        failed
+    }
+
+    def "Coalesce pending exchanges of a full queue with the same key"() {
+        given: "a full queue with exchanges of two keys"
+        def queue = new OverflowQueue("Test", 2, COALESCE, coalescingKey)
+        def first = createExchange("a1", "a")
+        def completed = false
+        first.addOnCompletion(new SynchronizationAdapter() {
+            @Override
+            void onComplete(Exchange exchange) {
+                completed = true
+            }
+        })
+        queue.put(first)
+        queue.put(createExchange("b1", "b"))
+
+        when: "an exchange with a pending key is put"
+        queue.put(createExchange("a2", "a"))
+
+        then: "the pending exchange should be replaced in place and complete"
+        queue.collect { it.in.body } == ["a2", "b1"]
+        queue.coalescedExchanges == 1
+        completed
+
+        when: "an exchange without a pending key is put"
+        def producer = Thread.start { queue.put(createExchange("c1", "c")) }
+        Thread.sleep(200)
+
+        then: "the producer should wait"
+        producer.alive
+
+        when: "an exchange is taken"
+        def taken = queue.take()
+
+        then: "the waiting exchange should be added"
+        taken.in.body == "a2"
+        conditions.eventually {
+            assert !producer.alive
+            assert queue.collect { it.in.body } == ["b1", "c1"]
+        }
+
+        when: "an exchange with the key of a taken exchange is put into the full queue"
+        def lateProducer = Thread.start { queue.put(createExchange("a3", "a")) }
+        Thread.sleep(200)
+
+        then: "it should not replace anything and wait"
+        lateProducer.alive
+        queue.coalescedExchanges == 1
+
+        cleanup:
+        queue.clear()
+    }
+}